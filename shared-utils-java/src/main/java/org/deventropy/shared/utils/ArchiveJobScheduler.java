@@ -0,0 +1,369 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.shared.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.deventropy.shared.utils.DirectoryArchiverUtil.ArchiveFormat;
+
+/**
+ * Runs {@link DirectoryArchiverUtil} jobs concurrently while limiting the load they put on each storage device.
+ * 
+ * <p>Every job touches the device (file store) holding its source directory and the device its archive is written
+ * to. The scheduler:
+ * <ul>
+ * 	<li>Holds at most a fixed number of jobs waiting to run; submitting more is rejected with a
+ * 	{@link RejectedExecutionException}.</li>
+ * 	<li>Starts a job only when fewer than the configured number of jobs are running on each of its devices. Waiting
+ * 	jobs are started in the order they were submitted, skipping (without blocking on) jobs whose devices are busy; so
+ * 	a busy device does not hold up jobs on other devices.</li>
+ * 	<li>Optionally limits the bytes per second transferred on each device, shared by all the jobs using it: the bytes
+ * 	read from the source files are charged to the source device, the bytes written to the archive (after compression)
+ * 	to the archive device.</li>
+ * </ul>
+ * 
+ * <p>Jobs that are waiting can be cancelled through the {@link Future} returned on submission.
+ * 
+ * <pre>
+ * final ArchiveJobScheduler scheduler = new ArchiveJobScheduler(100, 2, 50 * 1024 * 1024);
+ * final Future&lt;File&gt; archive = scheduler.submit(ArchiveFormat.ZIP, "/project/data/source.zip",
+ * 		new File("/project/data/source"), null);
+ * ...
+ * scheduler.shutdown();
+ * </pre>
+ * 
+ * @author Bindul Bhowmik
+ */
+public final class ArchiveJobScheduler {
+
+	private static final Logger LOG = LogManager.getLogger(ArchiveJobScheduler.class);
+
+	private static final AtomicInteger SCHEDULER_COUNT = new AtomicInteger();
+
+	private final int maxQueuedJobs;
+	private final int maxConcurrentJobsPerDevice;
+	private final long maxBytesPerSecondPerDevice;
+
+	private final ExecutorService executorService;
+
+	// All the following are guarded by this
+	private final LinkedList<ArchiveJob> queuedJobs = new LinkedList<>();
+	private final Map<FileStore, Integer> runningJobsPerDevice = new HashMap<>();
+	private final Map<FileStore, ByteRateLimiter> rateLimiters = new HashMap<>();
+	private int runningJobs;
+	private boolean shutdown;
+
+	/**
+	 * Creates a scheduler without a transfer rate limit.
+	 * 
+	 * @param maxQueuedJobs The maximum number of jobs waiting to run.
+	 * @param maxConcurrentJobsPerDevice The maximum number of jobs reading from or writing to a device at a time.
+	 */
+	public ArchiveJobScheduler (final int maxQueuedJobs, final int maxConcurrentJobsPerDevice) {
+		this(maxQueuedJobs, maxConcurrentJobsPerDevice, 0);
+	}
+
+	/**
+	 * Creates a scheduler.
+	 * 
+	 * @param maxQueuedJobs The maximum number of jobs waiting to run.
+	 * @param maxConcurrentJobsPerDevice The maximum number of jobs reading from or writing to a device at a time.
+	 * @param maxBytesPerSecondPerDevice The maximum rate at which source files are read from and archives are written
+	 * 		to a device, shared by all jobs on the device; <code>0</code> for no limit.
+	 */
+	public ArchiveJobScheduler (final int maxQueuedJobs, final int maxConcurrentJobsPerDevice,
+			final long maxBytesPerSecondPerDevice) {
+		if (maxQueuedJobs <= 0) {
+			throw new IllegalArgumentException("maxQueuedJobs must be positive");
+		}
+		if (maxConcurrentJobsPerDevice <= 0) {
+			throw new IllegalArgumentException("maxConcurrentJobsPerDevice must be positive");
+		}
+		if (maxBytesPerSecondPerDevice < 0) {
+			throw new IllegalArgumentException("maxBytesPerSecondPerDevice cannot be negative");
+		}
+		this.maxQueuedJobs = maxQueuedJobs;
+		this.maxConcurrentJobsPerDevice = maxConcurrentJobsPerDevice;
+		this.maxBytesPerSecondPerDevice = maxBytesPerSecondPerDevice;
+
+		// Threads are only created for running jobs, which the device limits bound
+		this.executorService = Executors.newCachedThreadPool(new ArchiveJobThreadFactory());
+	}
+
+	/**
+	 * Queues a job to archive the contents of a directory.
+	 * 
+	 * @param archiveFormat The format of the archive.
+	 * @param archiveFile The final archive file location. The file location must be writable.
+	 * @param srcDirectory The source directory.
+	 * @param rootPathPrefix The root prefix. Multiple directory parts should be separated by <code>/</code>.
+	 * @return The archive file, when the job completes.
+	 * @throws IOException Error finding the devices of the source or the archive.
+	 * @throws RejectedExecutionException If the queue is full or the scheduler is shut down.
+	 */
+	public Future<File> submit (final ArchiveFormat archiveFormat, final String archiveFile, final File srcDirectory,
+			final String rootPathPrefix) throws IOException {
+		ArgumentCheck.notNull(archiveFormat, "archiveFormat");
+		ArgumentCheck.notNullOrEmpty(archiveFile, "archiveFile");
+		ArgumentCheck.notNull(srcDirectory, "srcDirectory");
+
+		final FileStore sourceDevice = Files.getFileStore(srcDirectory.toPath());
+		final FileStore archiveDevice = getFileStore(new File(archiveFile).getAbsoluteFile().toPath());
+		final Set<FileStore> devices = new LinkedHashSet<>();
+		devices.add(sourceDevice);
+		devices.add(archiveDevice);
+
+		final ArchiveJob archiveJob = new ArchiveJob(devices, new ArchiveCallable(archiveFormat, archiveFile,
+				srcDirectory, rootPathPrefix, sourceDevice, archiveDevice));
+		synchronized (this) {
+			if (shutdown) {
+				throw new RejectedExecutionException("The scheduler is shut down");
+			}
+			if (queuedJobs.size() >= maxQueuedJobs) {
+				throw new RejectedExecutionException("The archive job queue is full (" + maxQueuedJobs + " jobs)");
+			}
+			queuedJobs.add(archiveJob);
+			LOG.debug("Queued archive job for {}, {} jobs waiting", archiveFile, queuedJobs.size());
+			dispatch();
+		}
+		return archiveJob;
+	}
+
+	/**
+	 * Stops accepting new jobs. Jobs already submitted still run.
+	 */
+	public synchronized void shutdown () {
+		shutdown = true;
+		shutdownExecutorIfDone();
+	}
+
+	/**
+	 * Waits for all submitted jobs to finish after a {@link #shutdown()}.
+	 * 
+	 * @param timeout The maximum time to wait.
+	 * @param unit The unit of the <code>timeout</code>.
+	 * @return <code>true</code> if all the jobs finished; <code>false</code> if the timeout elapsed first.
+	 * @throws InterruptedException If interrupted while waiting.
+	 */
+	public boolean awaitTermination (final long timeout, final TimeUnit unit) throws InterruptedException {
+		return executorService.awaitTermination(timeout, unit);
+	}
+
+	/**
+	 * @return The number of jobs waiting to run.
+	 */
+	public synchronized int getQueuedJobCount () {
+		return queuedJobs.size();
+	}
+
+	/**
+	 * @return The number of jobs running.
+	 */
+	public synchronized int getRunningJobCount () {
+		return runningJobs;
+	}
+
+	private FileStore getFileStore (final Path path) throws IOException {
+		// The archive file (and maybe its parents) does not exist yet
+		Path existingPath = path;
+		while (null != existingPath && !Files.exists(existingPath)) {
+			existingPath = existingPath.getParent();
+		}
+		if (null == existingPath) {
+			throw new IOException("Unable to find the device for " + path);
+		}
+		return Files.getFileStore(existingPath);
+	}
+
+	/**
+	 * Starts every waiting job (in submission order) whose devices have capacity. Must hold the lock.
+	 */
+	private void dispatch () {
+		final Iterator<ArchiveJob> iterator = queuedJobs.iterator();
+		while (iterator.hasNext()) {
+			final ArchiveJob archiveJob = iterator.next();
+			if (archiveJob.isDone()) {
+				iterator.remove();
+			} else if (hasCapacity(archiveJob.devices)) {
+				iterator.remove();
+				for (FileStore device : archiveJob.devices) {
+					final Integer running = runningJobsPerDevice.get(device);
+					runningJobsPerDevice.put(device, (null == running) ? 1 : running + 1);
+				}
+				runningJobs++;
+				executorService.execute(new ArchiveJobRunner(archiveJob));
+			}
+		}
+	}
+
+	private boolean hasCapacity (final Set<FileStore> devices) {
+		for (FileStore device : devices) {
+			final Integer running = runningJobsPerDevice.get(device);
+			if (null != running && running >= maxConcurrentJobsPerDevice) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private synchronized void jobFinished (final ArchiveJob archiveJob) {
+		for (FileStore device : archiveJob.devices) {
+			final int running = runningJobsPerDevice.get(device) - 1;
+			if (running == 0) {
+				runningJobsPerDevice.remove(device);
+			} else {
+				runningJobsPerDevice.put(device, running);
+			}
+		}
+		runningJobs--;
+		dispatch();
+		shutdownExecutorIfDone();
+	}
+
+	private synchronized void jobCancelled (final ArchiveJob archiveJob) {
+		// A running job is released when it returns, only waiting jobs are removed here
+		if (queuedJobs.remove(archiveJob)) {
+			shutdownExecutorIfDone();
+		}
+	}
+
+	private void shutdownExecutorIfDone () {
+		if (shutdown && queuedJobs.isEmpty() && runningJobs == 0) {
+			executorService.shutdown();
+		}
+	}
+
+	/**
+	 * @return The rate limiter shared by the jobs on the device, <code>null</code> if transfers are not limited.
+	 */
+	private synchronized ByteRateLimiter getRateLimiter (final FileStore device) {
+		if (maxBytesPerSecondPerDevice <= 0) {
+			return null;
+		}
+		ByteRateLimiter rateLimiter = rateLimiters.get(device);
+		if (null == rateLimiter) {
+			rateLimiter = new ByteRateLimiter(maxBytesPerSecondPerDevice);
+			rateLimiters.put(device, rateLimiter);
+		}
+		return rateLimiter;
+	}
+
+	/**
+	 * A submitted job, with the devices it uses.
+	 */
+	private final class ArchiveJob extends FutureTask<File> {
+		private final Set<FileStore> devices;
+
+		private ArchiveJob (final Set<FileStore> devices, final Callable<File> callable) {
+			super(callable);
+			this.devices = devices;
+		}
+
+		@Override
+		protected void done () {
+			if (isCancelled()) {
+				jobCancelled(this);
+			}
+		}
+	}
+
+	/**
+	 * Creates the archive.
+	 */
+	private final class ArchiveCallable implements Callable<File> {
+		private final ArchiveFormat archiveFormat;
+		private final String archiveFile;
+		private final File srcDirectory;
+		private final String rootPathPrefix;
+		private final FileStore sourceDevice;
+		private final FileStore archiveDevice;
+
+		private ArchiveCallable (final ArchiveFormat archiveFormat, final String archiveFile, final File srcDirectory,
+				final String rootPathPrefix, final FileStore sourceDevice, final FileStore archiveDevice) {
+			this.archiveFormat = archiveFormat;
+			this.archiveFile = archiveFile;
+			this.srcDirectory = srcDirectory;
+			this.rootPathPrefix = rootPathPrefix;
+			this.sourceDevice = sourceDevice;
+			this.archiveDevice = archiveDevice;
+		}
+
+		@Override
+		public File call () throws IOException {
+			LOG.debug("Creating {} archive {} of {}", archiveFormat, archiveFile, srcDirectory);
+			DirectoryArchiverUtil.createRateLimitedArchive(archiveFormat, archiveFile, srcDirectory, rootPathPrefix,
+					getRateLimiter(sourceDevice), getRateLimiter(archiveDevice));
+			return new File(archiveFile);
+		}
+	}
+
+	/**
+	 * Runs a job and releases its devices when it completes.
+	 */
+	private final class ArchiveJobRunner implements Runnable {
+		private final ArchiveJob archiveJob;
+
+		private ArchiveJobRunner (final ArchiveJob archiveJob) {
+			this.archiveJob = archiveJob;
+		}
+
+		@Override
+		public void run () {
+			try {
+				archiveJob.run();
+			} finally {
+				jobFinished(archiveJob);
+			}
+		}
+	}
+
+	/**
+	 * Creates named daemon threads, so an idle scheduler does not keep the JVM running.
+	 */
+	private static final class ArchiveJobThreadFactory implements ThreadFactory {
+		private final int schedulerNumber = SCHEDULER_COUNT.incrementAndGet();
+		private final AtomicInteger threadCount = new AtomicInteger();
+
+		@Override
+		public Thread newThread (final Runnable runnable) {
+			final Thread thread = new Thread(runnable, "archive-job-" + schedulerNumber + "-"
+					+ threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,91 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.shared.utils;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded pool of direct buffers of one size, for copying between channels without allocating (and later freeing) a
+ * direct buffer for every copy. Buffers are acquired for the duration of a copy and released when done; when the pool
+ * is empty a new buffer is allocated, and buffers released to a full pool are left to the garbage collector.
+ * 
+ * <p>Instances are thread safe.
+ * 
+ * @author Bindul Bhowmik
+ */
+final class BufferPool {
+
+	/**
+	 * The pool of buffers copying resources to channels.
+	 */
+	static final BufferPool TRANSFER_BUFFERS = new BufferPool(64 * 1024, 16);
+
+	private final int bufferSize;
+	private final int maxPooled;
+	private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger pooled = new AtomicInteger();
+
+	/**
+	 * @param bufferSize The size of the buffers.
+	 * @param maxPooled The maximum number of buffers kept in the pool.
+	 */
+	BufferPool (final int bufferSize, final int maxPooled) {
+		if (bufferSize <= 0 || maxPooled < 0) {
+			throw new IllegalArgumentException("bufferSize must be positive and maxPooled cannot be negative");
+		}
+		this.bufferSize = bufferSize;
+		this.maxPooled = maxPooled;
+	}
+
+	/**
+	 * @return A cleared buffer, to be {@link #release(ByteBuffer) released} when done.
+	 */
+	ByteBuffer acquire () {
+		final ByteBuffer buffer = buffers.poll();
+		if (null == buffer) {
+			return ByteBuffer.allocateDirect(bufferSize);
+		}
+		pooled.decrementAndGet();
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Returns a buffer to the pool. The buffer must not be used after it is released.
+	 * 
+	 * @param buffer A buffer acquired from this pool.
+	 */
+	void release (final ByteBuffer buffer) {
+		if (buffer.capacity() != bufferSize || !buffer.isDirect()) {
+			throw new IllegalArgumentException("The buffer was not acquired from this pool");
+		}
+		if (pooled.incrementAndGet() <= maxPooled) {
+			buffers.offer(buffer);
+		} else {
+			pooled.decrementAndGet();
+		}
+	}
+
+	/**
+	 * @return The number of buffers in the pool.
+	 */
+	int getPooledCount () {
+		return pooled.get();
+	}
+}
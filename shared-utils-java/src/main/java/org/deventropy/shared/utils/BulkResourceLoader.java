@@ -0,0 +1,224 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.shared.utils;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Resolves and reads many resources concurrently, for example the resources an application loads when it starts.
+ * 
+ * <p>Every resource is resolved with {@link UrlResourceUtil#getUrl(String, ClassLoader)} and read completely in a task
+ * of its own, on an executor supplied by the caller (a fixed size pool bounding the number of resources read at a
+ * time, or on newer Java versions an executor starting a virtual thread per task) or on a pool created for the batch.
+ * A resource that cannot be resolved or read does not affect the others: the result of every resource records either
+ * its contents or the failure.
+ * 
+ * <p>Instances are thread safe, and may load several batches at the same time.
+ * 
+ * @author Bindul Bhowmik
+ */
+public final class BulkResourceLoader {
+
+	private static final Logger LOG = LogManager.getLogger(BulkResourceLoader.class);
+
+	private final Executor executor;
+
+	/**
+	 * Creates a loader running its tasks on an executor. The executor is not shut down by the loader.
+	 * 
+	 * @param executor The executor to resolve and read resources on.
+	 */
+	public BulkResourceLoader (final Executor executor) {
+		ArgumentCheck.notNull(executor, "executor");
+		this.executor = executor;
+	}
+
+	/**
+	 * Resolves and reads resources on a pool of <code>parallelism</code> threads created for the batch.
+	 * 
+	 * @param resources The resources, in any of the formats supported by {@link UrlResourceUtil}.
+	 * @param cl The class loader to load classpath resources with.
+	 * @param parallelism The number of resources read at the same time, must be positive.
+	 * @return The result for every resource, in the order of <code>resources</code>.
+	 * @throws InterruptedException Interrupted waiting for the resources to load.
+	 */
+	public static List<LoadedResource> loadAll (final Collection<String> resources, final ClassLoader cl,
+			final int parallelism) throws InterruptedException {
+		if (parallelism <= 0) {
+			throw new IllegalArgumentException("parallelism must be positive");
+		}
+		final ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+		try {
+			return new BulkResourceLoader(pool).loadAll(resources, cl);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Resolves and reads resources concurrently, waiting for all of them.
+	 * 
+	 * @param resources The resources, in any of the formats supported by {@link UrlResourceUtil}.
+	 * @param cl The class loader to load classpath resources with.
+	 * @return The result for every resource, in the order of <code>resources</code>.
+	 * @throws InterruptedException Interrupted waiting for the resources to load.
+	 */
+	public List<LoadedResource> loadAll (final Collection<String> resources, final ClassLoader cl)
+			throws InterruptedException {
+		ArgumentCheck.notNull(resources, "resources");
+		final String[] resourceArray = resources.toArray(new String[resources.size()]);
+		final LoadedResource[] results = new LoadedResource[resourceArray.length];
+		final CountDownLatch remaining = new CountDownLatch(resourceArray.length);
+		for (int i = 0; i < resourceArray.length; i++) {
+			executor.execute(new LoadTask(resourceArray[i], cl, results, i, remaining));
+		}
+		remaining.await();
+		LOG.trace("Loaded {} resources", results.length);
+		return Collections.unmodifiableList(Arrays.asList(results));
+	}
+
+	/**
+	 * Resolves and reads resources concurrently, loading classpath resources with the class loader found by
+	 * {@link ClassUtil#getApplicableClassloader()}.
+	 * 
+	 * @param resources The resources, in any of the formats supported by {@link UrlResourceUtil}.
+	 * @return The result for every resource, in the order of <code>resources</code>.
+	 * @throws InterruptedException Interrupted waiting for the resources to load.
+	 */
+	public List<LoadedResource> loadAll (final Collection<String> resources) throws InterruptedException {
+		return loadAll(resources, ClassUtil.getApplicableClassloader());
+	}
+
+	/**
+	 * Selects the resources that failed to load from a batch.
+	 * 
+	 * @param results The results of a batch.
+	 * @return The results that failed, in the same order.
+	 */
+	public static List<LoadedResource> getFailures (final List<LoadedResource> results) {
+		final List<LoadedResource> failures = new ArrayList<>();
+		for (LoadedResource result : results) {
+			if (!result.isLoaded()) {
+				failures.add(result);
+			}
+		}
+		return failures;
+	}
+
+	/**
+	 * The result of loading a single resource: its URL and contents, or the reason it could not be loaded.
+	 */
+	public static final class LoadedResource {
+		private final String resource;
+		private final URL url;
+		private final byte[] content;
+		private final Exception failure;
+
+		private LoadedResource (final String resource, final URL url, final byte[] content, final Exception failure) {
+			this.resource = resource;
+			this.url = url;
+			this.content = content;
+			this.failure = failure;
+		}
+
+		/**
+		 * @return The resource as requested.
+		 */
+		public String getResource () {
+			return resource;
+		}
+
+		/**
+		 * @return <code>true</code> if the resource was resolved and read.
+		 */
+		public boolean isLoaded () {
+			return null == failure;
+		}
+
+		/**
+		 * @return The URL the resource resolved to, <code>null</code> if it could not be resolved.
+		 */
+		public URL getUrl () {
+			return url;
+		}
+
+		/**
+		 * @return The contents of the resource, <code>null</code> if it could not be loaded.
+		 */
+		public byte[] getContent () {
+			return content;
+		}
+
+		/**
+		 * @return Why the resource could not be loaded (an <code>IOException</code>, or a runtime exception for an
+		 * 	invalid resource), <code>null</code> if it was.
+		 */
+		public Exception getFailure () {
+			return failure;
+		}
+
+		@Override
+		public String toString () {
+			return resource + (isLoaded() ? " (" + content.length + " bytes)" : " (" + failure + ")");
+		}
+	}
+
+	/**
+	 * Loads a single resource, recording the result or failure.
+	 */
+	private static final class LoadTask implements Runnable {
+		private final String resource;
+		private final ClassLoader cl;
+		private final LoadedResource[] results;
+		private final int index;
+		private final CountDownLatch remaining;
+
+		private LoadTask (final String resource, final ClassLoader cl, final LoadedResource[] results,
+				final int index, final CountDownLatch remaining) {
+			this.resource = resource;
+			this.cl = cl;
+			this.results = results;
+			this.index = index;
+			this.remaining = remaining;
+		}
+
+		@Override
+		public void run () {
+			URL url = null;
+			try {
+				url = UrlResourceUtil.getUrl(resource, cl);
+				results[index] = new LoadedResource(resource, url, UrlResourceUtil.readFully(url), null);
+			} catch (Exception e) {
+				LOG.debug("Cannot load {}: {}", resource, e.toString());
+				results[index] = new LoadedResource(resource, url, null, e);
+			} finally {
+				remaining.countDown();
+			}
+		}
+	}
+}
@@ -0,0 +1,74 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.shared.utils;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the rate at which bytes are transferred, shared by all the threads using an instance.
+ * 
+ * <p>Every call reserves time for the bytes requested at the configured rate, and waits until the time reserved by
+ * earlier calls has passed; so threads sharing a limiter are served in the order they asked and together never
+ * exceed the rate.
+ * 
+ * @author Bindul Bhowmik
+ */
+final class ByteRateLimiter {
+
+	private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	private final long bytesPerSecond;
+	private long nextFreeNanos;
+
+	/**
+	 * @param bytesPerSecond The maximum transfer rate, must be positive.
+	 */
+	ByteRateLimiter (final long bytesPerSecond) {
+		if (bytesPerSecond <= 0) {
+			throw new IllegalArgumentException("bytesPerSecond must be positive");
+		}
+		this.bytesPerSecond = bytesPerSecond;
+		this.nextFreeNanos = System.nanoTime();
+	}
+
+	/**
+	 * Waits until <code>bytes</code> may be transferred.
+	 * 
+	 * @param bytes The number of bytes about to be transferred.
+	 * @throws InterruptedIOException If the thread is interrupted while waiting.
+	 */
+	void acquire (final long bytes) throws InterruptedIOException {
+		final long waitNanos;
+		synchronized (this) {
+			final long now = System.nanoTime();
+			if (nextFreeNanos - now < 0) {
+				// Idle time is not saved up for later bursts
+				nextFreeNanos = now;
+			}
+			waitNanos = nextFreeNanos - now;
+			nextFreeNanos += bytes * NANOS_PER_SECOND / bytesPerSecond;
+		}
+		if (waitNanos > 0) {
+			try {
+				TimeUnit.NANOSECONDS.sleep(waitNanos);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted waiting for the transfer rate limit");
+			}
+		}
+	}
+}
@@ -0,0 +1,281 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.shared.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads the name, super types and annotations of a class from its class file, without loading the class; used by
+ * {@link ClasspathAnnotationScanner}.
+ * 
+ * <p>Only the constant pool, the header of the class and the annotations of the class itself are parsed: fields,
+ * methods and other attributes are skipped by their lengths, and only the constant pool entries that are needed are
+ * decoded.
+ * 
+ * @author Bindul Bhowmik
+ */
+final class ClassFileReader {
+
+	private static final int CLASS_FILE_MAGIC = 0xCAFEBABE;
+
+	private static final int CONSTANT_UTF8 = 1;
+	private static final int CONSTANT_INTEGER = 3;
+	private static final int CONSTANT_FLOAT = 4;
+	private static final int CONSTANT_LONG = 5;
+	private static final int CONSTANT_DOUBLE = 6;
+	private static final int CONSTANT_CLASS = 7;
+	private static final int CONSTANT_STRING = 8;
+	private static final int CONSTANT_FIELD_REF = 9;
+	private static final int CONSTANT_METHOD_REF = 10;
+	private static final int CONSTANT_INTERFACE_METHOD_REF = 11;
+	private static final int CONSTANT_NAME_AND_TYPE = 12;
+	private static final int CONSTANT_METHOD_HANDLE = 15;
+	private static final int CONSTANT_METHOD_TYPE = 16;
+	private static final int CONSTANT_DYNAMIC = 17;
+	private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+	private static final int CONSTANT_MODULE = 19;
+	private static final int CONSTANT_PACKAGE = 20;
+
+	private static final String RUNTIME_VISIBLE_ANNOTATIONS = "RuntimeVisibleAnnotations";
+	private static final String RUNTIME_INVISIBLE_ANNOTATIONS = "RuntimeInvisibleAnnotations";
+
+	private final byte[] bytes;
+	private final ByteBuffer buffer;
+	private int[] constantOffsets;
+	private byte[] constantTags;
+
+	private ClassFileReader (final byte[] bytes) {
+		this.bytes = bytes;
+		this.buffer = ByteBuffer.wrap(bytes);
+	}
+
+	/**
+	 * Reads a class file.
+	 * 
+	 * @param bytes The contents of the class file.
+	 * @return The class read.
+	 * @throws IOException The bytes are not a valid class file.
+	 */
+	static ClasspathAnnotationScanner.ClassInfo read (final byte[] bytes) throws IOException {
+		try {
+			return new ClassFileReader(bytes).read();
+		} catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+			throw new IOException("Malformed class file", e);
+		}
+	}
+
+	private ClasspathAnnotationScanner.ClassInfo read () throws IOException {
+		if (buffer.getInt() != CLASS_FILE_MAGIC) {
+			throw new IOException("Not a class file");
+		}
+		// Minor and major version
+		skip(4);
+		readConstantPool();
+
+		final int accessFlags = readUnsignedShort();
+		final String name = readClassName(readUnsignedShort());
+		final int superClassIndex = readUnsignedShort();
+		final String superClassName = 0 == superClassIndex ? null : readClassName(superClassIndex);
+		final int interfaceCount = readUnsignedShort();
+		final List<String> interfaceNames = new ArrayList<>(interfaceCount);
+		for (int i = 0; i < interfaceCount; i++) {
+			interfaceNames.add(readClassName(readUnsignedShort()));
+		}
+
+		// Fields, then methods
+		for (int members = 0; members < 2; members++) {
+			final int memberCount = readUnsignedShort();
+			for (int i = 0; i < memberCount; i++) {
+				// Access flags, name and descriptor
+				skip(6);
+				skipAttributes();
+			}
+		}
+
+		List<String> annotationNames = Collections.emptyList();
+		final int attributeCount = readUnsignedShort();
+		for (int i = 0; i < attributeCount; i++) {
+			final String attributeName = readUtf8(readUnsignedShort());
+			final int length = buffer.getInt();
+			if (RUNTIME_VISIBLE_ANNOTATIONS.equals(attributeName)
+					|| RUNTIME_INVISIBLE_ANNOTATIONS.equals(attributeName)) {
+				if (annotationNames.isEmpty()) {
+					annotationNames = new ArrayList<>();
+				}
+				readAnnotations(annotationNames);
+			} else {
+				skip(length);
+			}
+		}
+
+		return new ClasspathAnnotationScanner.ClassInfo(name, superClassName, accessFlags, interfaceNames,
+				annotationNames);
+	}
+
+	private void readConstantPool () throws IOException {
+		final int constantCount = readUnsignedShort();
+		constantOffsets = new int[constantCount];
+		constantTags = new byte[constantCount];
+		for (int i = 1; i < constantCount; i++) {
+			final byte tag = buffer.get();
+			constantTags[i] = tag;
+			constantOffsets[i] = buffer.position();
+			switch (tag) {
+				case CONSTANT_UTF8:
+					skip(readUnsignedShort());
+					break;
+				case CONSTANT_CLASS:
+				case CONSTANT_STRING:
+				case CONSTANT_METHOD_TYPE:
+				case CONSTANT_MODULE:
+				case CONSTANT_PACKAGE:
+					skip(2);
+					break;
+				case CONSTANT_METHOD_HANDLE:
+					skip(3);
+					break;
+				case CONSTANT_INTEGER:
+				case CONSTANT_FLOAT:
+				case CONSTANT_FIELD_REF:
+				case CONSTANT_METHOD_REF:
+				case CONSTANT_INTERFACE_METHOD_REF:
+				case CONSTANT_NAME_AND_TYPE:
+				case CONSTANT_DYNAMIC:
+				case CONSTANT_INVOKE_DYNAMIC:
+					skip(4);
+					break;
+				case CONSTANT_LONG:
+				case CONSTANT_DOUBLE:
+					skip(8);
+					// Eight byte constants take two entries
+					i++;
+					break;
+				default:
+					throw new IOException("Unknown constant pool tag " + tag);
+			}
+		}
+	}
+
+	private void skipAttributes () {
+		final int attributeCount = readUnsignedShort();
+		for (int i = 0; i < attributeCount; i++) {
+			// Name
+			skip(2);
+			skip(buffer.getInt());
+		}
+	}
+
+	private void readAnnotations (final List<String> annotationNames) throws IOException {
+		final int annotationCount = readUnsignedShort();
+		for (int i = 0; i < annotationCount; i++) {
+			annotationNames.add(readAnnotation());
+		}
+	}
+
+	/**
+	 * Reads an annotation, skipping its element values.
+	 * 
+	 * @return The binary name of the annotation type.
+	 */
+	private String readAnnotation () throws IOException {
+		final String descriptor = readUtf8(readUnsignedShort());
+		final int elementCount = readUnsignedShort();
+		for (int i = 0; i < elementCount; i++) {
+			// Element name
+			skip(2);
+			skipElementValue();
+		}
+		final int length = descriptor.length();
+		if (length < 3 || descriptor.charAt(0) != 'L' || descriptor.charAt(length - 1) != ';') {
+			throw new IOException("Invalid annotation type " + descriptor);
+		}
+		return descriptor.substring(1, length - 1).replace('/', '.');
+	}
+
+	private void skipElementValue () throws IOException {
+		final char tag = (char) buffer.get();
+		switch (tag) {
+			case 'B':
+			case 'C':
+			case 'D':
+			case 'F':
+			case 'I':
+			case 'J':
+			case 'S':
+			case 'Z':
+			case 's':
+			case 'c':
+				skip(2);
+				break;
+			case 'e':
+				skip(4);
+				break;
+			case '@':
+				readAnnotation();
+				break;
+			case '[':
+				final int valueCount = readUnsignedShort();
+				for (int i = 0; i < valueCount; i++) {
+					skipElementValue();
+				}
+				break;
+			default:
+				throw new IOException("Unknown annotation element value tag " + tag);
+		}
+	}
+
+	private String readClassName (final int index) throws IOException {
+		checkConstant(index, CONSTANT_CLASS);
+		return readUtf8(buffer.getShort(constantOffsets[index]) & 0xFFFF).replace('/', '.');
+	}
+
+	private String readUtf8 (final int index) throws IOException {
+		checkConstant(index, CONSTANT_UTF8);
+		final int offset = constantOffsets[index];
+		final int length = buffer.getShort(offset) & 0xFFFF;
+		final char[] chars = new char[length];
+		for (int i = 0; i < length; i++) {
+			final byte b = bytes[offset + 2 + i];
+			if (b < 0) {
+				// Not ASCII, decode the modified UTF-8
+				return new DataInputStream(new ByteArrayInputStream(bytes, offset, length + 2)).readUTF();
+			}
+			chars[i] = (char) b;
+		}
+		return new String(chars);
+	}
+
+	private void checkConstant (final int index, final int tag) throws IOException {
+		if (index <= 0 || index >= constantTags.length || constantTags[index] != tag) {
+			throw new IOException("Invalid constant pool reference " + index);
+		}
+	}
+
+	private int readUnsignedShort () {
+		return buffer.getShort() & 0xFFFF;
+	}
+
+	private void skip (final int length) {
+		buffer.position(buffer.position() + length);
+	}
+}
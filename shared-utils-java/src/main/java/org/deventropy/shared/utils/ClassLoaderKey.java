@@ -0,0 +1,59 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.shared.utils;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+/**
+ * A weakly referenced class loader, compared by identity; the key of caches kept per class loader that must not
+ * prevent the class loaders from being garbage collected.
+ * 
+ * <p>Lookups use a key without a queue. Keys stored in a cache are registered with a queue; once the class loader is
+ * collected such a key equals only itself, and is polled from the queue to remove it from the cache.
+ * 
+ * @author Bindul Bhowmik
+ */
+final class ClassLoaderKey extends WeakReference<ClassLoader> {
+
+	private final int hashCode;
+
+	/**
+	 * @param cl The class loader, not <code>null</code>.
+	 * @param queue The queue the key is enqueued on once the class loader is collected, <code>null</code> for lookups.
+	 */
+	ClassLoaderKey (final ClassLoader cl, final ReferenceQueue<ClassLoader> queue) {
+		super(cl, queue);
+		this.hashCode = System.identityHashCode(cl);
+	}
+
+	@Override
+	public int hashCode () {
+		return hashCode;
+	}
+
+	@Override
+	public boolean equals (final Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof ClassLoaderKey)) {
+			return false;
+		}
+		final ClassLoader cl = get();
+		return null != cl && cl == ((ClassLoaderKey) obj).get();
+	}
+}
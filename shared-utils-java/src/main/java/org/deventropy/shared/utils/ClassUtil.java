@@ -15,18 +15,51 @@
  */
 package org.deventropy.shared.utils;
 
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 /**
  * Utility methods around classes and class loaders.
  * 
+ * <p>Classes looked up with {@link #loadClass(String, ClassLoader)} and {@link #findClass(String, ClassLoader)} are
+ * cached for every class loader, including the names that were not found; so repeatedly probing a class loader for
+ * optional classes does not search its parents and jars (and throw a <code>ClassNotFoundException</code>) every time.
+ * The class loaders and the cached classes are only weakly referenced, so the cache does not prevent class loaders
+ * from being unloaded. Lookups never lock: concurrent misses of the same name may search the class loader more than
+ * once, but do not block each other. For every class loader at most {@value #MAX_CACHED_CLASSES_PER_CLASSLOADER}
+ * names are cached; when more are looked up the names cached for the class loader are dropped and cached again as
+ * they are looked up. Class loaders that can find more classes over time (like a <code>URLClassLoader</code> with
+ * URLs added) should have their cache cleared with {@link #clearClassCache(ClassLoader)} when that happens.
+ * 
  * @author Bindul Bhowmik
  */
 public final class ClassUtil {
 	
 	private static final Logger LOG = LogManager.getLogger(ClassUtil.class);
 
+	/**
+	 * The maximum number of class names, found or not, cached for every class loader.
+	 */
+	public static final int MAX_CACHED_CLASSES_PER_CLASSLOADER = 10000;
+
+	private static final Object NOT_FOUND = new Object();
+	private static final String LIBRARY_PACKAGE_PREFIX = "org.deventropy.shared.utils.";
+
+	private static final ConcurrentMap<ClassLoaderKey, ConcurrentMap<String, Object>> CLASSES_BY_CLASSLOADER =
+			new ConcurrentHashMap<>();
+	private static final ConcurrentMap<String, Object> BOOTSTRAP_CLASSES = new ConcurrentHashMap<>();
+	private static final ReferenceQueue<ClassLoader> COLLECTED_CLASSLOADERS = new ReferenceQueue<>();
+
+	/**
+	 * Set once the call stack is found to be unreadable, so the caller is not looked for again.
+	 */
+	private static volatile boolean callerContextUnavailable;
+
 	private ClassUtil () {
 		// Util class
 	}
@@ -43,6 +76,7 @@ public final class ClassUtil {
 	 * 
 	 * @param caller Who is calling us, may be <code>null</code>
 	 * @return Find the classloader
+	 * @see #getApplicableClassloader()
 	 */
 	public static ClassLoader getApplicableClassloader (final Object caller) {
 		ClassLoader cl = null;
@@ -54,17 +88,246 @@ public final class ClassUtil {
 		}
 
 		if (null == cl) {
-			if (null != caller) {
-				cl = caller.getClass().getClassLoader();
-			}
+			cl = getFallbackClassloader(null == caller ? null : caller.getClass().getClassLoader());
+		}
+
+		return cl;
+	}
+
+	/**
+	 * Searches for and finds an appropriate class loader to use, like {@link #getApplicableClassloader(Object)}, but
+	 * finds the caller itself: the class loader of the nearest class on the call stack that is not part of this
+	 * library (and not loaded by the bootstrap class loader) is used when there is no context class loader. So the
+	 * methods of this library that default the class loader find the resources of the application calling them.
+	 * 
+	 * <p>The call stack is only looked at when there is no context class loader, and then the classes on the stack
+	 * are read without creating a stack trace, as <code>SecurityManager.getClassContext()</code> does; which is much
+	 * cheaper than <code>new Throwable().getStackTrace()</code>. If a security manager does not allow this, the
+	 * caller's class loader is skipped. <code>SecurityManager</code> is deprecated for removal since Java 17: on a Java
+	 * runtime without it (or that does not allow creating one) the caller's class loader is skipped too, and the
+	 * class loader of this library is used when there is no context class loader.
+	 * 
+	 * @return Find the classloader
+	 */
+	public static ClassLoader getApplicableClassloader () {
+		ClassLoader cl = null;
+
+		try {
+			cl = Thread.currentThread().getContextClassLoader();
+		} catch (SecurityException e) {
+			LOG.catching(e); // Cannot get to the context
+		}
+
+		if (null == cl) {
+			cl = getFallbackClassloader(findCallerClassloader());
+		}
+
+		return cl;
+	}
+
+	private static ClassLoader getFallbackClassloader (final ClassLoader callerCl) {
+		ClassLoader cl = callerCl;
+		if (null == cl) {
+			cl = ClassUtil.class.getClassLoader();
 			if (null == cl) {
-				cl = ClassUtil.class.getClassLoader();
-				if (null == cl) {
-					cl = ClassLoader.getSystemClassLoader();
-				}
+				cl = ClassLoader.getSystemClassLoader();
 			}
 		}
-
 		return cl;
 	}
+
+	/**
+	 * @return The class loader of the nearest class on the call stack outside this library, <code>null</code> if
+	 * 	there is none or the call stack cannot be read.
+	 */
+	private static ClassLoader findCallerClassloader () {
+		final Class<?>[] callerClasses = getCallerClasses();
+		if (null == callerClasses) {
+			return null;
+		}
+		final ClassLoader libraryCl = ClassUtil.class.getClassLoader();
+		for (Class<?> callerClass : callerClasses) {
+			final ClassLoader cl = callerClass.getClassLoader();
+			if (null != cl && !(cl == libraryCl && callerClass.getName().startsWith(LIBRARY_PACKAGE_PREFIX))) {
+				return cl;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return The classes on the call stack, <code>null</code> if they cannot be read.
+	 */
+	private static Class<?>[] getCallerClasses () {
+		if (callerContextUnavailable) {
+			return null;
+		}
+		try {
+			final CallerContext callerContext = CallerContext.INSTANCE;
+			if (null != callerContext) {
+				return callerContext.getCallerClasses();
+			}
+		} catch (LinkageError e) {
+			// SecurityManager is not part of the Java runtime any more
+			LOG.catching(e);
+		}
+		callerContextUnavailable = true;
+		return null;
+	}
+
+	/**
+	 * Loads a class, without initializing it, the same way as <code>Class.forName(name, false, cl)</code>; caching the
+	 * result, found or not, for the class loader.
+	 * 
+	 * @param name The binary name of the class, like <code>java.util.Map$Entry</code>.
+	 * @param cl The class loader to load the class with, <code>null</code> for the bootstrap class loader.
+	 * @return The class.
+	 * @throws ClassNotFoundException The class loader cannot find the class (now or when it was first looked up).
+	 */
+	public static Class<?> loadClass (final String name, final ClassLoader cl) throws ClassNotFoundException {
+		final Class<?> loadedClass = findClass(name, cl);
+		if (null == loadedClass) {
+			throw new ClassNotFoundException(name);
+		}
+		return loadedClass;
+	}
+
+	/**
+	 * Loads a class with the class loader found by {@link #getApplicableClassloader()}, caching the result.
+	 * 
+	 * @param name The binary name of the class.
+	 * @return The class.
+	 * @throws ClassNotFoundException The class loader cannot find the class.
+	 * @see #loadClass(String, ClassLoader)
+	 */
+	public static Class<?> loadClass (final String name) throws ClassNotFoundException {
+		return loadClass(name, getApplicableClassloader());
+	}
+
+	/**
+	 * Loads a class like {@link #loadClass(String, ClassLoader)}, but returns <code>null</code> instead of throwing an
+	 * exception for classes that cannot be found; so frequent lookups of missing classes are cheap too.
+	 * 
+	 * <p>Errors linking a class that was found (like a <code>NoClassDefFoundError</code> for a missing dependency)
+	 * are thrown, and not cached.
+	 * 
+	 * @param name The binary name of the class.
+	 * @param cl The class loader to load the class with, <code>null</code> for the bootstrap class loader.
+	 * @return The class, or <code>null</code> if the class loader cannot find it.
+	 */
+	@SuppressWarnings("unchecked")
+	public static Class<?> findClass (final String name, final ClassLoader cl) {
+		ArgumentCheck.notNull(name, "name");
+		final ConcurrentMap<String, Object> cachedClasses = getCachedClasses(cl);
+		final Object cached = cachedClasses.get(name);
+		if (NOT_FOUND == cached) {
+			return null;
+		}
+		if (null != cached) {
+			final Class<?> cachedClass = ((WeakReference<Class<?>>) cached).get();
+			if (null != cachedClass) {
+				return cachedClass;
+			}
+		}
+
+		Class<?> loadedClass;
+		try {
+			loadedClass = Class.forName(name, false, cl);
+		} catch (ClassNotFoundException e) {
+			loadedClass = null;
+		}
+		if (cachedClasses.size() >= MAX_CACHED_CLASSES_PER_CLASSLOADER) {
+			cachedClasses.clear();
+		}
+		// Classes are referenced weakly: a class refers to its class loader, which would never be collected otherwise
+		cachedClasses.put(name, null == loadedClass ? NOT_FOUND : new WeakReference<Class<?>>(loadedClass));
+		return loadedClass;
+	}
+
+	/**
+	 * Loads a class with the class loader found by {@link #getApplicableClassloader()}, caching the result.
+	 * 
+	 * @param name The binary name of the class.
+	 * @return The class, or <code>null</code> if the class loader cannot find it.
+	 * @see #findClass(String, ClassLoader)
+	 */
+	public static Class<?> findClass (final String name) {
+		return findClass(name, getApplicableClassloader());
+	}
+
+	/**
+	 * Removes the classes, and the names not found, cached for a class loader.
+	 * 
+	 * @param cl The class loader, <code>null</code> for the bootstrap class loader.
+	 */
+	public static void clearClassCache (final ClassLoader cl) {
+		if (null == cl) {
+			BOOTSTRAP_CLASSES.clear();
+		} else {
+			CLASSES_BY_CLASSLOADER.remove(new ClassLoaderKey(cl, null));
+		}
+	}
+
+	/**
+	 * Removes the classes, and the names not found, cached for all class loaders.
+	 */
+	public static void clearClassCache () {
+		BOOTSTRAP_CLASSES.clear();
+		CLASSES_BY_CLASSLOADER.clear();
+	}
+
+	/**
+	 * @return The number of class loaders with cached classes, not counting the bootstrap class loader.
+	 */
+	static int getCachedClassLoaderCount () {
+		removeCollectedClassLoaders();
+		return CLASSES_BY_CLASSLOADER.size();
+	}
+
+	private static ConcurrentMap<String, Object> getCachedClasses (final ClassLoader cl) {
+		if (null == cl) {
+			return BOOTSTRAP_CLASSES;
+		}
+		removeCollectedClassLoaders();
+		final ConcurrentMap<String, Object> cachedClasses = CLASSES_BY_CLASSLOADER.get(new ClassLoaderKey(cl, null));
+		if (null != cachedClasses) {
+			return cachedClasses;
+		}
+		final ConcurrentMap<String, Object> newClasses = new ConcurrentHashMap<>();
+		final ConcurrentMap<String, Object> existingClasses = CLASSES_BY_CLASSLOADER.putIfAbsent(
+				new ClassLoaderKey(cl, COLLECTED_CLASSLOADERS), newClasses);
+		return null == existingClasses ? newClasses : existingClasses;
+	}
+
+	private static void removeCollectedClassLoaders () {
+		Object collected = COLLECTED_CLASSLOADERS.poll();
+		while (null != collected) {
+			CLASSES_BY_CLASSLOADER.remove(collected);
+			collected = COLLECTED_CLASSLOADERS.poll();
+		}
+	}
+
+	/**
+	 * Reads the classes on the call stack. Created once, when first needed; <code>null</code> if a security manager
+	 * (or the Java runtime) does not allow creating it. Only referenced through <code>getCallerClasses()</code>,
+	 * which handles the class failing to load once <code>SecurityManager</code> is removed from the Java runtime.
+	 */
+	@SuppressWarnings("removal")
+	private static final class CallerContext extends SecurityManager {
+
+		private static final CallerContext INSTANCE = create();
+
+		private static CallerContext create () {
+			try {
+				return new CallerContext();
+			} catch (SecurityException | UnsupportedOperationException e) {
+				LOG.catching(e);
+				return null;
+			}
+		}
+
+		private Class<?>[] getCallerClasses () {
+			return getClassContext();
+		}
+	}
 }
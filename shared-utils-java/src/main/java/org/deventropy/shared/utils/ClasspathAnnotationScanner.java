@@ -0,0 +1,717 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.shared.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.Annotation;
+import java.nio.ByteBuffer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Finds the classes on the class path of a class loader with an annotation, or of a type, without loading them.
+ * 
+ * <p>Scanning by loading every class (and checking it with reflection) is slow, initializes what is loaded, and fails
+ * on classes whose dependencies are missing. This scanner reads the class files directly from the jars and directories
+ * on the class path, found the same way as {@link ClasspathResourceIndex} does, and parses only the constant pool, the
+ * super types and the annotations of every class. The jars and directories are scanned in parallel, on a fork-join
+ * pool.
+ * 
+ * <pre>
+ * final ClasspathAnnotationScanner.ScanResult result = new ClasspathAnnotationScanner().scan();
+ * for (ClasspathAnnotationScanner.ClassInfo plugin : result.getClassesWithAnnotation(Plugin.class)) {
+ * 	final Class&lt;?&gt; pluginClass = ClassUtil.loadClass(plugin.getName(), result.getClassLoader());
+ * 	...
+ * }
+ * </pre>
+ * 
+ * <p>Annotations are those declared on the classes themselves (both runtime and class file retention), not inherited
+ * or meta-annotations. When a class is found more than once on the class path the first one is used, like the class
+ * loaders do. Class files that cannot be parsed are skipped with a warning.
+ * 
+ * <h2>Jar cache</h2>
+ * The classes read from every jar are cached, keyed by a checksum of the jar: the SHA-256 of its central directory
+ * (the names, CRC-32s and sizes of all entries), which changes when any entry changes and is read without reading the
+ * entries. Jars are only parsed again when their checksum changes, so rescanning a mostly unchanged class path (in the
+ * same or, with a cache file, the next process) mostly reads central directories. Directories are always scanned.
+ * If a cache file is configured, the cache is loaded from it the first time a class path is scanned and written back
+ * after every scan that changed it; it holds the jars of the last class path scanned.
+ * 
+ * <p>Instances are thread safe, and scan one class path at a time. A cache file must not be shared by scanners of
+ * different processes running at the same time.
+ * 
+ * @author Bindul Bhowmik
+ */
+public final class ClasspathAnnotationScanner {
+
+	private static final String DIGEST_ALGORITHM = "SHA-256";
+	private static final int CACHE_FILE_MAGIC = 0x43415343;
+	private static final int CACHE_FILE_VERSION = 1;
+	private static final String CLASS_FILE_SUFFIX = ".class";
+	private static final String META_INF_DIRECTORY = "META-INF/";
+	private static final char PATH_SEPARATOR = '/';
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	private static final Logger LOG = LogManager.getLogger(ClasspathAnnotationScanner.class);
+
+	private final int parallelism;
+	private final Path cacheFile;
+	private final ConcurrentMap<String, List<ClassInfo>> jarCache = new ConcurrentHashMap<>();
+	private final AtomicBoolean jarCacheModified = new AtomicBoolean();
+	private boolean jarCacheLoaded;
+
+	/**
+	 * Creates a scanner with parallelism equal to the number of available processors, caching the classes of jars
+	 * only in memory.
+	 */
+	public ClasspathAnnotationScanner () {
+		this(Runtime.getRuntime().availableProcessors(), null);
+	}
+
+	/**
+	 * Creates a scanner with the specified parallelism and cache file.
+	 * 
+	 * @param parallelism The number of threads reading the class path, must be positive.
+	 * @param cacheFile The file the classes of jars are cached in, created if it does not exist. May be
+	 * 	<code>null</code>, to cache them only in memory.
+	 */
+	public ClasspathAnnotationScanner (final int parallelism, final Path cacheFile) {
+		if (parallelism <= 0) {
+			throw new IllegalArgumentException("parallelism must be positive");
+		}
+		this.parallelism = parallelism;
+		this.cacheFile = cacheFile;
+	}
+
+	/**
+	 * Scans the class path of a class loader.
+	 * 
+	 * @param cl The class loader to scan.
+	 * @return The classes found.
+	 * @throws IOException Error writing the cache file.
+	 */
+	public synchronized ScanResult scan (final ClassLoader cl) throws IOException {
+		ArgumentCheck.notNull(cl, "cl");
+		loadJarCache();
+
+		final List<ClasspathRoot> roots = new ArrayList<>();
+		boolean complete = ClasspathRoot.collect(cl, roots);
+		final RootScan[] rootScans = new RootScan[roots.size()];
+		final ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			pool.invoke(new ScanTask(this, roots, rootScans, 0, rootScans.length));
+		} finally {
+			pool.shutdown();
+		}
+
+		final Set<String> scannedChecksums = new HashSet<>();
+		final Map<String, ClassInfo> classes = new LinkedHashMap<>();
+		for (RootScan rootScan : rootScans) {
+			complete &= rootScan.complete;
+			if (null != rootScan.checksum) {
+				scannedChecksums.add(rootScan.checksum);
+			}
+			for (ClassInfo classInfo : rootScan.classes) {
+				if (!classes.containsKey(classInfo.getName())) {
+					classes.put(classInfo.getName(), classInfo);
+				}
+			}
+		}
+		// Keep only the jars of this class path, so the cache does not grow with every version of every jar
+		if (jarCache.keySet().retainAll(scannedChecksums)) {
+			jarCacheModified.set(true);
+		}
+		saveJarCache();
+
+		LOG.debug("Scanned {} classes in {} class path entries (complete: {})", classes.size(), roots.size(), complete);
+		return new ScanResult(cl, new ArrayList<>(classes.values()), complete);
+	}
+
+	/**
+	 * Scans the class path of the class loader found by {@link ClassUtil#getApplicableClassloader()}.
+	 * 
+	 * @return The classes found.
+	 * @throws IOException Error writing the cache file.
+	 */
+	public ScanResult scan () throws IOException {
+		return scan(ClassUtil.getApplicableClassloader());
+	}
+
+	/**
+	 * @return The number of jars whose classes are cached.
+	 */
+	int getCachedJarCount () {
+		return jarCache.size();
+	}
+
+	private RootScan scanRoot (final ClasspathRoot root) throws IOException {
+		if (!root.isJar()) {
+			return new RootScan(null, scanDirectory(root.getPath()), true);
+		}
+		final String checksum = checksum(root.getPath());
+		List<ClassInfo> classes = jarCache.get(checksum);
+		if (null == classes) {
+			classes = scanJar(root.getPath());
+			jarCache.put(checksum, classes);
+			jarCacheModified.set(true);
+		}
+		return new RootScan(checksum, classes, true);
+	}
+
+	private static List<ClassInfo> scanJar (final Path jar) throws IOException {
+		final List<ClassInfo> classes = new ArrayList<>();
+		final ZipFile zipFile = new ZipFile(jar.toFile());
+		try {
+			final Enumeration<? extends ZipEntry> entries = zipFile.entries();
+			while (entries.hasMoreElements()) {
+				final ZipEntry entry = entries.nextElement();
+				if (!entry.isDirectory() && isClassFile(entry.getName())) {
+					final InputStream inputStream = zipFile.getInputStream(entry);
+					try {
+						addClass(classes, readFully(inputStream, entry.getSize()), jar, entry.getName());
+					} finally {
+						inputStream.close();
+					}
+				}
+			}
+		} finally {
+			zipFile.close();
+		}
+		return classes;
+	}
+
+	private static List<ClassInfo> scanDirectory (final Path directory) throws IOException {
+		final List<ClassInfo> classes = new ArrayList<>();
+		Files.walkFileTree(directory, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+				new SimpleFileVisitor<Path>() {
+					@Override
+					public FileVisitResult visitFile (final Path file, final BasicFileAttributes attrs)
+							throws IOException {
+						final String name = toName(directory, file);
+						if (attrs.isRegularFile() && isClassFile(name)) {
+							addClass(classes, Files.readAllBytes(file), directory, name);
+						}
+						return FileVisitResult.CONTINUE;
+					}
+
+					@Override
+					public FileVisitResult visitFileFailed (final Path file, final IOException exc)
+							throws IOException {
+						if (exc instanceof FileSystemLoopException) {
+							return FileVisitResult.CONTINUE;
+						}
+						throw exc;
+					}
+				});
+		return classes;
+	}
+
+	private static void addClass (final List<ClassInfo> classes, final byte[] classFile, final Path root,
+			final String name) {
+		try {
+			classes.add(ClassFileReader.read(classFile));
+		} catch (IOException e) {
+			LOG.warn("Skipping class file {} in {}: {}", name, root, e.toString());
+		}
+	}
+
+	/**
+	 * Class files, except those of versioned (multi-release) classes, and of <code>package-info</code> and
+	 * <code>module-info</code> which are not classes.
+	 */
+	private static boolean isClassFile (final String name) {
+		return name.endsWith(CLASS_FILE_SUFFIX) && !name.startsWith(META_INF_DIRECTORY)
+				&& name.indexOf('-', name.lastIndexOf(PATH_SEPARATOR) + 1) < 0;
+	}
+
+	private static String toName (final Path root, final Path file) {
+		final StringBuilder name = new StringBuilder();
+		for (Path element : root.relativize(file)) {
+			if (name.length() > 0) {
+				name.append(PATH_SEPARATOR);
+			}
+			name.append(element.toString());
+		}
+		return name.toString();
+	}
+
+	private static byte[] readFully (final InputStream inputStream, final long size) throws IOException {
+		if (size < 0 || size > Integer.MAX_VALUE) {
+			final ByteArrayOutputStream content = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[8192];
+			int read = inputStream.read(buffer);
+			while (read >= 0) {
+				content.write(buffer, 0, read);
+				read = inputStream.read(buffer);
+			}
+			return content.toByteArray();
+		}
+		final byte[] content = new byte[(int) size];
+		new DataInputStream(inputStream).readFully(content);
+		return content;
+	}
+
+	/**
+	 * The SHA-256 of the central directory of a jar: the name, CRC-32 and size of every entry.
+	 */
+	private static String checksum (final Path jar) throws IOException {
+		final MessageDigest digest = newDigest();
+		final ByteBuffer entryData = ByteBuffer.allocate(16);
+		byte[] name = new byte[256];
+		final ZipCentralDirectory centralDirectory = ZipCentralDirectory.open(jar);
+		try {
+			final ZipCentralDirectory.Cursor cursor = centralDirectory.newCursor();
+			while (cursor.next()) {
+				if (cursor.getNameLength() > name.length) {
+					name = new byte[cursor.getNameLength()];
+				}
+				final int nameLength = cursor.copyName(name);
+				digest.update(toBytes(nameLength));
+				digest.update(name, 0, nameLength);
+				entryData.clear();
+				entryData.putLong(cursor.getCrc()).putLong(cursor.getSize());
+				digest.update(entryData.array());
+			}
+		} finally {
+			centralDirectory.close();
+		}
+		return toHex(digest.digest());
+	}
+
+	private void loadJarCache () {
+		if (jarCacheLoaded) {
+			return;
+		}
+		jarCacheLoaded = true;
+		if (null == cacheFile || !Files.exists(cacheFile)) {
+			return;
+		}
+		try {
+			final DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cacheFile)));
+			try {
+				if (in.readInt() != CACHE_FILE_MAGIC || in.readInt() != CACHE_FILE_VERSION) {
+					LOG.warn("Ignoring jar cache {} in an unknown format", cacheFile);
+					return;
+				}
+				final int jarCount = in.readInt();
+				for (int i = 0; i < jarCount; i++) {
+					final String checksum = in.readUTF();
+					final int classCount = in.readInt();
+					final List<ClassInfo> classes = new ArrayList<>(classCount);
+					for (int j = 0; j < classCount; j++) {
+						final String name = in.readUTF();
+						final String superclassName = in.readUTF();
+						final int accessFlags = in.readInt();
+						final List<String> interfaceNames = readNames(in);
+						final List<String> annotationNames = readNames(in);
+						classes.add(new ClassInfo(name, superclassName.isEmpty() ? null : superclassName, accessFlags,
+								interfaceNames, annotationNames));
+					}
+					jarCache.put(checksum, classes);
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			// The cache only saves work; start over with whatever was read
+			LOG.warn("Error reading jar cache {}, jars will be scanned again", cacheFile, e);
+		}
+	}
+
+	private void saveJarCache () throws IOException {
+		if (null == cacheFile || !jarCacheModified.getAndSet(false)) {
+			return;
+		}
+		final Path absoluteCacheFile = cacheFile.toAbsolutePath();
+		final Path tempFile = Files.createTempFile(absoluteCacheFile.getParent(),
+				absoluteCacheFile.getFileName().toString(), ".tmp");
+		try {
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+					Files.newOutputStream(tempFile)));
+			try {
+				final List<Map.Entry<String, List<ClassInfo>>> cachedJars = new ArrayList<>(jarCache.entrySet());
+				out.writeInt(CACHE_FILE_MAGIC);
+				out.writeInt(CACHE_FILE_VERSION);
+				out.writeInt(cachedJars.size());
+				for (Map.Entry<String, List<ClassInfo>> cachedJar : cachedJars) {
+					out.writeUTF(cachedJar.getKey());
+					out.writeInt(cachedJar.getValue().size());
+					for (ClassInfo classInfo : cachedJar.getValue()) {
+						out.writeUTF(classInfo.getName());
+						out.writeUTF(null == classInfo.getSuperclassName() ? "" : classInfo.getSuperclassName());
+						out.writeInt(classInfo.accessFlags);
+						writeNames(out, classInfo.getInterfaceNames());
+						writeNames(out, classInfo.getAnnotationNames());
+					}
+				}
+			} finally {
+				out.close();
+			}
+			// Readers see either the old or the new cache, never a partially written one
+			try {
+				Files.move(tempFile, absoluteCacheFile, StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tempFile, absoluteCacheFile, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(tempFile);
+		}
+	}
+
+	private static List<String> readNames (final DataInputStream in) throws IOException {
+		final int count = in.readInt();
+		final List<String> names = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			names.add(in.readUTF());
+		}
+		return names;
+	}
+
+	private static void writeNames (final DataOutputStream out, final List<String> names) throws IOException {
+		out.writeInt(names.size());
+		for (String name : names) {
+			out.writeUTF(name);
+		}
+	}
+
+	private static MessageDigest newDigest () {
+		try {
+			return MessageDigest.getInstance(DIGEST_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static byte[] toBytes (final int value) {
+		return new byte[] {(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+	}
+
+	private static String toHex (final byte[] bytes) {
+		final char[] hex = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			hex[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0x0F];
+			hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0x0F];
+		}
+		return new String(hex);
+	}
+
+	/**
+	 * A class found by a scan, as read from its class file.
+	 */
+	public static final class ClassInfo {
+
+		private static final int ACC_INTERFACE = 0x0200;
+		private static final int ACC_ABSTRACT = 0x0400;
+		private static final int ACC_ANNOTATION = 0x2000;
+		private static final int ACC_ENUM = 0x4000;
+
+		private final String name;
+		private final String superclassName;
+		private final int accessFlags;
+		private final List<String> interfaceNames;
+		private final List<String> annotationNames;
+
+		ClassInfo (final String name, final String superclassName, final int accessFlags,
+				final List<String> interfaceNames, final List<String> annotationNames) {
+			this.name = name;
+			this.superclassName = superclassName;
+			this.accessFlags = accessFlags;
+			this.interfaceNames = Collections.unmodifiableList(interfaceNames);
+			this.annotationNames = Collections.unmodifiableList(annotationNames);
+		}
+
+		/**
+		 * @return The binary name of the class, like <code>java.util.Map$Entry</code>.
+		 */
+		public String getName () {
+			return name;
+		}
+
+		/**
+		 * @return The binary name of the super class, <code>null</code> for <code>java.lang.Object</code>.
+		 */
+		public String getSuperclassName () {
+			return superclassName;
+		}
+
+		/**
+		 * @return The binary names of the interfaces the class directly implements (or an interface extends).
+		 */
+		public List<String> getInterfaceNames () {
+			return interfaceNames;
+		}
+
+		/**
+		 * @return The binary names of the annotations of the class.
+		 */
+		public List<String> getAnnotationNames () {
+			return annotationNames;
+		}
+
+		/**
+		 * @param annotationName The binary name of an annotation type.
+		 * @return <code>true</code> if the class is annotated with it.
+		 */
+		public boolean hasAnnotation (final String annotationName) {
+			return annotationNames.contains(annotationName);
+		}
+
+		/**
+		 * @return <code>true</code> for interfaces, including annotation types.
+		 */
+		public boolean isInterface () {
+			return (accessFlags & ACC_INTERFACE) != 0;
+		}
+
+		/**
+		 * @return <code>true</code> for annotation types.
+		 */
+		public boolean isAnnotation () {
+			return (accessFlags & ACC_ANNOTATION) != 0;
+		}
+
+		/**
+		 * @return <code>true</code> for enum types.
+		 */
+		public boolean isEnum () {
+			return (accessFlags & ACC_ENUM) != 0;
+		}
+
+		/**
+		 * @return <code>true</code> for abstract classes and interfaces.
+		 */
+		public boolean isAbstract () {
+			return (accessFlags & ACC_ABSTRACT) != 0;
+		}
+
+		@Override
+		public String toString () {
+			return name;
+		}
+	}
+
+	/**
+	 * The classes found by a scan, indexed by annotation and super type.
+	 */
+	public static final class ScanResult {
+		private final ClassLoader classLoader;
+		private final List<ClassInfo> classes;
+		private final boolean complete;
+		private final Map<String, ClassInfo> classesByName = new HashMap<>();
+		private final Map<String, List<ClassInfo>> classesByAnnotation = new HashMap<>();
+		private final Map<String, List<ClassInfo>> classesBySupertype = new HashMap<>();
+
+		private ScanResult (final ClassLoader classLoader, final List<ClassInfo> classes, final boolean complete) {
+			this.classLoader = classLoader;
+			this.classes = Collections.unmodifiableList(classes);
+			this.complete = complete;
+			for (ClassInfo classInfo : classes) {
+				classesByName.put(classInfo.getName(), classInfo);
+				for (String annotationName : classInfo.getAnnotationNames()) {
+					addTo(classesByAnnotation, annotationName, classInfo);
+				}
+				if (null != classInfo.getSuperclassName()) {
+					addTo(classesBySupertype, classInfo.getSuperclassName(), classInfo);
+				}
+				for (String interfaceName : classInfo.getInterfaceNames()) {
+					addTo(classesBySupertype, interfaceName, classInfo);
+				}
+			}
+		}
+
+		private static void addTo (final Map<String, List<ClassInfo>> index, final String key,
+				final ClassInfo classInfo) {
+			List<ClassInfo> indexed = index.get(key);
+			if (null == indexed) {
+				indexed = new ArrayList<>();
+				index.put(key, indexed);
+			}
+			indexed.add(classInfo);
+		}
+
+		/**
+		 * @return The class loader scanned, to load the classes found with.
+		 */
+		public ClassLoader getClassLoader () {
+			return classLoader;
+		}
+
+		/**
+		 * @return All the classes found, in class path order.
+		 */
+		public List<ClassInfo> getClasses () {
+			return classes;
+		}
+
+		/**
+		 * @param className The binary name of a class.
+		 * @return The class, or <code>null</code> if it was not found.
+		 */
+		public ClassInfo getClassInfo (final String className) {
+			return classesByName.get(className);
+		}
+
+		/**
+		 * @param annotationName The binary name of an annotation type.
+		 * @return The classes annotated with it, in class path order.
+		 */
+		public List<ClassInfo> getClassesWithAnnotation (final String annotationName) {
+			ArgumentCheck.notNull(annotationName, "annotationName");
+			final List<ClassInfo> annotated = classesByAnnotation.get(annotationName);
+			return null == annotated ? Collections.<ClassInfo>emptyList() : Collections.unmodifiableList(annotated);
+		}
+
+		/**
+		 * @param annotationType An annotation type.
+		 * @return The classes annotated with it, in class path order.
+		 */
+		public List<ClassInfo> getClassesWithAnnotation (final Class<? extends Annotation> annotationType) {
+			ArgumentCheck.notNull(annotationType, "annotationType");
+			return getClassesWithAnnotation(annotationType.getName());
+		}
+
+		/**
+		 * Finds the classes that extend or implement a type, directly or through other classes found by the scan
+		 * (super types outside the class path scanned, like those of the Java runtime, are not followed).
+		 * 
+		 * @param typeName The binary name of a class or interface.
+		 * @return The sub types found, nearest first.
+		 */
+		public List<ClassInfo> getSubtypes (final String typeName) {
+			ArgumentCheck.notNull(typeName, "typeName");
+			final Set<String> seen = new HashSet<>();
+			final List<ClassInfo> subtypes = new ArrayList<>();
+			final Deque<String> pending = new ArrayDeque<>();
+			pending.add(typeName);
+			while (!pending.isEmpty()) {
+				final List<ClassInfo> direct = classesBySupertype.get(pending.remove());
+				if (null != direct) {
+					for (ClassInfo subtype : direct) {
+						if (seen.add(subtype.getName())) {
+							subtypes.add(subtype);
+							pending.add(subtype.getName());
+						}
+					}
+				}
+			}
+			return subtypes;
+		}
+
+		/**
+		 * @return <code>true</code> if the complete class path was scanned: the class path of every class loader is
+		 * 	known and every jar and directory could be read.
+		 */
+		public boolean isComplete () {
+			return complete;
+		}
+	}
+
+	/**
+	 * The classes of a jar or directory; with the checksum of jars.
+	 */
+	private static final class RootScan {
+		private final String checksum;
+		private final List<ClassInfo> classes;
+		private final boolean complete;
+
+		private RootScan (final String checksum, final List<ClassInfo> classes, final boolean complete) {
+			this.checksum = checksum;
+			this.classes = classes;
+			this.complete = complete;
+		}
+	}
+
+	/**
+	 * Scans a range of roots, splitting the range until it is a single root.
+	 */
+	private static final class ScanTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 3127460498274018451L;
+
+		private final transient ClasspathAnnotationScanner scanner;
+		private final transient List<ClasspathRoot> roots;
+		private final transient RootScan[] rootScans;
+		private final int from;
+		private final int to;
+
+		private ScanTask (final ClasspathAnnotationScanner scanner, final List<ClasspathRoot> roots,
+				final RootScan[] rootScans, final int from, final int to) {
+			this.scanner = scanner;
+			this.roots = roots;
+			this.rootScans = rootScans;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute () {
+			if (to - from > 1) {
+				final int middle = (from + to) >>> 1;
+				invokeAll(new ScanTask(scanner, roots, rootScans, from, middle),
+						new ScanTask(scanner, roots, rootScans, middle, to));
+				return;
+			}
+			if (to > from) {
+				final ClasspathRoot root = roots.get(from);
+				try {
+					rootScans[from] = scanner.scanRoot(root);
+				} catch (IOException e) {
+					LOG.warn("Cannot read class path entry {}: {}", root, e.toString());
+					rootScans[from] = new RootScan(null, Collections.<ClassInfo>emptyList(), false);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,244 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.shared.utils;
+
+import java.io.IOException;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Resolves resource location patterns to all the resources matching them, like every
+ * <code>META-INF/plugins/*.json</code> across the jars on the class path.
+ * 
+ * <p>Patterns are resource locations in the formats of {@link UrlResourceUtil}, and additionally:
+ * <ul>
+ * <li><code><b>classpath*:</b>META-INF/services/com.example.Plugin</code>: every resource of the name on the class
+ * path (where <code>classpath:</code> resolves only the first)</li>
+ * <li><code><b>classpath*:</b>META-INF/plugins/**&#47;*.json</code>: every resource on the class path matching the
+ * pattern, where <code>?</code> matches a single character, <code>*</code> any characters within a path segment, and
+ * <code>**</code> any number of path segments. Patterns with the <code>classpath:</code> prefix are resolved the same
+ * way.</li>
+ * </ul>
+ * Other locations (files, HTTP URLs) resolve to the single URL of the location, and do not support wildcards.
+ * 
+ * <p>Wildcard patterns are resolved by listing the jars and directories on the class path directly, reading the
+ * central directories of the jars in parallel rather than asking the class loader. Only resources (not directories)
+ * are matched, and the matches are returned in class path order, sorted by name within every jar or directory. The
+ * class path is read like {@link ClasspathResourceIndex} reads it; parts of it that cannot be read that way (class
+ * loaders other than <code>URLClassLoader</code>s, jars referenced from a manifest <code>Class-Path</code>) are found
+ * through the class loader, from the directory the pattern starts in, and their matches are returned last.
+ * 
+ * <p>Instances are thread safe. Each resolution runs in a pool created for it.
+ * 
+ * @author Bindul Bhowmik
+ */
+public final class ClasspathPatternResolver {
+
+	private static final Logger LOG = LogManager.getLogger(ClasspathPatternResolver.class);
+
+	private static final char PATH_SEPARATOR = '/';
+	private static final String WILDCARD_CHARACTERS = "*?";
+
+	private final int parallelism;
+
+	/**
+	 * Creates a resolver reading the class path with parallelism equal to the number of available processors.
+	 */
+	public ClasspathPatternResolver () {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates a resolver.
+	 * 
+	 * @param parallelism The number of threads reading the class path, must be positive.
+	 */
+	public ClasspathPatternResolver (final int parallelism) {
+		if (parallelism <= 0) {
+			throw new IllegalArgumentException("parallelism must be positive");
+		}
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Resolves a location pattern.
+	 * 
+	 * @param locationPattern The location or location pattern.
+	 * @param cl The class loader to find classpath resources with.
+	 * @return The URLs of all the resources matching, in class path order; empty if no classpath resource matches.
+	 * @throws IOException Error reading the class path, or the location is malformed.
+	 */
+	public List<URL> getUrls (final String locationPattern, final ClassLoader cl) throws IOException {
+		ArgumentCheck.notNull(locationPattern, "locationPattern");
+		final String name;
+		if (locationPattern.startsWith(UrlResourceUtil.URL_PROTOCOL_CLASSPATH_ALL)) {
+			name = stripLeadingSeparators(locationPattern.substring(
+					UrlResourceUtil.URL_PROTOCOL_CLASSPATH_ALL.length()));
+			if (!hasWildcard(name)) {
+				ArgumentCheck.notNull(cl, "cl");
+				return Collections.list(cl.getResources(name));
+			}
+		} else if (locationPattern.startsWith(UrlResourceUtil.URL_PROTOCOL_CLASSPATH) && hasWildcard(locationPattern)) {
+			name = stripLeadingSeparators(locationPattern.substring(UrlResourceUtil.URL_PROTOCOL_CLASSPATH.length()));
+		} else {
+			return Collections.singletonList(UrlResourceUtil.getUrl(locationPattern, cl));
+		}
+		ArgumentCheck.notNull(cl, "cl");
+		return findMatches(name, cl);
+	}
+
+	/**
+	 * Resolves a location pattern with the class loader found by {@link ClassUtil#getApplicableClassloader()}.
+	 * 
+	 * @param locationPattern The location or location pattern.
+	 * @return The URLs of all the resources matching, in class path order.
+	 * @throws IOException Error reading the class path, or the location is malformed.
+	 */
+	public List<URL> getUrls (final String locationPattern) throws IOException {
+		return getUrls(locationPattern, ClassUtil.getApplicableClassloader());
+	}
+
+	private List<URL> findMatches (final String namePattern, final ClassLoader cl) throws IOException {
+		int firstWildcard = 0;
+		while (WILDCARD_CHARACTERS.indexOf(namePattern.charAt(firstWildcard)) < 0) {
+			firstWildcard++;
+		}
+		final String directory = namePattern.substring(0, namePattern.lastIndexOf(PATH_SEPARATOR, firstWildcard) + 1);
+		final Pattern pattern = toRegex(namePattern);
+
+		final List<ClasspathRoot> roots = new ArrayList<>();
+		boolean complete = ClasspathRoot.collect(cl, roots);
+		final List<ClasspathRoot.Listing> listings = new ArrayList<>(ClasspathRoot.list(roots, directory, parallelism));
+		for (ClasspathRoot.Listing listing : listings) {
+			complete &= listing.isComplete();
+		}
+		if (!complete) {
+			final List<ClasspathRoot> otherRoots = findOtherRoots(directory, cl, roots);
+			roots.addAll(otherRoots);
+			listings.addAll(ClasspathRoot.list(otherRoots, directory, parallelism));
+		}
+
+		final List<URL> matches = new ArrayList<>();
+		for (int i = 0; i < roots.size(); i++) {
+			final List<String> names = new ArrayList<>(listings.get(i).getNames());
+			Collections.sort(names);
+			for (String name : names) {
+				if (name.charAt(name.length() - 1) != PATH_SEPARATOR && pattern.matcher(name).matches()) {
+					final URL url = roots.get(i).getResourceUrl(name);
+					if (null != url) {
+						matches.add(url);
+					} else {
+						LOG.debug("Cannot build the URL of {} in {}", name, roots.get(i));
+					}
+				}
+			}
+		}
+		LOG.trace("Found {} resources matching {} in {} class path entries", matches.size(), namePattern, roots.size());
+		return matches;
+	}
+
+	/**
+	 * Finds the jars and directories the class loader finds <code>directory</code> in, which are not in
+	 * <code>roots</code> already.
+	 */
+	private List<ClasspathRoot> findOtherRoots (final String directory, final ClassLoader cl,
+			final List<ClasspathRoot> roots) throws IOException {
+		final List<ClasspathRoot> otherRoots = new ArrayList<>();
+		final Set<URL> knownUrls = new HashSet<>();
+		for (ClasspathRoot root : roots) {
+			knownUrls.add(root.getUrl());
+		}
+		final Enumeration<URL> directoryUrls = cl.getResources(directory);
+		while (directoryUrls.hasMoreElements()) {
+			final URL directoryUrl = directoryUrls.nextElement();
+			final URL rootUrl;
+			if ("jar".equals(directoryUrl.getProtocol())) {
+				rootUrl = ((JarURLConnection) directoryUrl.openConnection()).getJarFileURL();
+			} else {
+				final String externalForm = directoryUrl.toExternalForm();
+				if (!externalForm.endsWith(directory)) {
+					continue;
+				}
+				rootUrl = new URL(externalForm.substring(0, externalForm.length() - directory.length()));
+			}
+			final ClasspathRoot root = knownUrls.add(rootUrl) ? ClasspathRoot.forUrl(rootUrl) : null;
+			if (null != root) {
+				otherRoots.add(root);
+			}
+		}
+		return otherRoots;
+	}
+
+	/**
+	 * Converts a resource name pattern to a regular expression.
+	 */
+	private static Pattern toRegex (final String namePattern) {
+		final StringBuilder regex = new StringBuilder();
+		final StringBuilder literal = new StringBuilder();
+		int i = 0;
+		while (i < namePattern.length()) {
+			final char c = namePattern.charAt(i);
+			if (c != '*' && c != '?') {
+				literal.append(c);
+				i++;
+				continue;
+			}
+			if (literal.length() > 0) {
+				regex.append(Pattern.quote(literal.toString()));
+				literal.setLength(0);
+			}
+			if (c == '?') {
+				regex.append("[^/]");
+				i++;
+			} else if (namePattern.startsWith("**/", i)) {
+				regex.append("(?:.*/)?");
+				i += 3;
+			} else if (namePattern.startsWith("**", i)) {
+				regex.append(".*");
+				i += 2;
+			} else {
+				regex.append("[^/]*");
+				i++;
+			}
+		}
+		if (literal.length() > 0) {
+			regex.append(Pattern.quote(literal.toString()));
+		}
+		return Pattern.compile(regex.toString());
+	}
+
+	private static boolean hasWildcard (final String name) {
+		return name.indexOf('*') >= 0 || name.indexOf('?') >= 0;
+	}
+
+	private static String stripLeadingSeparators (final String name) {
+		int start = 0;
+		while (start < name.length() && name.charAt(start) == PATH_SEPARATOR) {
+			start++;
+		}
+		return name.substring(start);
+	}
+}
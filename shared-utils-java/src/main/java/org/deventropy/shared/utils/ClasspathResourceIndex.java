@@ -0,0 +1,252 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.shared.utils;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * An index of the resources on the class path of a class loader, so <code>classpath:</code> resources can be looked
+ * up without searching the class loader.
+ * 
+ * <p>{@link UrlResourceUtil#getUrl(String, ClassLoader)} asks the class loader for every resource, which searches
+ * every jar and directory on the class path (up to twice, with and without the leading <code>/</code>); on large class
+ * paths that is a lot of lookups, and resources that do not exist are the most expensive of all. The index lists the
+ * contents of every jar (from its central directory) and directory on the class path once, in parallel, and keeps
+ * the names in a compact hash table with the class path entry each is found in first. A lookup is then a single hash
+ * table probe: resources that do not exist are rejected immediately, and the URL of those that do is built directly
+ * for the jar or directory they are in.
+ * 
+ * <p>The class path is read from the <code>URLClassLoader</code>s in the class loader hierarchy (and the
+ * <code>java.class.path</code> for the system class loader), searched parent first like the class loaders do.
+ * Resources of the Java runtime itself (the bootstrap and platform class loaders) are not indexed; resources not
+ * found in the index are looked up with the runtime class loaders, which do not search the class path. If the class
+ * path cannot be fully indexed, because a class loader in the hierarchy is not a <code>URLClassLoader</code>, a class
+ * path entry is not a local file, could not be read, or is a jar with a <code>Class-Path</code> manifest attribute,
+ * the index is not {@link #isComplete() complete}; resources not found in it are then looked up with the class
+ * loader.
+ * 
+ * <p>The index is a snapshot of the class path when it was built: resources added to it later are not found (unless
+ * the index is incomplete). Instances are immutable and thread safe.
+ * 
+ * @author Bindul Bhowmik
+ */
+public final class ClasspathResourceIndex {
+
+	private static final Logger LOG = LogManager.getLogger(ClasspathResourceIndex.class);
+
+	private static final char PATH_SEPARATOR = '/';
+
+	private final ClassLoader classLoader;
+	private final ClassLoader runtimeLoader;
+	private final List<ClasspathRoot> roots;
+	private final ResourceTable resources;
+	private final boolean complete;
+
+	private ClasspathResourceIndex (final ClassLoader classLoader, final List<ClasspathRoot> roots,
+			final ResourceTable resources, final boolean complete) {
+		this.classLoader = classLoader;
+		this.runtimeLoader = ClasspathRoot.getRuntimeLoader(classLoader);
+		this.roots = roots;
+		this.resources = resources;
+		this.complete = complete;
+	}
+
+	/**
+	 * Builds the index of a class loader, reading the class path with parallelism equal to the number of available
+	 * processors.
+	 * 
+	 * @param cl The class loader to index.
+	 * @return The index.
+	 */
+	public static ClasspathResourceIndex build (final ClassLoader cl) {
+		return build(cl, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Builds the index of a class loader.
+	 * 
+	 * @param cl The class loader to index.
+	 * @param parallelism The number of threads reading the class path, must be positive.
+	 * @return The index.
+	 */
+	public static ClasspathResourceIndex build (final ClassLoader cl, final int parallelism) {
+		ArgumentCheck.notNull(cl, "cl");
+		if (parallelism <= 0) {
+			throw new IllegalArgumentException("parallelism must be positive");
+		}
+		final List<ClasspathRoot> roots = new ArrayList<>();
+		boolean complete = ClasspathRoot.collect(cl, roots);
+		final List<ClasspathRoot.Listing> listings = ClasspathRoot.list(roots, "", parallelism);
+
+		int resourceCount = 0;
+		for (ClasspathRoot.Listing listing : listings) {
+			complete &= listing.isComplete();
+			resourceCount += listing.getNames().size();
+		}
+		final ResourceTable resources = new ResourceTable(resourceCount);
+		for (int i = 0; i < roots.size(); i++) {
+			for (String resourceName : listings.get(i).getNames()) {
+				resources.putIfAbsent(resourceName, i);
+			}
+		}
+		LOG.debug("Indexed {} resources in {} class path entries (complete: {})", resources.size(), roots.size(),
+				complete);
+		return new ClasspathResourceIndex(cl, roots, resources, complete);
+	}
+
+	/**
+	 * Looks up a resource in the index. Resources found are added to the {@link ResourceWarmupManifest} recording, if
+	 * any.
+	 * 
+	 * @param resource The resource, with or without the <code>classpath:</code> prefix and leading <code>/</code>.
+	 * @return The URL of the resource, or <code>null</code> if it does not exist.
+	 */
+	public URL findResource (final String resource) {
+		ArgumentCheck.notNull(resource, "Resource cannot be null");
+		final String name = toResourceName(resource);
+		final URL url = lookUp(name);
+		if (null != url) {
+			// Recorded as a classpath: location, which the warm-up can resolve
+			ResourceWarmupManifest.recordResolved(resource.startsWith(UrlResourceUtil.URL_PROTOCOL_CLASSPATH)
+					? resource : UrlResourceUtil.URL_PROTOCOL_CLASSPATH + name);
+		}
+		return url;
+	}
+
+	private URL lookUp (final String name) {
+		int owner = resources.get(name);
+		if (owner < 0 && !name.isEmpty() && name.charAt(name.length() - 1) != PATH_SEPARATOR) {
+			// Like the class loaders, find directories without the trailing '/'
+			owner = resources.get(name + PATH_SEPARATOR);
+		}
+		if (owner >= 0) {
+			final URL url = roots.get(owner).getResourceUrl(name);
+			if (null != url) {
+				return url;
+			}
+			return classLoader.getResource(name);
+		}
+		if (!complete) {
+			return UrlResourceUtil.findClasspathResource(UrlResourceUtil.URL_PROTOCOL_CLASSPATH + name, classLoader);
+		}
+		// Like java/lang/Object.class, not on the class path
+		return runtimeLoader.getResource(name);
+	}
+
+	/**
+	 * Resolves a resource the same way as {@link UrlResourceUtil#getUrl(String, ClassLoader)} with the class loader
+	 * indexed, looking up <code>classpath:</code> resources in the index.
+	 * 
+	 * @param resource The resource to resolve.
+	 * @return The URL of the resource.
+	 * @throws IOException The resource is a classpath resource that does not exist (a
+	 * 	<code>FileNotFoundException</code>), or is malformed.
+	 */
+	public URL getUrl (final String resource) throws IOException {
+		ArgumentCheck.notNull(resource, "Resource cannot be null");
+		if (!resource.startsWith(UrlResourceUtil.URL_PROTOCOL_CLASSPATH)) {
+			return UrlResourceUtil.getUrl(resource, classLoader);
+		}
+		final URL url = findResource(resource);
+		if (null == url) {
+			throw UrlResourceUtil.classpathResourceNotFound(resource);
+		}
+		return url;
+	}
+
+	/**
+	 * @return The class loader indexed.
+	 */
+	public ClassLoader getClassLoader () {
+		return classLoader;
+	}
+
+	/**
+	 * @return <code>true</code> if the complete class path is indexed, so resources not in the index do not exist.
+	 */
+	public boolean isComplete () {
+		return complete;
+	}
+
+	/**
+	 * @return The number of distinct resources (including directories) in the index.
+	 */
+	public int getResourceCount () {
+		return resources.size();
+	}
+
+	private static String toResourceName (final String resource) {
+		int start = resource.startsWith(UrlResourceUtil.URL_PROTOCOL_CLASSPATH)
+				? UrlResourceUtil.URL_PROTOCOL_CLASSPATH.length() : 0;
+		while (start < resource.length() && resource.charAt(start) == PATH_SEPARATOR) {
+			start++;
+		}
+		return resource.substring(start);
+	}
+
+	/**
+	 * An open addressing hash table of resource names to the index of the class path entry they are in, without an
+	 * object per resource.
+	 */
+	private static final class ResourceTable {
+		private final String[] names;
+		private final int[] owners;
+		private int size;
+
+		private ResourceTable (final int expectedSize) {
+			int capacity = 16;
+			while (capacity < expectedSize * 2) {
+				capacity <<= 1;
+			}
+			names = new String[capacity];
+			owners = new int[capacity];
+		}
+
+		private void putIfAbsent (final String name, final int owner) {
+			final int slot = slot(name);
+			if (null == names[slot]) {
+				names[slot] = name;
+				owners[slot] = owner;
+				size++;
+			}
+		}
+
+		private int get (final String name) {
+			final int slot = slot(name);
+			return null == names[slot] ? -1 : owners[slot];
+		}
+
+		private int slot (final String name) {
+			final int mask = names.length - 1;
+			final int hash = name.hashCode();
+			int slot = (hash ^ (hash >>> 16)) & mask;
+			while (null != names[slot] && !names[slot].equals(name)) {
+				slot = (slot + 1) & mask;
+			}
+			return slot;
+		}
+
+		private int size () {
+			return size;
+		}
+	}
+}
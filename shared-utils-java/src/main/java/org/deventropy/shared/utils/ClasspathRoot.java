@@ -0,0 +1,394 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.shared.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A jar or directory on the class path, read without going through a class loader; used by
+ * {@link ClasspathResourceIndex}, {@link ClasspathPatternResolver} and {@link ClasspathAnnotationScanner}.
+ * 
+ * @author Bindul Bhowmik
+ */
+final class ClasspathRoot {
+
+	private static final Logger LOG = LogManager.getLogger(ClasspathRoot.class);
+
+	private static final String FILE_PROTOCOL = "file";
+	private static final String JAR_URL_PREFIX = "jar:";
+	private static final String JAR_URL_SEPARATOR = "!/";
+	private static final char PATH_SEPARATOR = '/';
+
+	private final URL url;
+	private final Path path;
+	private final boolean jar;
+
+	private ClasspathRoot (final URL url, final Path path, final boolean jar) {
+		this.url = url;
+		this.path = path;
+		this.jar = jar;
+	}
+
+	/**
+	 * Creates the root for a class path entry.
+	 * 
+	 * @param url The URL of the jar or directory.
+	 * @return The root, or <code>null</code> if the URL is not a local file, or does not exist.
+	 */
+	static ClasspathRoot forUrl (final URL url) {
+		if (!FILE_PROTOCOL.equals(url.getProtocol())) {
+			return null;
+		}
+		Path path;
+		try {
+			path = Paths.get(url.toURI());
+		} catch (URISyntaxException | IllegalArgumentException e) {
+			path = Paths.get(url.getPath());
+		}
+		if (!Files.exists(path)) {
+			return null;
+		}
+		return new ClasspathRoot(url, path, !Files.isDirectory(path));
+	}
+
+	/**
+	 * Adds the class path of <code>cl</code> and its parents to <code>roots</code>, in search (parent first) order.
+	 * Resources of the Java runtime (the bootstrap and platform class loaders) are not part of the class path; entries
+	 * that do not exist are skipped, like the class loaders do.
+	 * 
+	 * @return <code>false</code> if the class path of a class loader is not known, or an entry of it is not a local
+	 * 	file.
+	 */
+	static boolean collect (final ClassLoader cl, final List<ClasspathRoot> roots) {
+		final List<ClassLoader> hierarchy = new ArrayList<>();
+		for (ClassLoader current = cl; null != current; current = current.getParent()) {
+			hierarchy.add(0, current);
+		}
+		final Set<ClassLoader> runtimeLoaders = getRuntimeLoaders();
+
+		final Set<URL> urls = new LinkedHashSet<>();
+		boolean complete = true;
+		for (ClassLoader current : hierarchy) {
+			if (current instanceof URLClassLoader) {
+				urls.addAll(Arrays.asList(((URLClassLoader) current).getURLs()));
+			} else if (current == ClassLoader.getSystemClassLoader()) {
+				for (String element : System.getProperty("java.class.path", "").split(File.pathSeparator)) {
+					if (!element.isEmpty()) {
+						try {
+							urls.add(new File(element).toURI().toURL());
+						} catch (MalformedURLException e) {
+							LOG.catching(e);
+							complete = false;
+						}
+					}
+				}
+			} else if (!runtimeLoaders.contains(current)) {
+				LOG.debug("The class path of {} is not known", current);
+				complete = false;
+			}
+		}
+
+		for (URL classpathUrl : urls) {
+			if (!FILE_PROTOCOL.equals(classpathUrl.getProtocol())) {
+				LOG.debug("Class path entry {} is not a local file", classpathUrl);
+				complete = false;
+				continue;
+			}
+			final ClasspathRoot root = forUrl(classpathUrl);
+			if (null != root) {
+				roots.add(root);
+			}
+		}
+		return complete;
+	}
+
+	/**
+	 * Finds the class loader that looks up the resources of the Java runtime for <code>cl</code>, which are not part
+	 * of its class path: the platform (or extension) class loader if it is in the hierarchy of <code>cl</code>,
+	 * otherwise a class loader searching only the bootstrap class loader.
+	 */
+	static ClassLoader getRuntimeLoader (final ClassLoader cl) {
+		final Set<ClassLoader> runtimeLoaders = getRuntimeLoaders();
+		for (ClassLoader current = cl; null != current; current = current.getParent()) {
+			if (runtimeLoaders.contains(current)) {
+				return current;
+			}
+		}
+		return BootstrapResourceLoader.INSTANCE;
+	}
+
+	private static Set<ClassLoader> getRuntimeLoaders () {
+		final Set<ClassLoader> runtimeLoaders = new LinkedHashSet<>();
+		for (ClassLoader current = ClassLoader.getSystemClassLoader().getParent(); null != current;
+				current = current.getParent()) {
+			runtimeLoaders.add(current);
+		}
+		return runtimeLoaders;
+	}
+
+	/**
+	 * Lists the resources under a directory of every root, reading the roots in parallel.
+	 * 
+	 * @param roots The roots to list.
+	 * @param directory The directory to list, with a trailing <code>/</code>; or an empty string for all resources.
+	 * @param parallelism The number of threads reading the roots.
+	 * @return The listing of every root, in the same order.
+	 */
+	static List<Listing> list (final List<ClasspathRoot> roots, final String directory, final int parallelism) {
+		final Listing[] listings = new Listing[roots.size()];
+		final ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			pool.invoke(new ListTask(roots, directory, listings, 0, listings.length));
+		} finally {
+			pool.shutdown();
+		}
+		return Arrays.asList(listings);
+	}
+
+	/**
+	 * @return The URL of the jar or directory.
+	 */
+	URL getUrl () {
+		return url;
+	}
+
+	/**
+	 * @return The jar file or directory.
+	 */
+	Path getPath () {
+		return path;
+	}
+
+	/**
+	 * @return <code>true</code> if the root is a jar, <code>false</code> for a directory.
+	 */
+	boolean isJar () {
+		return jar;
+	}
+
+	/**
+	 * Builds the URL of a resource in this root, the way the class loaders do.
+	 * 
+	 * @param name The name of the resource, without a leading <code>/</code>.
+	 * @return The URL, or <code>null</code> if it cannot be built.
+	 */
+	URL getResourceUrl (final String name) {
+		try {
+			final String encodedName = new URI(null, null, name, null).getRawPath();
+			if (null == encodedName) {
+				return null;
+			}
+			if (jar) {
+				return new URL(JAR_URL_PREFIX + url.toExternalForm() + JAR_URL_SEPARATOR + encodedName);
+			}
+			return new URL(url, encodedName);
+		} catch (URISyntaxException | MalformedURLException e) {
+			return null;
+		}
+	}
+
+	@Override
+	public String toString () {
+		return path.toString();
+	}
+
+	private Listing listResources (final String directory) throws IOException {
+		final List<String> names = new ArrayList<>();
+		if (jar) {
+			boolean hasManifest = false;
+			final ZipCentralDirectory centralDirectory = ZipCentralDirectory.open(path);
+			try {
+				final ZipCentralDirectory.Cursor cursor = centralDirectory.newCursor();
+				while (cursor.next()) {
+					final String name = cursor.getName();
+					hasManifest |= JarFile.MANIFEST_NAME.equals(name);
+					if (name.startsWith(directory)) {
+						names.add(name);
+					}
+				}
+			} finally {
+				centralDirectory.close();
+			}
+			if (hasManifest && hasManifestClassPath()) {
+				LOG.debug("The Class-Path of {} is not read", path);
+				return new Listing(names, false);
+			}
+			return new Listing(names, true);
+		}
+
+		final Path listedDirectory = path.resolve(directory);
+		if (Files.isDirectory(listedDirectory)) {
+			Files.walkFileTree(listedDirectory, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+					new SimpleFileVisitor<Path>() {
+						@Override
+						public FileVisitResult preVisitDirectory (final Path dir, final BasicFileAttributes attrs) {
+							if (!dir.equals(path)) {
+								names.add(toName(dir) + PATH_SEPARATOR);
+							}
+							return FileVisitResult.CONTINUE;
+						}
+
+						@Override
+						public FileVisitResult visitFile (final Path file, final BasicFileAttributes attrs) {
+							names.add(toName(file));
+							return FileVisitResult.CONTINUE;
+						}
+
+						@Override
+						public FileVisitResult visitFileFailed (final Path file, final IOException exc)
+								throws IOException {
+							if (exc instanceof FileSystemLoopException) {
+								return FileVisitResult.CONTINUE;
+							}
+							throw exc;
+						}
+					});
+		}
+		return new Listing(names, true);
+	}
+
+	private boolean hasManifestClassPath () throws IOException {
+		final JarFile jarFile = new JarFile(path.toFile());
+		try {
+			final Manifest manifest = jarFile.getManifest();
+			return null != manifest && null != manifest.getMainAttributes().getValue(Attributes.Name.CLASS_PATH);
+		} finally {
+			jarFile.close();
+		}
+	}
+
+	private String toName (final Path file) {
+		final StringBuilder name = new StringBuilder();
+		for (Path element : path.relativize(file)) {
+			if (name.length() > 0) {
+				name.append(PATH_SEPARATOR);
+			}
+			name.append(element.toString());
+		}
+		return name.toString();
+	}
+
+	/**
+	 * A class loader without a parent, so looking up a resource searches only the bootstrap class loader.
+	 */
+	private static final class BootstrapResourceLoader extends ClassLoader {
+
+		private static final BootstrapResourceLoader INSTANCE = new BootstrapResourceLoader();
+
+		private BootstrapResourceLoader () {
+			super(null);
+		}
+	}
+
+	/**
+	 * The resources listed in a root.
+	 */
+	static final class Listing {
+		private final List<String> names;
+		private final boolean complete;
+
+		private Listing (final List<String> names, final boolean complete) {
+			this.names = names;
+			this.complete = complete;
+		}
+
+		/**
+		 * @return The names of the resources, directories with a trailing <code>/</code>.
+		 */
+		List<String> getNames () {
+			return names;
+		}
+
+		/**
+		 * @return <code>false</code> if the root could not be read, or references other jars through its manifest
+		 * 	<code>Class-Path</code>.
+		 */
+		boolean isComplete () {
+			return complete;
+		}
+	}
+
+	/**
+	 * Lists a range of roots, splitting the range until it is a single root.
+	 */
+	private static final class ListTask extends RecursiveAction {
+
+		private static final long serialVersionUID = -5210986284712958731L;
+
+		private final transient List<ClasspathRoot> roots;
+		private final String directory;
+		private final transient Listing[] listings;
+		private final int from;
+		private final int to;
+
+		private ListTask (final List<ClasspathRoot> roots, final String directory, final Listing[] listings,
+				final int from, final int to) {
+			this.roots = roots;
+			this.directory = directory;
+			this.listings = listings;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute () {
+			if (to - from > 1) {
+				final int middle = (from + to) >>> 1;
+				invokeAll(new ListTask(roots, directory, listings, from, middle),
+						new ListTask(roots, directory, listings, middle, to));
+				return;
+			}
+			if (to > from) {
+				final ClasspathRoot root = roots.get(from);
+				try {
+					listings[from] = root.listResources(directory);
+				} catch (IOException e) {
+					LOG.warn("Cannot read class path entry {}: {}", root, e.toString());
+					listings[from] = new Listing(Collections.<String>emptyList(), false);
+				}
+			}
+		}
+	}
+}
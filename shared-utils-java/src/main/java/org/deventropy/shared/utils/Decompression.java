@@ -0,0 +1,225 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.shared.utils;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.compress.compressors.CompressorException;
+import org.apache.commons.compress.compressors.CompressorStreamFactory;
+
+/**
+ * Detects compressed resources, by the extension of their name or the magic bytes at their start, and decompresses
+ * them while they are read.
+ * 
+ * <p>GZip is decompressed with the JDK. The other formats need commons-compress, an optional dependency of this
+ * library, which is only loaded when a resource in one of them is read; XZ also needs the XZ for Java library
+ * (<code>org.tukaani:xz</code>). Zstandard is detected, but not supported by the commons-compress version used.
+ * 
+ * @author Bindul Bhowmik
+ */
+final class Decompression {
+
+	private static final String GZIP = "gz";
+	private static final String BZIP2 = "bzip2";
+	private static final String XZ = "xz";
+	private static final String LZMA = "lzma";
+	private static final String UNIX_COMPRESS = "z";
+	private static final String SNAPPY_FRAMED = "snappy-framed";
+	private static final String ZSTANDARD = "zstd";
+
+	private static final int BUFFER_SIZE = 8 * 1024;
+	private static final int MAGIC_LENGTH = 6;
+	private static final byte[] GZIP_MAGIC = {(byte) 0x1f, (byte) 0x8b};
+	private static final byte[] BZIP2_MAGIC = {'B', 'Z', 'h'};
+	private static final byte[] XZ_MAGIC = {(byte) 0xfd, '7', 'z', 'X', 'Z', 0};
+	private static final byte[] ZSTANDARD_MAGIC = {(byte) 0x28, (byte) 0xb5, (byte) 0x2f, (byte) 0xfd};
+
+	private static final boolean COMMONS_COMPRESS_AVAILABLE = isClassAvailable(
+			"org.apache.commons.compress.compressors.CompressorStreamFactory");
+
+	private Decompression () {
+		// Util class
+	}
+
+	/**
+	 * Wraps a stream to decompress it, if the resource is compressed.
+	 * 
+	 * @param inputStream The stream reading the resource, closed by the returned stream.
+	 * @param name The name (or location) of the resource, to detect the format by its extension.
+	 * @return A stream reading the decompressed contents, or the contents as they are if not compressed.
+	 * @throws IOException Error reading the stream, or the resource is compressed in an unsupported format.
+	 */
+	static InputStream decompress (final InputStream inputStream, final String name) throws IOException {
+		final InputStream markableStream = inputStream.markSupported() ? inputStream
+				: new BufferedInputStream(inputStream, BUFFER_SIZE);
+		try {
+			String format = getFormatByExtension(name);
+			if (null == format) {
+				format = getFormatByMagic(markableStream);
+			}
+			if (null == format) {
+				return markableStream;
+			}
+			if (GZIP.equals(format)) {
+				return new GZIPInputStream(markableStream, BUFFER_SIZE);
+			}
+			if (ZSTANDARD.equals(format)) {
+				throw new IOException("Cannot decompress " + name + ", Zstandard is not supported");
+			}
+			if (!COMMONS_COMPRESS_AVAILABLE) {
+				throw new IOException("Decompressing " + name + " requires commons-compress on the class path");
+			}
+			return CommonsCompress.createCompressorInputStream(format, markableStream, name);
+		} catch (IOException | RuntimeException e) {
+			markableStream.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Decompresses contents, if the resource is compressed.
+	 * 
+	 * @param content The contents of the resource.
+	 * @param name The name (or location) of the resource, to detect the format by its extension.
+	 * @return The decompressed contents, or <code>content</code> if not compressed.
+	 * @throws IOException The contents are corrupt, or compressed in an unsupported format.
+	 */
+	static byte[] decompress (final byte[] content, final String name) throws IOException {
+		final InputStream inputStream = new ByteArrayInputStream(content);
+		final InputStream decompressed = decompress(inputStream, name);
+		if (decompressed == inputStream) {
+			return content;
+		}
+		return UrlResourceUtil.readFully(decompressed);
+	}
+
+	/**
+	 * @return The compression format by the extension of the name, or <code>null</code> if not a compressed
+	 * 	extension.
+	 */
+	private static String getFormatByExtension (final String name) {
+		String path = name;
+		final int queryStart = path.indexOf('?');
+		if (queryStart >= 0) {
+			path = path.substring(0, queryStart);
+		}
+		final int extensionStart = path.lastIndexOf('.');
+		if (extensionStart < 0 || path.indexOf('/', extensionStart) >= 0) {
+			return null;
+		}
+		final String extension = path.substring(extensionStart + 1);
+		if ("Z".equals(extension)) {
+			// Upper case only, .z is pack
+			return UNIX_COMPRESS;
+		}
+		switch (extension.toLowerCase(Locale.ENGLISH)) {
+			case "gz":
+			case "gzip":
+				return GZIP;
+			case "bz2":
+				return BZIP2;
+			case "xz":
+				return XZ;
+			case "lzma":
+				return LZMA;
+			case "sz":
+				return SNAPPY_FRAMED;
+			case "zst":
+				return ZSTANDARD;
+			default:
+				return null;
+		}
+	}
+
+	/**
+	 * Detects the formats with magic bytes distinctive enough not to match uncompressed contents.
+	 */
+	private static String getFormatByMagic (final InputStream markableStream) throws IOException {
+		final byte[] magic = new byte[MAGIC_LENGTH];
+		markableStream.mark(MAGIC_LENGTH);
+		int read = 0;
+		try {
+			int count = markableStream.read(magic, 0, MAGIC_LENGTH);
+			while (count > 0 && read + count < MAGIC_LENGTH) {
+				read += count;
+				count = markableStream.read(magic, read, MAGIC_LENGTH - read);
+			}
+			if (count > 0) {
+				read += count;
+			}
+		} finally {
+			markableStream.reset();
+		}
+		if (startsWith(magic, read, GZIP_MAGIC)) {
+			return GZIP;
+		}
+		if (startsWith(magic, read, BZIP2_MAGIC)) {
+			return BZIP2;
+		}
+		if (startsWith(magic, read, XZ_MAGIC)) {
+			return XZ;
+		}
+		if (startsWith(magic, read, ZSTANDARD_MAGIC)) {
+			return ZSTANDARD;
+		}
+		return null;
+	}
+
+	private static boolean isClassAvailable (final String className) {
+		try {
+			Class.forName(className, false, Decompression.class.getClassLoader());
+			return true;
+		} catch (ClassNotFoundException | LinkageError e) {
+			return false;
+		}
+	}
+
+	private static boolean startsWith (final byte[] bytes, final int length, final byte[] prefix) {
+		if (length < prefix.length) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length; i++) {
+			if (bytes[i] != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Isolates the use of commons-compress, so the enclosing class loads (and verifies) without it; only used when
+	 * commons-compress is available.
+	 */
+	private static final class CommonsCompress {
+
+		private static InputStream createCompressorInputStream (final String format, final InputStream inputStream,
+				final String name) throws IOException {
+			try {
+				return new CompressorStreamFactory().createCompressorInputStream(format, inputStream);
+			} catch (CompressorException e) {
+				throw new IOException("Cannot decompress " + name, e);
+			} catch (NoClassDefFoundError e) {
+				throw new IOException("Decompressing " + name + " requires a library missing from the class path: "
+						+ e.getMessage(), e);
+			}
+		}
+	}
+}
@@ -16,16 +16,29 @@
 package org.deventropy.shared.utils;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
-import java.nio.file.FileVisitResult;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
 import java.util.jar.Attributes;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
@@ -35,12 +48,15 @@ import org.apache.commons.compress.archivers.ArchiveException;
 import org.apache.commons.compress.archivers.ArchiveOutputStream;
 import org.apache.commons.compress.archivers.ArchiveStreamFactory;
 import org.apache.commons.compress.archivers.jar.JarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
 import org.apache.commons.compress.compressors.CompressorException;
 import org.apache.commons.compress.compressors.CompressorStreamFactory;
 import org.apache.commons.compress.utils.Charsets;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.deventropy.shared.utils.DirectoryScanner.ScannedEntry;
 
 /**
  * Utility class providing convenience methods to create Zip/Jar archives for entire directories.
@@ -65,6 +81,10 @@ import org.apache.logging.log4j.Logger;
  * of the source folder will be at the root of the zip file. The current implementation does not traverse down symbolic
  * links, and they will be excluded.
  * 
+ * <p>The source directory is scanned with a {@link DirectoryScanner} before any entry is written, so the listing of
+ * large trees happens in parallel and entries are always added to the archive in the same (sorted, depth first)
+ * order.
+ * 
  * <h3>Nesting contents in the archive</h3>
  * The implementation supports nesting contents from the source one or more directories down in the archive file
  * created. Working on the example above, if the code were invoked as:
@@ -76,6 +96,28 @@ import org.apache.logging.log4j.Logger;
  * directories <code>test/one</code> in the archive (or when the archive is inflated). So
  * <code>/project/data/source/file.txt</code> will appear at <code>test/one/file.txt</code> in the archive.
  * 
+ * <h3>Archiving a list of files</h3>
+ * If the files to archive are already known, the <code>create*ArchiveOfFiles</code> methods (for example
+ * {@link #createZipArchiveOfFiles(String, File, String, Iterable)}) archive exactly the listed paths, relative to the
+ * source directory, in the order listed and without traversing the source directory. A list stored in a file can be
+ * read with {@link #readFileManifest(File)}.
+ * 
+ * <h3>Entry order</h3>
+ * Entries are added depth first, every directory followed by its contents sorted by name. With
+ * {@link #createArchive(ArchiveFormat, String, File, String, EntryOrder)} the files can instead be grouped by type
+ * ({@link EntryOrder#FILE_TYPE}), which compresses better in GZipped tar archives.
+ * 
+ * <h3>Reading an archive as it is created</h3>
+ * {@link #openArchiveOfDirectory(ArchiveFormat, File, String)} returns a channel from which the archive is read as it
+ * is created, driven by the reads; to stream an archive to a client without writing it to disk or holding it in
+ * memory.
+ * 
+ * <h3>Archiving from other file systems</h3>
+ * {@link #createArchive(ArchiveFormat, Path, Path, String, EntryOrder)} and
+ * {@link #openArchiveOfDirectory(ArchiveFormat, Path, String, EntryOrder)} accept paths on any
+ * {@link java.nio.file.FileSystem} (for example the contents of a zip file, or an in-memory file system); the source is
+ * read only through the file system provider of the path.
+ * 
  * <h2>Creating a Jar Archive</h2>
  * Jar files are created almost identical to the Zip files above, with the additional functionality of a very
  * rudimentary Manifest (<code>META-INF/MANIFEST.MF</code>) file is added to the archive with just the Manifest Version
@@ -95,8 +137,35 @@ public final class DirectoryArchiverUtil {
 	private static final String ARCHIVE_PATH_SEPARATOR = "/";
 	private static final String WIN_PATH_SEPARATOR = "\\";
 	private static final String UTF_8_NAME = Charsets.UTF_8.name();
+	private static final String MANIFEST_COMMENT_PREFIX = "#";
 	
 	private static final Logger LOG = LogManager.getLogger(DirectoryArchiverUtil.class);
+	
+	private static final DirectoryScanner DIRECTORY_SCANNER = new DirectoryScanner();
+	private static final int COPY_BUFFER_SIZE = 64 * 1024;
+	
+	private static final Comparator<Path> NAME_ORDER = new Comparator<Path>() {
+		@Override
+		public int compare (final Path path1, final Path path2) {
+			return path1.getFileName().toString().compareTo(path2.getFileName().toString());
+		}
+	};
+	
+	private static final Comparator<ScannedEntry> FILE_TYPE_ORDER = new Comparator<ScannedEntry>() {
+		@Override
+		public int compare (final ScannedEntry entry1, final ScannedEntry entry2) {
+			final String name1 = entry1.getPath().getFileName().toString();
+			final String name2 = entry2.getPath().getFileName().toString();
+			int result = getExtension(name1).compareTo(getExtension(name2));
+			if (result == 0) {
+				result = name1.compareTo(name2);
+			}
+			if (result == 0) {
+				result = entry1.getRelativePath().toString().compareTo(entry2.getRelativePath().toString());
+			}
+			return result;
+		}
+	};
 
 	private DirectoryArchiverUtil () {
 		// Utility class
@@ -165,10 +234,274 @@ public final class DirectoryArchiverUtil {
 				new TarArchiverCreateProcessor(CompressorStreamFactory.GZIP));
 	}
 	
+	/**
+	 * Create a zip archive with exactly the listed entries of the source directory, in the order listed, without
+	 * traversing the source directory. Optionally push the contents down a directory level or two.
+	 * 
+	 * @param archiveFile The final archive file location. The file location must be writable.
+	 * @param srcDirectory The source directory.
+	 * @param rootPathPrefix The root prefix. Multiple directory parts should be separated by <code>/</code>.
+	 * @param relativePaths Paths of files and directories to archive, relative to the source directory. Directories
+	 * 		are added as entries on their own; their contents are not added unless listed as well.
+	 * @throws IOException Exception reading the source files or writing to the destination file.
+	 * @see #readFileManifest(File)
+	 */
+	public static void createZipArchiveOfFiles (final String archiveFile, final File srcDirectory,
+		final String rootPathPrefix, final Iterable<String> relativePaths) throws IOException {
+
+		writeArchive(Paths.get(archiveFile), toPath(srcDirectory), rootPathPrefix,
+				ArchiveStreamFactory.ZIP, UTF_8_NAME, null, new ManifestArchiveEntrySource(relativePaths),
+				null, null);
+	}
+	
+	/**
+	 * Create a Jar archive with exactly the listed entries of the source directory, in the order listed, without
+	 * traversing the source directory. Optionally push the contents down a directory level or two. A Manifest file is
+	 * automatically added.
+	 * 
+	 * @param archiveFile The final archive file location. The file location must be writable.
+	 * @param srcDirectory The source directory.
+	 * @param rootPathPrefix The root prefix. Multiple directory parts should be separated by <code>/</code>.
+	 * @param relativePaths Paths of files and directories to archive, relative to the source directory. Directories
+	 * 		are added as entries on their own; their contents are not added unless listed as well.
+	 * @throws IOException Exception reading the source files or writing to the destination file.
+	 * @see #readFileManifest(File)
+	 */
+	public static void createJarArchiveOfFiles (final String archiveFile, final File srcDirectory,
+		final String rootPathPrefix, final Iterable<String> relativePaths) throws IOException {
+
+		writeArchive(Paths.get(archiveFile), toPath(srcDirectory), rootPathPrefix,
+				ArchiveStreamFactory.JAR, UTF_8_NAME, new JarArchiverCreateProcessor(),
+				new ManifestArchiveEntrySource(relativePaths), null, null);
+	}
+	
+	/**
+	 * Create a tar archive with exactly the listed entries of the source directory, in the order listed, without
+	 * traversing the source directory. Optionally push the contents down a directory level or two.
+	 * 
+	 * @param archiveFile The final archive file location. The file location must be writable.
+	 * @param srcDirectory The source directory.
+	 * @param rootPathPrefix The root prefix. Multiple directory parts should be separated by <code>/</code>.
+	 * @param relativePaths Paths of files and directories to archive, relative to the source directory. Directories
+	 * 		are added as entries on their own; their contents are not added unless listed as well.
+	 * @throws IOException Exception reading the source files or writing to the destination file.
+	 * @see #readFileManifest(File)
+	 */
+	public static void createTarArchiveOfFiles (final String archiveFile, final File srcDirectory,
+		final String rootPathPrefix, final Iterable<String> relativePaths) throws IOException {
+
+		writeArchive(Paths.get(archiveFile), toPath(srcDirectory), rootPathPrefix,
+				ArchiveStreamFactory.TAR, null, new TarArchiverCreateProcessor(null),
+				new ManifestArchiveEntrySource(relativePaths), null, null);
+	}
+	
+	/**
+	 * Create a GZipped tar archive with exactly the listed entries of the source directory, in the order listed,
+	 * without traversing the source directory. Optionally push the contents down a directory level or two.
+	 * 
+	 * @param archiveFile The final archive file location. The file location must be writable.
+	 * @param srcDirectory The source directory.
+	 * @param rootPathPrefix The root prefix. Multiple directory parts should be separated by <code>/</code>.
+	 * @param relativePaths Paths of files and directories to archive, relative to the source directory. Directories
+	 * 		are added as entries on their own; their contents are not added unless listed as well.
+	 * @throws IOException Exception reading the source files or writing to the destination file.
+	 * @see #readFileManifest(File)
+	 */
+	public static void createGZippedTarArchiveOfFiles (final String archiveFile, final File srcDirectory,
+		final String rootPathPrefix, final Iterable<String> relativePaths) throws IOException {
+
+		writeArchive(Paths.get(archiveFile), toPath(srcDirectory), rootPathPrefix,
+				ArchiveStreamFactory.TAR, null, new TarArchiverCreateProcessor(CompressorStreamFactory.GZIP),
+				new ManifestArchiveEntrySource(relativePaths), null, null);
+	}
+	
+	/**
+	 * Create an archive in the specified format with all the contents of the directory, adding the entries in the
+	 * specified order. Optionally push the contents down a directory level or two.
+	 * 
+	 * @param archiveFormat The format of the archive.
+	 * @param archiveFile The final archive file location. The file location must be writable.
+	 * @param srcDirectory The source directory.
+	 * @param rootPathPrefix The root prefix. Multiple directory parts should be separated by <code>/</code>.
+	 * @param entryOrder The order to add entries to the archive in.
+	 * @throws IOException Exception reading the source directory or writing to the destination file.
+	 */
+	public static void createArchive (final ArchiveFormat archiveFormat, final String archiveFile,
+			final File srcDirectory, final String rootPathPrefix, final EntryOrder entryOrder) throws IOException {
+
+		ArgumentCheck.notNullOrEmpty(archiveFile, "archiveFile");
+		ArgumentCheck.notNull(srcDirectory, "srcDirectory");
+		createArchive(archiveFormat, Paths.get(archiveFile), toPath(srcDirectory), rootPathPrefix, entryOrder);
+	}
+	
+	/**
+	 * Create an archive in the specified format with all the contents of the directory, adding the entries in the
+	 * specified order. Optionally push the contents down a directory level or two.
+	 * 
+	 * <p>The source directory and the archive file may be on any {@link java.nio.file.FileSystem}, for example inside
+	 * a zip file opened with the zip file system provider, or in an in-memory file system; all reads and writes go
+	 * through the file system provider of the path.
+	 * 
+	 * @param archiveFormat The format of the archive.
+	 * @param archiveFile The final archive file location. The file location must be writable.
+	 * @param srcDirectory The source directory.
+	 * @param rootPathPrefix The root prefix. Multiple directory parts should be separated by <code>/</code>.
+	 * @param entryOrder The order to add entries to the archive in.
+	 * @throws IOException Exception reading the source directory or writing to the destination file.
+	 */
+	public static void createArchive (final ArchiveFormat archiveFormat, final Path archiveFile,
+			final Path srcDirectory, final String rootPathPrefix, final EntryOrder entryOrder) throws IOException {
+
+		ArgumentCheck.notNull(archiveFormat, "archiveFormat");
+		ArgumentCheck.notNull(archiveFile, "archiveFile");
+		ArgumentCheck.notNull(srcDirectory, "srcDirectory");
+		ArgumentCheck.notNull(entryOrder, "entryOrder");
+		writeArchive(archiveFile, srcDirectory, rootPathPrefix, archiveFormat.archiveStreamFactoryConstant,
+				archiveFormat.encoding, createArchiverCreateProcessor(archiveFormat),
+				new ArchiveEntrySource(entryOrder), null, null);
+	}
+	
+	/**
+	 * Reads a file manifest for the <code>create*ArchiveOfFiles</code> methods. The manifest is a <code>UTF-8</code>
+	 * text file with one relative path per line; blank lines and lines starting with <code>#</code> are ignored.
+	 * 
+	 * @param manifestFile The manifest file.
+	 * @return The relative paths in the manifest, in the order they appear.
+	 * @throws IOException Exception reading the manifest file.
+	 */
+	public static List<String> readFileManifest (final File manifestFile) throws IOException {
+		ArgumentCheck.notNull(manifestFile, "manifestFile");
+		final List<String> relativePaths = new ArrayList<>();
+		for (String line : Files.readAllLines(manifestFile.toPath(), Charsets.UTF_8)) {
+			final String trimmedLine = line.trim();
+			if (!trimmedLine.isEmpty() && !trimmedLine.startsWith(MANIFEST_COMMENT_PREFIX)) {
+				relativePaths.add(trimmedLine);
+			}
+		}
+		return relativePaths;
+	}
+	
+	/**
+	 * Creates an archive of the directory in the specified format, reading the source files no faster than the source
+	 * rate limiter allows and writing the archive no faster than the archive rate limiter allows. Used by the
+	 * {@link ArchiveJobScheduler}.
+	 * 
+	 * @param sourceRateLimiter The limiter charged for the bytes read from the source files, <code>null</code> for no
+	 * 		limit.
+	 * @param archiveRateLimiter The limiter charged for the bytes written to the archive file, <code>null</code> for no
+	 * 		limit.
+	 */
+	static void createRateLimitedArchive (final ArchiveFormat archiveFormat, final String archiveFile,
+			final File srcDirectory, final String rootPathPrefix, final ByteRateLimiter sourceRateLimiter,
+			final ByteRateLimiter archiveRateLimiter) throws IOException {
+
+		writeArchive(Paths.get(archiveFile), toPath(srcDirectory), rootPathPrefix,
+				archiveFormat.archiveStreamFactoryConstant, archiveFormat.encoding,
+				createArchiverCreateProcessor(archiveFormat), new ArchiveEntrySource(EntryOrder.DIRECTORY),
+				sourceRateLimiter, archiveRateLimiter);
+	}
+	
+	/**
+	 * Opens a channel from which the archive of the directory can be read as it is created.
+	 * 
+	 * <p>Nothing is written ahead of the reader: every read from the channel adds just enough of the archive (at most
+	 * a chunk of one source file) to return some bytes, and a slow reader simply slows down reading the source files.
+	 * The source directory is walked as the archive is read, one directory at a time, so the memory used depends only
+	 * on the sizes of the directories on the path to the entry being archived, not on the size of the whole tree.
+	 * 
+	 * <p>The channel must be closed after use; it is not safe for use by multiple threads at the same time.
+	 * 
+	 * @param archiveFormat The format of the archive.
+	 * @param srcDirectory The source directory.
+	 * @param rootPathPrefix The root prefix. Multiple directory parts should be separated by <code>/</code>.
+	 * @return A channel with the archive bytes.
+	 * @throws IOException Exception reading the source directory.
+	 */
+	public static ReadableByteChannel openArchiveOfDirectory (final ArchiveFormat archiveFormat,
+			final File srcDirectory, final String rootPathPrefix) throws IOException {
+
+		return openArchiveOfDirectory(archiveFormat, srcDirectory, rootPathPrefix, EntryOrder.DIRECTORY);
+	}
+	
+	/**
+	 * Opens a channel from which the archive of the directory can be read as it is created, with the entries in the
+	 * specified order. See {@link #openArchiveOfDirectory(ArchiveFormat, File, String)}.
+	 * 
+	 * <p>Ordering by {@link EntryOrder#FILE_TYPE} needs the whole tree, so with it every entry to archive is listed
+	 * when the channel is opened, and held in memory until the channel is closed.
+	 * 
+	 * @param archiveFormat The format of the archive.
+	 * @param srcDirectory The source directory.
+	 * @param rootPathPrefix The root prefix. Multiple directory parts should be separated by <code>/</code>.
+	 * @param entryOrder The order to add entries to the archive in.
+	 * @return A channel with the archive bytes.
+	 * @throws IOException Exception reading the source directory.
+	 */
+	public static ReadableByteChannel openArchiveOfDirectory (final ArchiveFormat archiveFormat,
+			final File srcDirectory, final String rootPathPrefix, final EntryOrder entryOrder) throws IOException {
+
+		ArgumentCheck.notNull(srcDirectory, "srcDirectory");
+		return openArchiveOfDirectory(archiveFormat, toPath(srcDirectory), rootPathPrefix, entryOrder);
+	}
+	
+	/**
+	 * Opens a channel from which the archive of the directory, on any {@link java.nio.file.FileSystem}, can be read as
+	 * it is created, with the entries in the specified order. See
+	 * {@link #openArchiveOfDirectory(ArchiveFormat, File, String, EntryOrder)}.
+	 * 
+	 * @param archiveFormat The format of the archive.
+	 * @param srcDirectory The source directory.
+	 * @param rootPathPrefix The root prefix. Multiple directory parts should be separated by <code>/</code>.
+	 * @param entryOrder The order to add entries to the archive in.
+	 * @return A channel with the archive bytes.
+	 * @throws IOException Exception reading the source directory.
+	 */
+	public static ReadableByteChannel openArchiveOfDirectory (final ArchiveFormat archiveFormat,
+			final Path srcDirectory, final String rootPathPrefix, final EntryOrder entryOrder) throws IOException {
+
+		ArgumentCheck.notNull(archiveFormat, "archiveFormat");
+		ArgumentCheck.notNull(srcDirectory, "srcDirectory");
+		ArgumentCheck.notNull(entryOrder, "entryOrder");
+		final EntryCursor entryCursor = (EntryOrder.FILE_TYPE == entryOrder)
+				? new ListEntryCursor(new ArchiveEntrySource(entryOrder).getEntries(srcDirectory))
+				: new DirectoryWalkCursor(srcDirectory);
+		final ArchiveByteChannel archiveByteChannel = new ArchiveByteChannel(entryCursor);
+		archiveByteChannel.open(archiveFormat, srcDirectory, rootPathPrefix);
+		return archiveByteChannel;
+	}
+	
+	private static ArchiverCreateProcessor createArchiverCreateProcessor (final ArchiveFormat archiveFormat) {
+		switch (archiveFormat) {
+			case JAR:
+				return new JarArchiverCreateProcessor();
+			case TAR:
+				return new TarArchiverCreateProcessor(null);
+			case GZIPPED_TAR:
+				return new TarArchiverCreateProcessor(CompressorStreamFactory.GZIP);
+			default:
+				return null;
+		}
+	}
+	
 	private static void createArchiveOfDirectory (final String archiveFile, final File srcDirectory,
 			final String rootPathPrefix, final String archiveStreamFactoryConstant, final String encoding,
 			final ArchiverCreateProcessor archiverCreateProcessorIn) throws IOException {
 
+		// The tree is scanned up front (in parallel) so entries are written in a deterministic order
+		writeArchive(Paths.get(archiveFile), toPath(srcDirectory), rootPathPrefix,
+				archiveStreamFactoryConstant, encoding, archiverCreateProcessorIn,
+				new ArchiveEntrySource(EntryOrder.DIRECTORY), null, null);
+	}
+	
+	private static Path toPath (final File file) {
+		return Paths.get(file.toURI());
+	}
+	
+	private static void writeArchive (final Path archiveFile, final Path srcRootPath,
+			final String rootPathPrefix, final String archiveStreamFactoryConstant, final String encoding,
+			final ArchiverCreateProcessor archiverCreateProcessorIn, final ArchiveEntrySource archiveEntrySource,
+			final ByteRateLimiter sourceRateLimiter, final ByteRateLimiter archiveRateLimiter) throws IOException {
+
 		/*
 		 * NOTE ON CHARSET ENCODING: Traditionally the ZIP archive format uses CodePage 437 as encoding for file name,
 		 * which is not sufficient for many international character sets.
@@ -178,30 +511,24 @@ public final class DirectoryArchiverUtil {
 		 * encoding to use (or expect) since Ant 1.4. It defaults to the platform's default encoding for zip and UTF-8
 		 * for jar and other jar-like tasks (war, ear, ...) as well as the unzip family of tasks.
 		 */
-		final ArchiverCreateProcessor archiveCreateProcessor = (null != archiverCreateProcessorIn)
-				? archiverCreateProcessorIn : new ArchiverCreateProcessor();
 		ArchiveOutputStream aos = null;
 		try {
 
-			final ArchiveStreamFactory archiveStreamFactory = new ArchiveStreamFactory(encoding);
-			final FileOutputStream archiveFileOutputStream = new FileOutputStream(archiveFile);
-			final OutputStream decoratedArchiveFileOutputStream = archiveCreateProcessor
-					.decorateFileOutputStream(archiveFileOutputStream);
-			aos = archiveStreamFactory.createArchiveOutputStream(archiveStreamFactoryConstant,
-					decoratedArchiveFileOutputStream);
-			archiveCreateProcessor.processArchiverPostCreate(aos, encoding);
-
-			final String normalizedRootPathPrefix = (null == rootPathPrefix || rootPathPrefix.isEmpty()) ? ""
-					: normalizeName(rootPathPrefix, true);
-			if (!normalizedRootPathPrefix.isEmpty()) {
-				final ArchiveEntry archiveEntry = aos.createArchiveEntry(srcDirectory, normalizedRootPathPrefix);
-				aos.putArchiveEntry(archiveEntry);
-				aos.closeArchiveEntry();
-			}
+			final ArchiverCreateProcessor archiverCreateProcessor = (null != archiverCreateProcessorIn)
+					? archiverCreateProcessorIn : new ArchiverCreateProcessor();
+			final OutputStream archiveFileStream = (null == archiveRateLimiter) ? Files.newOutputStream(archiveFile)
+					: new RateLimitedOutputStream(Files.newOutputStream(archiveFile), archiveRateLimiter);
+			aos = openArchiveOutputStream(archiveFileStream, archiveStreamFactoryConstant, encoding,
+					archiverCreateProcessor);
+			final String normalizedRootPathPrefix = writeRootPathPrefix(aos, archiverCreateProcessor, srcRootPath,
+					rootPathPrefix);
 
-			final Path srcRootPath = Paths.get(srcDirectory.toURI());
-			final ArchiverFileVisitor visitor = new ArchiverFileVisitor(srcRootPath, normalizedRootPathPrefix, aos);
-			Files.walkFileTree(srcRootPath, visitor);
+			final List<ScannedEntry> scannedEntries = archiveEntrySource.getEntries(srcRootPath);
+			final ArchiveEntryWriter entryWriter = new ArchiveEntryWriter(normalizedRootPathPrefix, aos,
+					archiverCreateProcessor, sourceRateLimiter);
+			for (ScannedEntry scannedEntry : scannedEntries) {
+				entryWriter.write(scannedEntry);
+			}
 
 			aos.flush();
 		} catch (ArchiveException e) {
@@ -213,6 +540,69 @@ public final class DirectoryArchiverUtil {
 		}
 	}
 
+	private static ArchiveOutputStream openArchiveOutputStream (final OutputStream outputStream,
+			final String archiveStreamFactoryConstant, final String encoding,
+			final ArchiverCreateProcessor archiveCreateProcessor) throws IOException, ArchiveException {
+
+		try {
+			final OutputStream decoratedOutputStream = archiveCreateProcessor.decorateOutputStream(outputStream);
+			return createArchiveOutputStream(decoratedOutputStream, archiveStreamFactoryConstant, encoding,
+					archiveCreateProcessor);
+		} catch (IOException | ArchiveException e) {
+			outputStream.close();
+			throw e;
+		}
+	}
+
+	private static ArchiveOutputStream createArchiveOutputStream (final OutputStream decoratedOutputStream,
+			final String archiveStreamFactoryConstant, final String encoding,
+			final ArchiverCreateProcessor archiveCreateProcessor) throws IOException, ArchiveException {
+		final ArchiveStreamFactory archiveStreamFactory = new ArchiveStreamFactory(encoding);
+		final ArchiveOutputStream aos = archiveStreamFactory.createArchiveOutputStream(archiveStreamFactoryConstant,
+				decoratedOutputStream);
+		archiveCreateProcessor.processArchiverPostCreate(aos, encoding);
+		return aos;
+	}
+
+	private static String writeRootPathPrefix (final ArchiveOutputStream aos,
+			final ArchiverCreateProcessor archiverCreateProcessor, final Path srcRootPath, final String rootPathPrefix)
+			throws IOException {
+
+		final String normalizedRootPathPrefix = (null == rootPathPrefix || rootPathPrefix.isEmpty()) ? ""
+				: normalizeName(rootPathPrefix, true);
+		if (!normalizedRootPathPrefix.isEmpty()) {
+			final ArchiveEntry archiveEntry = archiverCreateProcessor.createArchiveEntry(normalizedRootPathPrefix,
+					Files.readAttributes(srcRootPath, BasicFileAttributes.class));
+			aos.putArchiveEntry(archiveEntry);
+			aos.closeArchiveEntry();
+		}
+		return normalizedRootPathPrefix;
+	}
+
+	/**
+	 * Moves all the directories (in their original order) ahead of the files, and groups the files by type.
+	 */
+	private static List<ScannedEntry> orderByFileType (final List<ScannedEntry> scannedEntries) {
+		final List<ScannedEntry> orderedEntries = new ArrayList<>(scannedEntries.size());
+		final List<ScannedEntry> files = new ArrayList<>();
+		for (ScannedEntry scannedEntry : scannedEntries) {
+			if (scannedEntry.isDirectory()) {
+				orderedEntries.add(scannedEntry);
+			} else {
+				files.add(scannedEntry);
+			}
+		}
+		Collections.sort(files, FILE_TYPE_ORDER);
+		orderedEntries.addAll(files);
+		return orderedEntries;
+	}
+
+	private static String getExtension (final String fileName) {
+		final int extensionIndex = fileName.lastIndexOf('.');
+		// Hidden files (.gitignore) have no extension
+		return (extensionIndex > 0) ? fileName.substring(extensionIndex + 1).toLowerCase(Locale.ENGLISH) : "";
+	}
+
 	private static String normalizeName (final String path, final boolean isDirectory) {
 		String normalizedPath = path.replace(WIN_PATH_SEPARATOR, ARCHIVE_PATH_SEPARATOR);
 		if (isDirectory && !normalizedPath.endsWith(ARCHIVE_PATH_SEPARATOR)) {
@@ -221,67 +611,428 @@ public final class DirectoryArchiverUtil {
 		return normalizedPath;
 	}
 	
-	private static final class ArchiverFileVisitor extends SimpleFileVisitor<Path> {
-		private final Path sourceRootPath;
+	/**
+	 * The archive formats supported by this utility.
+	 */
+	public enum ArchiveFormat {
+		/**
+		 * Zip archive, see {@link DirectoryArchiverUtil#createZipArchiveOfDirectory(String, File, String)}.
+		 */
+		ZIP (ArchiveStreamFactory.ZIP, UTF_8_NAME),
+		/**
+		 * Jar archive, see {@link DirectoryArchiverUtil#createJarArchiveOfDirectory(String, File, String)}.
+		 */
+		JAR (ArchiveStreamFactory.JAR, UTF_8_NAME),
+		/**
+		 * Tar archive, see {@link DirectoryArchiverUtil#createTarArchiveOfDirectory(String, File, String)}.
+		 */
+		TAR (ArchiveStreamFactory.TAR, null),
+		/**
+		 * GZipped tar archive, see
+		 * {@link DirectoryArchiverUtil#createGZippedTarArchiveOfDirectory(String, File, String)}.
+		 */
+		GZIPPED_TAR (ArchiveStreamFactory.TAR, null);
+
+		private final String archiveStreamFactoryConstant;
+		private final String encoding;
+
+		private ArchiveFormat (final String archiveStreamFactoryConstant, final String encoding) {
+			this.archiveStreamFactoryConstant = archiveStreamFactoryConstant;
+			this.encoding = encoding;
+		}
+	}
+	
+	/**
+	 * The order entries are added to an archive in.
+	 */
+	public enum EntryOrder {
+		/**
+		 * Depth first, every directory followed by its contents sorted by name. This is the default.
+		 */
+		DIRECTORY,
+		/**
+		 * All the directories first (in the {@link #DIRECTORY} order), then the files grouped by type: sorted by
+		 * extension, then by file name, then by path. Keeping similar files next to each other improves the
+		 * compression of solid archives (like GZipped tar), where the compressor sees the files one after another.
+		 */
+		FILE_TYPE
+	}
+	
+	private static final class ArchiveEntryWriter {
 		private final String normalizedRootPathPrefix;
 		private final ArchiveOutputStream archiveOutputStream;
+		private final ArchiverCreateProcessor archiverCreateProcessor;
+		private final ByteRateLimiter sourceRateLimiter;
 
-		private ArchiverFileVisitor (final Path sourceRootPath, final String normalizedRootPathPrefix,
-				final ArchiveOutputStream archiveOutputStream) {
+		private ArchiveEntryWriter (final String normalizedRootPathPrefix,
+				final ArchiveOutputStream archiveOutputStream, final ArchiverCreateProcessor archiverCreateProcessor,
+				final ByteRateLimiter sourceRateLimiter) {
 			this.normalizedRootPathPrefix = normalizedRootPathPrefix;
-			this.sourceRootPath = sourceRootPath;
 			this.archiveOutputStream = archiveOutputStream;
+			this.archiverCreateProcessor = archiverCreateProcessor;
+			this.sourceRateLimiter = sourceRateLimiter;
 		}
 
-		/* (non-Javadoc)
-		 * @see java.nio.file.FileVisitor#preVisitDirectory(java.lang.Object,
-		 * 		java.nio.file.attribute.BasicFileAttributes)
+		private void write (final ScannedEntry scannedEntry) throws IOException {
+			if (putEntry(scannedEntry)) {
+				if (null == sourceRateLimiter) {
+					Files.copy(scannedEntry.getPath(), archiveOutputStream);
+				} else {
+					copyRateLimited(scannedEntry.getPath());
+				}
+				archiveOutputStream.closeArchiveEntry();
+			}
+		}
+
+		/**
+		 * Adds the entry to the archive; directory entries are closed right away, for files the caller writes the
+		 * content and closes the entry.
+		 * 
+		 * @return <code>true</code> if the entry is a file.
 		 */
+		private boolean putEntry (final ScannedEntry scannedEntry) throws IOException {
+			final Path path = scannedEntry.getPath();
+			BasicFileAttributes attributes = scannedEntry.getAttributes();
+			if (attributes.isSymbolicLink()) {
+				// The entry has the size and time of the content archived, which is that of the link target
+				attributes = Files.readAttributes(path, BasicFileAttributes.class);
+			}
+			final boolean isDirectory = attributes.isDirectory();
+			final String relativeDestinationPath = normalizeName(normalizedRootPathPrefix
+					+ scannedEntry.getRelativePath(), isDirectory);
+			LOG.trace("Creating archive entry for {} at {}", path, relativeDestinationPath);
+
+			final ArchiveEntry archiveEntry = archiverCreateProcessor.createArchiveEntry(relativeDestinationPath,
+					attributes);
+			archiveOutputStream.putArchiveEntry(archiveEntry);
+			if (isDirectory) {
+				archiveOutputStream.closeArchiveEntry();
+			}
+			return !isDirectory;
+		}
+
+		private void copyRateLimited (final Path file) throws IOException {
+			final InputStream inputStream = Files.newInputStream(file);
+			try {
+				final byte[] buffer = new byte[COPY_BUFFER_SIZE];
+				int read = inputStream.read(buffer);
+				while (read != -1) {
+					sourceRateLimiter.acquire(read);
+					archiveOutputStream.write(buffer, 0, read);
+					read = inputStream.read(buffer);
+				}
+			} finally {
+				inputStream.close();
+			}
+		}
+	}
+	
+	/**
+	 * Creates the archive step by step as it is read; see {@link #openArchiveOfDirectory(ArchiveFormat, File, String)}.
+	 */
+	private static final class ArchiveByteChannel implements ReadableByteChannel {
+
+		private final EntryCursor entryCursor;
+		private final DrainableByteArrayOutputStream buffer = new DrainableByteArrayOutputStream();
+		private final byte[] copyBuffer = new byte[COPY_BUFFER_SIZE];
+		private OutputStream decoratedOutputStream;
+		private ArchiveOutputStream archiveOutputStream;
+		private ArchiveEntryWriter entryWriter;
+		private InputStream currentFileInputStream;
+		private boolean finished;
+		private boolean closed;
+
+		private ArchiveByteChannel (final EntryCursor entryCursor) {
+			this.entryCursor = entryCursor;
+		}
+
+		private void open (final ArchiveFormat archiveFormat, final Path srcRootPath, final String rootPathPrefix)
+				throws IOException {
+			final ArchiverCreateProcessor archiverCreateProcessorIn = createArchiverCreateProcessor(archiveFormat);
+			final ArchiverCreateProcessor archiverCreateProcessor = (null != archiverCreateProcessorIn)
+					? archiverCreateProcessorIn : new ArchiverCreateProcessor();
+			// Kept to release the compressor when the channel is closed in the middle of an entry
+			decoratedOutputStream = archiverCreateProcessor.decorateOutputStream(buffer);
+			try {
+				archiveOutputStream = createArchiveOutputStream(decoratedOutputStream,
+						archiveFormat.archiveStreamFactoryConstant, archiveFormat.encoding, archiverCreateProcessor);
+			} catch (IOException e) {
+				decoratedOutputStream.close();
+				throw e;
+			} catch (ArchiveException e) {
+				decoratedOutputStream.close();
+				throw new IOException("Error creating archive", e);
+			}
+			final String normalizedRootPathPrefix = writeRootPathPrefix(archiveOutputStream, archiverCreateProcessor,
+					srcRootPath, rootPathPrefix);
+			entryWriter = new ArchiveEntryWriter(normalizedRootPathPrefix, archiveOutputStream,
+					archiverCreateProcessor, null);
+		}
+
 		@Override
-		public FileVisitResult preVisitDirectory (final Path dir, final BasicFileAttributes attrs) throws IOException {
+		public int read (final ByteBuffer dst) throws IOException {
+			if (closed) {
+				throw new ClosedChannelException();
+			}
+			if (!dst.hasRemaining()) {
+				return 0;
+			}
+			while (buffer.isDrained()) {
+				if (finished) {
+					return -1;
+				}
+				writeNextChunk();
+			}
+			return buffer.drainTo(dst);
+		}
 
-			// Create a zip entry for the directory
-			final Path relativeSourcePath = sourceRootPath.relativize(dir);
-			if (relativeSourcePath.toString().isEmpty()) { // Per documentation in Path, the relative path is not NULL
-				// Special case for the root
-				return FileVisitResult.CONTINUE;
+		/**
+		 * Writes the next piece of the archive: a chunk of the current file, the next entry header or the end of the
+		 * archive.
+		 */
+		private void writeNextChunk () throws IOException {
+			if (null != currentFileInputStream) {
+				final int read = currentFileInputStream.read(copyBuffer);
+				if (read == -1) {
+					currentFileInputStream.close();
+					currentFileInputStream = null;
+					archiveOutputStream.closeArchiveEntry();
+				} else {
+					archiveOutputStream.write(copyBuffer, 0, read);
+				}
+			} else {
+				final ScannedEntry scannedEntry = entryCursor.next();
+				if (null == scannedEntry) {
+					// Closing writes the trailers of the archive (and the compressor) to the buffer
+					archiveOutputStream.finish();
+					archiveOutputStream.close();
+					finished = true;
+				} else if (entryWriter.putEntry(scannedEntry)) {
+					currentFileInputStream = Files.newInputStream(scannedEntry.getPath());
+				}
 			}
+		}
 
-			final String relativeDestinationPath = normalizeName(normalizedRootPathPrefix + relativeSourcePath, true);
-			LOG.trace("Creating zip / jar entry for directory {} at {}", dir, relativeDestinationPath);
+		@Override
+		public boolean isOpen () {
+			return !closed;
+		}
 
-			final ArchiveEntry archiveEntry = archiveOutputStream.createArchiveEntry(dir.toFile(),
-					relativeDestinationPath);
-			archiveOutputStream.putArchiveEntry(archiveEntry);
-			archiveOutputStream.closeArchiveEntry();
+		@Override
+		public void close () throws IOException {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			if (finished) {
+				return;
+			}
+			if (null == currentFileInputStream) {
+				// Between entries the archive can be finished, which releases everything it uses
+				archiveOutputStream.close();
+				return;
+			}
+			// Finishing an archive with an open entry fails, so skip it and close what is underneath the archive
+			try {
+				currentFileInputStream.close();
+			} finally {
+				currentFileInputStream = null;
+				decoratedOutputStream.close();
+			}
+		}
+	}
 
-			return FileVisitResult.CONTINUE;
+	/**
+	 * A byte array output stream that is read from as it is written to, and reused once all of it is read.
+	 */
+	private static final class DrainableByteArrayOutputStream extends ByteArrayOutputStream {
+		private int readPosition;
+
+		private boolean isDrained () {
+			return readPosition == count;
 		}
 
-		/* (non-Javadoc)
-		 * @see java.nio.file.FileVisitor#visitFile(java.lang.Object, java.nio.file.attribute.BasicFileAttributes)
+		private int drainTo (final ByteBuffer dst) {
+			final int length = Math.min(count - readPosition, dst.remaining());
+			dst.put(buf, readPosition, length);
+			readPosition += length;
+			if (readPosition == count) {
+				reset();
+				readPosition = 0;
+			}
+			return length;
+		}
+	}
+
+	/**
+	 * Charges the bytes written to the archive file, after any compression, to the rate limiter of its device.
+	 */
+	private static final class RateLimitedOutputStream extends FilterOutputStream {
+		private final ByteRateLimiter rateLimiter;
+
+		private RateLimitedOutputStream (final OutputStream out, final ByteRateLimiter rateLimiter) {
+			super(out);
+			this.rateLimiter = rateLimiter;
+		}
+
+		@Override
+		public void write (final int b) throws IOException {
+			rateLimiter.acquire(1);
+			out.write(b);
+		}
+
+		@Override
+		public void write (final byte[] b, final int off, final int len) throws IOException {
+			rateLimiter.acquire(len);
+			out.write(b, off, len);
+		}
+	}
+
+	/**
+	 * Supplies the entries of an archive read through an {@link ArchiveByteChannel}, one at a time.
+	 */
+	private abstract static class EntryCursor {
+
+		/**
+		 * @return The next entry to archive, <code>null</code> after the last one.
 		 */
+		protected abstract ScannedEntry next () throws IOException;
+	}
+
+	/**
+	 * The entries of a list built up front.
+	 */
+	private static final class ListEntryCursor extends EntryCursor {
+		private final Iterator<ScannedEntry> scannedEntries;
+
+		private ListEntryCursor (final List<ScannedEntry> scannedEntries) {
+			this.scannedEntries = scannedEntries.iterator();
+		}
+
 		@Override
-		public FileVisitResult visitFile (final Path file, final BasicFileAttributes attrs) throws IOException {
+		protected ScannedEntry next () {
+			return scannedEntries.hasNext() ? scannedEntries.next() : null;
+		}
+	}
 
-			// Add the file to the zip
-			final Path relativeSourcePath = sourceRootPath.relativize(file);
-			final String relativeDestinationPath = normalizeName(normalizedRootPathPrefix + relativeSourcePath, false);
-			LOG.trace("Creating zip / jar entry for file {} at {}", file, relativeDestinationPath);
+	/**
+	 * Walks the source tree as entries are requested, in the same order as the {@link DirectoryScanner}: depth first,
+	 * every directory followed by its contents sorted by name.
+	 * 
+	 * <p>Only the (sorted) listings of the directories on the path from the root to the last entry returned are held;
+	 * a directory is listed when it is reached, and the attributes of an entry read when it is returned.
+	 */
+	private static final class DirectoryWalkCursor extends EntryCursor {
+		private final Path rootDirectory;
+		private final Deque<Iterator<Path>> unvisitedChildren = new ArrayDeque<>();
 
-			final ArchiveEntry archiveEntry = archiveOutputStream.createArchiveEntry(file.toFile(),
-					relativeDestinationPath);
-			archiveOutputStream.putArchiveEntry(archiveEntry);
-			Files.copy(file, archiveOutputStream);
-			archiveOutputStream.closeArchiveEntry();
+		private DirectoryWalkCursor (final Path rootDirectory) throws IOException {
+			if (!Files.isDirectory(rootDirectory)) {
+				throw new IOException("Not a directory: " + rootDirectory);
+			}
+			this.rootDirectory = rootDirectory;
+			unvisitedChildren.push(listSorted(rootDirectory));
+		}
 
-			return FileVisitResult.CONTINUE;
+		@Override
+		protected ScannedEntry next () throws IOException {
+			while (!unvisitedChildren.isEmpty()) {
+				final Iterator<Path> children = unvisitedChildren.peek();
+				if (!children.hasNext()) {
+					unvisitedChildren.pop();
+					continue;
+				}
+				final Path path = children.next();
+				final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class,
+						LinkOption.NOFOLLOW_LINKS);
+				if (attributes.isDirectory()) {
+					unvisitedChildren.push(listSorted(path));
+				}
+				return new ScannedEntry(path, rootDirectory.relativize(path), attributes);
+			}
+			return null;
+		}
+
+		private Iterator<Path> listSorted (final Path directory) throws IOException {
+			final List<Path> children = new ArrayList<>();
+			final DirectoryStream<Path> directoryStream = Files.newDirectoryStream(directory);
+			try {
+				for (Path child : directoryStream) {
+					children.add(child);
+				}
+			} finally {
+				directoryStream.close();
+			}
+			Collections.sort(children, NAME_ORDER);
+			return children.iterator();
+		}
+	}
+
+	private static class ArchiveEntrySource {
+
+		private final EntryOrder entryOrder;
+
+		protected ArchiveEntrySource (final EntryOrder entryOrder) {
+			this.entryOrder = entryOrder;
+		}
+
+		protected List<ScannedEntry> getEntries (final Path srcRootPath) throws IOException {
+			final List<ScannedEntry> scannedEntries = DIRECTORY_SCANNER.scan(srcRootPath);
+			if (EntryOrder.FILE_TYPE == entryOrder) {
+				return orderByFileType(scannedEntries);
+			}
+			return scannedEntries;
+		}
+	}
+	
+	private static class ManifestArchiveEntrySource extends ArchiveEntrySource {
+
+		private final Iterable<String> relativePaths;
+
+		protected ManifestArchiveEntrySource (final Iterable<String> relativePaths) {
+			// Entries are archived in the order listed
+			super(null);
+			ArgumentCheck.notNull(relativePaths, "relativePaths");
+			this.relativePaths = relativePaths;
+		}
+
+		@Override
+		protected List<ScannedEntry> getEntries (final Path srcRootPath) throws IOException {
+			final Path normalizedRootPath = srcRootPath.normalize();
+			final List<ScannedEntry> entries = new ArrayList<>();
+			for (String relativePath : relativePaths) {
+				ArgumentCheck.notNullOrEmpty(relativePath, "Manifest entry");
+				final Path path = normalizedRootPath.resolve(relativePath.replace(WIN_PATH_SEPARATOR,
+						ARCHIVE_PATH_SEPARATOR)).normalize();
+				if (!path.startsWith(normalizedRootPath) || path.equals(normalizedRootPath)) {
+					throw new IllegalArgumentException("Manifest entry " + relativePath
+							+ " is not inside the source directory");
+				}
+				// Only the listed entry is read, nothing is listed
+				final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class,
+						LinkOption.NOFOLLOW_LINKS);
+				entries.add(new ScannedEntry(path, normalizedRootPath.relativize(path), attributes));
+			}
+			return entries;
 		}
 	}
 	
 	private static class ArchiverCreateProcessor {
 
-		protected OutputStream decorateFileOutputStream (final FileOutputStream archiveFileOutputStream)
+		/**
+		 * Creates the entry from the attributes read through the file system provider, so the source need not be on the
+		 * default file system. Names of directory entries end with a <code>/</code>.
+		 */
+		protected ArchiveEntry createArchiveEntry (final String entryName, final BasicFileAttributes attributes) {
+			final ZipArchiveEntry zipArchiveEntry = new ZipArchiveEntry(entryName);
+			zipArchiveEntry.setTime(attributes.lastModifiedTime().toMillis());
+			if (!attributes.isDirectory()) {
+				zipArchiveEntry.setSize(attributes.size());
+			}
+			return zipArchiveEntry;
+		}
+
+		protected OutputStream decorateOutputStream (final OutputStream archiveFileOutputStream)
 				throws IOException {
 			return archiveFileOutputStream;
 		}
@@ -318,9 +1069,19 @@ public final class DirectoryArchiverUtil {
 		}
 
 		@Override
-		protected OutputStream decorateFileOutputStream (final FileOutputStream archiveFileOutputStream)
+		protected ArchiveEntry createArchiveEntry (final String entryName, final BasicFileAttributes attributes) {
+			final TarArchiveEntry tarArchiveEntry = new TarArchiveEntry(entryName);
+			tarArchiveEntry.setModTime(attributes.lastModifiedTime().toMillis());
+			if (!attributes.isDirectory()) {
+				tarArchiveEntry.setSize(attributes.size());
+			}
+			return tarArchiveEntry;
+		}
+
+		@Override
+		protected OutputStream decorateOutputStream (final OutputStream archiveFileOutputStream)
 				throws IOException {
-			OutputStream returnStream = super.decorateFileOutputStream(archiveFileOutputStream);
+			OutputStream returnStream = super.decorateOutputStream(archiveFileOutputStream);
 
 			if (null != compressor) {
 				try {
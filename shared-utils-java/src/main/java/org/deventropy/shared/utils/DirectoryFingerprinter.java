@@ -0,0 +1,447 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.shared.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.deventropy.shared.utils.DirectoryScanner.ScannedEntry;
+
+/**
+ * Computes a fingerprint of the contents of a directory tree, to decide if anything in it changed; for example whether
+ * artifacts built from a source tree need to be rebuilt.
+ * 
+ * <p>The fingerprint is the root of a Merkle tree (using <code>SHA-256</code>): the hash of a file is the hash of its
+ * contents, the hash of a symbolic link that of its target path, and the hash of a directory is computed from the
+ * names, types and hashes of its children, sorted by name. So the fingerprint depends only on the names and contents
+ * in the tree, not on the order entries are listed in, the location of the tree or the modification times. Entries
+ * that are neither files, directories nor links (devices, pipes) are ignored.
+ * 
+ * <p>The tree is listed with a {@link DirectoryScanner}, and the files hashed concurrently on a fork-join pool with
+ * the same parallelism.
+ * 
+ * <h2>Hash cache</h2>
+ * The hashes of files are cached, keyed by the location of the file and validated with its file key (the inode on
+ * most file systems), size and modification time; a file is read again only if any of them changed. If a cache file
+ * is configured, the cache is loaded from it the first time a tree is fingerprinted and written back after every
+ * fingerprint that changed it, so an unchanged tree is fingerprinted again without reading any file, even in a new
+ * process. Files modified in the last couple of seconds before a fingerprint are not cached, as a change within the
+ * same modification time tick would otherwise go unnoticed.
+ * 
+ * <p>Instances are thread safe, and fingerprint one tree at a time. A cache file must not be shared by fingerprinters
+ * running at the same time.
+ * 
+ * @author Bindul Bhowmik
+ */
+public final class DirectoryFingerprinter {
+
+	private static final String DIGEST_ALGORITHM = "SHA-256";
+	private static final int HASH_BATCH_SIZE = 16;
+	private static final int READ_BUFFER_SIZE = 64 * 1024;
+	private static final int CACHE_FILE_MAGIC = 0x44464350;
+	private static final int CACHE_FILE_VERSION = 1;
+	private static final String NO_FILE_KEY = "";
+	private static final String URI_PATH_SEPARATOR = "/";
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	/**
+	 * Files modified this recently (some file systems only record modification times to two seconds) are not cached.
+	 */
+	private static final long RACY_INTERVAL_MILLIS = 2000;
+
+	private static final byte FILE_TYPE = 'f';
+	private static final byte DIRECTORY_TYPE = 'd';
+	private static final byte LINK_TYPE = 'l';
+
+	private static final Logger LOG = LogManager.getLogger(DirectoryFingerprinter.class);
+
+	private static final Comparator<ScannedEntry> NAME_ORDER = new Comparator<ScannedEntry>() {
+		@Override
+		public int compare (final ScannedEntry entry1, final ScannedEntry entry2) {
+			return entry1.getPath().getFileName().toString().compareTo(entry2.getPath().getFileName().toString());
+		}
+	};
+
+	private final int parallelism;
+	private final Path cacheFile;
+	private final DirectoryScanner directoryScanner;
+	private final ConcurrentMap<String, CachedHash> hashCache = new ConcurrentHashMap<>();
+	private final AtomicBoolean hashCacheModified = new AtomicBoolean();
+	private boolean hashCacheLoaded;
+
+	/**
+	 * Creates a fingerprinter with parallelism equal to the number of available processors, caching file hashes only
+	 * in memory.
+	 */
+	public DirectoryFingerprinter () {
+		this(Runtime.getRuntime().availableProcessors(), null);
+	}
+
+	/**
+	 * Creates a fingerprinter with the specified parallelism and cache file.
+	 * 
+	 * @param parallelism The number of threads used to scan and hash, must be positive.
+	 * @param cacheFile The file the hash cache is persisted in, created if it does not exist. May be
+	 * 	<code>null</code>, to cache file hashes only in memory.
+	 */
+	public DirectoryFingerprinter (final int parallelism, final Path cacheFile) {
+		this.directoryScanner = new DirectoryScanner(parallelism);
+		this.parallelism = parallelism;
+		this.cacheFile = cacheFile;
+	}
+
+	/**
+	 * Fingerprints the directory tree under <code>rootDirectory</code>.
+	 * 
+	 * @param rootDirectory The directory to fingerprint.
+	 * @return The fingerprint, as a lower case hexadecimal string.
+	 * @throws IOException Error reading the tree or writing the cache file.
+	 */
+	public synchronized String fingerprint (final Path rootDirectory) throws IOException {
+		ArgumentCheck.notNull(rootDirectory, "rootDirectory");
+		loadHashCache();
+
+		final long startMillis = System.currentTimeMillis();
+		final List<ScannedEntry> entries = directoryScanner.scan(rootDirectory);
+		final byte[][] hashes = new byte[entries.size()][];
+		final ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			pool.invoke(new HashTask(entries, hashes, startMillis, 0, hashes.length));
+		} catch (HashFailedException e) {
+			throw e.getCause();
+		} finally {
+			pool.shutdown();
+		}
+		removeDeletedFiles(rootDirectory, entries);
+
+		final Map<Path, List<Integer>> childIndexes = new HashMap<>();
+		for (int i = 0; i < entries.size(); i++) {
+			final Path parent = entries.get(i).getRelativePath().getParent();
+			List<Integer> siblings = childIndexes.get(parent);
+			if (null == siblings) {
+				siblings = new ArrayList<>();
+				childIndexes.put(parent, siblings);
+			}
+			siblings.add(i);
+		}
+		final String fingerprint = toHex(hashDirectory(null, entries, hashes, childIndexes));
+
+		saveHashCache();
+		LOG.trace("Fingerprinted {} entries under {}: {}", entries.size(), rootDirectory, fingerprint);
+		return fingerprint;
+	}
+
+	private byte[] hashDirectory (final Path relativeDirectory, final List<ScannedEntry> entries,
+			final byte[][] hashes, final Map<Path, List<Integer>> childIndexes) {
+
+		final List<ScannedEntry> children = new ArrayList<>();
+		final Map<ScannedEntry, byte[]> childHashes = new HashMap<>();
+		final List<Integer> indexes = childIndexes.get(relativeDirectory);
+		if (null != indexes) {
+			for (Integer index : indexes) {
+				final ScannedEntry child = entries.get(index);
+				final byte[] childHash = child.isDirectory()
+						? hashDirectory(child.getRelativePath(), entries, hashes, childIndexes) : hashes[index];
+				if (null != childHash) {
+					children.add(child);
+					childHashes.put(child, childHash);
+				}
+			}
+		}
+		Collections.sort(children, NAME_ORDER);
+
+		final MessageDigest digest = newDigest();
+		for (ScannedEntry child : children) {
+			final byte[] name = child.getPath().getFileName().toString().getBytes(StandardCharsets.UTF_8);
+			digest.update(getType(child.getAttributes()));
+			digest.update(toBytes(name.length));
+			digest.update(name);
+			digest.update(childHashes.get(child));
+		}
+		return digest.digest();
+	}
+
+	private static byte getType (final BasicFileAttributes attributes) {
+		if (attributes.isDirectory()) {
+			return DIRECTORY_TYPE;
+		}
+		return attributes.isSymbolicLink() ? LINK_TYPE : FILE_TYPE;
+	}
+
+	private byte[] hashEntry (final ScannedEntry entry, final long startMillis) throws IOException {
+		final BasicFileAttributes attributes = entry.getAttributes();
+		if (attributes.isSymbolicLink()) {
+			final String linkTarget = Files.readSymbolicLink(entry.getPath()).toString();
+			return newDigest().digest(linkTarget.getBytes(StandardCharsets.UTF_8));
+		}
+		if (!attributes.isRegularFile()) {
+			return null;
+		}
+
+		final String cacheKey = entry.getPath().toUri().toString();
+		final String fileKey = (null == attributes.fileKey()) ? NO_FILE_KEY : attributes.fileKey().toString();
+		final long size = attributes.size();
+		final long lastModified = attributes.lastModifiedTime().toMillis();
+		final CachedHash cachedHash = hashCache.get(cacheKey);
+		if (null != cachedHash && cachedHash.matches(fileKey, size, lastModified)) {
+			return cachedHash.hash;
+		}
+
+		final MessageDigest digest = newDigest();
+		final InputStream inputStream = Files.newInputStream(entry.getPath());
+		try {
+			final byte[] buffer = new byte[READ_BUFFER_SIZE];
+			int read = inputStream.read(buffer);
+			while (read != -1) {
+				digest.update(buffer, 0, read);
+				read = inputStream.read(buffer);
+			}
+		} finally {
+			inputStream.close();
+		}
+		final byte[] hash = digest.digest();
+
+		if (lastModified < startMillis - RACY_INTERVAL_MILLIS) {
+			hashCache.put(cacheKey, new CachedHash(fileKey, size, lastModified, hash));
+			hashCacheModified.set(true);
+		} else if (null != hashCache.remove(cacheKey)) {
+			hashCacheModified.set(true);
+		}
+		return hash;
+	}
+
+	/**
+	 * Drops the cached hashes of files under the root that no longer exist.
+	 */
+	private void removeDeletedFiles (final Path rootDirectory, final List<ScannedEntry> entries) {
+		String rootPrefix = rootDirectory.toUri().toString();
+		if (!rootPrefix.endsWith(URI_PATH_SEPARATOR)) {
+			rootPrefix += URI_PATH_SEPARATOR;
+		}
+		final Set<String> existingKeys = new HashSet<>();
+		for (ScannedEntry entry : entries) {
+			existingKeys.add(entry.getPath().toUri().toString());
+		}
+		final Iterator<String> cacheKeys = hashCache.keySet().iterator();
+		while (cacheKeys.hasNext()) {
+			final String cacheKey = cacheKeys.next();
+			if (cacheKey.startsWith(rootPrefix) && !existingKeys.contains(cacheKey)) {
+				cacheKeys.remove();
+				hashCacheModified.set(true);
+			}
+		}
+	}
+
+	private void loadHashCache () {
+		if (hashCacheLoaded) {
+			return;
+		}
+		hashCacheLoaded = true;
+		if (null == cacheFile || !Files.exists(cacheFile)) {
+			return;
+		}
+		try {
+			final DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cacheFile)));
+			try {
+				if (in.readInt() != CACHE_FILE_MAGIC || in.readInt() != CACHE_FILE_VERSION) {
+					LOG.warn("Ignoring hash cache {} in an unknown format", cacheFile);
+					return;
+				}
+				final int count = in.readInt();
+				for (int i = 0; i < count; i++) {
+					final String cacheKey = in.readUTF();
+					final String fileKey = in.readUTF();
+					final long size = in.readLong();
+					final long lastModified = in.readLong();
+					final byte[] hash = new byte[in.readUnsignedShort()];
+					in.readFully(hash);
+					hashCache.put(cacheKey, new CachedHash(fileKey, size, lastModified, hash));
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			// The cache only saves work; start over with whatever was read
+			LOG.warn("Error reading hash cache {}, files will be hashed again", cacheFile, e);
+		}
+	}
+
+	private void saveHashCache () throws IOException {
+		if (null == cacheFile || !hashCacheModified.getAndSet(false)) {
+			return;
+		}
+		final Path absoluteCacheFile = cacheFile.toAbsolutePath();
+		final Path tempFile = Files.createTempFile(absoluteCacheFile.getParent(),
+				absoluteCacheFile.getFileName().toString(), ".tmp");
+		try {
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+					Files.newOutputStream(tempFile)));
+			try {
+				final List<Map.Entry<String, CachedHash>> cachedHashes = new ArrayList<>(hashCache.entrySet());
+				out.writeInt(CACHE_FILE_MAGIC);
+				out.writeInt(CACHE_FILE_VERSION);
+				out.writeInt(cachedHashes.size());
+				for (Map.Entry<String, CachedHash> cachedHash : cachedHashes) {
+					out.writeUTF(cachedHash.getKey());
+					out.writeUTF(cachedHash.getValue().fileKey);
+					out.writeLong(cachedHash.getValue().size);
+					out.writeLong(cachedHash.getValue().lastModified);
+					out.writeShort(cachedHash.getValue().hash.length);
+					out.write(cachedHash.getValue().hash);
+				}
+			} finally {
+				out.close();
+			}
+			// Readers see either the old or the new cache, never a partially written one
+			try {
+				Files.move(tempFile, absoluteCacheFile, StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tempFile, absoluteCacheFile, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(tempFile);
+		}
+	}
+
+	private static MessageDigest newDigest () {
+		try {
+			return MessageDigest.getInstance(DIGEST_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static byte[] toBytes (final int value) {
+		return new byte[] {(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+	}
+
+	private static String toHex (final byte[] bytes) {
+		final char[] hex = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			hex[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0x0F];
+			hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0x0F];
+		}
+		return new String(hex);
+	}
+
+	/**
+	 * The hash of a file, valid as long as the file key, size and modification time are unchanged.
+	 */
+	private static final class CachedHash {
+		private final String fileKey;
+		private final long size;
+		private final long lastModified;
+		private final byte[] hash;
+
+		private CachedHash (final String fileKey, final long size, final long lastModified, final byte[] hash) {
+			this.fileKey = fileKey;
+			this.size = size;
+			this.lastModified = lastModified;
+			this.hash = hash;
+		}
+
+		private boolean matches (final String currentFileKey, final long currentSize, final long currentLastModified) {
+			return fileKey.equals(currentFileKey) && size == currentSize && lastModified == currentLastModified;
+		}
+	}
+
+	/**
+	 * Hashes a range of the scanned entries, splitting the range while it is larger than the batch size.
+	 */
+	private final class HashTask extends RecursiveAction {
+
+		private static final long serialVersionUID = -2370271263981954519L;
+
+		private final transient List<ScannedEntry> entries;
+		private final transient byte[][] hashes;
+		private final long startMillis;
+		private final int from;
+		private final int to;
+
+		private HashTask (final List<ScannedEntry> entries, final byte[][] hashes, final long startMillis,
+				final int from, final int to) {
+			this.entries = entries;
+			this.hashes = hashes;
+			this.startMillis = startMillis;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute () {
+			if (to - from > HASH_BATCH_SIZE) {
+				final int middle = (from + to) >>> 1;
+				invokeAll(new HashTask(entries, hashes, startMillis, from, middle),
+						new HashTask(entries, hashes, startMillis, middle, to));
+				return;
+			}
+			for (int i = from; i < to; i++) {
+				try {
+					hashes[i] = hashEntry(entries.get(i), startMillis);
+				} catch (IOException e) {
+					throw new HashFailedException(e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Carries an {@link IOException} out of the fork-join tasks.
+	 */
+	private static final class HashFailedException extends RuntimeException {
+
+		private static final long serialVersionUID = -8260385315094950247L;
+
+		private HashFailedException (final IOException cause) {
+			super(cause);
+		}
+
+		@Override
+		public synchronized IOException getCause () {
+			return (IOException) super.getCause();
+		}
+	}
+}
@@ -0,0 +1,286 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.shared.utils;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Scans a directory tree, listing and reading the attributes of sub trees concurrently on a fork-join pool.
+ * 
+ * <p>{@link java.nio.file.Files#walkFileTree(Path, java.nio.file.FileVisitor)} reads the attributes of one entry
+ * after another, which on high latency file systems (NFS for example) dominates the time it takes to process large
+ * trees. This scanner lists every directory in its own task, and reads the attributes of large directories in
+ * parallel chunks.
+ * 
+ * <p>The result of a scan is deterministic: entries are returned depth first, with a directory always preceding its
+ * contents and the children of every directory sorted by name. The root directory itself is not part of the result.
+ * Symbolic links are not followed; a link is returned as a regular (non directory) entry, the same way
+ * <code>Files.walkFileTree</code> reports them by default.
+ * 
+ * <p>Instances are thread safe and may be shared. Each scan runs in a pool created for it, so the parallelism
+ * configured can be tuned for the latency of the underlying storage rather than the number of processors.
+ * 
+ * @author Bindul Bhowmik
+ */
+public final class DirectoryScanner {
+
+	/**
+	 * The number of directory entries whose attributes are read in a single task.
+	 */
+	private static final int STAT_BATCH_SIZE = 256;
+
+	private static final Logger LOG = LogManager.getLogger(DirectoryScanner.class);
+
+	private static final Comparator<ScannedEntry> NAME_ORDER = new Comparator<ScannedEntry>() {
+		@Override
+		public int compare (final ScannedEntry entry1, final ScannedEntry entry2) {
+			return entry1.name.compareTo(entry2.name);
+		}
+	};
+
+	private final int parallelism;
+
+	/**
+	 * Creates a scanner with parallelism equal to the number of available processors.
+	 */
+	public DirectoryScanner () {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates a scanner with the specified parallelism. On high latency file systems a parallelism higher than the
+	 * number of processors may give better results.
+	 * 
+	 * @param parallelism The number of threads used to scan, must be positive.
+	 */
+	public DirectoryScanner (final int parallelism) {
+		if (parallelism <= 0) {
+			throw new IllegalArgumentException("parallelism must be positive");
+		}
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Scans the directory tree under <code>rootDirectory</code>.
+	 * 
+	 * @param rootDirectory The directory to scan.
+	 * @return All the files and directories under the root, in a deterministic depth first order.
+	 * @throws IOException Error listing a directory or reading the attributes of an entry.
+	 */
+	public List<ScannedEntry> scan (final Path rootDirectory) throws IOException {
+		ArgumentCheck.notNull(rootDirectory, "rootDirectory");
+		if (!Files.isDirectory(rootDirectory)) {
+			throw new IOException("Not a directory: " + rootDirectory);
+		}
+
+		final DirectoryTask rootTask = new DirectoryTask(rootDirectory, rootDirectory);
+		final ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			pool.invoke(rootTask);
+		} catch (ScanFailedException e) {
+			throw e.getCause();
+		} finally {
+			pool.shutdown();
+		}
+
+		final List<ScannedEntry> entries = new ArrayList<>();
+		rootTask.collect(entries);
+		LOG.trace("Scanned {} entries under {}", entries.size(), rootDirectory);
+		return entries;
+	}
+
+	/**
+	 * A file or directory found by the scanner.
+	 */
+	public static final class ScannedEntry {
+		private final Path path;
+		private final Path relativePath;
+		private final String name;
+		private final BasicFileAttributes attributes;
+
+		ScannedEntry (final Path path, final Path relativePath, final BasicFileAttributes attributes) {
+			this.path = path;
+			this.relativePath = relativePath;
+			this.name = path.getFileName().toString();
+			this.attributes = attributes;
+		}
+
+		/**
+		 * @return The path to the entry.
+		 */
+		public Path getPath () {
+			return path;
+		}
+
+		/**
+		 * @return The path of the entry relative to the root directory scanned.
+		 */
+		public Path getRelativePath () {
+			return relativePath;
+		}
+
+		/**
+		 * @return The attributes of the entry, read without following symbolic links.
+		 */
+		public BasicFileAttributes getAttributes () {
+			return attributes;
+		}
+
+		/**
+		 * @return <code>true</code> if the entry is a directory (and not a link to one).
+		 */
+		public boolean isDirectory () {
+			return attributes.isDirectory();
+		}
+
+		@Override
+		public String toString () {
+			return relativePath.toString();
+		}
+	}
+
+	/**
+	 * Lists a directory, reads the attributes of its children and forks a task for every sub directory.
+	 */
+	private static final class DirectoryTask extends RecursiveAction {
+
+		private static final long serialVersionUID = -3072845925446306219L;
+
+		private final transient Path rootDirectory;
+		private final transient Path directory;
+		private transient ScannedEntry[] children;
+		private transient DirectoryTask[] subDirectoryTasks;
+
+		private DirectoryTask (final Path rootDirectory, final Path directory) {
+			this.rootDirectory = rootDirectory;
+			this.directory = directory;
+		}
+
+		@Override
+		protected void compute () {
+			final List<Path> childPaths = new ArrayList<>();
+			try {
+				final DirectoryStream<Path> directoryStream = Files.newDirectoryStream(directory);
+				try {
+					for (Path childPath : directoryStream) {
+						childPaths.add(childPath);
+					}
+				} finally {
+					directoryStream.close();
+				}
+			} catch (IOException e) {
+				throw new ScanFailedException(e);
+			}
+
+			children = new ScannedEntry[childPaths.size()];
+			invokeAll(new AttributesTask(rootDirectory, childPaths, children, 0, children.length));
+			Arrays.sort(children, NAME_ORDER);
+
+			subDirectoryTasks = new DirectoryTask[children.length];
+			final List<DirectoryTask> forked = new ArrayList<>();
+			for (int i = 0; i < children.length; i++) {
+				if (children[i].isDirectory()) {
+					subDirectoryTasks[i] = new DirectoryTask(rootDirectory, children[i].getPath());
+					forked.add(subDirectoryTasks[i]);
+				}
+			}
+			invokeAll(forked);
+		}
+
+		private void collect (final List<ScannedEntry> entries) {
+			for (int i = 0; i < children.length; i++) {
+				entries.add(children[i]);
+				if (null != subDirectoryTasks[i]) {
+					subDirectoryTasks[i].collect(entries);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the attributes for a range of paths, splitting the range while it is larger than the batch size.
+	 */
+	private static final class AttributesTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 2401357468466412264L;
+
+		private final transient Path rootDirectory;
+		private final transient List<Path> paths;
+		private final transient ScannedEntry[] results;
+		private final int from;
+		private final int to;
+
+		private AttributesTask (final Path rootDirectory, final List<Path> paths, final ScannedEntry[] results,
+				final int from, final int to) {
+			this.rootDirectory = rootDirectory;
+			this.paths = paths;
+			this.results = results;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute () {
+			if (to - from > STAT_BATCH_SIZE) {
+				final int middle = (from + to) >>> 1;
+				invokeAll(new AttributesTask(rootDirectory, paths, results, from, middle),
+						new AttributesTask(rootDirectory, paths, results, middle, to));
+				return;
+			}
+			for (int i = from; i < to; i++) {
+				final Path path = paths.get(i);
+				try {
+					final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class,
+							LinkOption.NOFOLLOW_LINKS);
+					results[i] = new ScannedEntry(path, rootDirectory.relativize(path), attributes);
+				} catch (IOException e) {
+					throw new ScanFailedException(e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Carries an {@link IOException} out of the fork-join tasks.
+	 */
+	private static final class ScanFailedException extends RuntimeException {
+
+		private static final long serialVersionUID = 6620744920123517916L;
+
+		private ScanFailedException (final IOException cause) {
+			super(cause);
+		}
+
+		@Override
+		public synchronized IOException getCause () {
+			return (IOException) super.getCause();
+		}
+	}
+}
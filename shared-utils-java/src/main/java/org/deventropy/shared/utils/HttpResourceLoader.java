@@ -0,0 +1,327 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.shared.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Loads HTTP and HTTPS resources, caching them on disk and revalidating the cached copies with conditional requests.
+ * 
+ * <p>Responses carrying an <code>ETag</code> or <code>Last-Modified</code> header are stored in the cache directory
+ * (unless marked <code>Cache-Control: no-store</code>). Later requests for the same URL, from this or any other loader
+ * (or process) using the directory, send <code>If-None-Match</code> / <code>If-Modified-Since</code>, and are served
+ * from the cache when the server answers <code>304 Not Modified</code>; so an unchanged resource is never downloaded
+ * twice. Cache entries are written to a temporary file and moved into place, so concurrent readers never see a
+ * partially written entry. Only the validators of a cached entry are read before the request; its body is read only
+ * when the server answers <code>304 Not Modified</code>.
+ * 
+ * <p>Requests are made with <code>HttpURLConnection</code>, which keeps a pool of persistent (keep-alive) connections
+ * per host; this loader always reads responses completely and closes them without disconnecting, so the connections
+ * are returned to the pool and reused by later requests.
+ * 
+ * <p>Instances are thread safe.
+ * 
+ * @author Bindul Bhowmik
+ */
+public final class HttpResourceLoader {
+
+	private static final Logger LOG = LogManager.getLogger(HttpResourceLoader.class);
+
+	private static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 10000;
+	private static final int DEFAULT_READ_TIMEOUT_MILLIS = 30000;
+	private static final int CACHE_FILE_MAGIC = 0x48524c43;
+	private static final int CACHE_FILE_VERSION = 1;
+	private static final String CACHE_FILE_SUFFIX = ".cache";
+	private static final String DIGEST_ALGORITHM = "SHA-256";
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+	private static final String NO_STORE = "no-store";
+
+	private final Path cacheDirectory;
+	private final int connectTimeoutMillis;
+	private final int readTimeoutMillis;
+
+	/**
+	 * Creates a loader with default timeouts.
+	 * 
+	 * @param cacheDirectory The directory to cache responses in; <code>null</code> not to cache them.
+	 * @throws IOException Error creating the cache directory.
+	 */
+	public HttpResourceLoader (final Path cacheDirectory) throws IOException {
+		this(cacheDirectory, DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS);
+	}
+
+	/**
+	 * Creates a loader.
+	 * 
+	 * @param cacheDirectory The directory to cache responses in; <code>null</code> not to cache them.
+	 * @param connectTimeoutMillis The timeout to connect to a server, <code>0</code> for no timeout.
+	 * @param readTimeoutMillis The timeout waiting for data from a server, <code>0</code> for no timeout.
+	 * @throws IOException Error creating the cache directory.
+	 */
+	public HttpResourceLoader (final Path cacheDirectory, final int connectTimeoutMillis, final int readTimeoutMillis)
+			throws IOException {
+		if (connectTimeoutMillis < 0 || readTimeoutMillis < 0) {
+			throw new IllegalArgumentException("Timeouts cannot be negative");
+		}
+		if (null != cacheDirectory) {
+			Files.createDirectories(cacheDirectory);
+		}
+		this.cacheDirectory = cacheDirectory;
+		this.connectTimeoutMillis = connectTimeoutMillis;
+		this.readTimeoutMillis = readTimeoutMillis;
+	}
+
+	/**
+	 * Returns the contents of a resource; HTTP and HTTPS resources are fetched through the cache, others read with
+	 * {@link UrlResourceUtil}.
+	 * 
+	 * @param resource The resource, in any of the formats supported by {@link UrlResourceUtil}.
+	 * @param cl The class loader to load classpath resources with.
+	 * @return The contents.
+	 * @throws IOException The resource does not exist or cannot be read.
+	 */
+	public byte[] getBytes (final String resource, final ClassLoader cl) throws IOException {
+		final URL url = UrlResourceUtil.getUrl(resource, cl);
+		if (isHttp(url)) {
+			return fetch(url);
+		}
+		return UrlResourceUtil.readFully(url);
+	}
+
+	/**
+	 * Returns the contents of a resource, loading classpath resources with the class loader found by
+	 * {@link ClassUtil#getApplicableClassloader()}.
+	 * 
+	 * @param resource The resource, in any of the formats supported by {@link UrlResourceUtil}.
+	 * @return The contents.
+	 * @throws IOException The resource does not exist or cannot be read.
+	 */
+	public byte[] getBytes (final String resource) throws IOException {
+		return getBytes(resource, ClassUtil.getApplicableClassloader());
+	}
+
+	/**
+	 * Fetches an HTTP or HTTPS resource, from the cache if the server confirms the cached copy is current.
+	 * 
+	 * @param url The URL of the resource.
+	 * @return The contents.
+	 * @throws IOException The resource does not exist (a <code>FileNotFoundException</code>), or the request failed.
+	 */
+	public byte[] fetch (final URL url) throws IOException {
+		ArgumentCheck.notNull(url, "url");
+		if (!isHttp(url)) {
+			throw new IllegalArgumentException("Not an HTTP URL: " + url);
+		}
+		return fetch(url, true);
+	}
+
+	/**
+	 * @param conditional <code>false</code> to request the resource without revalidating the cached copy.
+	 */
+	private byte[] fetch (final URL url, final boolean conditional) throws IOException {
+		final CachedResponse cachedResponse = conditional ? readCachedResponse(url, false) : null;
+
+		final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		connection.setConnectTimeout(connectTimeoutMillis);
+		connection.setReadTimeout(readTimeoutMillis);
+		connection.setUseCaches(false);
+		if (null != cachedResponse) {
+			if (!cachedResponse.etag.isEmpty()) {
+				connection.setRequestProperty("If-None-Match", cachedResponse.etag);
+			}
+			if (cachedResponse.lastModified > 0) {
+				connection.setIfModifiedSince(cachedResponse.lastModified);
+			}
+		}
+
+		final int status = connection.getResponseCode();
+		if (status == HttpURLConnection.HTTP_NOT_MODIFIED && null != cachedResponse) {
+			discard(connection.getErrorStream());
+			final CachedResponse cachedBody = readCachedResponse(url, true);
+			if (null == cachedBody || !cachedBody.hasValidatorsOf(cachedResponse)) {
+				// Replaced or removed (by another loader) after the request was sent
+				LOG.debug("Cached response for {} changed during revalidation, fetching it again", url);
+				return fetch(url, false);
+			}
+			LOG.trace("{} not modified, served from the cache", url);
+			return cachedBody.body;
+		}
+		if (status != HttpURLConnection.HTTP_OK) {
+			discard(connection.getErrorStream());
+			if (status == HttpURLConnection.HTTP_NOT_FOUND || status == HttpURLConnection.HTTP_GONE) {
+				throw new FileNotFoundException("The requested resource " + url + " does not exist (HTTP " + status
+						+ ")");
+			}
+			throw new IOException("Request for " + url + " failed with HTTP " + status);
+		}
+
+		final byte[] body = UrlResourceUtil.readFully(connection.getInputStream());
+		final String etag = connection.getHeaderField("ETag");
+		final long lastModified = connection.getLastModified();
+		final String cacheControl = connection.getHeaderField("Cache-Control");
+		final boolean cacheable = (null != etag || lastModified > 0)
+				&& (null == cacheControl || !cacheControl.toLowerCase(Locale.ENGLISH).contains(NO_STORE));
+		if (null != cacheDirectory && cacheable) {
+			writeCachedResponse(url, new CachedResponse(null == etag ? "" : etag, lastModified, body));
+		}
+		return body;
+	}
+
+	/**
+	 * Removes the cached copy of a resource.
+	 * 
+	 * @param url The URL of the resource.
+	 * @throws IOException Error deleting the cached copy.
+	 */
+	public void invalidate (final URL url) throws IOException {
+		ArgumentCheck.notNull(url, "url");
+		if (null != cacheDirectory) {
+			Files.deleteIfExists(getCacheFile(url));
+		}
+	}
+
+	private static boolean isHttp (final URL url) {
+		return "http".equals(url.getProtocol()) || "https".equals(url.getProtocol());
+	}
+
+	/**
+	 * Reads the rest of an error response, so the connection can be reused.
+	 */
+	private static void discard (final InputStream inputStream) throws IOException {
+		if (null != inputStream) {
+			UrlResourceUtil.readFully(inputStream);
+		}
+	}
+
+	/**
+	 * @param readBody <code>false</code> to read only the validators of the cached response.
+	 * @return The cached response, <code>null</code> if there is none (or it cannot be read).
+	 */
+	private CachedResponse readCachedResponse (final URL url, final boolean readBody) {
+		if (null == cacheDirectory) {
+			return null;
+		}
+		final Path cacheFile = getCacheFile(url);
+		try {
+			final DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cacheFile)));
+			try {
+				if (in.readInt() != CACHE_FILE_MAGIC || in.readInt() != CACHE_FILE_VERSION
+						|| !url.toExternalForm().equals(in.readUTF())) {
+					LOG.warn("Ignoring cached response {} in an unknown format", cacheFile);
+					return null;
+				}
+				final String etag = in.readUTF();
+				final long lastModified = in.readLong();
+				if (!readBody) {
+					return new CachedResponse(etag, lastModified, null);
+				}
+				final byte[] body = new byte[in.readInt()];
+				in.readFully(body);
+				return new CachedResponse(etag, lastModified, body);
+			} finally {
+				in.close();
+			}
+		} catch (NoSuchFileException e) {
+			return null;
+		} catch (IOException e) {
+			LOG.warn("Ignoring cached response {}: {}", cacheFile, e.toString());
+			return null;
+		}
+	}
+
+	private void writeCachedResponse (final URL url, final CachedResponse cachedResponse) throws IOException {
+		final Path cacheFile = getCacheFile(url);
+		final Path tempFile = Files.createTempFile(cacheDirectory, cacheFile.getFileName().toString(), ".tmp");
+		try {
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+					Files.newOutputStream(tempFile)));
+			try {
+				out.writeInt(CACHE_FILE_MAGIC);
+				out.writeInt(CACHE_FILE_VERSION);
+				out.writeUTF(url.toExternalForm());
+				out.writeUTF(cachedResponse.etag);
+				out.writeLong(cachedResponse.lastModified);
+				out.writeInt(cachedResponse.body.length);
+				out.write(cachedResponse.body);
+			} finally {
+				out.close();
+			}
+			try {
+				Files.move(tempFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tempFile, cacheFile, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(tempFile);
+		}
+	}
+
+	private Path getCacheFile (final URL url) {
+		final MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+		final byte[] hash = digest.digest(url.toExternalForm().getBytes(StandardCharsets.UTF_8));
+		final StringBuilder name = new StringBuilder(hash.length * 2 + CACHE_FILE_SUFFIX.length());
+		for (byte b : hash) {
+			name.append(HEX_DIGITS[(b >> 4) & 0xF]).append(HEX_DIGITS[b & 0xF]);
+		}
+		return cacheDirectory.resolve(name.append(CACHE_FILE_SUFFIX).toString());
+	}
+
+	/**
+	 * A cached response, with the validators to revalidate it with. The body is <code>null</code> when only the
+	 * validators are read.
+	 */
+	private static final class CachedResponse {
+		private final String etag;
+		private final long lastModified;
+		private final byte[] body;
+
+		private CachedResponse (final String etag, final long lastModified, final byte[] body) {
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.body = body;
+		}
+
+		private boolean hasValidatorsOf (final CachedResponse other) {
+			return etag.equals(other.etag) && lastModified == other.lastModified;
+		}
+	}
+}
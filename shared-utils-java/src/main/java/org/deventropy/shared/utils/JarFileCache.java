@@ -0,0 +1,304 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.shared.utils;
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A bounded cache of open jar files, so resources read from the same jar over and over reuse one open file and one
+ * parsed central directory.
+ * 
+ * <p>Reading a <code>jar:</code> URL with <code>URL.openStream()</code> either caches the jar file in the JDK for the
+ * life of the process (keeping the file open, even after it is replaced on disk), or, with caching disabled, opens the
+ * jar and reads its whole central directory again for every resource. This cache keeps at most
+ * <code>maxOpenJars</code> jar files open, closing the least recently used ones first. Jar files are reference
+ * counted: every {@link #acquire(Path) acquired} handle (and every stream opened) keeps its jar file open, and a jar
+ * file evicted while in use is closed when the last handle is released. Jar files modified on disk since they were
+ * opened are opened again.
+ * 
+ * <p>{@link UrlResourceUtil} reads classpath resources in jar files through a shared cache.
+ * 
+ * <p>Instances are thread safe.
+ * 
+ * @author Bindul Bhowmik
+ */
+public final class JarFileCache implements Closeable {
+
+	private static final Logger LOG = LogManager.getLogger(JarFileCache.class);
+
+	private static final int SHARED_MAX_OPEN_JARS = 64;
+	private static final JarFileCache SHARED_CACHE = new JarFileCache(SHARED_MAX_OPEN_JARS);
+	private static final String FILE_PROTOCOL = "file";
+	private static final String JAR_PROTOCOL = "jar";
+
+	private final int maxOpenJars;
+	private final LinkedHashMap<Path, CachedJarFile> cachedJarFiles = new LinkedHashMap<>(16, 0.75f, true);
+
+	/**
+	 * Creates a cache.
+	 * 
+	 * @param maxOpenJars The maximum number of jar files kept open when not in use, must be positive.
+	 */
+	public JarFileCache (final int maxOpenJars) {
+		if (maxOpenJars <= 0) {
+			throw new IllegalArgumentException("maxOpenJars must be positive");
+		}
+		this.maxOpenJars = maxOpenJars;
+	}
+
+	/**
+	 * @return The cache shared by {@link UrlResourceUtil}, keeping up to 64 jar files open.
+	 */
+	public static JarFileCache getSharedCache () {
+		return SHARED_CACHE;
+	}
+
+	/**
+	 * Acquires an open jar file, opening it if it is not cached.
+	 * 
+	 * @param jarPath The path of the jar file.
+	 * @return The handle of the jar file, to be closed when done with it; the jar file must not be closed directly.
+	 * @throws IOException Error opening the jar file.
+	 */
+	public Handle acquire (final Path jarPath) throws IOException {
+		ArgumentCheck.notNull(jarPath, "jarPath");
+		final Path path = jarPath.toAbsolutePath().normalize();
+		final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+		final long lastModified = attributes.lastModifiedTime().toMillis();
+		synchronized (cachedJarFiles) {
+			final CachedJarFile cachedJarFile = cachedJarFiles.get(path);
+			if (null != cachedJarFile && cachedJarFile.lastModified == lastModified
+					&& cachedJarFile.size == attributes.size()) {
+				cachedJarFile.references++;
+				return new Handle(cachedJarFile);
+			}
+			if (null != cachedJarFile) {
+				LOG.debug("Jar file {} changed, opening it again", path);
+				evict(cachedJarFiles.remove(path));
+			}
+		}
+
+		// Opened outside the lock; if another thread opened the same jar meanwhile, the first cached is used
+		final JarFile jarFile = new JarFile(path.toFile());
+		final CachedJarFile opened = new CachedJarFile(path, jarFile, lastModified, attributes.size());
+		synchronized (cachedJarFiles) {
+			final CachedJarFile cachedJarFile = cachedJarFiles.get(path);
+			if (null != cachedJarFile && cachedJarFile.lastModified == lastModified
+					&& cachedJarFile.size == attributes.size()) {
+				cachedJarFile.references++;
+				closeQuietly(jarFile);
+				return new Handle(cachedJarFile);
+			}
+			if (null != cachedJarFile) {
+				evict(cachedJarFiles.remove(path));
+			}
+			opened.references++;
+			cachedJarFiles.put(path, opened);
+			final Iterator<CachedJarFile> leastRecentlyUsed = cachedJarFiles.values().iterator();
+			while (cachedJarFiles.size() > maxOpenJars) {
+				final CachedJarFile eldest = leastRecentlyUsed.next();
+				leastRecentlyUsed.remove();
+				evict(eldest);
+			}
+			return new Handle(opened);
+		}
+	}
+
+	/**
+	 * Opens an entry of a <code>jar:</code> URL of a local jar file, like the URL of a classpath resource in a jar.
+	 * 
+	 * @param url The URL.
+	 * @return A stream reading the entry, which keeps the jar file open until it is closed; or <code>null</code> if the
+	 * 	URL is not a <code>jar:</code> URL of an entry in a local jar file.
+	 * @throws IOException The entry does not exist (a <code>FileNotFoundException</code>) or cannot be read.
+	 */
+	public InputStream openStream (final URL url) throws IOException {
+		ArgumentCheck.notNull(url, "url");
+		if (!JAR_PROTOCOL.equals(url.getProtocol())) {
+			return null;
+		}
+		final JarURLConnection jarConnection = (JarURLConnection) url.openConnection();
+		final URL jarFileUrl = jarConnection.getJarFileURL();
+		final String entryName = jarConnection.getEntryName();
+		if (!FILE_PROTOCOL.equals(jarFileUrl.getProtocol()) || null == entryName) {
+			return null;
+		}
+		final Path jarPath;
+		try {
+			jarPath = Paths.get(jarFileUrl.toURI());
+		} catch (URISyntaxException | IllegalArgumentException e) {
+			return null;
+		}
+		final Handle handle = acquire(jarPath);
+		try {
+			final JarFile jarFile = handle.getJarFile();
+			final ZipEntry entry = jarFile.getEntry(entryName);
+			if (null == entry) {
+				throw new FileNotFoundException("JAR entry " + entryName + " not found in " + jarPath);
+			}
+			return new HandleInputStream(jarFile.getInputStream(entry), handle);
+		} catch (IOException | RuntimeException e) {
+			handle.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return The number of jar files cached (not counting evicted ones still in use).
+	 */
+	public int getCachedJarCount () {
+		synchronized (cachedJarFiles) {
+			return cachedJarFiles.size();
+		}
+	}
+
+	/**
+	 * Evicts all the jar files; those not in use are closed now, the others when released.
+	 */
+	@Override
+	public void close () {
+		synchronized (cachedJarFiles) {
+			for (CachedJarFile cachedJarFile : cachedJarFiles.values()) {
+				evict(cachedJarFile);
+			}
+			cachedJarFiles.clear();
+		}
+	}
+
+	/**
+	 * Called with the lock held.
+	 */
+	private static void evict (final CachedJarFile cachedJarFile) {
+		cachedJarFile.evicted = true;
+		if (cachedJarFile.references == 0) {
+			closeQuietly(cachedJarFile.jarFile);
+		}
+	}
+
+	private void release (final CachedJarFile cachedJarFile) {
+		synchronized (cachedJarFiles) {
+			cachedJarFile.references--;
+			if (cachedJarFile.evicted && cachedJarFile.references == 0) {
+				closeQuietly(cachedJarFile.jarFile);
+			}
+		}
+	}
+
+	private static void closeQuietly (final JarFile jarFile) {
+		try {
+			jarFile.close();
+		} catch (IOException e) {
+			LOG.warn("Error closing jar file {}", jarFile.getName(), e);
+		}
+	}
+
+	/**
+	 * An acquired jar file, kept open until the handle is closed.
+	 */
+	public final class Handle implements Closeable {
+		private final CachedJarFile cachedJarFile;
+		private boolean closed;
+
+		private Handle (final CachedJarFile cachedJarFile) {
+			this.cachedJarFile = cachedJarFile;
+		}
+
+		/**
+		 * @return The jar file; not to be closed, or used after the handle is closed.
+		 */
+		public JarFile getJarFile () {
+			return cachedJarFile.jarFile;
+		}
+
+		/**
+		 * Releases the jar file; closing a handle more than once has no effect.
+		 */
+		@Override
+		public void close () {
+			synchronized (this) {
+				if (closed) {
+					return;
+				}
+				closed = true;
+			}
+			release(cachedJarFile);
+		}
+	}
+
+	/**
+	 * An open jar file, with the modification time and size of the file when it was opened.
+	 */
+	private static final class CachedJarFile {
+		private final Path path;
+		private final JarFile jarFile;
+		private final long lastModified;
+		private final long size;
+		private int references;
+		private boolean evicted;
+
+		private CachedJarFile (final Path path, final JarFile jarFile, final long lastModified, final long size) {
+			this.path = path;
+			this.jarFile = jarFile;
+			this.lastModified = lastModified;
+			this.size = size;
+		}
+
+		@Override
+		public String toString () {
+			return path.toString();
+		}
+	}
+
+	/**
+	 * Reads an entry, releasing the jar file when closed.
+	 */
+	private static final class HandleInputStream extends FilterInputStream {
+		private final Handle handle;
+
+		private HandleInputStream (final InputStream in, final Handle handle) {
+			super(in);
+			this.handle = handle;
+		}
+
+		@Override
+		public void close () throws IOException {
+			try {
+				super.close();
+			} finally {
+				handle.close();
+			}
+		}
+	}
+}
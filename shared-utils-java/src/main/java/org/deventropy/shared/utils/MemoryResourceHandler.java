@@ -0,0 +1,177 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.shared.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The <code>mem:</code> resource protocol: resources kept in memory, in a store shared by the whole class loader
+ * (like the class path), so configuration and tests can provide resources without touching the disk or a class
+ * loader.
+ * 
+ * <p>Resources are added with {@link #putResource(String, byte[])}, and then resolved, opened and checked with
+ * {@link UrlResourceUtil} like any other resource, for example as <code>mem:/config/application.properties</code>.
+ * The leading <code>/</code> is optional, <code>mem:config/application.properties</code> is the same resource. The URLs
+ * of <code>mem:</code> resources can be opened with <code>URL.openStream()</code> (they carry their own stream
+ * handler), and read the contents of the resource when they are opened.
+ * 
+ * <p>The store is thread safe; resources can be replaced or removed at any time, and readers see either the old or
+ * the new contents.
+ * 
+ * @author Bindul Bhowmik
+ */
+public final class MemoryResourceHandler implements ResourceProtocolHandler {
+
+	/**
+	 * The prefix of <code>mem:</code> locations.
+	 */
+	public static final String URL_PROTOCOL_MEMORY = "mem:";
+
+	private static final ConcurrentMap<String, byte[]> RESOURCES = new ConcurrentHashMap<>();
+	private static final URLStreamHandler STREAM_HANDLER = new MemoryStreamHandler();
+
+	@Override
+	public String getProtocol () {
+		return URL_PROTOCOL_MEMORY;
+	}
+
+	/**
+	 * Adds or replaces a resource.
+	 * 
+	 * @param location The location of the resource, with or without the <code>mem:</code> prefix.
+	 * @param content The contents, copied.
+	 */
+	public static void putResource (final String location, final byte[] content) {
+		ArgumentCheck.notNull(content, "content");
+		RESOURCES.put(toName(location), Arrays.copyOf(content, content.length));
+	}
+
+	/**
+	 * Removes a resource.
+	 * 
+	 * @param location The location of the resource, with or without the <code>mem:</code> prefix.
+	 * @return <code>true</code> if the resource existed.
+	 */
+	public static boolean removeResource (final String location) {
+		return null != RESOURCES.remove(toName(location));
+	}
+
+	/**
+	 * Removes all the resources.
+	 */
+	public static void clearResources () {
+		RESOURCES.clear();
+	}
+
+	@Override
+	public URL getUrl (final String location, final ClassLoader cl) throws IOException {
+		final String name = toName(location);
+		if (!RESOURCES.containsKey(name)) {
+			throw notFound(location);
+		}
+		return new URL(null, URL_PROTOCOL_MEMORY + "/" + name, STREAM_HANDLER);
+	}
+
+	@Override
+	public ReadableByteChannel openChannel (final String location, final ClassLoader cl) throws IOException {
+		return Channels.newChannel(openStream(location));
+	}
+
+	@Override
+	public boolean exists (final String location, final ClassLoader cl) {
+		return RESOURCES.containsKey(toName(location));
+	}
+
+	private static InputStream openStream (final String location) throws FileNotFoundException {
+		final byte[] content = RESOURCES.get(toName(location));
+		if (null == content) {
+			throw notFound(location);
+		}
+		return new ByteArrayInputStream(content);
+	}
+
+	private static String toName (final String location) {
+		ArgumentCheck.notNull(location, "location");
+		int start = location.startsWith(URL_PROTOCOL_MEMORY) ? URL_PROTOCOL_MEMORY.length() : 0;
+		while (start < location.length() && location.charAt(start) == '/') {
+			start++;
+		}
+		return location.substring(start);
+	}
+
+	private static FileNotFoundException notFound (final String location) {
+		return new FileNotFoundException("The requested memory resource " + location + " does not exist");
+	}
+
+	/**
+	 * Opens <code>mem:</code> URLs.
+	 */
+	private static final class MemoryStreamHandler extends URLStreamHandler {
+		@Override
+		protected URLConnection openConnection (final URL url) {
+			return new MemoryConnection(url);
+		}
+	}
+
+	/**
+	 * A connection reading a memory resource.
+	 */
+	private static final class MemoryConnection extends URLConnection {
+		private byte[] content;
+
+		private MemoryConnection (final URL url) {
+			super(url);
+		}
+
+		@Override
+		public void connect () throws IOException {
+			if (!connected) {
+				content = RESOURCES.get(toName(url.getPath()));
+				if (null == content) {
+					throw notFound(url.toExternalForm());
+				}
+				connected = true;
+			}
+		}
+
+		@Override
+		public InputStream getInputStream () throws IOException {
+			connect();
+			return new ByteArrayInputStream(content);
+		}
+
+		@Override
+		public int getContentLength () {
+			try {
+				connect();
+			} catch (IOException e) {
+				return -1;
+			}
+			return content.length;
+		}
+	}
+}
@@ -0,0 +1,106 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.shared.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * A read only seekable channel over the contents of a buffer, like a resource mapped into memory with
+ * {@link UrlResourceUtil#mapResource(String, ClassLoader)}.
+ * 
+ * @author Bindul Bhowmik
+ */
+final class ReadOnlyBufferChannel implements SeekableByteChannel {
+
+	private final ByteBuffer content;
+	private long position;
+	private boolean open = true;
+
+	/**
+	 * @param content The contents, from the position to the limit of the buffer; the buffer is not modified.
+	 */
+	ReadOnlyBufferChannel (final ByteBuffer content) {
+		this.content = content.slice();
+	}
+
+	@Override
+	public synchronized int read (final ByteBuffer dst) throws IOException {
+		ensureOpen();
+		if (position >= content.limit()) {
+			return -1;
+		}
+		final int count = (int) Math.min(dst.remaining(), content.limit() - position);
+		final ByteBuffer chunk = content.duplicate();
+		chunk.position((int) position).limit((int) position + count);
+		dst.put(chunk);
+		position += count;
+		return count;
+	}
+
+	@Override
+	public int write (final ByteBuffer src) throws IOException {
+		ensureOpen();
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public synchronized long position () throws IOException {
+		ensureOpen();
+		return position;
+	}
+
+	@Override
+	public synchronized SeekableByteChannel position (final long newPosition) throws IOException {
+		ensureOpen();
+		if (newPosition < 0) {
+			throw new IllegalArgumentException("The position cannot be negative");
+		}
+		position = newPosition;
+		return this;
+	}
+
+	@Override
+	public synchronized long size () throws IOException {
+		ensureOpen();
+		return content.limit();
+	}
+
+	@Override
+	public SeekableByteChannel truncate (final long size) throws IOException {
+		ensureOpen();
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public synchronized boolean isOpen () {
+		return open;
+	}
+
+	@Override
+	public synchronized void close () {
+		open = false;
+	}
+
+	private synchronized void ensureOpen () throws ClosedChannelException {
+		if (!open) {
+			throw new ClosedChannelException();
+		}
+	}
+}
@@ -0,0 +1,35 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.shared.utils;
+
+import java.nio.file.Path;
+
+/**
+ * Notified of changes to file backed resources watched by a {@link ResourceChangeWatcher}.
+ * 
+ * @author Bindul Bhowmik
+ */
+public interface ResourceChangeListener {
+
+	/**
+	 * Called after the file of a resource was created, modified or deleted. Bursts of changes (like a file written in
+	 * several steps) are reported once. Listeners are called on the thread of the watcher, and should return quickly.
+	 * 
+	 * @param resource The resource as subscribed.
+	 * @param file The file of the resource.
+	 */
+	void resourceChanged (String resource, Path file);
+}
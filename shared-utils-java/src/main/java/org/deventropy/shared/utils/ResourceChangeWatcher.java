@@ -0,0 +1,397 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.shared.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Notifies listeners of changes to file backed resources (files, and classpath resources in directories), so code
+ * reading configuration files need not poll them.
+ * 
+ * <p>A watcher has a single <code>WatchService</code> and a single daemon thread. Every directory is registered with
+ * the watch service once, however many resources in it are watched, and unregistered when the last subscription in it
+ * is closed. Changes to a file are coalesced: the listeners of a resource are called once, <code>coalesceDelay</code>
+ * after the first change of a burst, however many events the burst raised. Files need not exist when subscribed
+ * (their creation is reported), but their directories must.
+ * 
+ * <p>How quickly changes are reported depends on the platform; where the file system has no native notification the
+ * watch service polls, and may report changes seconds late.
+ * 
+ * <p>Instances are thread safe.
+ * 
+ * @author Bindul Bhowmik
+ */
+public final class ResourceChangeWatcher implements Closeable {
+
+	private static final Logger LOG = LogManager.getLogger(ResourceChangeWatcher.class);
+
+	private static final long DEFAULT_COALESCE_DELAY_MILLIS = 100;
+	private static final AtomicInteger WATCHER_COUNT = new AtomicInteger();
+
+	private static ResourceChangeWatcher sharedWatcher;
+
+	private final long coalesceDelayNanos;
+	private final WatchService watchService;
+	private final Thread watcherThread;
+	private final Map<WatchKey, WatchedDirectory> watchedDirectories = new HashMap<>();
+	private final Map<Path, WatchedDirectory> watchedDirectoriesByPath = new HashMap<>();
+
+	/**
+	 * Creates a watcher coalescing the changes of 100 milliseconds.
+	 * 
+	 * @throws IOException Error creating the watch service.
+	 */
+	public ResourceChangeWatcher () throws IOException {
+		this(DEFAULT_COALESCE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Creates a watcher.
+	 * 
+	 * @param coalesceDelay How long after the first change to a file to notify its listeners, reporting all the
+	 * 	changes in between once; cannot be negative.
+	 * @param timeUnit The unit of <code>coalesceDelay</code>.
+	 * @throws IOException Error creating the watch service.
+	 */
+	public ResourceChangeWatcher (final long coalesceDelay, final TimeUnit timeUnit) throws IOException {
+		ArgumentCheck.notNull(timeUnit, "timeUnit");
+		if (coalesceDelay < 0) {
+			throw new IllegalArgumentException("coalesceDelay cannot be negative");
+		}
+		this.coalesceDelayNanos = timeUnit.toNanos(coalesceDelay);
+		this.watchService = FileSystems.getDefault().newWatchService();
+		this.watcherThread = new Thread(new WatchLoop(), "resource-change-watcher-" + WATCHER_COUNT.incrementAndGet());
+		watcherThread.setDaemon(true);
+		watcherThread.start();
+	}
+
+	/**
+	 * Watches a file backed resource for changes.
+	 * 
+	 * @param resource The resource, a file or a classpath resource in a directory.
+	 * @param cl The class loader to resolve classpath resources with.
+	 * @param listener The listener to notify.
+	 * @return The subscription, to be closed to stop watching.
+	 * @throws IOException The resource is not file backed, or its directory cannot be watched.
+	 */
+	public Closeable subscribe (final String resource, final ClassLoader cl, final ResourceChangeListener listener)
+			throws IOException {
+		ArgumentCheck.notNull(listener, "listener");
+		final Path file = getFile(resource, cl).toAbsolutePath().normalize();
+		final Path directory = file.getParent();
+		if (null == directory) {
+			throw new IOException("Cannot watch " + resource + ", it has no directory");
+		}
+		final Subscription subscription = new Subscription(resource, file, listener);
+		synchronized (watchedDirectories) {
+			WatchedDirectory watchedDirectory = watchedDirectoriesByPath.get(directory);
+			if (null == watchedDirectory) {
+				final WatchKey watchKey;
+				try {
+					watchKey = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+							StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+				} catch (ClosedWatchServiceException e) {
+					throw new IOException("The watcher is closed", e);
+				}
+				watchedDirectory = new WatchedDirectory(directory, watchKey);
+				watchedDirectories.put(watchKey, watchedDirectory);
+				watchedDirectoriesByPath.put(directory, watchedDirectory);
+				LOG.debug("Watching directory {}", directory);
+			}
+			watchedDirectory.add(subscription);
+		}
+		return subscription;
+	}
+
+	/**
+	 * Watches a file backed resource for changes, resolving classpath resources with the class loader found by
+	 * {@link ClassUtil#getApplicableClassloader()}.
+	 * 
+	 * @param resource The resource, a file or a classpath resource in a directory.
+	 * @param listener The listener to notify.
+	 * @return The subscription, to be closed to stop watching.
+	 * @throws IOException The resource is not file backed, or its directory cannot be watched.
+	 */
+	public Closeable subscribe (final String resource, final ResourceChangeListener listener) throws IOException {
+		return subscribe(resource, ClassUtil.getApplicableClassloader(), listener);
+	}
+
+	/**
+	 * @return The number of directories watched.
+	 */
+	public int getWatchedDirectoryCount () {
+		synchronized (watchedDirectories) {
+			return watchedDirectories.size();
+		}
+	}
+
+	/**
+	 * Stops watching all the resources, and stops the thread of the watcher.
+	 * 
+	 * @throws IOException Error closing the watch service.
+	 */
+	@Override
+	public void close () throws IOException {
+		synchronized (watchedDirectories) {
+			watchedDirectories.clear();
+			watchedDirectoriesByPath.clear();
+		}
+		watchService.close();
+	}
+
+	/**
+	 * @return The watcher shared by {@link UrlResourceUtil#watch(String, ClassLoader, ResourceChangeListener)}, created
+	 * 	on first use and never closed.
+	 */
+	static synchronized ResourceChangeWatcher getSharedWatcher () throws IOException {
+		if (null == sharedWatcher) {
+			sharedWatcher = new ResourceChangeWatcher();
+		}
+		return sharedWatcher;
+	}
+
+	private static Path getFile (final String resource, final ClassLoader cl) throws IOException {
+		final ResourceLocator locator = ResourceLocator.parse(resource);
+		if (locator.isFile()) {
+			return locator.getFile().toPath();
+		}
+		final URL url = locator.resolve(cl);
+		if (!"file".equals(url.getProtocol())) {
+			throw new IOException("Cannot watch " + resource + ", it is not a file");
+		}
+		try {
+			return Paths.get(url.toURI());
+		} catch (URISyntaxException | IllegalArgumentException e) {
+			throw new IOException("Cannot watch " + resource + " as a file", e);
+		}
+	}
+
+	private void unsubscribe (final Subscription subscription) {
+		synchronized (watchedDirectories) {
+			final WatchedDirectory watchedDirectory = watchedDirectoriesByPath.get(subscription.file.getParent());
+			if (null != watchedDirectory && watchedDirectory.remove(subscription)) {
+				watchedDirectory.watchKey.cancel();
+				watchedDirectories.remove(watchedDirectory.watchKey);
+				watchedDirectoriesByPath.remove(watchedDirectory.directory);
+				LOG.debug("Stopped watching directory {}", watchedDirectory.directory);
+			}
+		}
+	}
+
+	/**
+	 * Collects the events of a watch key into the files pending notification.
+	 */
+	private void collectEvents (final WatchKey watchKey, final Map<Path, PendingChange> pendingFiles) {
+		final List<WatchEvent<?>> events = watchKey.pollEvents();
+		final boolean valid = watchKey.reset();
+		final long deadline = System.nanoTime() + coalesceDelayNanos;
+		synchronized (watchedDirectories) {
+			final WatchedDirectory watchedDirectory = watchedDirectories.get(watchKey);
+			if (null == watchedDirectory) {
+				return;
+			}
+			for (WatchEvent<?> event : events) {
+				if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+					// Events were lost (or the directory is gone): every file watched may have changed
+					for (Path file : watchedDirectory.subscriptions.keySet()) {
+						addPending(pendingFiles, file, deadline, null);
+					}
+				} else {
+					final Path file = watchedDirectory.directory.resolve((Path) event.context());
+					if (watchedDirectory.subscriptions.containsKey(file)) {
+						addPending(pendingFiles, file, deadline, null);
+					}
+				}
+			}
+			if (!valid) {
+				LOG.warn("Directory {} can no longer be watched", watchedDirectory.directory);
+				// The directory is no longer looked up when the changes are due, so they carry their subscriptions
+				for (Map.Entry<Path, List<Subscription>> fileSubscriptions
+						: watchedDirectory.subscriptions.entrySet()) {
+					addPending(pendingFiles, fileSubscriptions.getKey(), deadline,
+							new ArrayList<>(fileSubscriptions.getValue()));
+				}
+				watchedDirectories.remove(watchKey);
+				watchedDirectoriesByPath.remove(watchedDirectory.directory);
+			}
+		}
+	}
+
+	private static void addPending (final Map<Path, PendingChange> pendingFiles, final Path file, final long deadline,
+			final List<Subscription> subscriptions) {
+		// The first change of a burst sets the deadline, later ones are reported with it
+		final PendingChange pendingChange = pendingFiles.get(file);
+		if (null == pendingChange) {
+			pendingFiles.put(file, new PendingChange(deadline, subscriptions));
+		} else if (null != subscriptions) {
+			pendingChange.subscriptions = subscriptions;
+		}
+	}
+
+	/**
+	 * Notifies the listeners of the files whose deadline has passed.
+	 * 
+	 * @return The nanoseconds until the next deadline, or <code>-1</code> if no file is pending.
+	 */
+	private long notifyDue (final Map<Path, PendingChange> pendingFiles) {
+		final long now = System.nanoTime();
+		long nextDeadline = -1;
+		final List<Subscription> due = new ArrayList<>();
+		final Iterator<Map.Entry<Path, PendingChange>> pending = pendingFiles.entrySet().iterator();
+		while (pending.hasNext()) {
+			final Map.Entry<Path, PendingChange> entry = pending.next();
+			final long remaining = entry.getValue().deadline - now;
+			if (remaining > 0) {
+				nextDeadline = nextDeadline < 0 ? remaining : Math.min(nextDeadline, remaining);
+				continue;
+			}
+			pending.remove();
+			if (null != entry.getValue().subscriptions) {
+				due.addAll(entry.getValue().subscriptions);
+				continue;
+			}
+			synchronized (watchedDirectories) {
+				final WatchedDirectory watchedDirectory = watchedDirectoriesByPath.get(entry.getKey().getParent());
+				final List<Subscription> subscriptions = null == watchedDirectory ? null
+						: watchedDirectory.subscriptions.get(entry.getKey());
+				if (null != subscriptions) {
+					due.addAll(subscriptions);
+				}
+			}
+		}
+		for (Subscription subscription : due) {
+			try {
+				subscription.listener.resourceChanged(subscription.resource, subscription.file);
+			} catch (RuntimeException e) {
+				LOG.error("Listener failed handling the change of {}", subscription.resource, e);
+			}
+		}
+		return nextDeadline;
+	}
+
+	/**
+	 * Takes events from the watch service and notifies listeners, until the watch service is closed.
+	 */
+	private final class WatchLoop implements Runnable {
+		@Override
+		public void run () {
+			final Map<Path, PendingChange> pendingFiles = new LinkedHashMap<>();
+			try {
+				long nextDeadline = -1;
+				while (true) {
+					final WatchKey watchKey = nextDeadline < 0 ? watchService.take()
+							: watchService.poll(nextDeadline, TimeUnit.NANOSECONDS);
+					if (null != watchKey) {
+						collectEvents(watchKey, pendingFiles);
+					}
+					nextDeadline = notifyDue(pendingFiles);
+				}
+			} catch (ClosedWatchServiceException | InterruptedException e) {
+				LOG.debug("Resource change watcher stopped");
+			}
+		}
+	}
+
+	/**
+	 * A directory registered with the watch service, and the subscriptions to the files in it.
+	 */
+	private static final class WatchedDirectory {
+		private final Path directory;
+		private final WatchKey watchKey;
+		private final Map<Path, List<Subscription>> subscriptions = new HashMap<>();
+
+		private WatchedDirectory (final Path directory, final WatchKey watchKey) {
+			this.directory = directory;
+			this.watchKey = watchKey;
+		}
+
+		private void add (final Subscription subscription) {
+			List<Subscription> fileSubscriptions = subscriptions.get(subscription.file);
+			if (null == fileSubscriptions) {
+				fileSubscriptions = new ArrayList<>();
+				subscriptions.put(subscription.file, fileSubscriptions);
+			}
+			fileSubscriptions.add(subscription);
+		}
+
+		/**
+		 * @return <code>true</code> if no subscriptions are left.
+		 */
+		private boolean remove (final Subscription subscription) {
+			final List<Subscription> fileSubscriptions = subscriptions.get(subscription.file);
+			if (null != fileSubscriptions && fileSubscriptions.remove(subscription) && fileSubscriptions.isEmpty()) {
+				subscriptions.remove(subscription.file);
+			}
+			return subscriptions.isEmpty();
+		}
+	}
+
+	/**
+	 * A file with changes to report once the deadline passes; with its subscriptions if its directory is no longer
+	 * watched.
+	 */
+	private static final class PendingChange {
+		private final long deadline;
+		private List<Subscription> subscriptions;
+
+		private PendingChange (final long deadline, final List<Subscription> subscriptions) {
+			this.deadline = deadline;
+			this.subscriptions = subscriptions;
+		}
+	}
+
+	/**
+	 * A listener watching a resource.
+	 */
+	private final class Subscription implements Closeable {
+		private final String resource;
+		private final Path file;
+		private final ResourceChangeListener listener;
+
+		private Subscription (final String resource, final Path file, final ResourceChangeListener listener) {
+			this.resource = resource;
+			this.file = file;
+			this.listener = listener;
+		}
+
+		@Override
+		public void close () {
+			unsubscribe(this);
+		}
+	}
+}
@@ -0,0 +1,432 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.shared.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A size bounded cache of resource contents, for resources (templates, schemas) that are read over and over.
+ * 
+ * <p>Resources are located with {@link UrlResourceUtil#getUrl(String, ClassLoader)} and read completely on the first
+ * request. After that:
+ * <ul>
+ * <li><code>classpath:</code> resources are served from the cache for as long as their class loader lives; the class
+ * loader is only weakly referenced, and the contents cached for it are dropped once it is garbage collected.</li>
+ * <li>Files (<code>file:</code> URLs or paths) are revalidated on every request by comparing their size and
+ * modification time to those when the file was read, and read again if either changed. A cache created with a
+ * {@link ResourceChangeWatcher} instead watches the files it caches, serving them without touching the file system
+ * until the watcher reports a change.</li>
+ * <li>Other resources (HTTP for example) are read every time, and not cached.</li>
+ * </ul>
+ * 
+ * <p>The total size of the contents cached is bounded; when it is exceeded the least recently used contents are
+ * dropped. Resources larger than the bound are not cached. Contents can be cached on the Java heap, or off heap in
+ * direct buffers so large caches do not add to garbage collection work.
+ * 
+ * <p>The cache is a {@link ResourceChangeListener}: subscribed to a {@link ResourceChangeWatcher}, it drops the
+ * contents of resources as soon as they change, including classpath resources in directories.
+ * 
+ * <p>Instances are thread safe. Concurrent requests for a resource that is not cached may each read it.
+ * 
+ * @author Bindul Bhowmik
+ */
+public final class ResourceContentCache implements ResourceChangeListener {
+
+	private static final Logger LOG = LogManager.getLogger(ResourceContentCache.class);
+
+	private static final String FILE_PROTOCOL = "file";
+
+	private final long maxCachedBytes;
+	private final boolean offHeap;
+	private final ResourceChangeWatcher watcher;
+	private final LinkedHashMap<ContentKey, CachedContent> cachedContents = new LinkedHashMap<>(16, 0.75f, true);
+	private final ReferenceQueue<ClassLoader> collectedClassLoaders = new ReferenceQueue<>();
+	private long cachedBytes;
+
+	/**
+	 * Creates a cache keeping contents on the Java heap.
+	 * 
+	 * @param maxCachedBytes The maximum total size of the contents cached, must be positive.
+	 */
+	public ResourceContentCache (final long maxCachedBytes) {
+		this(maxCachedBytes, false);
+	}
+
+	/**
+	 * Creates a cache.
+	 * 
+	 * @param maxCachedBytes The maximum total size of the contents cached, must be positive.
+	 * @param offHeap <code>true</code> to keep the cached contents in direct (off heap) buffers.
+	 */
+	public ResourceContentCache (final long maxCachedBytes, final boolean offHeap) {
+		this(maxCachedBytes, offHeap, null);
+	}
+
+	/**
+	 * Creates a cache watching the files it caches for changes, instead of revalidating them on every request.
+	 * 
+	 * @param maxCachedBytes The maximum total size of the contents cached, must be positive.
+	 * @param offHeap <code>true</code> to keep the cached contents in direct (off heap) buffers.
+	 * @param watcher The watcher to watch cached files with; <code>null</code> to revalidate files on every request.
+	 */
+	public ResourceContentCache (final long maxCachedBytes, final boolean offHeap,
+			final ResourceChangeWatcher watcher) {
+		if (maxCachedBytes <= 0) {
+			throw new IllegalArgumentException("maxCachedBytes must be positive");
+		}
+		this.maxCachedBytes = maxCachedBytes;
+		this.offHeap = offHeap;
+		this.watcher = watcher;
+	}
+
+	/**
+	 * Returns the contents of a resource.
+	 * 
+	 * @param resource The resource, in any of the formats supported by {@link UrlResourceUtil}.
+	 * @param cl The class loader to load classpath resources with.
+	 * @return A copy of the contents.
+	 * @throws IOException The resource does not exist or cannot be read.
+	 */
+	public byte[] getBytes (final String resource, final ClassLoader cl) throws IOException {
+		final ByteBuffer content = getByteBuffer(resource, cl);
+		final byte[] bytes = new byte[content.remaining()];
+		content.get(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Returns the contents of a resource without copying them.
+	 * 
+	 * @param resource The resource, in any of the formats supported by {@link UrlResourceUtil}.
+	 * @param cl The class loader to load classpath resources with.
+	 * @return A read only buffer with the contents, positioned at the start; the buffer may be shared with other
+	 * 	callers, but its position and limit are the caller's own.
+	 * @throws IOException The resource does not exist or cannot be read.
+	 */
+	public ByteBuffer getByteBuffer (final String resource, final ClassLoader cl) throws IOException {
+		return getContent(resource, cl, false);
+	}
+
+	/**
+	 * Returns the decompressed contents of a resource without copying them, caching the decompressed contents.
+	 * Compressed resources are detected and decompressed like
+	 * {@link UrlResourceUtil#openDecompressedStream(String, ClassLoader)} does; other resources are returned as they
+	 * are.
+	 * 
+	 * @param resource The resource, in any of the formats supported by {@link UrlResourceUtil}.
+	 * @param cl The class loader to load classpath resources with.
+	 * @return A read only buffer with the decompressed contents, see {@link #getByteBuffer(String, ClassLoader)}.
+	 * @throws IOException The resource does not exist or cannot be read, or is compressed in an unsupported format.
+	 */
+	public ByteBuffer getDecompressedByteBuffer (final String resource, final ClassLoader cl) throws IOException {
+		return getContent(resource, cl, true);
+	}
+
+	private ByteBuffer getContent (final String resource, final ClassLoader cl, final boolean decompress)
+			throws IOException {
+		ArgumentCheck.notNull(resource, "Resource cannot be null");
+		final boolean classpathResource = resource.startsWith(UrlResourceUtil.URL_PROTOCOL_CLASSPATH);
+		if (classpathResource) {
+			ArgumentCheck.notNull(cl, "cl");
+			final ContentKey key = new ContentKey(resource, decompress, cl, null);
+			final CachedContent cachedContent = getCachedContent(key);
+			if (null != cachedContent) {
+				return cachedContent.content.asReadOnlyBuffer();
+			}
+			final URL url = UrlResourceUtil.getUrl(resource, cl);
+			final ByteBuffer content = toBuffer(read(UrlResourceUtil.readFully(url), resource, decompress));
+			putCachedContent(new ContentKey(resource, decompress, cl, collectedClassLoaders),
+					new CachedContent(content, 0, 0, null));
+			return content.asReadOnlyBuffer();
+		}
+
+		final URL url = UrlResourceUtil.getUrl(resource, cl);
+		if (!FILE_PROTOCOL.equals(url.getProtocol())) {
+			return ByteBuffer.wrap(read(UrlResourceUtil.readFully(url), resource, decompress)).asReadOnlyBuffer();
+		}
+
+		final Path file;
+		try {
+			file = Paths.get(url.toURI());
+		} catch (URISyntaxException | IllegalArgumentException e) {
+			throw new IOException("Cannot read " + resource + " as a file", e);
+		}
+		final ContentKey key = new ContentKey(file.toUri().toString(), decompress, null, null);
+		CachedContent cachedContent = getCachedContent(key);
+		if (null != cachedContent && null != cachedContent.subscription) {
+			// Watched for changes, and not changed since it was read
+			return cachedContent.content.asReadOnlyBuffer();
+		}
+		// The file is watched (and its attributes read) before the contents, so a change while reading is seen later
+		final Closeable subscription = null == cachedContent ? watch(file, key) : null;
+		final BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+		final long lastModified = attributes.lastModifiedTime().toMillis();
+		if (null != cachedContent && cachedContent.lastModified == lastModified
+				&& cachedContent.fileSize == attributes.size()) {
+			return cachedContent.content.asReadOnlyBuffer();
+		}
+		final ByteBuffer content;
+		try {
+			content = toBuffer(read(Files.readAllBytes(file), resource, decompress));
+		} catch (IOException e) {
+			closeSubscription(subscription);
+			throw e;
+		}
+		cachedContent = new CachedContent(content, lastModified, attributes.size(), subscription);
+		putCachedContent(key, cachedContent);
+		return content.asReadOnlyBuffer();
+	}
+
+	/**
+	 * Returns the contents of a resource, loading classpath resources with the class loader found by
+	 * {@link ClassUtil#getApplicableClassloader()}.
+	 * 
+	 * @param resource The resource, in any of the formats supported by {@link UrlResourceUtil}.
+	 * @return A read only buffer with the contents, see {@link #getByteBuffer(String, ClassLoader)}.
+	 * @throws IOException The resource does not exist or cannot be read.
+	 */
+	public ByteBuffer getByteBuffer (final String resource) throws IOException {
+		return getByteBuffer(resource, ClassUtil.getApplicableClassloader());
+	}
+
+	/**
+	 * Returns the decompressed contents of a resource, loading classpath resources with the class loader found by
+	 * {@link ClassUtil#getApplicableClassloader()}.
+	 * 
+	 * @param resource The resource, in any of the formats supported by {@link UrlResourceUtil}.
+	 * @return A read only buffer with the decompressed contents, see
+	 * 	{@link #getDecompressedByteBuffer(String, ClassLoader)}.
+	 * @throws IOException The resource does not exist or cannot be read, or is compressed in an unsupported format.
+	 */
+	public ByteBuffer getDecompressedByteBuffer (final String resource) throws IOException {
+		return getDecompressedByteBuffer(resource, ClassUtil.getApplicableClassloader());
+	}
+
+	/**
+	 * @return The total size of the contents cached.
+	 */
+	public synchronized long getCachedBytes () {
+		removeCollectedClassLoaders();
+		return cachedBytes;
+	}
+
+	/**
+	 * Removes all the cached contents.
+	 */
+	public synchronized void invalidateAll () {
+		for (CachedContent cachedContent : cachedContents.values()) {
+			closeSubscription(cachedContent.subscription);
+		}
+		cachedContents.clear();
+		cachedBytes = 0;
+	}
+
+	/**
+	 * Removes the cached contents of a changed resource: the contents of the file, and of the resource (for all class
+	 * loaders) if it is a classpath resource.
+	 * 
+	 * @param resource The resource as subscribed.
+	 * @param file The file of the resource.
+	 */
+	@Override
+	public synchronized void resourceChanged (final String resource, final Path file) {
+		final String fileUri = file.toUri().toString();
+		final List<ContentKey> changedKeys = new ArrayList<>();
+		for (ContentKey key : cachedContents.keySet()) {
+			if (key.resource.equals(resource) || (!key.classLoaderKey && key.resource.equals(fileUri))) {
+				changedKeys.add(key);
+			}
+		}
+		for (ContentKey key : changedKeys) {
+			removeCachedContent(key);
+		}
+	}
+
+	private Closeable watch (final Path file, final ContentKey key) {
+		if (null == watcher) {
+			return null;
+		}
+		try {
+			return watcher.subscribe(file.toString(), null, new ResourceChangeListener() {
+				@Override
+				public void resourceChanged (final String resource, final Path changedFile) {
+					synchronized (ResourceContentCache.this) {
+						removeCachedContent(key);
+					}
+				}
+			});
+		} catch (IOException e) {
+			LOG.warn("Cannot watch {}, revalidating it on every request: {}", file, e.toString());
+			return null;
+		}
+	}
+
+	private static void closeSubscription (final Closeable subscription) {
+		if (null != subscription) {
+			try {
+				subscription.close();
+			} catch (IOException e) {
+				LOG.warn("Error closing a file watch", e);
+			}
+		}
+	}
+
+	private void removeCachedContent (final Object key) {
+		final CachedContent removed = cachedContents.remove(key);
+		if (null != removed) {
+			cachedBytes -= removed.size();
+			closeSubscription(removed.subscription);
+		}
+	}
+
+	private synchronized CachedContent getCachedContent (final ContentKey key) {
+		removeCollectedClassLoaders();
+		return cachedContents.get(key);
+	}
+
+	private synchronized void putCachedContent (final ContentKey key, final CachedContent cachedContent) {
+		removeCollectedClassLoaders();
+		final CachedContent replaced = cachedContents.remove(key);
+		if (null != replaced) {
+			cachedBytes -= replaced.size();
+			if (replaced.subscription != cachedContent.subscription) {
+				closeSubscription(replaced.subscription);
+			}
+		}
+		if (cachedContent.size() > maxCachedBytes) {
+			closeSubscription(cachedContent.subscription);
+			return;
+		}
+		cachedContents.put(key, cachedContent);
+		cachedBytes += cachedContent.size();
+		final Iterator<CachedContent> leastRecentlyUsed = cachedContents.values().iterator();
+		while (cachedBytes > maxCachedBytes) {
+			final CachedContent evicted = leastRecentlyUsed.next();
+			cachedBytes -= evicted.size();
+			closeSubscription(evicted.subscription);
+			leastRecentlyUsed.remove();
+		}
+	}
+
+	private void removeCollectedClassLoaders () {
+		Object collected = collectedClassLoaders.poll();
+		while (null != collected) {
+			removeCachedContent(collected);
+			collected = collectedClassLoaders.poll();
+		}
+	}
+
+	private static byte[] read (final byte[] content, final String resource, final boolean decompress)
+			throws IOException {
+		return decompress ? Decompression.decompress(content, resource) : content;
+	}
+
+	private ByteBuffer toBuffer (final byte[] bytes) {
+		if (!offHeap) {
+			return ByteBuffer.wrap(bytes);
+		}
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+		buffer.put(bytes);
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * The contents of a resource, with the modification time and size of files when they were read, and the
+	 * subscription watching the file for changes.
+	 */
+	private static final class CachedContent {
+		private final ByteBuffer content;
+		private final long lastModified;
+		private final long fileSize;
+		private final Closeable subscription;
+
+		private CachedContent (final ByteBuffer content, final long lastModified, final long fileSize,
+				final Closeable subscription) {
+			this.content = content;
+			this.lastModified = lastModified;
+			this.fileSize = fileSize;
+			this.subscription = subscription;
+		}
+
+		private int size () {
+			return content.capacity();
+		}
+	}
+
+	/**
+	 * Identifies a resource: a classpath resource together with its (weakly referenced) class loader, or a file by
+	 * its URI; and whether the contents are decompressed. Once the class loader is collected the key equals only
+	 * itself, and is removed through the queue.
+	 */
+	private static final class ContentKey extends WeakReference<ClassLoader> {
+		private final String resource;
+		private final boolean decompressed;
+		private final boolean classLoaderKey;
+		private final int hashCode;
+
+		private ContentKey (final String resource, final boolean decompressed, final ClassLoader cl,
+				final ReferenceQueue<ClassLoader> queue) {
+			super(cl, queue);
+			this.resource = resource;
+			this.decompressed = decompressed;
+			this.classLoaderKey = null != cl;
+			this.hashCode = 31 * (31 * System.identityHashCode(cl) + resource.hashCode()) + (decompressed ? 1 : 0);
+		}
+
+		@Override
+		public int hashCode () {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals (final Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof ContentKey)) {
+				return false;
+			}
+			final ContentKey other = (ContentKey) obj;
+			if (classLoaderKey != other.classLoaderKey || decompressed != other.decompressed
+					|| !resource.equals(other.resource)) {
+				return false;
+			}
+			if (!classLoaderKey) {
+				return true;
+			}
+			final ClassLoader cl = get();
+			return null != cl && cl == other.get();
+		}
+	}
+}
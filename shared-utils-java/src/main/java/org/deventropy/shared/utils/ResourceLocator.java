@@ -0,0 +1,252 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.shared.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+
+/**
+ * A resource location parsed once, to be resolved any number of times.
+ * 
+ * <p>Parsing classifies the location the same way {@link UrlResourceUtil#getUrl(String, ClassLoader)} does: a
+ * <code>classpath:</code> resource, a location of a protocol added by a {@link ResourceProtocolHandler}, a URL, or a
+ * file system path (anything that is not a URL with a known protocol).
+ * Unlike trying to create a URL and catching the exception, locations are classified by their syntax, so plain paths
+ * are parsed without an exception being thrown. The URL of files and other URLs is created while parsing, so
+ * resolving them again is free; classpath resources are looked up with the class loader on every resolution.
+ * 
+ * <p>Locators are immutable and thread safe; they can be kept in constants or caches and shared. Two locators are
+ * equal if they were parsed from the same location.
+ * 
+ * @author Bindul Bhowmik
+ */
+public final class ResourceLocator {
+
+	/**
+	 * The kinds of resource locations.
+	 */
+	public enum Kind {
+		/**
+		 * A resource on the class path (<code>classpath:</code> prefix).
+		 */
+		CLASSPATH,
+		/**
+		 * A file, either a <code>file:</code> URL or a file system path.
+		 */
+		FILE,
+		/**
+		 * A URL of another protocol, like HTTP.
+		 */
+		URL,
+		/**
+		 * A location of a protocol added by a {@link ResourceProtocolHandler}, like <code>mem:</code>.
+		 */
+		HANDLER
+	}
+
+	private static final String FILE_PROTOCOL = "file";
+
+	private final String location;
+	private final Kind kind;
+	private final String path;
+	private final URL url;
+	private final ResourceProtocolHandler protocolHandler;
+
+	private ResourceLocator (final String location, final Kind kind, final String path, final URL url) {
+		this(location, kind, path, url, null);
+	}
+
+	private ResourceLocator (final String location, final Kind kind, final String path, final URL url,
+			final ResourceProtocolHandler protocolHandler) {
+		this.location = location;
+		this.kind = kind;
+		this.path = path;
+		this.url = url;
+		this.protocolHandler = protocolHandler;
+	}
+
+	/**
+	 * Parses a resource location.
+	 * 
+	 * @param location The location, in any of the formats supported by {@link UrlResourceUtil}.
+	 * @return The locator.
+	 * @throws MalformedURLException The location is a file path that cannot be converted to a URL.
+	 */
+	public static ResourceLocator parse (final String location) throws MalformedURLException {
+		ArgumentCheck.notNull(location, "Resource cannot be null");
+		if (location.startsWith(UrlResourceUtil.URL_PROTOCOL_CLASSPATH)) {
+			return new ResourceLocator(location, Kind.CLASSPATH,
+					location.substring(UrlResourceUtil.URL_PROTOCOL_CLASSPATH.length()), null);
+		}
+		final ResourceProtocolHandler handler = UrlResourceUtil.getProtocolHandler(location);
+		if (null != handler) {
+			return new ResourceLocator(location, Kind.HANDLER, location.substring(handler.getProtocol().length()), null,
+					handler);
+		}
+		if (hasUrlScheme(location)) {
+			URL url = null;
+			try {
+				url = new URL(location);
+			} catch (MalformedURLException e) {
+				// A scheme without a protocol handler, resolved as a file below like UrlResourceUtil always has
+			}
+			if (null != url) {
+				final boolean file = FILE_PROTOCOL.equals(url.getProtocol());
+				return new ResourceLocator(location, file ? Kind.FILE : Kind.URL,
+						file ? location.substring(UrlResourceUtil.URL_PROTOCOL_FILE.length()) : url.getPath(), url);
+			}
+		}
+		return new ResourceLocator(location, Kind.FILE, location, new File(location).toURI().toURL());
+	}
+
+	/**
+	 * A URL scheme is a letter followed by letters, digits, <code>+</code>, <code>-</code> or <code>.</code> and a
+	 * colon; single letters are not accepted, being drive letters of Windows paths.
+	 */
+	private static boolean hasUrlScheme (final String location) {
+		final int colon = location.indexOf(':');
+		if (colon < 2 || !isAsciiLetter(location.charAt(0))) {
+			return false;
+		}
+		for (int i = 1; i < colon; i++) {
+			final char c = location.charAt(i);
+			if (!isAsciiLetter(c) && !(c >= '0' && c <= '9') && c != '+' && c != '-' && c != '.') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isAsciiLetter (final char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+
+	/**
+	 * Resolves the location to a URL.
+	 * 
+	 * @param cl The class loader to look up classpath resources with.
+	 * @return The URL.
+	 * @throws IOException The location is a classpath resource, or a resource of a {@link ResourceProtocolHandler},
+	 * 	that does not exist (a <code>FileNotFoundException</code>).
+	 */
+	public URL resolve (final ClassLoader cl) throws IOException {
+		final URL resolved = kind == Kind.HANDLER ? protocolHandler.getUrl(location, cl) : find(cl);
+		if (null == resolved) {
+			throw UrlResourceUtil.classpathResourceNotFound(location);
+		}
+		ResourceWarmupManifest.recordResolved(location);
+		return resolved;
+	}
+
+	/**
+	 * Resolves the location to a URL, looking up classpath resources with the class loader found by
+	 * {@link ClassUtil#getApplicableClassloader()}.
+	 * 
+	 * @return The URL.
+	 * @throws IOException The location is a classpath resource, or a resource of a {@link ResourceProtocolHandler},
+	 * 	that does not exist.
+	 */
+	public URL resolve () throws IOException {
+		return resolve(ClassUtil.getApplicableClassloader());
+	}
+
+	/**
+	 * Resolves the location to a URL, without throwing an exception for classpath resources (or resources of a
+	 * {@link ResourceProtocolHandler}) that do not exist.
+	 * 
+	 * @param cl The class loader to look up classpath resources with.
+	 * @return The URL, or <code>null</code> if the location is a classpath resource, or a resource of a
+	 * 	{@link ResourceProtocolHandler}, that does not exist.
+	 */
+	public URL find (final ClassLoader cl) {
+		if (kind == Kind.HANDLER) {
+			try {
+				return protocolHandler.getUrl(location, cl);
+			} catch (IOException e) {
+				return null;
+			}
+		}
+		if (kind != Kind.CLASSPATH) {
+			return url;
+		}
+		ArgumentCheck.notNull(cl, "cl");
+		return UrlResourceUtil.findClasspathResource(location, cl);
+	}
+
+	/**
+	 * @return The location as parsed.
+	 */
+	public String getLocation () {
+		return location;
+	}
+
+	/**
+	 * @return The kind of location.
+	 */
+	public Kind getKind () {
+		return kind;
+	}
+
+	/**
+	 * @return The handler of a location of a protocol added by a {@link ResourceProtocolHandler}, <code>null</code>
+	 * 	for other locations.
+	 */
+	public ResourceProtocolHandler getProtocolHandler () {
+		return protocolHandler;
+	}
+
+	/**
+	 * @return The path of the location: the resource name of classpath resources, the path of files (as in the
+	 * 	location, without the <code>file:</code> prefix), the location without the protocol for protocols of
+	 * 	{@link ResourceProtocolHandler}s, and the path of other URLs.
+	 */
+	public String getPath () {
+		return path;
+	}
+
+	/**
+	 * @return <code>true</code> if the location is a file (which need not exist).
+	 */
+	public boolean isFile () {
+		return kind == Kind.FILE;
+	}
+
+	/**
+	 * Returns the file of a file location, the same way as {@link UrlResourceUtil#getFileForWrite(String)}.
+	 * 
+	 * @return The file, or <code>null</code> if the location is not a file.
+	 */
+	public File getFile () {
+		return kind == Kind.FILE ? new File(path) : null;
+	}
+
+	@Override
+	public int hashCode () {
+		return location.hashCode();
+	}
+
+	@Override
+	public boolean equals (final Object obj) {
+		return this == obj || (obj instanceof ResourceLocator && location.equals(((ResourceLocator) obj).location));
+	}
+
+	@Override
+	public String toString () {
+		return location;
+	}
+}
@@ -0,0 +1,71 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.shared.utils;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * A service provider adding a resource location protocol to {@link UrlResourceUtil}.
+ * 
+ * <p>Implementations are found with a <code>java.util.ServiceLoader</code>, from
+ * <code>META-INF/services/org.deventropy.shared.utils.ResourceProtocolHandler</code> files visible to the class loader
+ * of {@link UrlResourceUtil}, when that class is initialized. They must have a public no argument constructor, and be
+ * thread safe. Locations starting with the {@link #getProtocol() protocol} of a handler are resolved, opened and
+ * checked by it; handlers cannot replace the protocols built into {@link UrlResourceUtil}.
+ * 
+ * <p>This library ships with a handler for the <code>mem:</code> protocol, {@link MemoryResourceHandler}.
+ * 
+ * @author Bindul Bhowmik
+ */
+public interface ResourceProtocolHandler {
+
+	/**
+	 * @return The prefix of the locations handled, the protocol name followed by a colon, like <code>mem:</code>.
+	 */
+	String getProtocol ();
+
+	/**
+	 * Resolves a location to a URL, which can be opened with <code>URL.openStream()</code>.
+	 * 
+	 * @param location The location, starting with the protocol of the handler.
+	 * @param cl The class loader of the caller, for handlers that need one; may be <code>null</code>.
+	 * @return The URL.
+	 * @throws IOException The resource does not exist (a <code>FileNotFoundException</code>) or the location is
+	 * 	malformed.
+	 */
+	URL getUrl (String location, ClassLoader cl) throws IOException;
+
+	/**
+	 * Opens a resource for reading.
+	 * 
+	 * @param location The location, starting with the protocol of the handler.
+	 * @param cl The class loader of the caller, for handlers that need one; may be <code>null</code>.
+	 * @return A channel reading the resource, to be closed by the caller.
+	 * @throws IOException The resource does not exist (a <code>FileNotFoundException</code>) or cannot be read.
+	 */
+	ReadableByteChannel openChannel (String location, ClassLoader cl) throws IOException;
+
+	/**
+	 * Checks if a resource exists.
+	 * 
+	 * @param location The location, starting with the protocol of the handler.
+	 * @param cl The class loader of the caller, for handlers that need one; may be <code>null</code>.
+	 * @return <code>true</code> if the resource exists.
+	 */
+	boolean exists (String location, ClassLoader cl);
+}
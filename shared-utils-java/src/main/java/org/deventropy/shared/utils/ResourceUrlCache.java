@@ -0,0 +1,266 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.shared.utils;
+
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.net.URL;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded cache of resolved resource URLs, for code that looks up the same resources with
+ * {@link UrlResourceUtil#getUrl(String, ClassLoader)} over and over.
+ * 
+ * <p>Looking up a <code>classpath:</code> resource searches the class loader (up to twice, with and without the
+ * leading <code>/</code>), which for large class paths is expensive. This cache remembers the result for every
+ * resource and class loader, including resources that do not exist, so repeated lookups are a map read. Other
+ * resources (files, HTTP URLs) are not cached, resolving them does not search anything.
+ * 
+ * <p>Results are cached per class loader, and the class loaders are only weakly referenced, so the cache does not
+ * prevent them from being garbage collected (unless a cached URL refers to its own class loader, for example through a
+ * protocol handler loaded by it). For every class loader at most <code>maxEntriesPerClassLoader</code> resources are
+ * kept, dropping the least recently used ones first. Cached results expire after the configured time to live, and can
+ * be invalidated explicitly, for example after resources are added to a class path. The cache is a
+ * {@link ResourceChangeListener}, so subscribed to a {@link ResourceChangeWatcher} it invalidates classpath resources
+ * in directories when their files are created or deleted. Like <code>UrlResourceUtil</code>, the resources found are
+ * added to the {@link ResourceWarmupManifest} recording, if any.
+ * 
+ * <p>Instances are thread safe. Finding the results of a class loader takes no lock, only the (least recently used)
+ * results of the class loader are locked to read them. A result resolved while the resource was invalidated is not
+ * cached, so an invalidation is never overwritten by a lookup that started before it.
+ * 
+ * @author Bindul Bhowmik
+ */
+public final class ResourceUrlCache implements ResourceChangeListener {
+
+	private final int maxEntriesPerClassLoader;
+	private final long timeToLiveNanos;
+	private final ConcurrentMap<ClassLoaderKey, CachedUrls> cachedUrlsByClassLoader = new ConcurrentHashMap<>();
+	private final ReferenceQueue<ClassLoader> collectedClassLoaders = new ReferenceQueue<>();
+
+	/**
+	 * Creates a cache.
+	 * 
+	 * @param maxEntriesPerClassLoader The maximum number of resources cached for every class loader, must be positive.
+	 * @param timeToLive How long a result is cached for; <code>0</code> to cache results until they are invalidated or
+	 * 	evicted.
+	 * @param timeUnit The unit of <code>timeToLive</code>.
+	 */
+	public ResourceUrlCache (final int maxEntriesPerClassLoader, final long timeToLive, final TimeUnit timeUnit) {
+		if (maxEntriesPerClassLoader <= 0) {
+			throw new IllegalArgumentException("maxEntriesPerClassLoader must be positive");
+		}
+		if (timeToLive < 0) {
+			throw new IllegalArgumentException("timeToLive cannot be negative");
+		}
+		ArgumentCheck.notNull(timeUnit, "timeUnit");
+		this.maxEntriesPerClassLoader = maxEntriesPerClassLoader;
+		this.timeToLiveNanos = timeUnit.toNanos(timeToLive);
+	}
+
+	/**
+	 * Resolves a resource the same way as {@link UrlResourceUtil#getUrl(String, ClassLoader)}, caching the result.
+	 * 
+	 * @param resource The resource to resolve.
+	 * @param cl The class loader to look up classpath resources with.
+	 * @return The URL of the resource.
+	 * @throws IOException The resource is a classpath resource that does not exist (a
+	 * 	<code>FileNotFoundException</code>), or is malformed.
+	 */
+	public URL getUrl (final String resource, final ClassLoader cl) throws IOException {
+		final URL url = findUrl(resource, cl);
+		if (null == url) {
+			throw UrlResourceUtil.classpathResourceNotFound(resource);
+		}
+		return url;
+	}
+
+	/**
+	 * Resolves a resource with the class loader found by {@link ClassUtil#getApplicableClassloader()}, caching
+	 * the result.
+	 * 
+	 * @param resource The resource to resolve.
+	 * @return The URL of the resource.
+	 * @throws IOException The resource is a classpath resource that does not exist, or is malformed.
+	 */
+	public URL getUrl (final String resource) throws IOException {
+		return getUrl(resource, ClassUtil.getApplicableClassloader());
+	}
+
+	/**
+	 * Resolves a resource like {@link #getUrl(String, ClassLoader)}, but returns <code>null</code> instead of throwing
+	 * an exception for classpath resources that do not exist; so frequent lookups of missing resources are cheap too.
+	 * 
+	 * @param resource The resource to resolve.
+	 * @param cl The class loader to look up classpath resources with.
+	 * @return The URL of the resource, or <code>null</code> if it is a classpath resource that does not exist.
+	 * @throws IOException The resource is malformed.
+	 */
+	public URL findUrl (final String resource, final ClassLoader cl) throws IOException {
+		ArgumentCheck.notNull(resource, "Resource cannot be null");
+		if (!resource.startsWith(UrlResourceUtil.URL_PROTOCOL_CLASSPATH)) {
+			return UrlResourceUtil.getUrl(resource, cl);
+		}
+		ArgumentCheck.notNull(cl, "cl");
+
+		final CachedUrls cachedUrls = getCachedUrls(cl);
+		CachedUrl cachedUrl;
+		final long generation;
+		synchronized (cachedUrls) {
+			cachedUrl = cachedUrls.urls.get(resource);
+			generation = cachedUrls.generation;
+		}
+		final long now = System.nanoTime();
+		if (null == cachedUrl || cachedUrl.isExpired(now)) {
+			// Concurrent misses may look up the same resource more than once, but never block each other
+			cachedUrl = new CachedUrl(UrlResourceUtil.findClasspathResource(resource, cl), now);
+			synchronized (cachedUrls) {
+				// An invalidation while resolving may have made the result stale
+				if (generation == cachedUrls.generation) {
+					cachedUrls.urls.put(resource, cachedUrl);
+				}
+			}
+		}
+		if (null != cachedUrl.url) {
+			// Cached or not, the resource was used
+			ResourceWarmupManifest.recordResolved(resource);
+		}
+		return cachedUrl.url;
+	}
+
+	/**
+	 * Removes the cached results for the resource, for all class loaders.
+	 * 
+	 * @param resource The resource.
+	 */
+	public void invalidate (final String resource) {
+		ArgumentCheck.notNull(resource, "Resource cannot be null");
+		for (CachedUrls cachedUrls : cachedUrlsByClassLoader.values()) {
+			synchronized (cachedUrls) {
+				cachedUrls.urls.remove(resource);
+				cachedUrls.generation++;
+			}
+		}
+	}
+
+	/**
+	 * Removes the cached results for a changed resource, for all class loaders.
+	 * 
+	 * @param resource The resource as subscribed.
+	 * @param file The file of the resource.
+	 */
+	@Override
+	public void resourceChanged (final String resource, final Path file) {
+		invalidate(resource);
+	}
+
+	/**
+	 * Removes all the cached results.
+	 */
+	public void invalidateAll () {
+		for (CachedUrls cachedUrls : cachedUrlsByClassLoader.values()) {
+			synchronized (cachedUrls) {
+				cachedUrls.urls.clear();
+				cachedUrls.generation++;
+			}
+		}
+	}
+
+	/**
+	 * @return The number of class loaders with cached results, after removing the collected class loaders.
+	 */
+	int getCachedClassLoaderCount () {
+		removeCollectedClassLoaders();
+		return cachedUrlsByClassLoader.size();
+	}
+
+	private CachedUrls getCachedUrls (final ClassLoader cl) {
+		removeCollectedClassLoaders();
+		final CachedUrls cachedUrls = cachedUrlsByClassLoader.get(new ClassLoaderKey(cl, null));
+		if (null != cachedUrls) {
+			return cachedUrls;
+		}
+		final CachedUrls newCachedUrls = new CachedUrls(maxEntriesPerClassLoader);
+		final CachedUrls existingCachedUrls = cachedUrlsByClassLoader.putIfAbsent(
+				new ClassLoaderKey(cl, collectedClassLoaders), newCachedUrls);
+		return null == existingCachedUrls ? newCachedUrls : existingCachedUrls;
+	}
+
+	private void removeCollectedClassLoaders () {
+		Object collected = collectedClassLoaders.poll();
+		while (null != collected) {
+			cachedUrlsByClassLoader.remove(collected);
+			collected = collectedClassLoaders.poll();
+		}
+	}
+
+	/**
+	 * The results cached for a class loader. Guarded by itself.
+	 */
+	private static final class CachedUrls {
+		private final Map<String, CachedUrl> urls;
+		/**
+		 * Incremented by every invalidation, so lookups that started before it do not cache their results.
+		 */
+		private long generation;
+
+		private CachedUrls (final int capacity) {
+			this.urls = new LruMap<>(capacity);
+		}
+	}
+
+	/**
+	 * A resolved URL, <code>null</code> if the resource does not exist.
+	 */
+	private final class CachedUrl {
+		private final URL url;
+		private final long resolvedNanos;
+
+		private CachedUrl (final URL url, final long resolvedNanos) {
+			this.url = url;
+			this.resolvedNanos = resolvedNanos;
+		}
+
+		private boolean isExpired (final long now) {
+			return timeToLiveNanos > 0 && now - resolvedNanos >= timeToLiveNanos;
+		}
+	}
+
+	/**
+	 * A map in access order, dropping the least recently used entry when it grows larger than its capacity.
+	 */
+	private static final class LruMap<K, V> extends LinkedHashMap<K, V> {
+
+		private static final long serialVersionUID = 2841560962741239513L;
+
+		private final int capacity;
+
+		private LruMap (final int capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		@Override
+		protected boolean removeEldestEntry (final Map.Entry<K, V> eldest) {
+			return size() > capacity;
+		}
+	}
+}
@@ -0,0 +1,330 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.shared.utils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A list of the resources an application resolves, recorded during one run and used to warm up the next one: the
+ * resources are resolved and read in the background when the application starts, before it asks for them.
+ * 
+ * <p>While a manifest {@link #startRecording() records}, every location resolved with
+ * {@link UrlResourceUtil#getUrl(String, ClassLoader)} (or {@link ResourceLocator#resolve(ClassLoader)}), or found
+ * through a {@link ResourceUrlCache} or a {@link ClasspathResourceIndex}, is added to it, once, in the order first
+ * resolved. The manifest is {@link #save(Path) saved} to a text file (one location per
+ * line), and {@link #load(Path) loaded} on the next start to {@link #warmUp(ClassLoader, ResourceContentCache, int)
+ * warm up}: every resource is resolved and read on a few background threads, which opens the jars of the class path
+ * and brings the files into the operating system cache, and optionally fills a {@link ResourceContentCache} the
+ * application reads from. Resources that no longer exist are skipped. The resources resolved by a warm-up are not
+ * recorded, so a manifest recording while the previous one warms up only lists the resources the application used.
+ * 
+ * <p>Instances are thread safe.
+ * 
+ * @author Bindul Bhowmik
+ */
+public final class ResourceWarmupManifest {
+
+	private static final Logger LOG = LogManager.getLogger(ResourceWarmupManifest.class);
+
+	private static final int DEFAULT_MAX_RESOURCES = 10000;
+	private static final String COMMENT_PREFIX = "#";
+	private static final String HEADER = COMMENT_PREFIX + " Resource warm-up manifest, one resource location per line";
+	private static final AtomicInteger WARMUP_COUNT = new AtomicInteger();
+
+	private static volatile ResourceWarmupManifest recording;
+
+	/**
+	 * Set on the warm-up threads while they resolve resources, which must not be recorded.
+	 */
+	private static final ThreadLocal<Boolean> WARMING_UP = new ThreadLocal<>();
+
+	private final int maxResources;
+	private final Set<String> resources = new LinkedHashSet<>();
+
+	private ResourceWarmupManifest (final int maxResources, final Collection<String> resources) {
+		ArgumentCheck.notNull(resources, "resources");
+		this.maxResources = maxResources;
+		this.resources.addAll(resources);
+	}
+
+	/**
+	 * Creates a manifest of resources.
+	 * 
+	 * @param resources The resources, in any of the formats supported by {@link UrlResourceUtil}.
+	 */
+	public ResourceWarmupManifest (final Collection<String> resources) {
+		this(Integer.MAX_VALUE, resources);
+	}
+
+	/**
+	 * Starts recording the resources resolved, up to 10000 of them, replacing any manifest recording.
+	 * 
+	 * @return The manifest recording.
+	 */
+	public static ResourceWarmupManifest startRecording () {
+		return startRecording(DEFAULT_MAX_RESOURCES);
+	}
+
+	/**
+	 * Starts recording the resources resolved, replacing any manifest recording.
+	 * 
+	 * @param maxResources The maximum number of resources recorded, must be positive.
+	 * @return The manifest recording.
+	 */
+	public static ResourceWarmupManifest startRecording (final int maxResources) {
+		if (maxResources <= 0) {
+			throw new IllegalArgumentException("maxResources must be positive");
+		}
+		final ResourceWarmupManifest manifest = new ResourceWarmupManifest(maxResources,
+				Collections.<String>emptyList());
+		synchronized (ResourceWarmupManifest.class) {
+			recording = manifest;
+		}
+		return manifest;
+	}
+
+	/**
+	 * Stops recording resources into this manifest; does nothing if it is not recording.
+	 */
+	public void stopRecording () {
+		synchronized (ResourceWarmupManifest.class) {
+			if (recording == this) {
+				recording = null;
+			}
+		}
+	}
+
+	/**
+	 * Adds a resolved location to the manifest recording, if any.
+	 */
+	static void recordResolved (final String resource) {
+		final ResourceWarmupManifest manifest = recording;
+		if (null != manifest && null == WARMING_UP.get()) {
+			manifest.add(resource);
+		}
+	}
+
+	private synchronized void add (final String resource) {
+		if (resources.size() < maxResources) {
+			resources.add(resource);
+		}
+	}
+
+	/**
+	 * @return The resources, in the order first resolved.
+	 */
+	public synchronized List<String> getResources () {
+		return Collections.unmodifiableList(new ArrayList<>(resources));
+	}
+
+	/**
+	 * Writes the manifest to a file, replacing it atomically where the file system allows.
+	 * 
+	 * @param file The file.
+	 * @throws IOException Error writing the file.
+	 */
+	public void save (final Path file) throws IOException {
+		ArgumentCheck.notNull(file, "file");
+		final List<String> savedResources = getResources();
+		final Path directory = file.toAbsolutePath().getParent();
+		Files.createDirectories(directory);
+		final Path tempFile = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+		try {
+			final BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8);
+			try {
+				writer.write(HEADER);
+				writer.newLine();
+				for (String resource : savedResources) {
+					writer.write(resource);
+					writer.newLine();
+				}
+			} finally {
+				writer.close();
+			}
+			try {
+				Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(tempFile);
+		}
+		LOG.debug("Saved {} resources to the warm-up manifest {}", savedResources.size(), file);
+	}
+
+	/**
+	 * Reads a manifest saved with {@link #save(Path)}.
+	 * 
+	 * @param file The file.
+	 * @return The manifest; empty if the file does not exist (the first start).
+	 * @throws IOException Error reading the file.
+	 */
+	public static ResourceWarmupManifest load (final Path file) throws IOException {
+		ArgumentCheck.notNull(file, "file");
+		final List<String> loadedResources = new ArrayList<>();
+		try {
+			final BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+			try {
+				String line = reader.readLine();
+				while (null != line) {
+					final String resource = line.trim();
+					if (!resource.isEmpty() && !resource.startsWith(COMMENT_PREFIX)) {
+						loadedResources.add(resource);
+					}
+					line = reader.readLine();
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (NoSuchFileException e) {
+			LOG.debug("No warm-up manifest {}", file);
+		}
+		return new ResourceWarmupManifest(loadedResources);
+	}
+
+	/**
+	 * Resolves and reads the resources of the manifest in the background, on daemon threads. HTTP and other remote
+	 * resources are not read, only resolved.
+	 * 
+	 * @param cl The class loader to load classpath resources with.
+	 * @param contentCache The cache to read the resources through, so the application finds them in it;
+	 * 	<code>null</code> to read them without caching the contents.
+	 * @param parallelism The number of resources read at the same time, must be positive.
+	 * @return The number of resources warmed up (those that exist), when done.
+	 */
+	public Future<Integer> warmUp (final ClassLoader cl, final ResourceContentCache contentCache,
+			final int parallelism) {
+		if (parallelism <= 0) {
+			throw new IllegalArgumentException("parallelism must be positive");
+		}
+		final List<String> warmupResources = getResources();
+		final ThreadFactory threadFactory = new WarmupThreadFactory();
+		final FutureTask<Integer> warmup = new FutureTask<>(new Callable<Integer>() {
+			@Override
+			public Integer call () throws InterruptedException {
+				return warmUp(warmupResources, cl, contentCache, parallelism, threadFactory);
+			}
+		});
+		threadFactory.newThread(warmup).start();
+		return warmup;
+	}
+
+	private static int warmUp (final List<String> warmupResources, final ClassLoader cl,
+			final ResourceContentCache contentCache, final int parallelism, final ThreadFactory threadFactory)
+			throws InterruptedException {
+		final long start = System.nanoTime();
+		final ExecutorService pool = Executors.newFixedThreadPool(parallelism, threadFactory);
+		try {
+			final List<Callable<Boolean>> tasks = new ArrayList<>(warmupResources.size());
+			for (String resource : warmupResources) {
+				tasks.add(new WarmupTask(resource, cl, contentCache));
+			}
+			int warmed = 0;
+			for (Future<Boolean> result : pool.invokeAll(tasks)) {
+				try {
+					if (result.get()) {
+						warmed++;
+					}
+				} catch (ExecutionException e) {
+					LOG.debug("Warm-up task failed", e.getCause());
+				}
+			}
+			LOG.debug("Warmed up {} of {} resources in {} ms", warmed, warmupResources.size(),
+					(System.nanoTime() - start) / 1000000);
+			return warmed;
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Resolves and reads a single resource.
+	 */
+	private static final class WarmupTask implements Callable<Boolean> {
+		private final String resource;
+		private final ClassLoader cl;
+		private final ResourceContentCache contentCache;
+
+		private WarmupTask (final String resource, final ClassLoader cl, final ResourceContentCache contentCache) {
+			this.resource = resource;
+			this.cl = cl;
+			this.contentCache = contentCache;
+		}
+
+		@Override
+		public Boolean call () {
+			WARMING_UP.set(Boolean.TRUE);
+			try {
+				final ResourceLocator locator = ResourceLocator.parse(resource);
+				if (locator.getKind() == ResourceLocator.Kind.URL) {
+					return null != locator.find(cl);
+				}
+				if (null != contentCache) {
+					contentCache.getByteBuffer(resource, cl);
+				} else {
+					UrlResourceUtil.readFully(locator.resolve(cl));
+				}
+				return true;
+			} catch (IOException | RuntimeException e) {
+				LOG.debug("Cannot warm up {}: {}", resource, e.toString());
+				return false;
+			} finally {
+				WARMING_UP.remove();
+			}
+		}
+	}
+
+	/**
+	 * Creates named daemon threads, so a warm-up does not keep the JVM running.
+	 */
+	private static final class WarmupThreadFactory implements ThreadFactory {
+		private final int warmupNumber = WARMUP_COUNT.incrementAndGet();
+		private final AtomicInteger threadCount = new AtomicInteger();
+
+		@Override
+		public Thread newThread (final Runnable runnable) {
+			final Thread thread = new Thread(runnable, "resource-warmup-" + warmupNumber + "-"
+					+ threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
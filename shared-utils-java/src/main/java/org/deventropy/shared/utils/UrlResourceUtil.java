@@ -16,14 +16,40 @@
  */
 package org.deventropy.shared.utils;
 
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.JarURLConnection;
 import java.net.MalformedURLException;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
 import java.util.Set;
+import java.util.zip.ZipEntry;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 /**
  * A utility class to provide uniform resource loading capability from real and <em>pseudo</em> URLs, like classpath.
@@ -38,7 +64,23 @@ import java.util.Set;
  * <li><em>File</em> Example: <code><b>file:</b>/path/to/file/file.ext</code></li>
  * <li><em>HTTP</em> Example: <code><b>http://</b>example.com/file.ext</code></li>
  * <li><em>HTTPS</em> Example: <code><b>https://</b>example.com/file.ext</code></li>
+ * <li><em>Memory</em> Example: <code><b>mem:</b>/path/to/file.ext</code>, see {@link MemoryResourceHandler}</li>
  * </ul>
+ * More protocols can be added by {@link ResourceProtocolHandler} service providers.
+ * Locations matching several classpath resources (<code>classpath*:</code> and wildcards) are resolved with
+ * {@link #getUrls(String, ClassLoader)}.
+ * 
+ * <p>Looking up <code>classpath:</code> resources searches the class loader every time; where the same resources are
+ * looked up repeatedly, a {@link ResourceUrlCache} remembers the results (including resources that do not exist), and
+ * a {@link ClasspathResourceIndex} resolves them without searching the class loader at all. Locations resolved over
+ * and over can be parsed once into a {@link ResourceLocator}.
+ * Resources read repeatedly can be read through a {@link ResourceContentCache}, and large resources can be mapped into
+ * memory with {@link #mapResource(String, ClassLoader)}. Classpath resources in jar files are read through a shared
+ * {@link JarFileCache}, so reading many resources from a jar opens it once. Compressed resources are decompressed
+ * while read with {@link #openDecompressedStream(String, ClassLoader)}. Resources are copied to files or sockets
+ * with {@link #transferTo(String, ClassLoader, WritableByteChannel)}, without copying file contents onto the heap.
+ * Instead of polling file backed resources for changes, {@link #watch(String, ClassLoader, ResourceChangeListener)}
+ * reports them.
  * 
  * @author Bindul Bhowmik
  */
@@ -49,6 +91,11 @@ public final class UrlResourceUtil {
 	 */
 	public static final String URL_PROTOCOL_CLASSPATH = "classpath:";
 	
+	/**
+	 * Prefix of classpath patterns resolving to all the matching resources, see {@link ClasspathPatternResolver}.
+	 */
+	public static final String URL_PROTOCOL_CLASSPATH_ALL = "classpath*:";
+	
 	/**
 	 * File url prefix.
 	 */
@@ -65,10 +112,14 @@ public final class UrlResourceUtil {
 	public static final String URL_PROTOCOL_HTTPS = "https://";
 	
 	/**
-	 * known protocols.
+	 * known protocols, including the protocols of the {@link ResourceProtocolHandler}s found.
 	 */
 	public static final Set<String> KNOWN_PROTOCOLS;
 	
+	private static final Logger LOG = LogManager.getLogger(UrlResourceUtil.class);
+	
+	private static final Map<String, ResourceProtocolHandler> PROTOCOL_HANDLERS;
+	
 	static {
 		final Set<String> knownProtocols = new HashSet<String> ();
 		knownProtocols.add(URL_PROTOCOL_FILE);
@@ -76,9 +127,40 @@ public final class UrlResourceUtil {
 		knownProtocols.add(URL_PROTOCOL_HTTP);
 		knownProtocols.add(URL_PROTOCOL_HTTPS);
 
+		final Map<String, ResourceProtocolHandler> protocolHandlers = new HashMap<>();
+		final Iterator<ResourceProtocolHandler> handlers = ServiceLoader.load(ResourceProtocolHandler.class,
+				UrlResourceUtil.class.getClassLoader()).iterator();
+		while (true) {
+			final ResourceProtocolHandler handler;
+			try {
+				if (!handlers.hasNext()) {
+					break;
+				}
+				handler = handlers.next();
+			} catch (ServiceConfigurationError e) {
+				LOG.warn("Ignoring a resource protocol handler that cannot be loaded", e);
+				continue;
+			}
+			final String protocol = handler.getProtocol();
+			if (null == protocol || !protocol.endsWith(":") || protocol.indexOf(':') != protocol.length() - 1
+					|| knownProtocols.contains(protocol) || URL_PROTOCOL_CLASSPATH_ALL.equals(protocol)) {
+				LOG.warn("Ignoring resource protocol handler {} for protocol {}", handler.getClass().getName(),
+						protocol);
+				continue;
+			}
+			knownProtocols.add(protocol);
+			protocolHandlers.put(protocol, handler);
+			LOG.debug("Registered resource protocol handler {} for {}", handler.getClass().getName(), protocol);
+		}
+
 		KNOWN_PROTOCOLS = Collections.unmodifiableSet(knownProtocols);
+		PROTOCOL_HANDLERS = Collections.unmodifiableMap(protocolHandlers);
 	}
 	
+	private static final String FILE_PROTOCOL = "file";
+	private static final String JAR_PROTOCOL = "jar";
+	private static final int READ_BUFFER_SIZE = 8 * 1024;
+	
 	private UrlResourceUtil () {
 		// Util class
 	}
@@ -93,37 +175,119 @@ public final class UrlResourceUtil {
 	public static URL getUrl (final String resource, final ClassLoader cl)
 			throws MalformedURLException, IOException {
 
-		ArgumentCheck.notNull(resource, "Resource cannot be null");
-		URL url = null;
+		return ResourceLocator.parse(resource).resolve(cl);
+	}
+	
+	/**
+	 * Looks up a <code>classpath:</code> resource.
+	 * 
+	 * @return The URL of the resource, or <code>null</code> if it does not exist.
+	 */
+	static URL findClasspathResource (final String resource, final ClassLoader cl) {
+		String resourcePart = resource.substring(URL_PROTOCOL_CLASSPATH.length());
+
+		// System and non system classloaders behave different with the starting '/', so try both
+		if (resourcePart.length() >= 1 && resourcePart.charAt(0) != '/') {
+			resourcePart = "/" + resourcePart;
+		}
+		URL url = cl.getResource(resourcePart);
 
-		if (resource.startsWith(URL_PROTOCOL_CLASSPATH)) {
-			String resourcePart = resource.substring(URL_PROTOCOL_CLASSPATH.length());
+		if (null == url) {
+			url = cl.getResource(resourcePart.substring(1)); // Try without the '/'
+		}
+		return url;
+	}
 	
-			// System and non system classloaders behave different with the starting '/', so try both
-			if (resourcePart.length() >= 1 && resourcePart.charAt(0) != '/') {
-				resourcePart = "/" + resourcePart;
-			}
-			url = cl.getResource(resourcePart);
+	static FileNotFoundException classpathResourceNotFound (final String resource) {
+		return new FileNotFoundException("The requested classpath resource " + resource + " does not exist");
+	}
 	
-			if (null == url) {
-				url = cl.getResource(resourcePart.substring(1)); // Try without the '/'
-			}
+	/**
+	 * Finds the {@link ResourceProtocolHandler} of a location.
+	 * 
+	 * @return The handler, or <code>null</code> if the location is not of a protocol added by a handler.
+	 */
+	static ResourceProtocolHandler getProtocolHandler (final String resource) {
+		final int colon = resource.indexOf(':');
+		if (colon <= 0 || PROTOCOL_HANDLERS.isEmpty()) {
+			return null;
+		}
+		return PROTOCOL_HANDLERS.get(resource.substring(0, colon + 1));
+	}
 	
-			if (null == url) {
-				throw new FileNotFoundException("The requested classpath resource " + resource
-						+ " does not exist");
-			}
-		} else {
+	/**
+	 * Checks if a resource exists, without reading it. Files and classpath resources are checked without opening them;
+	 * other URLs are opened (and closed).
+	 * 
+	 * @param resource The resource, in any of the formats supported by {@link #getUrl(String, ClassLoader)}.
+	 * @param cl The class loader to find classpath resources with.
+	 * @return <code>true</code> if the resource exists.
+	 * @throws MalformedURLException The location is malformed.
+	 */
+	public static boolean exists (final String resource, final ClassLoader cl) throws MalformedURLException {
+		final ResourceLocator locator = ResourceLocator.parse(resource);
+		switch (locator.getKind()) {
+			case HANDLER:
+				return locator.getProtocolHandler().exists(resource, cl);
+			case CLASSPATH:
+				return null != locator.find(cl);
+			case FILE:
+				return Files.exists(locator.getFile().toPath());
+			default:
+				try {
+					locator.find(cl).openStream().close();
+					return true;
+				} catch (IOException e) {
+					LOG.trace("{} cannot be opened: {}", resource, e.toString());
+					return false;
+				}
+		}
+	}
 	
-			try {
-				url = new URL(resource);
-			} catch (MalformedURLException e) {
-				// Try to resolve it as a file
-				url = new File(resource).toURI().toURL();
-			}
+	/**
+	 * Checks if a resource exists, finding classpath resources with the class loader found by
+	 * {@link ClassUtil#getApplicableClassloader()}.
+	 * 
+	 * @param resource The resource.
+	 * @return <code>true</code> if the resource exists.
+	 * @throws MalformedURLException The location is malformed.
+	 */
+	public static boolean exists (final String resource) throws MalformedURLException {
+		return exists(resource, ClassUtil.getApplicableClassloader());
+	}
+	
+	/**
+	 * Opens a resource as a channel. Resources of protocols added by a {@link ResourceProtocolHandler} are opened by
+	 * the handler; files (including classpath resources in directories) are opened as a <code>FileChannel</code>, and
+	 * other resources by opening their URL.
+	 * 
+	 * @param resource The resource, in any of the formats supported by {@link #getUrl(String, ClassLoader)}.
+	 * @param cl The class loader to load classpath resources with.
+	 * @return A channel reading the resource, to be closed by the caller.
+	 * @throws IOException The resource does not exist or cannot be opened.
+	 */
+	public static ReadableByteChannel openChannel (final String resource, final ClassLoader cl) throws IOException {
+		final ResourceProtocolHandler handler = getProtocolHandler(resource);
+		if (null != handler) {
+			return handler.openChannel(resource, cl);
 		}
-
-		return url;
+		final URL url = getUrl(resource, cl);
+		if (FILE_PROTOCOL.equals(url.getProtocol())) {
+			return FileChannel.open(toPath(url), StandardOpenOption.READ);
+		}
+		return Channels.newChannel(openStream(url));
+	}
+	
+	/**
+	 * Opens a resource as a channel, loading classpath resources with the class loader found by
+	 * {@link ClassUtil#getApplicableClassloader()}.
+	 * 
+	 * @param resource The resource.
+	 * @return A channel reading the resource, to be closed by the caller.
+	 * @throws IOException The resource does not exist or cannot be opened.
+	 */
+	public static ReadableByteChannel openChannel (final String resource) throws IOException {
+		return openChannel(resource, ClassUtil.getApplicableClassloader());
 	}
 	
 	/**
@@ -132,15 +296,332 @@ public final class UrlResourceUtil {
 	 * @throws IOException Exception getting the URL
 	 */
 	public static URL getUrl (final String resource) throws IOException {
-		return getUrl(resource, ClassUtil.getApplicableClassloader(null));
+		return getUrl(resource, ClassUtil.getApplicableClassloader());
+	}
+	
+	/**
+	 * Resolves a location pattern (like <code>classpath*:META-INF/plugins/*.json</code>) to all the resources matching
+	 * it, with a {@link ClasspathPatternResolver}.
+	 * 
+	 * @param locationPattern The location or location pattern.
+	 * @param cl The class loader to find classpath resources with.
+	 * @return The URLs of all the resources matching, in class path order.
+	 * @throws IOException Error reading the class path, or the location is malformed.
+	 */
+	public static List<URL> getUrls (final String locationPattern, final ClassLoader cl) throws IOException {
+		return new ClasspathPatternResolver().getUrls(locationPattern, cl);
+	}
+	
+	/**
+	 * Opens a resource for reading, decompressing it if it is compressed. Compressed resources are detected by the
+	 * extension of their location (<code>.gz</code>, <code>.bz2</code>, <code>.xz</code>, <code>.lzma</code>,
+	 * <code>.Z</code>, <code>.sz</code>), or, whatever the extension, by the magic bytes at the start of GZip, BZip2
+	 * and XZ contents. GZip is decompressed with the JDK, the other formats need commons-compress (an optional
+	 * dependency) on the class path. Zstandard (<code>.zst</code>) is detected but not supported.
+	 * 
+	 * @param resource The resource, in any of the formats supported by {@link #getUrl(String, ClassLoader)}.
+	 * @param cl The class loader to load classpath resources with.
+	 * @return A stream reading the decompressed contents (the contents as they are if not compressed), to be closed by
+	 * 	the caller.
+	 * @throws IOException The resource does not exist or cannot be opened, or is compressed in an unsupported format.
+	 */
+	public static InputStream openDecompressedStream (final String resource, final ClassLoader cl)
+			throws IOException {
+		return Decompression.decompress(openStream(getUrl(resource, cl)), resource);
+	}
+	
+	/**
+	 * Opens a resource for reading, decompressing it if it is compressed, loading classpath resources with the class
+	 * loader found by {@link ClassUtil#getApplicableClassloader()}.
+	 * 
+	 * @param resource The resource.
+	 * @return A stream reading the decompressed contents, see {@link #openDecompressedStream(String, ClassLoader)}.
+	 * @throws IOException The resource does not exist or cannot be opened, or is compressed in an unsupported format.
+	 */
+	public static InputStream openDecompressedStream (final String resource) throws IOException {
+		return openDecompressedStream(resource, ClassUtil.getApplicableClassloader());
+	}
+	
+	/**
+	 * Opens a resource as a channel, decompressing it if it is compressed, see
+	 * {@link #openDecompressedStream(String, ClassLoader)}.
+	 * 
+	 * @param resource The resource, in any of the formats supported by {@link #getUrl(String, ClassLoader)}.
+	 * @param cl The class loader to load classpath resources with.
+	 * @return A channel reading the decompressed contents, to be closed by the caller.
+	 * @throws IOException The resource does not exist or cannot be opened, or is compressed in an unsupported format.
+	 */
+	public static ReadableByteChannel openDecompressedChannel (final String resource, final ClassLoader cl)
+			throws IOException {
+		return Channels.newChannel(openDecompressedStream(resource, cl));
+	}
+	
+	/**
+	 * Opens a resource as a channel, decompressing it if it is compressed, loading classpath resources with the class
+	 * loader found by {@link ClassUtil#getApplicableClassloader()}.
+	 * 
+	 * @param resource The resource.
+	 * @return A channel reading the decompressed contents, to be closed by the caller.
+	 * @throws IOException The resource does not exist or cannot be opened, or is compressed in an unsupported format.
+	 */
+	public static ReadableByteChannel openDecompressedChannel (final String resource) throws IOException {
+		return openDecompressedChannel(resource, ClassUtil.getApplicableClassloader());
+	}
+	
+	/**
+	 * Opens a resource as a seekable channel. Files (including classpath resources in directories) are opened as a
+	 * <code>FileChannel</code>; other resources are {@link #mapResource(String, ClassLoader) mapped or read} into a
+	 * buffer, which the channel reads.
+	 * 
+	 * @param resource The resource, in any of the formats supported by {@link #getUrl(String, ClassLoader)}.
+	 * @param cl The class loader to load classpath resources with.
+	 * @return A read only channel reading the resource, to be closed by the caller.
+	 * @throws IOException The resource does not exist, cannot be read, or (unless a file) is larger than 2 GB.
+	 */
+	public static SeekableByteChannel openSeekableChannel (final String resource, final ClassLoader cl)
+			throws IOException {
+		final URL url = getUrl(resource, cl);
+		if (FILE_PROTOCOL.equals(url.getProtocol())) {
+			return FileChannel.open(toPath(url), StandardOpenOption.READ);
+		}
+		return new ReadOnlyBufferChannel(mapUrl(url));
+	}
+	
+	/**
+	 * Opens a resource as a seekable channel, loading classpath resources with the class loader found by
+	 * {@link ClassUtil#getApplicableClassloader()}.
+	 * 
+	 * @param resource The resource.
+	 * @return A read only channel reading the resource, see {@link #openSeekableChannel(String, ClassLoader)}.
+	 * @throws IOException The resource does not exist, cannot be read, or (unless a file) is larger than 2 GB.
+	 */
+	public static SeekableByteChannel openSeekableChannel (final String resource) throws IOException {
+		return openSeekableChannel(resource, ClassUtil.getApplicableClassloader());
+	}
+	
+	/**
+	 * Copies the contents of a resource to a channel, like a file or a socket. Files (including classpath resources in
+	 * directories) are transferred with <code>FileChannel.transferTo</code>, which the operating system may perform
+	 * without copying the contents into the process at all; other resources are copied through a pooled direct buffer.
+	 * 
+	 * @param resource The resource, in any of the formats supported by {@link #getUrl(String, ClassLoader)}.
+	 * @param cl The class loader to load classpath resources with.
+	 * @param target The channel to write to, in blocking mode; it is not closed.
+	 * @return The number of bytes transferred.
+	 * @throws IOException The resource does not exist or cannot be read, or error writing to the channel.
+	 */
+	public static long transferTo (final String resource, final ClassLoader cl, final WritableByteChannel target)
+			throws IOException {
+		ArgumentCheck.notNull(target, "target");
+		final ReadableByteChannel source = openChannel(resource, cl);
+		try {
+			if (source instanceof FileChannel) {
+				return transferFile((FileChannel) source, target);
+			}
+			return copy(source, target);
+		} finally {
+			source.close();
+		}
+	}
+	
+	/**
+	 * Copies the contents of a resource to a channel, loading classpath resources with the class loader found by
+	 * {@link ClassUtil#getApplicableClassloader()}.
+	 * 
+	 * @param resource The resource.
+	 * @param target The channel to write to, in blocking mode; it is not closed.
+	 * @return The number of bytes transferred.
+	 * @throws IOException The resource does not exist or cannot be read, or error writing to the channel.
+	 */
+	public static long transferTo (final String resource, final WritableByteChannel target) throws IOException {
+		return transferTo(resource, ClassUtil.getApplicableClassloader(), target);
+	}
+	
+	private static long transferFile (final FileChannel source, final WritableByteChannel target) throws IOException {
+		final long size = source.size();
+		long position = 0;
+		while (position < size) {
+			final long transferred = source.transferTo(position, size - position, target);
+			if (transferred <= 0 && position >= source.size()) {
+				// The file was truncated while transferring
+				break;
+			}
+			position += transferred;
+		}
+		return position;
+	}
+	
+	private static long copy (final ReadableByteChannel source, final WritableByteChannel target) throws IOException {
+		final ByteBuffer buffer = BufferPool.TRANSFER_BUFFERS.acquire();
+		try {
+			long copied = 0;
+			while (source.read(buffer) != -1) {
+				buffer.flip();
+				while (buffer.hasRemaining()) {
+					copied += target.write(buffer);
+				}
+				buffer.clear();
+			}
+			return copied;
+		} finally {
+			BufferPool.TRANSFER_BUFFERS.release(buffer);
+		}
+	}
+	
+	/**
+	 * Watches a file backed resource (a file, or a classpath resource in a directory) for changes, with a
+	 * {@link ResourceChangeWatcher} shared by the whole class loader. Subscribing a {@link ResourceUrlCache} or a
+	 * {@link ResourceContentCache} invalidates what the cache holds for the resource when it changes.
+	 * 
+	 * @param resource The resource, in any of the formats supported by {@link #getUrl(String, ClassLoader)}.
+	 * @param cl The class loader to resolve classpath resources with.
+	 * @param listener The listener to notify of changes.
+	 * @return The subscription, to be closed to stop watching.
+	 * @throws IOException The resource is not file backed, or cannot be watched.
+	 */
+	public static Closeable watch (final String resource, final ClassLoader cl, final ResourceChangeListener listener)
+			throws IOException {
+		return ResourceChangeWatcher.getSharedWatcher().subscribe(resource, cl, listener);
 	}
 	
 	/**
+	 * Watches a file backed resource for changes, resolving classpath resources with the class loader found by
+	 * {@link ClassUtil#getApplicableClassloader()}.
+	 * 
+	 * @param resource The resource.
+	 * @param listener The listener to notify of changes.
+	 * @return The subscription, to be closed to stop watching.
+	 * @throws IOException The resource is not file backed, or cannot be watched.
+	 */
+	public static Closeable watch (final String resource, final ResourceChangeListener listener) throws IOException {
+		return watch(resource, ClassUtil.getApplicableClassloader(), listener);
+	}
+	
+	/**
+	 * Returns the contents of a resource as a read only buffer, mapping them into memory where possible instead of
+	 * copying them onto the heap.
+	 * 
+	 * <p>Files (<code>file:</code> URLs or paths, and classpath resources in directories) are mapped completely.
+	 * Classpath resources in jar files are mapped directly from the jar when they are stored without compression;
+	 * compressed entries, and resources of other kinds, are read into a heap buffer. Mapped contents reflect later
+	 * changes to the underlying file, and the behavior is undefined if the file is truncated while mapped.
+	 * 
+	 * @param resource The resource, in any of the formats supported by {@link #getUrl(String, ClassLoader)}.
+	 * @param cl The class loader to load classpath resources with.
+	 * @return A read only buffer with the contents, a <code>MappedByteBuffer</code> if the contents were mapped.
+	 * @throws IOException The resource does not exist, cannot be read, or is larger than 2 GB.
+	 */
+	public static ByteBuffer mapResource (final String resource, final ClassLoader cl) throws IOException {
+		return mapUrl(getUrl(resource, cl));
+	}
+
+	/**
+	 * Returns the contents of a resource as a read only buffer, loading classpath resources with the class loader
+	 * found by {@link ClassUtil#getApplicableClassloader()}.
+	 * 
+	 * @param resource The resource.
+	 * @return A read only buffer with the contents, see {@link #mapResource(String, ClassLoader)}.
+	 * @throws IOException The resource does not exist, cannot be read, or is larger than 2 GB.
+	 */
+	public static ByteBuffer mapResource (final String resource) throws IOException {
+		return mapResource(resource, ClassUtil.getApplicableClassloader());
+	}
+
+	private static ByteBuffer mapUrl (final URL url) throws IOException {
+		if (FILE_PROTOCOL.equals(url.getProtocol())) {
+			return mapFile(toPath(url));
+		}
+		if (JAR_PROTOCOL.equals(url.getProtocol())) {
+			final JarURLConnection jarConnection = (JarURLConnection) url.openConnection();
+			final URL jarFileUrl = jarConnection.getJarFileURL();
+			final String entryName = jarConnection.getEntryName();
+			if (FILE_PROTOCOL.equals(jarFileUrl.getProtocol()) && null != entryName) {
+				final ZipCentralDirectory centralDirectory = ZipCentralDirectory.open(toPath(jarFileUrl));
+				try {
+					final ZipCentralDirectory.Cursor entry = centralDirectory.findEntry(entryName);
+					if (null != entry && entry.getMethod() == ZipEntry.STORED && !entry.isEncrypted()) {
+						return centralDirectory.mapStoredEntry(entry);
+					}
+				} finally {
+					centralDirectory.close();
+				}
+			}
+		}
+		return ByteBuffer.wrap(readFully(url)).asReadOnlyBuffer();
+	}
+
+	private static ByteBuffer mapFile (final Path file) throws IOException {
+		final FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			final long size = fileChannel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException(file + " is too large to map");
+			}
+			// The mapping stays valid after the channel is closed
+			return fileChannel.map(MapMode.READ_ONLY, 0, size);
+		} finally {
+			fileChannel.close();
+		}
+	}
+
+	private static Path toPath (final URL url) throws IOException {
+		try {
+			return Paths.get(url.toURI());
+		} catch (URISyntaxException | IllegalArgumentException e) {
+			throw new IOException("Cannot read " + url + " as a file", e);
+		}
+	}
+
+	/**
+	 * Reads the complete contents of a URL.
+	 */
+	static byte[] readFully (final URL url) throws IOException {
+		return readFully(openStream(url));
+	}
+
+	/**
+	 * Opens a URL; entries of local jar files are read through the shared {@link JarFileCache}.
+	 */
+	static InputStream openStream (final URL url) throws IOException {
+		final InputStream jarEntryStream = JarFileCache.getSharedCache().openStream(url);
+		return null == jarEntryStream ? url.openStream() : jarEntryStream;
+	}
+
+	/**
+	 * Reads a stream to its end, and closes it.
+	 */
+	static byte[] readFully (final InputStream inputStream) throws IOException {
+		try {
+			final ByteArrayOutputStream content = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[READ_BUFFER_SIZE];
+			int read = inputStream.read(buffer);
+			while (read != -1) {
+				content.write(buffer, 0, read);
+				read = inputStream.read(buffer);
+			}
+			return content.toByteArray();
+		} finally {
+			inputStream.close();
+		}
+	}
+	
+	/**
+	 * Checks if the resource is a file: a <code>file:</code> URL, or a file system path that exists. The resource is
+	 * classified by {@link ResourceLocator#parse(String)}, so classpath resources and other URLs are not looked up on
+	 * the file system.
+	 * 
 	 * @param resource If the resource is a file
 	 * @return <code>true</code> if file on mounted drive
 	 */
 	public static boolean isFile (final String resource) {
-		return resource.startsWith(URL_PROTOCOL_FILE) || new File(resource).exists();
+		final ResourceLocator locator;
+		try {
+			locator = ResourceLocator.parse(resource);
+		} catch (MalformedURLException e) {
+			// A path that cannot be made into a URL
+			return new File(resource).exists();
+		}
+		return isFile(locator);
 	}
 	
 	/**
@@ -149,13 +630,16 @@ public final class UrlResourceUtil {
 	 * @throws IOException Exception trying to open a file
 	 */
 	public static File getFileForWrite (final String resource) throws IOException {
-		if (!isFile(resource)) {
+		final ResourceLocator locator = ResourceLocator.parse(resource);
+		if (!isFile(locator)) {
 			throw new IOException("Not a file");
 		}
-		if (resource.startsWith(URL_PROTOCOL_FILE)) {
-			return new File(resource.substring(URL_PROTOCOL_FILE.length()));
-		}
-		return new File(resource);
+		return locator.getFile();
+	}
+
+	private static boolean isFile (final ResourceLocator locator) {
+		// A file: URL need not exist (to be written), a plain path is only taken for a file if it exists
+		return locator.isFile() && (locator.getLocation().startsWith(URL_PROTOCOL_FILE) || locator.getFile().exists());
 	}
 
 }
@@ -0,0 +1,414 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.shared.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Lists the entries of a zip (or jar) file by reading only its central directory, memory mapped.
+ * 
+ * <p>Opening a zip file with <code>java.util.zip.ZipFile</code> or commons-compress reads the whole central directory
+ * into an object per entry. This class maps the end of the file to find the end of central directory record, then the
+ * central directory itself, and reads entries straight out of the mapping through a reusable {@link Cursor}: iterating
+ * the entries allocates nothing per entry (unless the entry name is requested as a <code>String</code>), so even
+ * archives with hundreds of thousands of entries are listed quickly and without garbage. Zip64 archives are supported;
+ * archives split over multiple disks are not.
+ * 
+ * <pre>
+ * final ZipCentralDirectory centralDirectory = ZipCentralDirectory.open(Paths.get("/project/data/source.zip"));
+ * try {
+ * 	final ZipCentralDirectory.Cursor cursor = centralDirectory.newCursor();
+ * 	while (cursor.next()) {
+ * 		total += cursor.getSize();
+ * 	}
+ * } finally {
+ * 	centralDirectory.close();
+ * }
+ * </pre>
+ * 
+ * <p>Names are decoded as <code>UTF-8</code>, the same as the default for <code>java.util.zip.ZipFile</code>.
+ * Instances are thread safe, cursors are not; each thread should use its own cursor.
+ * 
+ * @author Bindul Bhowmik
+ */
+public final class ZipCentralDirectory implements Closeable {
+
+	private static final int EOCD_SIGNATURE = 0x06054b50;
+	private static final int EOCD_LENGTH = 22;
+	private static final int MAX_COMMENT_LENGTH = 0xFFFF;
+	private static final int ZIP64_EOCD_LOCATOR_SIGNATURE = 0x07064b50;
+	private static final int ZIP64_EOCD_LOCATOR_LENGTH = 20;
+	private static final int ZIP64_EOCD_SIGNATURE = 0x06064b50;
+	private static final int ZIP64_EOCD_LENGTH = 56;
+	private static final int CENTRAL_FILE_HEADER_SIGNATURE = 0x02014b50;
+	private static final int CENTRAL_FILE_HEADER_LENGTH = 46;
+	private static final int LOCAL_FILE_HEADER_SIGNATURE = 0x04034b50;
+	private static final int LOCAL_FILE_HEADER_LENGTH = 30;
+	private static final int ENCRYPTED_FLAG = 0x0001;
+	private static final int ZIP64_EXTRA_FIELD_ID = 0x0001;
+	private static final int UNSIGNED_SHORT_MAX = 0xFFFF;
+	private static final long UNSIGNED_INT_MAX = 0xFFFFFFFFL;
+	private static final byte DIRECTORY_SUFFIX = '/';
+
+	private final FileChannel fileChannel;
+	private final ByteBuffer centralDirectory;
+	private final long entryCount;
+
+	private ZipCentralDirectory (final FileChannel fileChannel, final ByteBuffer centralDirectory,
+			final long entryCount) {
+		this.fileChannel = fileChannel;
+		this.centralDirectory = centralDirectory;
+		this.entryCount = entryCount;
+	}
+
+	/**
+	 * Opens the zip file and maps its central directory.
+	 * 
+	 * @param zipFile The zip file.
+	 * @return The central directory of the file.
+	 * @throws IOException Error reading the file, or the file is not a (single disk) zip file.
+	 */
+	public static ZipCentralDirectory open (final Path zipFile) throws IOException {
+		ArgumentCheck.notNull(zipFile, "zipFile");
+		final FileChannel fileChannel = FileChannel.open(zipFile, StandardOpenOption.READ);
+		try {
+			final long fileSize = fileChannel.size();
+			final long tailOffset = Math.max(0, fileSize - EOCD_LENGTH - MAX_COMMENT_LENGTH);
+			final ByteBuffer tail = map(fileChannel, tailOffset, fileSize - tailOffset);
+			final int eocdPosition = findEndOfCentralDirectory(tail);
+			if (eocdPosition < 0) {
+				throw new ZipException("No end of central directory record found in " + zipFile);
+			}
+
+			long entryCount = tail.getShort(eocdPosition + 10) & UNSIGNED_SHORT_MAX;
+			long centralDirectorySize = tail.getInt(eocdPosition + 12) & UNSIGNED_INT_MAX;
+			long centralDirectoryOffset = tail.getInt(eocdPosition + 16) & UNSIGNED_INT_MAX;
+			final int locatorPosition = eocdPosition - ZIP64_EOCD_LOCATOR_LENGTH;
+			if (locatorPosition >= 0 && tail.getInt(locatorPosition) == ZIP64_EOCD_LOCATOR_SIGNATURE) {
+				final long zip64EocdOffset = tail.getLong(locatorPosition + 8);
+				if (zip64EocdOffset < 0 || zip64EocdOffset > fileSize - ZIP64_EOCD_LENGTH) {
+					throw new ZipException("Invalid zip64 end of central directory offset in " + zipFile);
+				}
+				final ByteBuffer zip64Eocd = map(fileChannel, zip64EocdOffset, ZIP64_EOCD_LENGTH);
+				if (zip64Eocd.getInt(0) != ZIP64_EOCD_SIGNATURE) {
+					throw new ZipException("No zip64 end of central directory record found in " + zipFile);
+				}
+				entryCount = zip64Eocd.getLong(32);
+				centralDirectorySize = zip64Eocd.getLong(40);
+				centralDirectoryOffset = zip64Eocd.getLong(48);
+			}
+
+			if (centralDirectoryOffset < 0 || centralDirectorySize < 0 || centralDirectorySize > Integer.MAX_VALUE
+					|| centralDirectoryOffset + centralDirectorySize > fileSize) {
+				throw new ZipException("Invalid central directory location in " + zipFile);
+			}
+			return new ZipCentralDirectory(fileChannel, map(fileChannel, centralDirectoryOffset, centralDirectorySize),
+					entryCount);
+		} catch (IOException | RuntimeException e) {
+			fileChannel.close();
+			throw e;
+		}
+	}
+
+	private static ByteBuffer map (final FileChannel fileChannel, final long position, final long size)
+			throws IOException {
+		return fileChannel.map(MapMode.READ_ONLY, position, size).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Searches backwards for the end of central directory record, which is followed only by the archive comment.
+	 */
+	private static int findEndOfCentralDirectory (final ByteBuffer tail) {
+		for (int position = tail.limit() - EOCD_LENGTH; position >= 0; position--) {
+			if (tail.getInt(position) == EOCD_SIGNATURE) {
+				final int commentLength = tail.getShort(position + 20) & UNSIGNED_SHORT_MAX;
+				if (position + EOCD_LENGTH + commentLength == tail.limit()) {
+					return position;
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return The number of entries in the archive.
+	 */
+	public long getEntryCount () {
+		return entryCount;
+	}
+
+	/**
+	 * Creates a new cursor, positioned before the first entry.
+	 * 
+	 * @return A cursor over the entries.
+	 */
+	public Cursor newCursor () {
+		return new Cursor(centralDirectory.duplicate().order(ByteOrder.LITTLE_ENDIAN));
+	}
+
+	/**
+	 * Finds an entry by name.
+	 * 
+	 * @param name The entry name; directory names end with a <code>/</code>.
+	 * @return A cursor positioned on the entry, or <code>null</code> if there is no entry with the name.
+	 * @throws IOException The central directory is corrupt.
+	 */
+	public Cursor findEntry (final String name) throws IOException {
+		ArgumentCheck.notNull(name, "name");
+		final byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+		final Cursor cursor = newCursor();
+		while (cursor.next()) {
+			if (cursor.nameEquals(nameBytes)) {
+				return cursor;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Maps the data of an entry stored without compression, so it can be read without copying it.
+	 *
+	 * @param cursor A cursor of this central directory, positioned on the entry.
+	 * @return A read only buffer with the contents of the entry.
+	 * @throws IOException The entry is compressed or encrypted, or the archive is corrupt.
+	 */
+	public ByteBuffer mapStoredEntry (final Cursor cursor) throws IOException {
+		ArgumentCheck.notNull(cursor, "cursor");
+		if (cursor.getMethod() != ZipEntry.STORED || cursor.isEncrypted()) {
+			throw new ZipException("Entry " + cursor.getName() + " is not stored uncompressed");
+		}
+		final long localHeaderOffset = cursor.getLocalHeaderOffset();
+		final ByteBuffer localHeader = ByteBuffer.allocate(LOCAL_FILE_HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+		while (localHeader.hasRemaining()) {
+			if (fileChannel.read(localHeader, localHeaderOffset + localHeader.position()) < 0) {
+				throw new ZipException("Local file header of " + cursor.getName() + " is truncated");
+			}
+		}
+		if (localHeader.getInt(0) != LOCAL_FILE_HEADER_SIGNATURE) {
+			throw new ZipException("Invalid local file header for " + cursor.getName());
+		}
+		// The extra field of the local header need not be the same as the one in the central directory
+		final long dataOffset = localHeaderOffset + LOCAL_FILE_HEADER_LENGTH
+				+ (localHeader.getShort(26) & UNSIGNED_SHORT_MAX) + (localHeader.getShort(28) & UNSIGNED_SHORT_MAX);
+		final long size = cursor.getCompressedSize();
+		if (size > Integer.MAX_VALUE || dataOffset + size > fileChannel.size()) {
+			throw new ZipException("Entry " + cursor.getName() + " cannot be mapped");
+		}
+		return fileChannel.map(MapMode.READ_ONLY, dataOffset, size);
+	}
+
+	/**
+	 * Closes the file. The mapping of the central directory is released when this object is garbage collected; until
+	 * then, on some platforms, the file cannot be deleted.
+	 * 
+	 * @throws IOException Error closing the file.
+	 */
+	@Override
+	public void close () throws IOException {
+		fileChannel.close();
+	}
+
+	/**
+	 * A flyweight view of one entry of the central directory at a time, moved from entry to entry by {@link #next()}.
+	 * All the accessors read directly from the mapped central directory.
+	 */
+	public static final class Cursor {
+		private final ByteBuffer buffer;
+		private int position = -1;
+		private int nextPosition;
+		private int nameLength;
+		private int extraFieldLength;
+
+		private Cursor (final ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		/**
+		 * Moves to the next entry.
+		 * 
+		 * @return <code>false</code> if there are no more entries.
+		 * @throws IOException The central directory is corrupt.
+		 */
+		public boolean next () throws IOException {
+			if (nextPosition + CENTRAL_FILE_HEADER_LENGTH > buffer.limit()) {
+				position = buffer.limit();
+				return false;
+			}
+			if (buffer.getInt(nextPosition) != CENTRAL_FILE_HEADER_SIGNATURE) {
+				throw new ZipException("Invalid central directory file header at " + nextPosition);
+			}
+			position = nextPosition;
+			nameLength = buffer.getShort(position + 28) & UNSIGNED_SHORT_MAX;
+			extraFieldLength = buffer.getShort(position + 30) & UNSIGNED_SHORT_MAX;
+			final int commentLength = buffer.getShort(position + 32) & UNSIGNED_SHORT_MAX;
+			nextPosition = position + CENTRAL_FILE_HEADER_LENGTH + nameLength + extraFieldLength + commentLength;
+			if (nextPosition > buffer.limit()) {
+				throw new ZipException("Central directory file header at " + position + " is truncated");
+			}
+			return true;
+		}
+
+		/**
+		 * @return The length of the (encoded) entry name in bytes.
+		 */
+		public int getNameLength () {
+			checkPosition();
+			return nameLength;
+		}
+
+		/**
+		 * Copies the encoded (<code>UTF-8</code>) entry name, without allocating.
+		 * 
+		 * @param destination The array to copy the name into, at least {@link #getNameLength()} long.
+		 * @return The number of bytes copied.
+		 */
+		public int copyName (final byte[] destination) {
+			checkPosition();
+			for (int i = 0; i < nameLength; i++) {
+				destination[i] = buffer.get(position + CENTRAL_FILE_HEADER_LENGTH + i);
+			}
+			return nameLength;
+		}
+
+		/**
+		 * @return The entry name; allocates a new string on every call.
+		 */
+		public String getName () {
+			final byte[] name = new byte[getNameLength()];
+			copyName(name);
+			return new String(name, StandardCharsets.UTF_8);
+		}
+
+		private boolean nameEquals (final byte[] name) {
+			if (name.length != nameLength) {
+				return false;
+			}
+			for (int i = 0; i < nameLength; i++) {
+				if (buffer.get(position + CENTRAL_FILE_HEADER_LENGTH + i) != name[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * @return <code>true</code> if the entry is a directory (the name ends with a <code>/</code>).
+		 */
+		public boolean isDirectory () {
+			checkPosition();
+			return nameLength > 0 && buffer.get(position + CENTRAL_FILE_HEADER_LENGTH + nameLength - 1)
+					== DIRECTORY_SUFFIX;
+		}
+
+		/**
+		 * @return The compression method, for example <code>java.util.zip.ZipEntry.DEFLATED</code>.
+		 */
+		public int getMethod () {
+			checkPosition();
+			return buffer.getShort(position + 10) & UNSIGNED_SHORT_MAX;
+		}
+
+		/**
+		 * @return <code>true</code> if the entry is encrypted.
+		 */
+		public boolean isEncrypted () {
+			checkPosition();
+			return (buffer.getShort(position + 8) & ENCRYPTED_FLAG) != 0;
+		}
+
+		/**
+		 * @return The CRC-32 checksum of the uncompressed data.
+		 */
+		public long getCrc () {
+			checkPosition();
+			return buffer.getInt(position + 16) & UNSIGNED_INT_MAX;
+		}
+
+		/**
+		 * @return The uncompressed size of the entry.
+		 */
+		public long getSize () {
+			checkPosition();
+			final long size = buffer.getInt(position + 24) & UNSIGNED_INT_MAX;
+			return (size == UNSIGNED_INT_MAX) ? getZip64Value(0) : size;
+		}
+
+		/**
+		 * @return The compressed size of the entry.
+		 */
+		public long getCompressedSize () {
+			checkPosition();
+			final long compressedSize = buffer.getInt(position + 20) & UNSIGNED_INT_MAX;
+			if (compressedSize != UNSIGNED_INT_MAX) {
+				return compressedSize;
+			}
+			return getZip64Value(zip64ValueIndex(24));
+		}
+
+		/**
+		 * @return The offset of the local file header of the entry in the archive.
+		 */
+		public long getLocalHeaderOffset () {
+			checkPosition();
+			final long localHeaderOffset = buffer.getInt(position + 42) & UNSIGNED_INT_MAX;
+			if (localHeaderOffset != UNSIGNED_INT_MAX) {
+				return localHeaderOffset;
+			}
+			return getZip64Value(zip64ValueIndex(24) + zip64ValueIndex(20));
+		}
+
+		/**
+		 * The zip64 extra field holds only the values that did not fit in the header, in a fixed order (size,
+		 * compressed size, local header offset); returns 1 if the value at <code>headerOffset</code> is one of them.
+		 */
+		private int zip64ValueIndex (final int headerOffset) {
+			return ((buffer.getInt(position + headerOffset) & UNSIGNED_INT_MAX) == UNSIGNED_INT_MAX) ? 1 : 0;
+		}
+
+		private long getZip64Value (final int index) {
+			int extraFieldPosition = position + CENTRAL_FILE_HEADER_LENGTH + nameLength;
+			final int extraFieldEnd = extraFieldPosition + extraFieldLength;
+			while (extraFieldPosition + 4 <= extraFieldEnd) {
+				final int id = buffer.getShort(extraFieldPosition) & UNSIGNED_SHORT_MAX;
+				final int length = buffer.getShort(extraFieldPosition + 2) & UNSIGNED_SHORT_MAX;
+				if (id == ZIP64_EXTRA_FIELD_ID) {
+					if ((index + 1) * 8 > length) {
+						break;
+					}
+					return buffer.getLong(extraFieldPosition + 4 + index * 8);
+				}
+				extraFieldPosition += 4 + length;
+			}
+			throw new IllegalStateException("Missing zip64 extended information for the entry at " + position);
+		}
+
+		private void checkPosition () {
+			if (position < 0 || position >= buffer.limit()) {
+				throw new IllegalStateException("The cursor is not on an entry");
+			}
+		}
+	}
+}
@@ -24,11 +24,43 @@
  * <li><em>{@link org.deventropy.shared.utils.ArgumentCheck ArgumentCheck}:</em> Methods to validate parameters to
  * methods (`null` checks, etc.)</li>
  * <li><em>{@link org.deventropy.shared.utils.ClassUtil ClassUtil}:</em> Utility to find appropriate class loaders/
- * resources in the classpath.</li>
+ * resources in the classpath, and to load classes with a cache of the classes found and not found.</li>
  * <li><em>{@link org.deventropy.shared.utils.UrlResourceUtil UrlResourceUtil}:</em> Methods to normalize access to
- * resources across multiple sources (classpath, file system, etc.).</li>
+ * resources across multiple sources (classpath, file system, etc.), to map them into memory, and to stream them to
+ * channels.</li>
+ * <li><em>{@link org.deventropy.shared.utils.ResourceLocator ResourceLocator}:</em> A resource location parsed once,
+ * to be resolved repeatedly.</li>
+ * <li><em>{@link org.deventropy.shared.utils.ResourceProtocolHandler ResourceProtocolHandler}:</em> Service provider
+ * interface adding resource location protocols, like the in memory <code>mem:</code> protocol of
+ * {@link org.deventropy.shared.utils.MemoryResourceHandler MemoryResourceHandler}.</li>
+ * <li><em>{@link org.deventropy.shared.utils.ClasspathPatternResolver ClasspathPatternResolver}:</em> Finds all the
+ * classpath resources matching a pattern, like <code>classpath*:META-INF/plugins/*.json</code>.</li>
+ * <li><em>{@link org.deventropy.shared.utils.ClasspathResourceIndex ClasspathResourceIndex}:</em> Indexes the
+ * resources on the class path of a class loader, for classpath resource lookups without searching it.</li>
+ * <li><em>{@link org.deventropy.shared.utils.ClasspathAnnotationScanner ClasspathAnnotationScanner}:</em> Finds
+ * the classes on the class path with an annotation, or of a type, without loading them.</li>
+ * <li><em>{@link org.deventropy.shared.utils.BulkResourceLoader BulkResourceLoader}:</em> Resolves and reads
+ * batches of resources concurrently, with a result or failure for every resource.</li>
+ * <li><em>{@link org.deventropy.shared.utils.ResourceWarmupManifest ResourceWarmupManifest}:</em> Records the
+ * resources resolved during a run, and resolves and reads them in the background when the next run starts.</li>
+ * <li><em>{@link org.deventropy.shared.utils.HttpResourceLoader HttpResourceLoader}:</em> Fetches HTTP resources
+ * through a disk cache, revalidating cached copies with conditional requests.</li>
+ * <li><em>{@link org.deventropy.shared.utils.ResourceChangeWatcher ResourceChangeWatcher}:</em> Notifies listeners of
+ * changes to files and classpath resources in directories, coalescing bursts of changes.</li>
+ * <li><em>{@link org.deventropy.shared.utils.JarFileCache JarFileCache}:</em> Bounded, reference counted cache of
+ * open jar files, reused to read resources from jars.</li>
+ * <li><em>{@link org.deventropy.shared.utils.ResourceUrlCache ResourceUrlCache}:</em> Caches resolved resource URLs,
+ * including missing resources, per class loader.</li>
+ * <li><em>{@link org.deventropy.shared.utils.ResourceContentCache ResourceContentCache}:</em> Size bounded cache of
+ * resource contents, revalidating files by modification time.</li>
  * <li><em>{@link org.deventropy.shared.utils.DirectoryArchiverUtil DirectoryArchiverUtil}:</em> Methods to create
  * zip, jar, tar or gzipped tar files for entire contents of a directory.</li>
+ * <li><em>{@link org.deventropy.shared.utils.DirectoryScanner DirectoryScanner}:</em> Lists and reads the attributes
+ * of entire directory trees in parallel, in a deterministic order.</li>
+ * <li><em>{@link org.deventropy.shared.utils.DirectoryFingerprinter DirectoryFingerprinter}:</em> Computes a
+ * fingerprint of the contents of a directory tree, hashing files in parallel and caching their hashes.</li>
+ * <li><em>{@link org.deventropy.shared.utils.ZipCentralDirectory ZipCentralDirectory}:</em> Lists the entries of zip
+ * files from their memory mapped central directory, without allocating per entry.</li>
  * </ul>
  * 
  * @author Bindul Bhowmik
@@ -0,0 +1,154 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.shared.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipFile;
+
+import org.deventropy.shared.utils.DirectoryArchiverUtil.ArchiveFormat;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Bindul Bhowmik
+ * 
+ */
+public class ArchiveJobSchedulerTest {
+
+	private static final int RATE_LIMIT = 64 * 1024;
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	private final Random random = new Random();
+
+	@Test
+	public void testRunJobs () throws Exception {
+		final ArchiveJobScheduler scheduler = new ArchiveJobScheduler(10, 1);
+		final List<Future<File>> archives = new ArrayList<>();
+		for (ArchiveFormat archiveFormat : ArchiveFormat.values()) {
+			archives.add(scheduler.submit(archiveFormat, tempFolder.newFile().getAbsolutePath(),
+					createSourceDirectory(1024), null));
+		}
+		scheduler.shutdown();
+		assertTrue("Jobs should finish", scheduler.awaitTermination(30, TimeUnit.SECONDS));
+
+		for (Future<File> archive : archives) {
+			assertTrue("Archive should not be empty", archive.get().length() > 0);
+		}
+		final ZipFile zipFile = new ZipFile(archives.get(0).get());
+		try {
+			assertNotNull(zipFile.getEntry("data/file.bin"));
+		} finally {
+			zipFile.close();
+		}
+		assertEquals(0, scheduler.getRunningJobCount());
+	}
+
+	@Test
+	public void testQueueLimitAndRateLimit () throws Exception {
+		final ArchiveJobScheduler scheduler = new ArchiveJobScheduler(1, 1, RATE_LIMIT);
+		final long start = System.nanoTime();
+
+		// Two rate limited chunks, so the first job runs for about a second; keeping the second one waiting
+		final Future<File> running = scheduler.submit(ArchiveFormat.ZIP, tempFolder.newFile().getAbsolutePath(),
+				createSourceDirectory(2 * RATE_LIMIT), null);
+		final Future<File> waiting = scheduler.submit(ArchiveFormat.TAR, tempFolder.newFile().getAbsolutePath(),
+				createSourceDirectory(1), null);
+		assertEquals(1, scheduler.getRunningJobCount());
+		assertEquals(1, scheduler.getQueuedJobCount());
+		try {
+			scheduler.submit(ArchiveFormat.TAR, tempFolder.newFile().getAbsolutePath(), createSourceDirectory(1), null);
+			fail("The queue should be full");
+		} catch (RejectedExecutionException e) {
+			// Expected
+		}
+
+		assertTrue(waiting.cancel(false));
+		assertEquals(0, scheduler.getQueuedJobCount());
+		assertTrue(running.get().length() > 2 * RATE_LIMIT);
+		assertTrue("The rate limit should slow the job down",
+				System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(900));
+
+		scheduler.shutdown();
+		assertTrue(scheduler.awaitTermination(30, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testArchiveWritesRateLimited () throws Exception {
+		// Only the archive device is limited: random data does not compress, so about two chunks are written
+		long start = System.nanoTime();
+		DirectoryArchiverUtil.createRateLimitedArchive(ArchiveFormat.GZIPPED_TAR,
+				tempFolder.newFile().getAbsolutePath(), createSourceDirectory(2 * RATE_LIMIT), null, null,
+				new ByteRateLimiter(RATE_LIMIT));
+		assertTrue("The archive writes should be rate limited",
+				System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(900));
+
+		// The archive device is charged for the compressed bytes written, not the source bytes read
+		final File sourceDirectory = tempFolder.newFolder();
+		Files.write(new File(sourceDirectory, "zeros.bin").toPath(), new byte[8 * RATE_LIMIT]);
+		start = System.nanoTime();
+		DirectoryArchiverUtil.createRateLimitedArchive(ArchiveFormat.GZIPPED_TAR,
+				tempFolder.newFile().getAbsolutePath(), sourceDirectory, null, null, new ByteRateLimiter(RATE_LIMIT));
+		assertTrue("Only the compressed archive should be charged",
+				System.nanoTime() - start < TimeUnit.SECONDS.toNanos(4));
+	}
+
+	@Test
+	public void testJobFailure () throws Exception {
+		final ArchiveJobScheduler scheduler = new ArchiveJobScheduler(1, 1);
+		// The archive "file" is a directory
+		final Future<File> archive = scheduler.submit(ArchiveFormat.JAR, tempFolder.newFolder().getAbsolutePath(),
+				createSourceDirectory(1), null);
+		try {
+			archive.get();
+			fail("The job should fail");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		}
+		scheduler.shutdown();
+		assertTrue(scheduler.awaitTermination(30, TimeUnit.SECONDS));
+	}
+
+	@Test(expected = RejectedExecutionException.class)
+	public void testSubmitAfterShutdown () throws IOException {
+		final ArchiveJobScheduler scheduler = new ArchiveJobScheduler(1, 1);
+		scheduler.shutdown();
+		scheduler.submit(ArchiveFormat.ZIP, tempFolder.newFile().getAbsolutePath(), createSourceDirectory(1), null);
+	}
+
+	private File createSourceDirectory (final int fileSize) throws IOException {
+		final File sourceDirectory = tempFolder.newFolder();
+		final File dataDirectory = new File(sourceDirectory, "data");
+		assertTrue(dataDirectory.mkdir());
+		final byte[] data = new byte[fileSize];
+		random.nextBytes(data);
+		Files.write(new File(dataDirectory, "file.bin").toPath(), data);
+		return sourceDirectory;
+	}
+}
@@ -0,0 +1,109 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.shared.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Bindul Bhowmik
+ * 
+ */
+public class BulkResourceLoaderTest {
+
+	private static final String CLASSPATH_RESOURCE = "classpath:/org/deventropy/shared/utils/classpath-url-test.file";
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	@Test
+	public void testLoadAll () throws Exception {
+		final List<String> resources = new ArrayList<>();
+		for (int i = 0; i < 50; i++) {
+			final File file = tempFolder.newFile();
+			Files.write(file.toPath(), ("content " + i).getBytes("UTF-8"));
+			resources.add(i % 2 == 0 ? file.getAbsolutePath() : file.toURI().toURL().toExternalForm());
+		}
+		resources.add(CLASSPATH_RESOURCE);
+
+		final ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			final List<BulkResourceLoader.LoadedResource> results = new BulkResourceLoader(executor).loadAll(
+					resources, getClass().getClassLoader());
+			assertEquals(resources.size(), results.size());
+			for (int i = 0; i < 50; i++) {
+				assertTrue(results.get(i).isLoaded());
+				assertEquals(resources.get(i), results.get(i).getResource());
+				assertEquals("content " + i, new String(results.get(i).getContent(), "UTF-8"));
+				assertNull(results.get(i).getFailure());
+			}
+			assertEquals(UrlResourceUtil.getUrl(CLASSPATH_RESOURCE), results.get(50).getUrl());
+			assertTrue(BulkResourceLoader.getFailures(results).isEmpty());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testFailuresDoNotAbortBatch () throws Exception {
+		final File file = tempFolder.newFile();
+		Files.write(file.toPath(), "content".getBytes("UTF-8"));
+		final File missingFile = new File(tempFolder.getRoot(), "missing.txt");
+
+		final List<BulkResourceLoader.LoadedResource> results = BulkResourceLoader.loadAll(Arrays.asList(
+				"classpath:/some/missing/resource/file", file.getAbsolutePath(), missingFile.getAbsolutePath(), null,
+				CLASSPATH_RESOURCE), getClass().getClassLoader(), 2);
+		assertEquals(5, results.size());
+
+		assertFalse(results.get(0).isLoaded());
+		assertTrue(results.get(0).getFailure() instanceof FileNotFoundException);
+		assertNull(results.get(0).getUrl());
+		assertTrue(results.get(1).isLoaded());
+		assertFalse(results.get(2).isLoaded());
+		assertTrue(results.get(2).getFailure() instanceof IOException);
+		assertEquals(missingFile.toURI().toURL(), results.get(2).getUrl());
+		assertTrue(results.get(3).getFailure() instanceof IllegalArgumentException);
+		assertTrue(results.get(4).isLoaded());
+
+		final List<BulkResourceLoader.LoadedResource> failures = BulkResourceLoader.getFailures(results);
+		assertEquals(Arrays.asList(results.get(0), results.get(2), results.get(3)), failures);
+	}
+
+	@Test
+	public void testEmptyBatch () throws Exception {
+		assertTrue(BulkResourceLoader.loadAll(Collections.<String>emptyList(), getClass().getClassLoader(), 1)
+				.isEmpty());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidParallelism () throws Exception {
+		BulkResourceLoader.loadAll(Collections.singletonList(CLASSPATH_RESOURCE), getClass().getClassLoader(), 0);
+	}
+}
@@ -0,0 +1,89 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.shared.utils;
+
+/**
+ * Compares the cost of finding the class loader of the caller: from a stack trace
+ * (<code>new Throwable().getStackTrace()</code>, then loading the class of the caller frame), with
+ * {@link ClassUtil#getApplicableClassloader()} when there is no context class loader (reading the caller classes), and
+ * with {@link ClassUtil#getApplicableClassloader()} when there is one (the call stack is not read).
+ * 
+ * <p>Not a unit test (and not run by the build); run the <code>main</code> method with the test classpath.
+ * 
+ * @author Bindul Bhowmik
+ */
+public final class ClassUtilBenchmark {
+
+	private static final int WARMUP_ITERATIONS = 200000;
+	private static final int MEASURED_ITERATIONS = 1000000;
+
+	private ClassUtilBenchmark () {
+		// Run from main
+	}
+
+	/**
+	 * @param args Not used.
+	 * @throws ClassNotFoundException Error loading the class of a stack frame.
+	 */
+	public static void main (final String[] args) throws ClassNotFoundException {
+		final Thread currentThread = Thread.currentThread();
+		final ClassLoader contextCl = currentThread.getContextClassLoader();
+
+		currentThread.setContextClassLoader(null);
+		run("Stack trace", new Finder() {
+			@Override
+			public ClassLoader find () throws ClassNotFoundException {
+				final StackTraceElement caller = new Throwable().getStackTrace()[1];
+				return Class.forName(caller.getClassName(), false, ClassUtilBenchmark.class.getClassLoader())
+						.getClassLoader();
+			}
+		});
+		run("Caller classes", new Finder() {
+			@Override
+			public ClassLoader find () {
+				return ClassUtil.getApplicableClassloader();
+			}
+		});
+
+		currentThread.setContextClassLoader(contextCl);
+		run("Context class loader", new Finder() {
+			@Override
+			public ClassLoader find () {
+				return ClassUtil.getApplicableClassloader();
+			}
+		});
+	}
+
+	private static void run (final String name, final Finder finder) throws ClassNotFoundException {
+		int hash = 0;
+		for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+			hash += System.identityHashCode(finder.find());
+		}
+		final long start = System.nanoTime();
+		for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+			hash += System.identityHashCode(finder.find());
+		}
+		final double nanosPerCall = (System.nanoTime() - start) / (double) MEASURED_ITERATIONS;
+		System.out.println(String.format("%-25s %,10.1f ns/call (%d)", name, nanosPerCall, hash));
+	}
+
+	/**
+	 * A way of finding the class loader of the caller.
+	 */
+	private interface Finder {
+		ClassLoader find () throws ClassNotFoundException;
+	}
+}
@@ -16,11 +16,24 @@
 package org.deventropy.shared.utils;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.tools.JavaCompiler;
 import javax.tools.JavaFileObject;
@@ -106,6 +119,152 @@ public class ClassUtilTest {
 		urlcl.close();
 	}
 	
+	@Test
+	public void testGetApplicableClassloaderFindsCaller () throws Exception {
+		final File classFolder = workingFolder.newFolder();
+		final File sourceFile = new File(classFolder, "test/Caller.java");
+		sourceFile.getParentFile().mkdirs();
+		FileUtils.writeStringToFile(sourceFile, "package test; public class Caller implements java.util.concurrent."
+				+ "Callable<ClassLoader> { public ClassLoader call () { "
+				+ "return org.deventropy.shared.utils.ClassUtil.getApplicableClassloader(); } }", "UTF-8");
+		final String libraryClasspath = new File(ClassUtil.class.getProtectionDomain().getCodeSource().getLocation()
+				.toURI()).getAbsolutePath();
+		compile(sourceFile, Arrays.asList("-classpath", libraryClasspath));
+
+		try (final URLClassLoader urlcl = new URLClassLoader(new URL[] {classFolder.toURI().toURL()},
+				ClassUtilTest.class.getClassLoader())) {
+			@SuppressWarnings("unchecked")
+			final Callable<ClassLoader> caller = (Callable<ClassLoader>) urlcl.loadClass("test.Caller").newInstance();
+
+			final ClassLoader[] returnedCl = new ClassLoader[2];
+			final Thread worker = new Thread(new Runnable() {
+				@Override
+				public void run () {
+					Thread.currentThread().setContextClassLoader(null);
+					try {
+						returnedCl[0] = caller.call();
+					} catch (Exception e) {
+						// Fails the assertion below
+					}
+					// Called from this library, the class loader of the library
+					returnedCl[1] = ClassUtil.getApplicableClassloader();
+				}
+			});
+			worker.start();
+			worker.join();
+
+			assertSame(urlcl, returnedCl[0]);
+			assertSame(ClassUtil.class.getClassLoader(), returnedCl[1]);
+		}
+	}
+
+	@Test
+	public void testGetApplicableClassloaderContext () {
+		assertSame(Thread.currentThread().getContextClassLoader(), ClassUtil.getApplicableClassloader());
+	}
+
+	@Test
+	public void testLoadClass () throws ClassNotFoundException {
+		final ClassLoader cl = ClassUtilTest.class.getClassLoader();
+		assertSame(String.class, ClassUtil.loadClass("java.lang.String", cl));
+		assertSame(String.class, ClassUtil.loadClass("java.lang.String", cl));
+		assertSame(Map.Entry.class, ClassUtil.loadClass("java.util.Map$Entry", null));
+		assertSame(ClassUtilTest.class, ClassUtil.loadClass(ClassUtilTest.class.getName()));
+		assertSame(String[].class, ClassUtil.findClass("[Ljava.lang.String;", cl));
+	}
+
+	@Test(expected = ClassNotFoundException.class)
+	public void testLoadClassNotFound () throws ClassNotFoundException {
+		final ClassLoader cl = ClassUtilTest.class.getClassLoader();
+		assertNull(ClassUtil.findClass("org.deventropy.shared.utils.DoesNotExist", cl));
+		assertNull(ClassUtil.findClass("org.deventropy.shared.utils.DoesNotExist", cl));
+		ClassUtil.loadClass("org.deventropy.shared.utils.DoesNotExist", cl);
+	}
+
+	@Test
+	public void testClearClassCache () throws IOException {
+		final File classFolder = workingFolder.newFolder();
+		try (final URLClassLoader urlcl = new URLClassLoader(new URL[] {classFolder.toURI().toURL()})) {
+			assertNull(ClassUtil.findClass("test.Test", urlcl));
+
+			compileTestClass(classFolder);
+			assertNull("The miss is cached", ClassUtil.findClass("test.Test", urlcl));
+
+			ClassUtil.clearClassCache(urlcl);
+			final Class<?> loadedClass = ClassUtil.findClass("test.Test", urlcl);
+			assertNotNull(loadedClass);
+			assertSame(urlcl, loadedClass.getClassLoader());
+			assertSame(loadedClass, ClassUtil.findClass("test.Test", urlcl));
+		}
+	}
+
+	@Test
+	public void testClassLoaderCollected () throws Exception {
+		final File classFolder = workingFolder.newFolder();
+		compileTestClass(classFolder);
+		final WeakReference<ClassLoader> clRef = loadTestClass(classFolder);
+
+		for (int i = 0; i < 50 && null != clRef.get(); i++) {
+			System.gc();
+			Thread.sleep(20);
+		}
+		assertNull("The cache must not keep the class loader", clRef.get());
+	}
+
+	@Test
+	public void testConcurrentLookups () throws Exception {
+		final ClassLoader cl = ClassUtilTest.class.getClassLoader();
+		final ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			final List<Future<Boolean>> results = new ArrayList<>();
+			for (int i = 0; i < 8; i++) {
+				final int thread = i;
+				results.add(executor.submit(new Callable<Boolean>() {
+					@Override
+					public Boolean call () {
+						for (int j = 0; j < 1000; j++) {
+							final String missing = "org.deventropy.shared.utils.Missing" + ((thread + j) % 50);
+							if (null != ClassUtil.findClass(missing, cl)
+									|| ClassUtil.class != ClassUtil.findClass(ClassUtil.class.getName(), cl)) {
+								return false;
+							}
+						}
+						return true;
+					}
+				}));
+			}
+			for (Future<Boolean> result : results) {
+				assertTrue(result.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private WeakReference<ClassLoader> loadTestClass (final File classFolder) throws IOException {
+		try (final URLClassLoader urlcl = new URLClassLoader(new URL[] {classFolder.toURI().toURL()})) {
+			assertNotNull(ClassUtil.findClass("test.Test", urlcl));
+			assertNull(ClassUtil.findClass("test.DoesNotExist", urlcl));
+			return new WeakReference<ClassLoader>(urlcl);
+		}
+	}
+
+	private void compileTestClass (final File folder) throws IOException {
+		final File sourceFile = new File(folder, "test/Test.java");
+		sourceFile.getParentFile().mkdirs();
+		FileUtils.writeStringToFile(sourceFile, "package test; public class Test { }", "UTF-8");
+
+		compile(sourceFile, null);
+	}
+
+	private void compile (final File sourceFile, final List<String> options) throws IOException {
+		final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		final StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null);
+		compiler.getTask(null, fileManager, null, options, null, fileManager.getJavaFileObjectsFromFiles(
+				Arrays.asList(sourceFile))).call();
+		fileManager.close();
+	}
+
 	/**
 	 * Worker runnable
 	 * 
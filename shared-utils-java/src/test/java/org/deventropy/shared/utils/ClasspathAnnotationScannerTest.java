@@ -0,0 +1,256 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.shared.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.annotation.Retention;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Bindul Bhowmik
+ * 
+ */
+public class ClasspathAnnotationScannerTest {
+
+	private static final String[] SOURCE_NAMES = {"Plugin", "Marker", "A", "B", "C"};
+	private static final String[] SOURCES = {
+		"package test; import java.lang.annotation.*; @Retention(RetentionPolicy.RUNTIME) @Target(ElementType.TYPE) "
+			+ "public @interface Plugin { String name(); String[] tags() default {}; "
+			+ "ElementType kind() default ElementType.TYPE; Marker nested() default @Marker; int number() default 0; "
+			+ "Class<?> type() default Object.class; }",
+		"package test; public @interface Marker { }",
+		"package test; @Plugin(name = \"a\", tags = {\"x\", \"y\"}, kind = java.lang.annotation.ElementType.FIELD, "
+			+ "nested = @Marker, number = 5, type = String.class) public class A { "
+			+ "@Plugin(name = \"inner\") public static class Inner { } }",
+		"package test; @Marker public abstract class B implements Runnable { }",
+		"package test; public class C extends A implements Runnable { public void run () { } }",
+	};
+	private static final String[] CLASS_NAMES = {"Plugin", "Marker", "A", "A$Inner", "B", "C"};
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	private Path compiledClasses;
+
+	@Before
+	public void compileClasses () throws IOException {
+		final File sourceFolder = tempFolder.newFolder("sources");
+		final List<File> sourceFiles = new ArrayList<>();
+		for (int i = 0; i < SOURCES.length; i++) {
+			final File sourceFile = new File(sourceFolder, "test/" + SOURCE_NAMES[i] + ".java");
+			sourceFile.getParentFile().mkdirs();
+			Files.write(sourceFile.toPath(), SOURCES[i].getBytes("UTF-8"));
+			sourceFiles.add(sourceFile);
+		}
+		compiledClasses = tempFolder.newFolder("compiled").toPath();
+
+		final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		final StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null);
+		try {
+			assertTrue(compiler.getTask(null, fileManager, null, Arrays.asList("-d", compiledClasses.toString()), null,
+					fileManager.getJavaFileObjectsFromFiles(sourceFiles)).call());
+		} finally {
+			fileManager.close();
+		}
+	}
+
+	@Test
+	public void testScan () throws IOException {
+		final File jar = createJar("plugins.jar", "Plugin", "Marker", "A", "A$Inner");
+		final Path directory = tempFolder.newFolder("classes").toPath();
+		Files.createDirectories(directory.resolve("test"));
+		for (String className : new String[] {"B", "C"}) {
+			Files.copy(compiledClasses.resolve("test/" + className + ".class"),
+					directory.resolve("test/" + className + ".class"));
+		}
+		Files.write(directory.resolve("test/Broken.class"), "Not a class".getBytes("UTF-8"));
+
+		final TrackingClassLoader cl = new TrackingClassLoader(new URL[] {jar.toURI().toURL(),
+			directory.toUri().toURL()});
+		try {
+			final ClasspathAnnotationScanner.ScanResult result = new ClasspathAnnotationScanner(2, null).scan(cl);
+			assertTrue(result.isComplete());
+			assertSame(cl, result.getClassLoader());
+			assertEquals(names("test.Plugin", "test.Marker", "test.A", "test.A$Inner", "test.B", "test.C"),
+					names(result.getClasses()));
+
+			assertEquals(names("test.A", "test.A$Inner"), names(result.getClassesWithAnnotation("test.Plugin")));
+			assertEquals(names("test.B"), names(result.getClassesWithAnnotation("test.Marker")));
+			assertEquals(names("test.Plugin"), names(result.getClassesWithAnnotation(Retention.class)));
+			assertTrue(result.getClassesWithAnnotation("test.Missing").isEmpty());
+
+			assertEquals(names("test.C"), names(result.getSubtypes("test.A")));
+			// Interfaces too, their class files name Object as the super class
+			assertEquals(names("test.Plugin", "test.Marker", "test.A", "test.A$Inner", "test.B", "test.C"),
+					names(result.getSubtypes("java.lang.Object")));
+			assertEquals(names("test.B", "test.C"), names(result.getSubtypes("java.lang.Runnable")));
+
+			final ClasspathAnnotationScanner.ClassInfo plugin = result.getClassInfo("test.Plugin");
+			assertTrue(plugin.isAnnotation());
+			assertTrue(plugin.isInterface());
+			assertEquals(Arrays.asList("java.lang.annotation.Annotation"), plugin.getInterfaceNames());
+			final ClasspathAnnotationScanner.ClassInfo b = result.getClassInfo("test.B");
+			assertTrue(b.isAbstract());
+			assertFalse(b.isInterface());
+			assertTrue(b.hasAnnotation("test.Marker"));
+			final ClasspathAnnotationScanner.ClassInfo c = result.getClassInfo("test.C");
+			assertEquals("test.A", c.getSuperclassName());
+			assertEquals(Arrays.asList("java.lang.Runnable"), c.getInterfaceNames());
+			assertTrue(c.getAnnotationNames().isEmpty());
+			assertNull(result.getClassInfo("test.Broken"));
+
+			for (String className : CLASS_NAMES) {
+				assertFalse(className, cl.isLoaded("test." + className));
+			}
+		} finally {
+			cl.close();
+		}
+	}
+
+	@Test
+	public void testJarCache () throws IOException {
+		final File jar = createJar("plugins.jar", "Plugin", "Marker", "A", "A$Inner");
+		final Path cacheFile = tempFolder.getRoot().toPath().resolve("scan.cache");
+
+		final URLClassLoader cl = new URLClassLoader(new URL[] {jar.toURI().toURL()}, null);
+		try {
+			final ClasspathAnnotationScanner scanner = new ClasspathAnnotationScanner(2, cacheFile);
+			final Set<String> scanned = names(scanner.scan(cl).getClasses());
+			assertEquals(names("test.Plugin", "test.Marker", "test.A", "test.A$Inner"), scanned);
+			assertTrue(Files.exists(cacheFile));
+			assertEquals(1, scanner.getCachedJarCount());
+
+			// Read from the cache file, the cache is not written again
+			Files.setLastModifiedTime(cacheFile, FileTime.fromMillis(0));
+			final ClasspathAnnotationScanner cachedScanner = new ClasspathAnnotationScanner(2, cacheFile);
+			final ClasspathAnnotationScanner.ScanResult cachedResult = cachedScanner.scan(cl);
+			assertEquals(scanned, names(cachedResult.getClasses()));
+			assertEquals(names("test.A", "test.A$Inner"), names(cachedResult.getClassesWithAnnotation("test.Plugin")));
+			assertEquals(Arrays.asList("java.lang.annotation.Annotation"),
+					cachedResult.getClassInfo("test.Marker").getInterfaceNames());
+			assertEquals(Arrays.asList("test.Plugin"), cachedResult.getClassInfo("test.A").getAnnotationNames());
+			assertEquals(0, Files.getLastModifiedTime(cacheFile).toMillis());
+		} finally {
+			cl.close();
+		}
+
+		// A changed jar has a new checksum, and is scanned again
+		Files.delete(jar.toPath());
+		createJar("plugins.jar", "Plugin", "Marker", "A", "A$Inner", "C");
+		final URLClassLoader changedCl = new URLClassLoader(new URL[] {jar.toURI().toURL()}, null);
+		try {
+			final ClasspathAnnotationScanner scanner = new ClasspathAnnotationScanner(2, cacheFile);
+			assertEquals(names("test.C"), names(scanner.scan(changedCl).getSubtypes("test.A")));
+			assertEquals(1, scanner.getCachedJarCount());
+			assertTrue(Files.getLastModifiedTime(cacheFile).toMillis() > 0);
+		} finally {
+			changedCl.close();
+		}
+	}
+
+	@Test
+	public void testScanApplicableClassloader () throws IOException {
+		final File jar = createJar("plugins.jar", "Plugin", "A");
+		final URLClassLoader cl = new URLClassLoader(new URL[] {jar.toURI().toURL()}, null);
+		final Thread currentThread = Thread.currentThread();
+		final ClassLoader savedCl = currentThread.getContextClassLoader();
+		currentThread.setContextClassLoader(cl);
+		try {
+			final ClasspathAnnotationScanner.ScanResult result = new ClasspathAnnotationScanner().scan();
+			assertSame(cl, result.getClassLoader());
+			assertEquals(names("test.A"), names(result.getClassesWithAnnotation("test.Plugin")));
+		} finally {
+			currentThread.setContextClassLoader(savedCl);
+			cl.close();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidParallelism () {
+		new ClasspathAnnotationScanner(0, null);
+	}
+
+	private File createJar (final String name, final String... classNames) throws IOException {
+		final File jar = new File(tempFolder.getRoot(), name);
+		final ZipOutputStream jarOutputStream = new ZipOutputStream(Files.newOutputStream(jar.toPath()));
+		try {
+			for (String className : classNames) {
+				jarOutputStream.putNextEntry(new ZipEntry("test/" + className + ".class"));
+				jarOutputStream.write(Files.readAllBytes(compiledClasses.resolve("test/" + className + ".class")));
+				jarOutputStream.closeEntry();
+			}
+			// Not classes
+			jarOutputStream.putNextEntry(new ZipEntry("META-INF/versions/9/test/Versioned.class"));
+			jarOutputStream.write("Not a class".getBytes("UTF-8"));
+			jarOutputStream.closeEntry();
+			jarOutputStream.putNextEntry(new ZipEntry("test/package-info.class"));
+			jarOutputStream.write("Not a class".getBytes("UTF-8"));
+			jarOutputStream.closeEntry();
+		} finally {
+			jarOutputStream.close();
+		}
+		return jar;
+	}
+
+	private static Set<String> names (final String... names) {
+		return new HashSet<>(Arrays.asList(names));
+	}
+
+	private static Set<String> names (final List<ClasspathAnnotationScanner.ClassInfo> classes) {
+		final Set<String> names = new HashSet<>();
+		for (ClasspathAnnotationScanner.ClassInfo classInfo : classes) {
+			assertTrue("Duplicate " + classInfo, names.add(classInfo.getName()));
+		}
+		return names;
+	}
+
+	/**
+	 * Tells if classes were loaded.
+	 */
+	private static final class TrackingClassLoader extends URLClassLoader {
+
+		private TrackingClassLoader (final URL[] urls) {
+			super(urls, null);
+		}
+
+		private boolean isLoaded (final String className) {
+			return null != findLoadedClass(className);
+		}
+	}
+}
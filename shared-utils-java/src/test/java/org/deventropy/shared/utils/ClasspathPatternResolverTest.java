@@ -0,0 +1,133 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.shared.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Bindul Bhowmik
+ * 
+ */
+public class ClasspathPatternResolverTest {
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	@Test
+	public void testWildcardPatterns () throws IOException {
+		final File directory = tempFolder.newFolder("classes");
+		Files.createDirectories(directory.toPath().resolve("META-INF/plugins"));
+		Files.write(directory.toPath().resolve("META-INF/plugins/d.json"), "{}".getBytes("UTF-8"));
+		final File jar1 = createJar("first.jar", null, "META-INF/plugins/a.json", "META-INF/plugins/sub/b.json",
+				"META-INF/plugins/c.txt", "META-INF/other/e.json");
+		final File jar2 = createJar("second.jar", null, "META-INF/plugins/a.json");
+
+		final URLClassLoader cl = new URLClassLoader(new URL[] {directory.toURI().toURL(), jar1.toURI().toURL(),
+			jar2.toURI().toURL()}, null);
+		try {
+			final ClasspathPatternResolver resolver = new ClasspathPatternResolver(2);
+			final List<URL> allA = Collections.list(cl.getResources("META-INF/plugins/a.json"));
+			assertEquals(2, allA.size());
+			final URL d = cl.getResource("META-INF/plugins/d.json");
+			final URL b = cl.getResource("META-INF/plugins/sub/b.json");
+			final URL e = cl.getResource("META-INF/other/e.json");
+
+			assertEquals(Arrays.asList(d, allA.get(0), allA.get(1)),
+					resolver.getUrls("classpath*:META-INF/plugins/*.json", cl));
+			assertEquals(Arrays.asList(d, allA.get(0), allA.get(1)),
+					resolver.getUrls("classpath:/META-INF/plugins/?.json", cl));
+			assertEquals(Arrays.asList(d, allA.get(0), b, allA.get(1)),
+					resolver.getUrls("classpath*:META-INF/plugins/**/*.json", cl));
+			assertEquals(Arrays.asList(d, e, allA.get(0), b, allA.get(1)),
+					resolver.getUrls("classpath*:**/*.json", cl));
+			assertEquals(Arrays.asList(e), resolver.getUrls("classpath*:META-INF/*er/?.json", cl));
+			assertEquals(allA, resolver.getUrls("classpath*:/META-INF/plugins/a.json", cl));
+			assertTrue(resolver.getUrls("classpath*:META-INF/plugins/*.xml", cl).isEmpty());
+			assertTrue(resolver.getUrls("classpath*:META-INF/missing/*", cl).isEmpty());
+		} finally {
+			cl.close();
+		}
+	}
+
+	@Test
+	public void testManifestClassPath () throws IOException {
+		final File referenced = createJar("referenced.jar", null, "META-INF/plugins/", "META-INF/plugins/ref.json");
+		final File jar = createJar("main.jar", referenced.getName(), "META-INF/plugins/main.json");
+
+		final URLClassLoader cl = new URLClassLoader(new URL[] {jar.toURI().toURL()}, null);
+		try {
+			assertEquals(Arrays.asList(cl.getResource("META-INF/plugins/main.json"),
+					cl.getResource("META-INF/plugins/ref.json")),
+					new ClasspathPatternResolver().getUrls("classpath*:META-INF/plugins/*.json", cl));
+		} finally {
+			cl.close();
+		}
+	}
+
+	@Test
+	public void testApplicationClassLoader () throws IOException {
+		final ClassLoader cl = getClass().getClassLoader();
+		final List<URL> urls = UrlResourceUtil.getUrls("classpath*:org/deventropy/shared/utils/*.file", cl);
+		assertTrue(urls.contains(UrlResourceUtil.getUrl("classpath:org/deventropy/shared/utils/classpath-url-test.file",
+				cl)));
+
+		final File file = tempFolder.newFile();
+		assertEquals(Collections.singletonList(file.toURI().toURL()),
+				new ClasspathPatternResolver().getUrls(file.getAbsolutePath(), cl));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidParallelism () {
+		new ClasspathPatternResolver(0);
+	}
+
+	private File createJar (final String name, final String classPath, final String... entries) throws IOException {
+		final File jar = tempFolder.newFile(name);
+		final Manifest manifest = new Manifest();
+		manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		if (null != classPath) {
+			manifest.getMainAttributes().put(Attributes.Name.CLASS_PATH, classPath);
+		}
+		final JarOutputStream jarOutputStream = new JarOutputStream(Files.newOutputStream(jar.toPath()), manifest);
+		try {
+			for (String entry : entries) {
+				jarOutputStream.putNextEntry(new ZipEntry(entry));
+				jarOutputStream.write(entry.getBytes("UTF-8"));
+				jarOutputStream.closeEntry();
+			}
+		} finally {
+			jarOutputStream.close();
+		}
+		return jar;
+	}
+}
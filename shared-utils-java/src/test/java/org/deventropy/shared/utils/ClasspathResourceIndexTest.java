@@ -0,0 +1,181 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.shared.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Bindul Bhowmik
+ * 
+ */
+public class ClasspathResourceIndexTest {
+
+	private static final String TEST_RESOURCE = "classpath:/org/deventropy/shared/utils/classpath-url-test.file";
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	@Test
+	public void testLookupsMatchClassLoader () throws IOException {
+		final File directory = tempFolder.newFolder("classes");
+		Files.createDirectories(directory.toPath().resolve("org/example"));
+		Files.write(directory.toPath().resolve("org/example/shared.txt"), "directory".getBytes("UTF-8"));
+		Files.write(directory.toPath().resolve("org/example/with space.txt"), "directory".getBytes("UTF-8"));
+		final File jar1 = createJar("first.jar", null, "org/example/shared.txt", "org/example/first.txt");
+		final File jar2 = createJar("second.jar", null, "org/example/first.txt", "META-INF/plugin.json");
+		final File missing = new File(tempFolder.getRoot(), "missing.jar");
+
+		final URLClassLoader cl = new URLClassLoader(new URL[] {directory.toURI().toURL(), jar1.toURI().toURL(),
+			missing.toURI().toURL(), jar2.toURI().toURL()}, null);
+		try {
+			final ClasspathResourceIndex index = ClasspathResourceIndex.build(cl, 2);
+			assertTrue(index.isComplete());
+			assertSame(cl, index.getClassLoader());
+			for (String resource : new String[] {"org/example/shared.txt", "org/example/with space.txt",
+				"org/example/first.txt", "META-INF/plugin.json", "org/example/", "org/example", "org/"}) {
+				assertEquals(resource, cl.getResource(resource), index.findResource(resource));
+				assertEquals(resource, cl.getResource(resource), index.findResource("/" + resource));
+				assertEquals(resource, cl.getResource(resource), index.getUrl("classpath:/" + resource));
+			}
+			assertEquals("directory", readString(index.getUrl("classpath:org/example/shared.txt")));
+			assertEquals("org/example/first.txt", readString(index.getUrl("classpath:/org/example/first.txt")));
+
+			assertNull(index.findResource("org/example/missing.txt"));
+			assertEquals(cl.getResource("META-INF/MANIFEST.MF"), index.findResource("classpath:/META-INF/MANIFEST.MF"));
+			try {
+				index.getUrl("classpath:/org/example/missing.txt");
+				fail("The resource does not exist");
+			} catch (FileNotFoundException e) {
+				// Expected
+			}
+		} finally {
+			cl.close();
+		}
+	}
+
+	@Test
+	public void testIncompleteIndexFallsBack () throws IOException {
+		final File referenced = createJar("referenced.jar", null, "org/example/referenced.txt");
+		final File jar = createJar("main.jar", referenced.getName(), "org/example/main.txt");
+
+		final URLClassLoader cl = new URLClassLoader(new URL[] {jar.toURI().toURL()}, null);
+		try {
+			final ClasspathResourceIndex index = ClasspathResourceIndex.build(cl);
+			assertFalse(index.isComplete());
+			assertEquals(cl.getResource("org/example/main.txt"), index.findResource("org/example/main.txt"));
+			final URL referencedUrl = index.findResource("org/example/referenced.txt");
+			assertNotNull(referencedUrl);
+			assertEquals(cl.getResource("org/example/referenced.txt"), referencedUrl);
+			assertNull(index.findResource("org/example/missing.txt"));
+		} finally {
+			cl.close();
+		}
+
+		// A class loader that is not a URL class loader
+		final ClasspathResourceIndex index = ClasspathResourceIndex.build(new ClassLoader(getClass().getClassLoader()) {
+			// Class path not known
+		});
+		assertFalse(index.isComplete());
+		assertEquals(UrlResourceUtil.getUrl(TEST_RESOURCE, getClass().getClassLoader()), index.getUrl(TEST_RESOURCE));
+	}
+
+	@Test
+	public void testApplicationClassLoader () throws IOException {
+		final ClassLoader cl = getClass().getClassLoader();
+		final ClasspathResourceIndex index = ClasspathResourceIndex.build(cl);
+		assertTrue(index.getResourceCount() > 0);
+		assertEquals(UrlResourceUtil.getUrl(TEST_RESOURCE, cl), index.getUrl(TEST_RESOURCE));
+		final File file = tempFolder.newFile();
+		assertEquals(file.toURI().toURL(), index.getUrl(file.getAbsolutePath()));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidParallelism () {
+		ClasspathResourceIndex.build(getClass().getClassLoader(), 0);
+	}
+
+	@Test
+	public void testRuntimeResources () throws IOException {
+		final File jar = createJar("first.jar", null, "org/example/first.txt");
+		final ClassLoader platformLoader = ClassLoader.getSystemClassLoader().getParent();
+		for (ClassLoader parent : new ClassLoader[] {null, platformLoader}) {
+			final URLClassLoader cl = new URLClassLoader(new URL[] {jar.toURI().toURL()}, parent);
+			try {
+				final ClasspathResourceIndex index = ClasspathResourceIndex.build(cl, 1);
+				assertTrue(index.isComplete());
+				for (String resource : new String[] {"java/lang/Object.class", "java/util/Map$Entry.class"}) {
+					final URL url = index.findResource(resource);
+					assertNotNull(resource, url);
+					assertEquals(resource, cl.getResource(resource), url);
+					assertEquals(resource, UrlResourceUtil.getUrl("classpath:" + resource, cl),
+							index.getUrl("classpath:" + resource));
+				}
+				assertEquals(cl.getResource("java/sql/Driver.class"), index.findResource("java/sql/Driver.class"));
+				assertNull(index.findResource("java/lang/Missing.class"));
+			} finally {
+				cl.close();
+			}
+		}
+	}
+
+	@Test
+	public void testSystemClassLoaderRuntimeResource () throws IOException {
+		final ClassLoader cl = ClassLoader.getSystemClassLoader();
+		final ClasspathResourceIndex index = ClasspathResourceIndex.build(cl);
+		assertEquals(UrlResourceUtil.getUrl("classpath:java/lang/Object.class", cl),
+				index.getUrl("classpath:java/lang/Object.class"));
+	}
+
+	private File createJar (final String name, final String classPath, final String... entries) throws IOException {
+		final File jar = tempFolder.newFile(name);
+		final Manifest manifest = new Manifest();
+		manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		if (null != classPath) {
+			manifest.getMainAttributes().put(Attributes.Name.CLASS_PATH, classPath);
+		}
+		final JarOutputStream jarOutputStream = new JarOutputStream(Files.newOutputStream(jar.toPath()), manifest);
+		try {
+			for (String entry : entries) {
+				jarOutputStream.putNextEntry(new ZipEntry(entry));
+				jarOutputStream.write(entry.getBytes("UTF-8"));
+				jarOutputStream.closeEntry();
+			}
+		} finally {
+			jarOutputStream.close();
+		}
+		return jar;
+	}
+
+	private String readString (final URL url) throws IOException {
+		return new String(UrlResourceUtil.readFully(url), "UTF-8");
+	}
+}
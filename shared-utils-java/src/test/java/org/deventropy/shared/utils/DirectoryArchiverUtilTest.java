@@ -24,18 +24,29 @@ import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.security.DigestInputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
@@ -55,6 +66,8 @@ import org.apache.commons.compress.compressors.CompressorInputStream;
 import org.apache.commons.compress.compressors.CompressorStreamFactory;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.input.BoundedInputStream;
+import org.deventropy.shared.utils.DirectoryArchiverUtil.ArchiveFormat;
+import org.deventropy.shared.utils.DirectoryArchiverUtil.EntryOrder;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
@@ -382,6 +395,235 @@ public class DirectoryArchiverUtilTest {
 		checkTarArchive(unGzippedTar, sourceDirectory, pathPrefix);
 	}
 
+	@Test
+	public void testZipArchiveOfFiles () throws IOException {
+		final File rootFolder = tempFolder.newFolder();
+		createDirectoryTree(rootFolder, testFileStructure01);
+		final File archiveFile = tempFolder.newFile("archive-test-" + random.nextInt() + ZIP_FILE_SUFFIX);
+		final List<String> manifest = Arrays.asList("tmp/test3/test4/test5/file3.txt", "temp/test1/",
+				"temp\\test2\\file2.bin");
+		DirectoryArchiverUtil.createZipArchiveOfFiles(archiveFile.getAbsolutePath(), rootFolder, "prefix", manifest);
+
+		final List<String> entryNames = new ArrayList<>();
+		ZipFile zipFile = null;
+		try {
+			zipFile = new ZipFile(archiveFile);
+			final Enumeration<? extends ZipEntry> entries = zipFile.entries();
+			while (entries.hasMoreElements()) {
+				entryNames.add(entries.nextElement().getName());
+			}
+		} finally {
+			if (null != zipFile) {
+				zipFile.close();
+			}
+		}
+		assertEquals("Only the listed entries, in order", Arrays.asList("prefix/",
+				"prefix/tmp/test3/test4/test5/file3.txt", "prefix/temp/test1/", "prefix/temp/test2/file2.bin"),
+				entryNames);
+	}
+	
+	@Test
+	public void testTarArchiveOfFilesFromManifest () throws IOException {
+		final File rootFolder = tempFolder.newFolder();
+		createDirectoryTree(rootFolder, testFileStructure01);
+		final File manifestFile = tempFolder.newFile("manifest-" + random.nextInt() + ".txt");
+		Files.write(manifestFile.toPath(), Arrays.asList("# Build outputs", "", "temp/test2/file1.txt",
+				"  temp/test1/file1.txt  "), Charset.forName("UTF-8"));
+		final List<String> manifest = DirectoryArchiverUtil.readFileManifest(manifestFile);
+		assertEquals(Arrays.asList("temp/test2/file1.txt", "temp/test1/file1.txt"), manifest);
+
+		final File archiveFile = tempFolder.newFile("archive-test-" + random.nextInt() + TAR_FILE_SUFFIX);
+		DirectoryArchiverUtil.createTarArchiveOfFiles(archiveFile.getAbsolutePath(), rootFolder, null, manifest);
+
+		ArchiveInputStream tarInputStream = null;
+		try {
+			tarInputStream = new ArchiveStreamFactory().createArchiveInputStream(ArchiveStreamFactory.TAR,
+					new BufferedInputStream(new FileInputStream(archiveFile)));
+			assertEquals("temp/test2/file1.txt", tarInputStream.getNextEntry().getName());
+			assertEquals("temp/test1/file1.txt", tarInputStream.getNextEntry().getName());
+			assertNull(tarInputStream.getNextEntry());
+		} catch (ArchiveException e) {
+			throw new IOException(e);
+		} finally {
+			if (null != tarInputStream) {
+				tarInputStream.close();
+			}
+		}
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testArchiveOfFilesOutsideSource () throws IOException {
+		final File rootFolder = tempFolder.newFolder();
+		createDirectoryTree(rootFolder, testFileStructure01);
+		final File archiveFile = tempFolder.newFile("archive-test-" + random.nextInt() + JAR_FILE_SUFFIX);
+		DirectoryArchiverUtil.createJarArchiveOfFiles(archiveFile.getAbsolutePath(), rootFolder, null,
+				Arrays.asList("temp/../../outside.txt"));
+	}
+
+	@Test
+	public void testFileTypeEntryOrder () throws IOException {
+		final File rootFolder = tempFolder.newFolder();
+		createDirectoryTree(rootFolder, testFileStructure01);
+		final File archiveFile = tempFolder.newFile("archive-test-" + random.nextInt() + TAR_FILE_SUFFIX);
+		DirectoryArchiverUtil.createArchive(ArchiveFormat.TAR, archiveFile.getAbsolutePath(), rootFolder, null,
+				EntryOrder.FILE_TYPE);
+
+		final List<String> expectedEntryNames = Arrays.asList("temp/", "temp/test1/",
+				"temp/test2/", "tmp/", "tmp/test3/", "tmp/test3/test4/", "tmp/test3/test4/test5/",
+				"temp/test2/file2.bin", "tmp/test3/test4/test5/file3.bin", "temp/test1/file1.txt",
+				"temp/test2/file1.txt", "tmp/test3/test4/test5/file3.txt");
+		assertEquals("Directories first, then files by extension and name", expectedEntryNames,
+				readTarEntryNames(archiveFile));
+		checkTarArchive(archiveFile, rootFolder, null);
+
+		assertEquals("The same order when streamed", expectedEntryNames, readTarEntryNames(
+				readOrderedArchiveChannel(ArchiveFormat.TAR, rootFolder, EntryOrder.FILE_TYPE, TAR_FILE_SUFFIX)));
+	}
+	
+	@Test
+	public void testOpenArchiveOfDirectory () throws IOException {
+		final File rootFolder = tempFolder.newFolder();
+		createDirectoryTree(rootFolder, testFileStructure01);
+
+		checkZipArchive(readArchiveChannel(ArchiveFormat.ZIP, rootFolder, "prefix/path", ZIP_FILE_SUFFIX), rootFolder,
+				"prefix/path");
+		checkJarArchive(readArchiveChannel(ArchiveFormat.JAR, rootFolder, null, JAR_FILE_SUFFIX), rootFolder, null);
+		checkTarArchive(readArchiveChannel(ArchiveFormat.TAR, rootFolder, "prefix", TAR_FILE_SUFFIX), rootFolder,
+				"prefix");
+		checkTarGzArchive(readArchiveChannel(ArchiveFormat.GZIPPED_TAR, rootFolder, null, TAR_GZ_FILE_SUFFIX),
+				rootFolder, null);
+	}
+	
+	@Test
+	public void testOpenArchiveOfDirectoryEntryOrder () throws IOException {
+		final File rootFolder = tempFolder.newFolder();
+		createDirectoryTree(rootFolder, testFileStructure01);
+		final File archiveFile = tempFolder.newFile("archive-test-" + random.nextInt() + TAR_FILE_SUFFIX);
+		DirectoryArchiverUtil.createArchive(ArchiveFormat.TAR, archiveFile.getAbsolutePath(), rootFolder, null,
+				EntryOrder.DIRECTORY);
+
+		// The tree is walked as the channel is read, in the order of the scanner used for archive files
+		assertEquals(readTarEntryNames(archiveFile), readTarEntryNames(
+				readOrderedArchiveChannel(ArchiveFormat.TAR, rootFolder, EntryOrder.DIRECTORY, TAR_FILE_SUFFIX)));
+	}
+	
+	@Test(expected = ClosedChannelException.class)
+	public void testOpenArchiveOfDirectoryClosed () throws IOException {
+		final File rootFolder = tempFolder.newFolder();
+		createDirectoryTree(rootFolder, testFileStructure01);
+
+		final ReadableByteChannel archiveChannel = DirectoryArchiverUtil.openArchiveOfDirectory(ArchiveFormat.ZIP,
+				rootFolder, null);
+		assertTrue(archiveChannel.read(ByteBuffer.allocate(16)) > 0);
+		archiveChannel.close();
+		assertFalse(archiveChannel.isOpen());
+		archiveChannel.read(ByteBuffer.allocate(16));
+	}
+	
+	@Test
+	public void testOpenArchiveOfDirectoryClosedInFileEntry () throws IOException {
+		final File rootFolder = tempFolder.newFolder();
+		final byte[] content = new byte[1024 * 1024];
+		random.nextBytes(content);
+		Files.write(rootFolder.toPath().resolve("large.bin"), content);
+
+		for (ArchiveFormat archiveFormat : ArchiveFormat.values()) {
+			final ReadableByteChannel archiveChannel = DirectoryArchiverUtil.openArchiveOfDirectory(archiveFormat,
+					rootFolder, null);
+			// Well into the file entry, which is still open
+			final ByteBuffer readBuffer = ByteBuffer.allocate(128 * 1024);
+			while (readBuffer.hasRemaining()) {
+				assertTrue(archiveChannel.read(readBuffer) > 0);
+			}
+			archiveChannel.close();
+			assertFalse(archiveFormat.toString(), archiveChannel.isOpen());
+			try {
+				archiveChannel.read(ByteBuffer.allocate(16));
+				fail("The channel is closed");
+			} catch (ClosedChannelException e) {
+				// Expected
+			}
+		}
+	}
+	
+	@Test
+	public void testArchiveFromZipFileSystem () throws IOException {
+		final File rootFolder = tempFolder.newFolder();
+		createDirectoryTree(rootFolder, testFileStructure01);
+		final File zipFile = tempFolder.newFile("archive-test-" + random.nextInt() + ZIP_FILE_SUFFIX);
+		DirectoryArchiverUtil.createZipArchiveOfDirectory(zipFile.getAbsolutePath(), rootFolder, null);
+
+		final FileSystem zipFileSystem = FileSystems.newFileSystem(URI.create("jar:" + zipFile.toURI()),
+				new HashMap<String, Object>());
+		try {
+			final File archiveFile = tempFolder.newFile("archive-test-" + random.nextInt() + TAR_GZ_FILE_SUFFIX);
+			DirectoryArchiverUtil.createArchive(ArchiveFormat.GZIPPED_TAR, archiveFile.toPath(),
+					zipFileSystem.getPath("/"), "prefix/path", EntryOrder.DIRECTORY);
+			checkTarGzArchive(archiveFile, rootFolder, "prefix/path");
+
+			// And back into the zip file system
+			final Path zipArchivePath = zipFileSystem.getPath("/copy" + ZIP_FILE_SUFFIX);
+			DirectoryArchiverUtil.createArchive(ArchiveFormat.ZIP, zipArchivePath, rootFolder.toPath(), null,
+					EntryOrder.DIRECTORY);
+			final File copiedZipFile = tempFolder.newFile("archive-test-" + random.nextInt() + ZIP_FILE_SUFFIX);
+			Files.copy(zipArchivePath, copiedZipFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			checkZipArchive(copiedZipFile, rootFolder, null);
+		} finally {
+			zipFileSystem.close();
+		}
+	}
+	
+	private File readArchiveChannel (final ArchiveFormat archiveFormat, final File rootFolder, final String prefix,
+			final String suffix) throws IOException {
+		return readArchiveChannel(DirectoryArchiverUtil.openArchiveOfDirectory(archiveFormat, rootFolder, prefix),
+				suffix);
+	}
+
+	private File readOrderedArchiveChannel (final ArchiveFormat archiveFormat, final File rootFolder,
+			final EntryOrder entryOrder, final String suffix) throws IOException {
+		return readArchiveChannel(DirectoryArchiverUtil.openArchiveOfDirectory(archiveFormat, rootFolder, null,
+				entryOrder), suffix);
+	}
+
+	private File readArchiveChannel (final ReadableByteChannel archiveChannel, final String suffix)
+			throws IOException {
+		final File archiveFile = tempFolder.newFile("archive-test-" + random.nextInt() + suffix);
+		final FileOutputStream fos = new FileOutputStream(archiveFile);
+		try {
+			// Small reads, so entries are split across many reads
+			final ByteBuffer buffer = ByteBuffer.allocate(100);
+			while (archiveChannel.read(buffer) != -1) {
+				buffer.flip();
+				fos.getChannel().write(buffer);
+				buffer.clear();
+			}
+		} finally {
+			fos.close();
+			archiveChannel.close();
+		}
+		return archiveFile;
+	}
+
+	private List<String> readTarEntryNames (final File archiveFile) throws IOException {
+		final List<String> entryNames = new ArrayList<>();
+		ArchiveInputStream tarInputStream = null;
+		try {
+			tarInputStream = new ArchiveStreamFactory().createArchiveInputStream(ArchiveStreamFactory.TAR,
+					new BufferedInputStream(new FileInputStream(archiveFile)));
+			ArchiveEntry tarEntry = null;
+			while ((tarEntry = tarInputStream.getNextEntry()) != null) {
+				entryNames.add(tarEntry.getName());
+			}
+		} catch (ArchiveException e) {
+			throw new IOException(e);
+		} finally {
+			if (null != tarInputStream) {
+				tarInputStream.close();
+			}
+		}
+		return entryNames;
+	}
+
 	private ArchiveEntries createArchiveEntries (final File sourceDirectory, final String pathPrefix)
 			throws IOException {
 		final ArchiveEntries archiveEntries = new ArchiveEntries();
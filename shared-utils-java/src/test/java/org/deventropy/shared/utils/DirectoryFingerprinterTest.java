@@ -0,0 +1,151 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.shared.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Bindul Bhowmik
+ * 
+ */
+public class DirectoryFingerprinterTest {
+
+	private static final FileTime LAST_HOUR = FileTime.fromMillis(System.currentTimeMillis()
+			- TimeUnit.HOURS.toMillis(1));
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	@Test
+	public void testFingerprintDependsOnContentOnly () throws IOException {
+		final File rootFolder1 = tempFolder.newFolder();
+		createFiles(rootFolder1, "a/b.txt", "a/c/d.bin", "e.txt", "f/");
+		final File rootFolder2 = tempFolder.newFolder();
+		// Created in another order, at another location
+		createFiles(rootFolder2, "f/", "e.txt", "a/c/d.bin", "a/b.txt");
+
+		final DirectoryFingerprinter fingerprinter = new DirectoryFingerprinter();
+		final String fingerprint = fingerprinter.fingerprint(rootFolder1.toPath());
+		assertEquals(64, fingerprint.length());
+		assertEquals(fingerprint, fingerprinter.fingerprint(rootFolder2.toPath()));
+
+		// An empty directory is part of the tree
+		Files.createDirectory(rootFolder2.toPath().resolve("g"));
+		final String withDirectory = fingerprinter.fingerprint(rootFolder2.toPath());
+		assertNotEquals(fingerprint, withDirectory);
+
+		// As are the names
+		Files.move(rootFolder2.toPath().resolve("e.txt"), rootFolder2.toPath().resolve("h.txt"));
+		final String renamed = fingerprinter.fingerprint(rootFolder2.toPath());
+		assertNotEquals(withDirectory, renamed);
+
+		// And the contents
+		Files.write(rootFolder2.toPath().resolve("a/b.txt"), "changed".getBytes("UTF-8"));
+		assertNotEquals(renamed, fingerprinter.fingerprint(rootFolder2.toPath()));
+	}
+
+	@Test
+	public void testFileAndDirectoryWithSameName () throws IOException {
+		final File rootFolder1 = tempFolder.newFolder();
+		createFiles(rootFolder1, "a");
+		final File rootFolder2 = tempFolder.newFolder();
+		createFiles(rootFolder2, "a/");
+
+		final DirectoryFingerprinter fingerprinter = new DirectoryFingerprinter();
+		assertNotEquals(fingerprinter.fingerprint(rootFolder1.toPath()),
+				fingerprinter.fingerprint(rootFolder2.toPath()));
+	}
+
+	@Test
+	public void testPersistentCache () throws IOException {
+		final File rootFolder = tempFolder.newFolder();
+		createFiles(rootFolder, "a/b.txt", "c.txt");
+		final Path file = rootFolder.toPath().resolve("c.txt");
+		final Path cacheFile = tempFolder.getRoot().toPath().resolve("fingerprint.cache");
+
+		final String fingerprint = new DirectoryFingerprinter(2, cacheFile).fingerprint(rootFolder.toPath());
+		assertTrue(Files.size(cacheFile) > 0);
+
+		// Same size and modification time, so a new fingerprinter using the cache does not read the file again
+		Files.write(file, "C.txt".getBytes("UTF-8"));
+		Files.setLastModifiedTime(file, LAST_HOUR);
+		assertEquals(fingerprint, new DirectoryFingerprinter(2, cacheFile).fingerprint(rootFolder.toPath()));
+
+		// A new modification time invalidates the cached hash
+		Files.setLastModifiedTime(file, FileTime.fromMillis(LAST_HOUR.toMillis() - 1000));
+		assertNotEquals(fingerprint, new DirectoryFingerprinter(2, cacheFile).fingerprint(rootFolder.toPath()));
+	}
+
+	@Test
+	public void testRecentlyModifiedFilesNotCached () throws IOException {
+		final File rootFolder = tempFolder.newFolder();
+		createFiles(rootFolder, "a.txt");
+		final Path file = rootFolder.toPath().resolve("a.txt");
+		final FileTime now = FileTime.fromMillis(System.currentTimeMillis());
+		Files.setLastModifiedTime(file, now);
+
+		final DirectoryFingerprinter fingerprinter = new DirectoryFingerprinter();
+		final String fingerprint = fingerprinter.fingerprint(rootFolder.toPath());
+		Files.write(file, "A.txt".getBytes("UTF-8"));
+		Files.setLastModifiedTime(file, now);
+		assertNotEquals(fingerprint, fingerprinter.fingerprint(rootFolder.toPath()));
+	}
+
+	@Test
+	public void testCorruptCacheFile () throws IOException {
+		final File rootFolder = tempFolder.newFolder();
+		createFiles(rootFolder, "a.txt");
+		final Path cacheFile = tempFolder.newFile().toPath();
+		Files.write(cacheFile, "not a cache".getBytes("UTF-8"));
+
+		assertEquals(new DirectoryFingerprinter().fingerprint(rootFolder.toPath()),
+				new DirectoryFingerprinter(1, cacheFile).fingerprint(rootFolder.toPath()));
+	}
+
+	@Test(expected = IOException.class)
+	public void testFingerprintNotADirectory () throws IOException {
+		new DirectoryFingerprinter().fingerprint(tempFolder.newFile().toPath());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidParallelism () {
+		new DirectoryFingerprinter(0, null);
+	}
+
+	private void createFiles (final File rootFolder, final String... entries) throws IOException {
+		for (String entry : entries) {
+			final Path path = rootFolder.toPath().resolve(entry);
+			if (entry.endsWith("/")) {
+				Files.createDirectories(path);
+			} else {
+				Files.createDirectories(path.getParent());
+				Files.write(path, entry.getBytes("UTF-8"));
+				Files.setLastModifiedTime(path, LAST_HOUR);
+			}
+		}
+	}
+}
@@ -0,0 +1,124 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.shared.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.deventropy.shared.utils.DirectoryScanner.ScannedEntry;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Bindul Bhowmik
+ * 
+ */
+public class DirectoryScannerTest {
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	@Test
+	public void testScanOrder () throws IOException {
+		final File rootFolder = tempFolder.newFolder();
+		// Created out of order on purpose
+		createFiles(rootFolder, "b/z.txt", "b/a.txt", "a/c/file.bin", "a/b.txt", "c.txt", "a/a/");
+
+		final List<ScannedEntry> entries = new DirectoryScanner(2).scan(rootFolder.toPath());
+		assertEquals(Arrays.asList("a/", "a/a/", "a/b.txt", "a/c/", "a/c/file.bin", "b/", "b/a.txt", "b/z.txt",
+				"c.txt"), toNames(entries));
+	}
+
+	@Test
+	public void testScanAttributes () throws IOException {
+		final File rootFolder = tempFolder.newFolder();
+		createFiles(rootFolder, "dir/file.txt");
+
+		final List<ScannedEntry> entries = new DirectoryScanner().scan(rootFolder.toPath());
+		assertEquals(2, entries.size());
+		assertTrue(entries.get(0).isDirectory());
+		assertFalse(entries.get(1).isDirectory());
+		assertEquals(rootFolder.toPath().resolve("dir").resolve("file.txt"), entries.get(1).getPath());
+		assertEquals(Files.size(entries.get(1).getPath()), entries.get(1).getAttributes().size());
+	}
+
+	@Test
+	public void testScanLargeDirectory () throws IOException {
+		final File rootFolder = tempFolder.newFolder();
+		final int fileCount = 1000;
+		final List<String> expected = new ArrayList<>();
+		for (int i = 0; i < fileCount; i++) {
+			final String name = String.format("file-%04d.txt", i);
+			expected.add(name);
+			createFiles(rootFolder, name);
+		}
+
+		final List<ScannedEntry> entries = new DirectoryScanner(4).scan(rootFolder.toPath());
+		assertEquals(expected, toNames(entries));
+	}
+
+	@Test
+	public void testScanEmptyDirectory () throws IOException {
+		final File rootFolder = tempFolder.newFolder();
+		assertTrue(new DirectoryScanner().scan(rootFolder.toPath()).isEmpty());
+	}
+
+	@Test(expected = IOException.class)
+	public void testScanNotADirectory () throws IOException {
+		final File file = tempFolder.newFile();
+		new DirectoryScanner().scan(file.toPath());
+	}
+
+	@Test(expected = IOException.class)
+	public void testScanMissingDirectory () throws IOException {
+		final File rootFolder = tempFolder.newFolder();
+		new DirectoryScanner().scan(rootFolder.toPath().resolve("missing"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidParallelism () {
+		new DirectoryScanner(0);
+	}
+
+	private List<String> toNames (final List<ScannedEntry> entries) {
+		final List<String> names = new ArrayList<>();
+		for (ScannedEntry entry : entries) {
+			final String name = entry.getRelativePath().toString().replace('\\', '/');
+			names.add(entry.isDirectory() ? name + "/" : name);
+		}
+		return names;
+	}
+
+	private void createFiles (final File rootFolder, final String... entries) throws IOException {
+		for (String entry : entries) {
+			final Path path = rootFolder.toPath().resolve(entry);
+			if (entry.endsWith("/")) {
+				Files.createDirectories(path);
+			} else {
+				Files.createDirectories(path.getParent());
+				Files.write(path, entry.getBytes("UTF-8"));
+			}
+		}
+	}
+}
@@ -0,0 +1,153 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.shared.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.deventropy.shared.utils.DirectoryArchiverUtil.ArchiveFormat;
+import org.deventropy.shared.utils.DirectoryArchiverUtil.EntryOrder;
+
+/**
+ * Compares the size and time to create GZipped tar archives with the different {@link EntryOrder}s.
+ * 
+ * <p>Not a unit test (and not run by the build); run the <code>main</code> method with the test classpath, optionally
+ * passing the directory to archive. Without one, a tree resembling a source checkout is generated: modules with Java
+ * sources, XML and JSON configuration, properties and incompressible binaries, interleaved in every directory.
+ * 
+ * @author Bindul Bhowmik
+ */
+public final class EntryOrderBenchmark {
+
+	private static final int WARMUP_ITERATIONS = 2;
+	private static final int MEASURED_ITERATIONS = 5;
+	private static final int MODULES = 20;
+	private static final int PACKAGES_PER_MODULE = 6;
+	private static final int FILES_PER_PACKAGE = 8;
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final String[] JAVA_WORDS = {"public", "private", "final", "static", "return", "new", "if", "null",
+		"this", "void", "String", "int", "List", "Map", "throws", "IOException", "for", "=", "==", "{", "}", "(", ")",
+		";", "get", "set", "value", "name", "result", "index"};
+	private static final String[] JSON_WORDS = {"\"id\"", "\"name\"", "\"enabled\"", "\"items\"", "true", "false",
+		"null", ":", ",", "[", "]", "{", "}", "\"type\"", "\"version\"", "\"1.0\"", "0", "42"};
+	private static final String[] XML_WORDS = {"<bean", "</bean>", "<property", "name=\"", "value=\"", "\"/>", ">",
+		"<list>", "</list>", "class=\"", "org.example.", "Service", "Repository", "id=\""};
+
+	private final Random random = new Random(20160101L);
+
+	private EntryOrderBenchmark () {
+		// Run from main
+	}
+
+	/**
+	 * @param args Optional directory to archive.
+	 * @throws IOException Error creating the tree or archives.
+	 */
+	public static void main (final String[] args) throws IOException {
+		final EntryOrderBenchmark benchmark = new EntryOrderBenchmark();
+		final Path workDirectory = Files.createTempDirectory("entry-order-benchmark");
+		try {
+			final File sourceDirectory;
+			if (args.length > 0) {
+				sourceDirectory = new File(args[0]);
+			} else {
+				sourceDirectory = workDirectory.resolve("source").toFile();
+				benchmark.createSourceTree(sourceDirectory.toPath());
+			}
+			System.out.println("Archiving " + sourceDirectory);
+			for (EntryOrder entryOrder : EntryOrder.values()) {
+				benchmark.run(entryOrder, sourceDirectory, workDirectory.resolve(entryOrder + ".tar.gz").toFile());
+			}
+		} finally {
+			deleteTree(workDirectory);
+		}
+	}
+
+	private void run (final EntryOrder entryOrder, final File sourceDirectory, final File archiveFile)
+			throws IOException {
+		for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+			DirectoryArchiverUtil.createArchive(ArchiveFormat.GZIPPED_TAR, archiveFile.getAbsolutePath(),
+					sourceDirectory, null, entryOrder);
+		}
+		final long start = System.nanoTime();
+		for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+			DirectoryArchiverUtil.createArchive(ArchiveFormat.GZIPPED_TAR, archiveFile.getAbsolutePath(),
+					sourceDirectory, null, entryOrder);
+		}
+		final long averageMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) / MEASURED_ITERATIONS;
+		System.out.println(String.format("%-10s %,12d bytes %,8d ms", entryOrder, archiveFile.length(),
+				averageMillis));
+	}
+
+	private void createSourceTree (final Path root) throws IOException {
+		for (int module = 0; module < MODULES; module++) {
+			final Path moduleDirectory = root.resolve("module-" + module);
+			Files.createDirectories(moduleDirectory);
+			write(moduleDirectory.resolve("pom.xml"), text(XML_WORDS, 3000));
+			for (int pkg = 0; pkg < PACKAGES_PER_MODULE; pkg++) {
+				final Path packageDirectory = moduleDirectory.resolve("src/org/example/pkg" + pkg);
+				Files.createDirectories(packageDirectory);
+				for (int file = 0; file < FILES_PER_PACKAGE; file++) {
+					write(packageDirectory.resolve("Type" + file + ".java"), text(JAVA_WORDS, 6000));
+					write(packageDirectory.resolve("type" + file + ".json"), text(JSON_WORDS, 2000));
+					write(packageDirectory.resolve("context" + file + ".xml"), text(XML_WORDS, 2000));
+					write(packageDirectory.resolve("messages" + file + ".properties"),
+							("key" + file + "=value " + file + "\n").getBytes(UTF_8));
+					final byte[] image = new byte[4096 + random.nextInt(8192)];
+					random.nextBytes(image);
+					write(packageDirectory.resolve("icon" + file + ".png"), image);
+				}
+			}
+		}
+	}
+
+	private byte[] text (final String[] words, final int length) {
+		final StringBuilder text = new StringBuilder(length + 32);
+		while (text.length() < length) {
+			text.append(words[random.nextInt(words.length)]).append(random.nextInt(8) == 0 ? '\n' : ' ');
+		}
+		return text.toString().getBytes(UTF_8);
+	}
+
+	private static void write (final Path file, final byte[] content) throws IOException {
+		Files.write(file, content);
+	}
+
+	private static void deleteTree (final Path root) throws IOException {
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile (final Path file, final BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory (final Path dir, final IOException exc) throws IOException {
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+}
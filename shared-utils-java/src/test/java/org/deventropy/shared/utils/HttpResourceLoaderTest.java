@@ -0,0 +1,237 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.shared.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * @author Bindul Bhowmik
+ * 
+ */
+public class HttpResourceLoaderTest {
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	private HttpServer server;
+	private final AtomicInteger fullResponses = new AtomicInteger();
+	private final AtomicInteger notModifiedResponses = new AtomicInteger();
+	private volatile String content = "first";
+	private volatile Path revalidatedCacheDirectory;
+
+	@Before
+	public void startServer () throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/etag", new HttpHandler() {
+			@Override
+			public void handle (final HttpExchange exchange) throws IOException {
+				final String etag = "\"" + content + "\"";
+				if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+					respond(exchange, 304, null);
+				} else {
+					exchange.getResponseHeaders().set("ETag", etag);
+					respond(exchange, 200, content);
+				}
+			}
+		});
+		server.createContext("/dated", new HttpHandler() {
+			@Override
+			public void handle (final HttpExchange exchange) throws IOException {
+				if (null != exchange.getRequestHeaders().getFirst("If-Modified-Since")) {
+					respond(exchange, 304, null);
+				} else {
+					exchange.getResponseHeaders().set("Last-Modified", "Fri, 01 Jan 2016 00:00:00 GMT");
+					respond(exchange, 200, content);
+				}
+			}
+		});
+		server.createContext("/cleared", new HttpHandler() {
+			@Override
+			public void handle (final HttpExchange exchange) throws IOException {
+				if (null != exchange.getRequestHeaders().getFirst("If-None-Match")) {
+					// Another loader clears the cache while the request is in flight
+					clearDirectory(revalidatedCacheDirectory);
+					respond(exchange, 304, null);
+				} else {
+					exchange.getResponseHeaders().set("ETag", "\"cleared\"");
+					respond(exchange, 200, content);
+				}
+			}
+		});
+		server.createContext("/nostore", new HttpHandler() {
+			@Override
+			public void handle (final HttpExchange exchange) throws IOException {
+				exchange.getResponseHeaders().set("ETag", "\"nostore\"");
+				exchange.getResponseHeaders().set("Cache-Control", "private, no-store");
+				respond(exchange, 200, content);
+			}
+		});
+		server.createContext("/error", new HttpHandler() {
+			@Override
+			public void handle (final HttpExchange exchange) throws IOException {
+				respond(exchange, 500, "error");
+			}
+		});
+		server.start();
+	}
+
+	@After
+	public void stopServer () {
+		server.stop(0);
+	}
+
+	@Test
+	public void testEtagRevalidation () throws IOException {
+		final Path cacheDirectory = tempFolder.newFolder().toPath();
+		final URL url = serverUrl("/etag");
+
+		assertEquals("first", new String(new HttpResourceLoader(cacheDirectory).fetch(url), "UTF-8"));
+		assertEquals(1, fullResponses.get());
+
+		// A new loader on the same directory revalidates the cached copy
+		final HttpResourceLoader loader = new HttpResourceLoader(cacheDirectory);
+		assertEquals("first", new String(loader.getBytes(url.toExternalForm()), "UTF-8"));
+		assertEquals(1, fullResponses.get());
+		assertEquals(1, notModifiedResponses.get());
+
+		content = "second";
+		assertEquals("second", new String(loader.fetch(url), "UTF-8"));
+		assertEquals(2, fullResponses.get());
+		assertEquals("second", new String(loader.fetch(url), "UTF-8"));
+		assertEquals(2, notModifiedResponses.get());
+
+		loader.invalidate(url);
+		assertEquals("second", new String(loader.fetch(url), "UTF-8"));
+		assertEquals(3, fullResponses.get());
+	}
+
+	@Test
+	public void testLastModifiedRevalidation () throws IOException {
+		final HttpResourceLoader loader = new HttpResourceLoader(tempFolder.newFolder().toPath());
+		final URL url = serverUrl("/dated");
+		assertEquals("first", new String(loader.fetch(url), "UTF-8"));
+		assertEquals("first", new String(loader.fetch(url), "UTF-8"));
+		assertEquals(1, fullResponses.get());
+		assertEquals(1, notModifiedResponses.get());
+	}
+
+	@Test
+	public void testCacheClearedDuringRevalidation () throws IOException {
+		revalidatedCacheDirectory = tempFolder.newFolder().toPath();
+		final HttpResourceLoader loader = new HttpResourceLoader(revalidatedCacheDirectory);
+		final URL url = serverUrl("/cleared");
+		assertEquals("first", new String(loader.fetch(url), "UTF-8"));
+
+		// The cached body is gone when the server confirms it, so the resource is requested again
+		assertEquals("first", new String(loader.fetch(url), "UTF-8"));
+		assertEquals(1, notModifiedResponses.get());
+		assertEquals(2, fullResponses.get());
+	}
+
+	@Test
+	public void testUncachedResponses () throws IOException {
+		final HttpResourceLoader loader = new HttpResourceLoader(tempFolder.newFolder().toPath());
+		loader.fetch(serverUrl("/nostore"));
+		loader.fetch(serverUrl("/nostore"));
+		assertEquals(2, fullResponses.get());
+
+		final HttpResourceLoader noCacheLoader = new HttpResourceLoader(null);
+		noCacheLoader.fetch(serverUrl("/etag"));
+		noCacheLoader.fetch(serverUrl("/etag"));
+		assertEquals(4, fullResponses.get());
+		assertEquals(0, notModifiedResponses.get());
+	}
+
+	@Test(expected = FileNotFoundException.class)
+	public void testMissingResource () throws IOException {
+		new HttpResourceLoader(null).fetch(serverUrl("/missing"));
+	}
+
+	@Test
+	public void testFailedRequest () throws IOException {
+		try {
+			new HttpResourceLoader(null).fetch(serverUrl("/error"));
+			fail("The request fails");
+		} catch (FileNotFoundException e) {
+			fail("Not a missing resource");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains("500"));
+		}
+	}
+
+	@Test
+	public void testOtherResources () throws IOException {
+		final HttpResourceLoader loader = new HttpResourceLoader(null);
+		assertArrayEquals(UrlResourceUtil.readFully(
+				UrlResourceUtil.getUrl("classpath:/org/deventropy/shared/utils/classpath-url-test.file")),
+				loader.getBytes("classpath:/org/deventropy/shared/utils/classpath-url-test.file"));
+	}
+
+	private static void clearDirectory (final Path directory) throws IOException {
+		final DirectoryStream<Path> files = Files.newDirectoryStream(directory);
+		try {
+			for (Path file : files) {
+				Files.delete(file);
+			}
+		} finally {
+			files.close();
+		}
+	}
+
+	private URL serverUrl (final String path) throws IOException {
+		return new URL("http://127.0.0.1:" + server.getAddress().getPort() + path);
+	}
+
+	private void respond (final HttpExchange exchange, final int status, final String body) throws IOException {
+		if (status == 304) {
+			notModifiedResponses.incrementAndGet();
+			exchange.sendResponseHeaders(status, -1);
+			exchange.close();
+			return;
+		}
+		if (status == 200) {
+			fullResponses.incrementAndGet();
+		}
+		final byte[] bytes = body.getBytes("UTF-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		final OutputStream out = exchange.getResponseBody();
+		try {
+			out.write(bytes);
+		} finally {
+			out.close();
+		}
+	}
+}
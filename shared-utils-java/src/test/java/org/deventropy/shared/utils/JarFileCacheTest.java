@@ -0,0 +1,173 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.shared.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.util.jar.JarFile;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Bindul Bhowmik
+ * 
+ */
+public class JarFileCacheTest {
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	@Test
+	public void testJarFileReused () throws IOException {
+		final File jar = createJar("reused.jar", "content");
+		final JarFileCache cache = new JarFileCache(4);
+		try {
+			final JarFileCache.Handle first = cache.acquire(jar.toPath());
+			final JarFileCache.Handle second = cache.acquire(jar.toPath());
+			assertSame(first.getJarFile(), second.getJarFile());
+			first.close();
+			first.close();
+			second.close();
+			// Still cached and open after the handles are released
+			final JarFileCache.Handle third = cache.acquire(jar.toPath());
+			assertSame(first.getJarFile(), third.getJarFile());
+			assertNotNull(third.getJarFile().getEntry("org/example/entry.txt"));
+			third.close();
+			assertEquals(1, cache.getCachedJarCount());
+		} finally {
+			cache.close();
+		}
+	}
+
+	@Test
+	public void testEvictedJarClosedWhenReleased () throws IOException {
+		final File firstJar = createJar("first.jar", "first");
+		final File secondJar = createJar("second.jar", "second");
+		final JarFileCache cache = new JarFileCache(1);
+		try {
+			final JarFileCache.Handle inUse = cache.acquire(firstJar.toPath());
+			final JarFileCache.Handle unused = cache.acquire(secondJar.toPath());
+			unused.close();
+			// The first jar is evicted, but stays open while in use
+			assertEquals(1, cache.getCachedJarCount());
+			final JarFile firstJarFile = inUse.getJarFile();
+			assertNotNull(firstJarFile.getEntry("org/example/entry.txt"));
+			inUse.close();
+			assertClosed(firstJarFile);
+
+			// The second jar is closed when evicted, not being in use
+			final JarFile secondJarFile = unused.getJarFile();
+			cache.acquire(firstJar.toPath()).close();
+			assertClosed(secondJarFile);
+		} finally {
+			cache.close();
+		}
+	}
+
+	@Test
+	public void testChangedJarReopened () throws IOException {
+		final File jar = createJar("changed.jar", "before");
+		final JarFileCache cache = new JarFileCache(4);
+		try {
+			final URL entryUrl = new URL("jar:" + jar.toURI().toURL().toExternalForm() + "!/org/example/entry.txt");
+			assertEquals("before", read(cache.openStream(entryUrl)));
+
+			// A different size, whatever the resolution of modification times
+			createJar("changed.jar", "after, longer");
+			assertEquals("after, longer", read(cache.openStream(entryUrl)));
+			assertEquals(1, cache.getCachedJarCount());
+		} finally {
+			cache.close();
+		}
+	}
+
+	@Test
+	public void testOpenStream () throws IOException {
+		final File jar = createJar("stream.jar", "streamed");
+		final JarFileCache cache = new JarFileCache(4);
+		try {
+			assertNull(cache.openStream(jar.toURI().toURL()));
+			try {
+				cache.openStream(new URL("jar:" + jar.toURI().toURL().toExternalForm() + "!/org/example/missing.txt"));
+				fail("The entry does not exist");
+			} catch (FileNotFoundException e) {
+				// Expected
+			}
+			final InputStream inputStream = cache.openStream(new URL("jar:" + jar.toURI().toURL().toExternalForm()
+					+ "!/org/example/entry.txt"));
+			cache.close();
+			// Evicted, but open until the stream is closed
+			assertEquals("streamed", read(inputStream));
+		} finally {
+			cache.close();
+		}
+	}
+
+	@Test
+	public void testUrlResourceUtilReadsThroughSharedCache () throws IOException {
+		final File jar = createJar("shared.jar", "shared content");
+		final URLClassLoader cl = new URLClassLoader(new URL[] {jar.toURI().toURL()}, null);
+		try {
+			final URL url = UrlResourceUtil.getUrl("classpath:/org/example/entry.txt", cl);
+			assertEquals("shared content", new String(UrlResourceUtil.readFully(url), StandardCharsets.UTF_8));
+			final JarFileCache.Handle handle = JarFileCache.getSharedCache().acquire(jar.toPath());
+			try {
+				assertNotNull(handle.getJarFile().getEntry("org/example/entry.txt"));
+			} finally {
+				handle.close();
+			}
+		} finally {
+			cl.close();
+		}
+	}
+
+	private void assertClosed (final JarFile jarFile) {
+		try {
+			jarFile.getEntry("org/example/entry.txt");
+			fail("The jar file should be closed");
+		} catch (IllegalStateException e) {
+			// Expected, the zip file is closed
+		}
+	}
+
+	private String read (final InputStream inputStream) throws IOException {
+		return new String(UrlResourceUtil.readFully(inputStream), StandardCharsets.UTF_8);
+	}
+
+	private File createJar (final String name, final String content) throws IOException {
+		final File jar = new File(tempFolder.getRoot(), name);
+		final ZipArchiveOutputStream zipArchiveOutputStream = new ZipArchiveOutputStream(jar);
+		try {
+			zipArchiveOutputStream.putArchiveEntry(new ZipArchiveEntry("org/example/entry.txt"));
+			zipArchiveOutputStream.write(content.getBytes(StandardCharsets.UTF_8));
+			zipArchiveOutputStream.closeArchiveEntry();
+		} finally {
+			zipArchiveOutputStream.close();
+		}
+		return jar;
+	}
+}
@@ -0,0 +1,113 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.shared.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * @author Bindul Bhowmik
+ * 
+ */
+public class MemoryResourceHandlerTest {
+
+	private static final String RESOURCE = "mem:/org/deventropy/shared/utils/memory.txt";
+	private static final byte[] CONTENT = "memory resource content".getBytes(StandardCharsets.UTF_8);
+
+	@After
+	public void clearResources () {
+		MemoryResourceHandler.clearResources();
+	}
+
+	@Test
+	public void testRegistered () throws IOException {
+		assertTrue(UrlResourceUtil.KNOWN_PROTOCOLS.contains(MemoryResourceHandler.URL_PROTOCOL_MEMORY));
+		assertTrue(UrlResourceUtil.getProtocolHandler(RESOURCE) instanceof MemoryResourceHandler);
+		assertNull(UrlResourceUtil.getProtocolHandler("classpath:/org/deventropy/shared/utils/memory.txt"));
+
+		final ResourceLocator locator = ResourceLocator.parse(RESOURCE);
+		assertEquals(ResourceLocator.Kind.HANDLER, locator.getKind());
+		assertEquals("/org/deventropy/shared/utils/memory.txt", locator.getPath());
+		assertFalse(locator.isFile());
+	}
+
+	@Test
+	public void testGetUrl () throws IOException {
+		final ClassLoader cl = getClass().getClassLoader();
+		final byte[] content = CONTENT.clone();
+		MemoryResourceHandler.putResource(RESOURCE, content);
+		content[0] = 0;
+
+		final URL url = UrlResourceUtil.getUrl(RESOURCE, cl);
+		assertEquals(RESOURCE, url.toExternalForm());
+		assertArrayEquals(CONTENT, UrlResourceUtil.readFully(url));
+		assertEquals(url, UrlResourceUtil.getUrl("mem:org/deventropy/shared/utils/memory.txt", cl));
+		assertEquals(CONTENT.length, url.openConnection().getContentLength());
+
+		// Replaced contents are seen by URLs resolved earlier
+		MemoryResourceHandler.putResource(RESOURCE, new byte[] {1, 2});
+		assertArrayEquals(new byte[] {1, 2}, UrlResourceUtil.readFully(url));
+
+		assertTrue(MemoryResourceHandler.removeResource(RESOURCE));
+		assertFalse(MemoryResourceHandler.removeResource(RESOURCE));
+		assertNull(ResourceLocator.parse(RESOURCE).find(cl));
+		try {
+			UrlResourceUtil.readFully(url);
+			fail("The resource was removed");
+		} catch (FileNotFoundException e) {
+			// Expected
+		}
+	}
+
+	@Test(expected = FileNotFoundException.class)
+	public void testGetUrlMissingResource () throws IOException {
+		UrlResourceUtil.getUrl("mem:/some/missing/resource", getClass().getClassLoader());
+	}
+
+	@Test
+	public void testOpenChannelAndExists () throws IOException {
+		assertFalse(UrlResourceUtil.exists(RESOURCE));
+		MemoryResourceHandler.putResource(RESOURCE, CONTENT);
+		assertTrue(UrlResourceUtil.exists(RESOURCE));
+
+		final ReadableByteChannel channel = UrlResourceUtil.openChannel(RESOURCE);
+		try {
+			final ByteBuffer buffer = ByteBuffer.allocate(CONTENT.length + 1);
+			while (channel.read(buffer) != -1) {
+				// Read to the end
+			}
+			assertEquals(CONTENT.length, buffer.position());
+			buffer.flip();
+			final byte[] read = new byte[buffer.remaining()];
+			buffer.get(read);
+			assertArrayEquals(CONTENT, read);
+		} finally {
+			channel.close();
+		}
+
+		MemoryResourceHandler.clearResources();
+		assertFalse(UrlResourceUtil.exists(RESOURCE));
+	}
+}
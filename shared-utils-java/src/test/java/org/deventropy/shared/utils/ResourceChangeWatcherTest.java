@@ -0,0 +1,186 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.shared.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Bindul Bhowmik
+ * 
+ */
+public class ResourceChangeWatcherTest {
+
+	private static final long TIMEOUT_SECONDS = 30;
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	@Test
+	public void testChangesCoalesced () throws IOException, InterruptedException {
+		final File file = tempFolder.newFile("watched.properties");
+		final File otherFile = tempFolder.newFile("other.properties");
+		final ResourceChangeWatcher watcher = new ResourceChangeWatcher(500, TimeUnit.MILLISECONDS);
+		try {
+			final RecordingListener listener = new RecordingListener();
+			final Closeable subscription = watcher.subscribe(file.getPath(), listener);
+			final Closeable fileUrlSubscription = watcher.subscribe(file.toURI().toURL().toExternalForm(), listener);
+			assertEquals(1, watcher.getWatchedDirectoryCount());
+
+			// Changes to other files in the directory are not reported
+			Files.write(otherFile.toPath(), "other".getBytes("UTF-8"));
+			for (int i = 0; i < 5; i++) {
+				Files.write(file.toPath(), ("value=" + i + "\n").getBytes("UTF-8"), StandardOpenOption.APPEND);
+			}
+			// Once for each subscription
+			assertEquals(file.getPath(), listener.changes.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+			assertEquals(file.toURI().toURL().toExternalForm(), listener.changes.poll(TIMEOUT_SECONDS,
+					TimeUnit.SECONDS));
+			assertNull(listener.changes.poll(1, TimeUnit.SECONDS));
+
+			subscription.close();
+			assertEquals(1, watcher.getWatchedDirectoryCount());
+			fileUrlSubscription.close();
+			assertEquals(0, watcher.getWatchedDirectoryCount());
+			Files.write(file.toPath(), "value=closed".getBytes("UTF-8"));
+			assertNull(listener.changes.poll(1, TimeUnit.SECONDS));
+		} finally {
+			watcher.close();
+		}
+	}
+
+	@Test
+	public void testCreateAndDelete () throws IOException, InterruptedException {
+		final File file = new File(tempFolder.getRoot(), "created.properties");
+		final ResourceChangeWatcher watcher = new ResourceChangeWatcher(10, TimeUnit.MILLISECONDS);
+		try {
+			final RecordingListener listener = new RecordingListener();
+			watcher.subscribe(file.getPath(), listener);
+			Files.write(file.toPath(), "created".getBytes("UTF-8"));
+			assertEquals(file.getPath(), listener.changes.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+			Thread.sleep(200);
+			listener.changes.clear();
+			Files.delete(file.toPath());
+			assertEquals(file.getPath(), listener.changes.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+		} finally {
+			watcher.close();
+		}
+	}
+
+	@Test
+	public void testWatchedDirectoryDeleted () throws IOException, InterruptedException {
+		final File directory = tempFolder.newFolder();
+		final File file = new File(directory, "watched.txt");
+		Files.write(file.toPath(), "watched".getBytes("UTF-8"));
+		final ResourceChangeWatcher watcher = new ResourceChangeWatcher(10, TimeUnit.MILLISECONDS);
+		try {
+			final ResourceContentCache cache = new ResourceContentCache(1024);
+			assertEquals(7, cache.getBytes(file.getPath(), getClass().getClassLoader()).length);
+			final RecordingListener listener = new RecordingListener();
+			watcher.subscribe(file.getPath(), cache);
+			watcher.subscribe(file.getPath(), listener);
+
+			Files.delete(file.toPath());
+			Files.delete(directory.toPath());
+			assertEquals(file.getPath(), listener.changes.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+			try {
+				cache.getBytes(file.getPath(), getClass().getClassLoader());
+				fail("The deleted file must not be served from the cache");
+			} catch (IOException e) {
+				// Expected
+			}
+			for (int i = 0; i < 100 && watcher.getWatchedDirectoryCount() > 0; i++) {
+				Thread.sleep(50);
+			}
+			assertEquals(0, watcher.getWatchedDirectoryCount());
+		} finally {
+			watcher.close();
+		}
+	}
+
+	@Test
+	public void testClasspathResourceInvalidatesCache () throws IOException, InterruptedException {
+		final File classpathRoot = tempFolder.newFolder();
+		final File file = new File(classpathRoot, "watched.txt");
+		Files.write(file.toPath(), "watched".getBytes("UTF-8"));
+		final URLClassLoader cl = new URLClassLoader(new URL[] {classpathRoot.toURI().toURL()}, null);
+		final ResourceChangeWatcher watcher = new ResourceChangeWatcher(10, TimeUnit.MILLISECONDS);
+		try {
+			final ResourceContentCache cache = new ResourceContentCache(1024);
+			assertEquals(7, cache.getBytes("classpath:/watched.txt", cl).length);
+			final RecordingListener listener = new RecordingListener();
+			watcher.subscribe("classpath:/watched.txt", cl, cache);
+			watcher.subscribe("classpath:/watched.txt", cl, listener);
+
+			Files.write(file.toPath(), "changed content".getBytes("UTF-8"));
+			assertEquals("classpath:/watched.txt", listener.changes.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+			assertEquals(15, cache.getBytes("classpath:/watched.txt", cl).length);
+		} finally {
+			watcher.close();
+			cl.close();
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testNotAFile () throws IOException {
+		final ResourceChangeWatcher watcher = new ResourceChangeWatcher();
+		try {
+			watcher.subscribe("http://example.com/config.properties", new RecordingListener());
+		} finally {
+			watcher.close();
+		}
+	}
+
+	@Test
+	public void testUrlResourceUtilWatch () throws IOException, InterruptedException {
+		final File file = tempFolder.newFile();
+		final RecordingListener listener = new RecordingListener();
+		final Closeable subscription = UrlResourceUtil.watch(file.getPath(), listener);
+		try {
+			Files.write(file.toPath(), "changed".getBytes("UTF-8"));
+			assertEquals(file.getPath(), listener.changes.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+		} finally {
+			subscription.close();
+		}
+	}
+
+	/**
+	 * Records the resources reported changed.
+	 */
+	private static final class RecordingListener implements ResourceChangeListener {
+		private final BlockingQueue<String> changes = new LinkedBlockingQueue<>();
+
+		@Override
+		public void resourceChanged (final String resource, final Path file) {
+			changes.add(resource);
+		}
+	}
+}
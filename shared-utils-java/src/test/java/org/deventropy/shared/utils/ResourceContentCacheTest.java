@@ -0,0 +1,214 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.shared.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Bindul Bhowmik
+ * 
+ */
+public class ResourceContentCacheTest {
+
+	private static final String CLASSPATH_RESOURCE = "classpath:/org/deventropy/shared/utils/classpath-url-test.file";
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	@Test
+	public void testClasspathResource () throws IOException {
+		final ResourceContentCache cache = new ResourceContentCache(1024 * 1024);
+		final CountingClassLoader cl = new CountingClassLoader();
+
+		final byte[] expected = readUrl(UrlResourceUtil.getUrl(CLASSPATH_RESOURCE, cl));
+		final int lookups = cl.lookups;
+		assertArrayEquals(expected, cache.getBytes(CLASSPATH_RESOURCE, cl));
+		assertEquals(expected.length, cache.getCachedBytes());
+
+		// Served from the cache, without going to the class loader
+		final int cachedLookups = cl.lookups;
+		assertTrue(cachedLookups > lookups);
+		assertArrayEquals(expected, cache.getBytes(CLASSPATH_RESOURCE, cl));
+		assertEquals(cachedLookups, cl.lookups);
+	}
+
+	@Test
+	public void testFileRevalidation () throws IOException {
+		final ResourceContentCache cache = new ResourceContentCache(1024 * 1024, true);
+		final File file = tempFolder.newFile();
+		Files.write(file.toPath(), "first".getBytes("UTF-8"));
+		final FileTime lastModified = FileTime.fromMillis(System.currentTimeMillis() - 60000);
+		Files.setLastModifiedTime(file.toPath(), lastModified);
+
+		final ByteBuffer content = cache.getByteBuffer(file.getAbsolutePath());
+		assertTrue(content.isReadOnly());
+		assertEquals("first", toString(content));
+
+		// Same size and time, the cached content is returned
+		Files.write(file.toPath(), "FIRST".getBytes("UTF-8"));
+		Files.setLastModifiedTime(file.toPath(), lastModified);
+		assertEquals("first", toString(cache.getByteBuffer(file.toURI().toURL().toExternalForm())));
+
+		// A new modification time, so it is read again
+		Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(lastModified.toMillis() + 2000));
+		assertEquals("FIRST", toString(cache.getByteBuffer(file.getAbsolutePath())));
+		assertEquals(5, cache.getCachedBytes());
+
+		// As is a new size
+		Files.write(file.toPath(), "second".getBytes("UTF-8"));
+		Files.setLastModifiedTime(file.toPath(), lastModified);
+		assertEquals("second", toString(cache.getByteBuffer(file.getAbsolutePath())));
+		assertEquals(6, cache.getCachedBytes());
+	}
+
+	@Test
+	public void testWatchedFile () throws IOException, InterruptedException {
+		final ResourceChangeWatcher watcher = new ResourceChangeWatcher(10, TimeUnit.MILLISECONDS);
+		try {
+			final ResourceContentCache cache = new ResourceContentCache(1024 * 1024, false, watcher);
+			final File file = tempFolder.newFile();
+			Files.write(file.toPath(), "first".getBytes("UTF-8"));
+			final FileTime lastModified = FileTime.fromMillis(System.currentTimeMillis() - 60000);
+			Files.setLastModifiedTime(file.toPath(), lastModified);
+
+			assertEquals("first", toString(cache.getByteBuffer(file.getAbsolutePath())));
+			assertEquals(1, watcher.getWatchedDirectoryCount());
+
+			// Same size and time, which revalidation would miss; the watcher drops the cached content
+			Files.write(file.toPath(), "FIRST".getBytes("UTF-8"));
+			Files.setLastModifiedTime(file.toPath(), lastModified);
+			final long deadline = System.currentTimeMillis() + 30000;
+			while (cache.getCachedBytes() > 0 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(20);
+			}
+			assertEquals("FIRST", toString(cache.getByteBuffer(file.getAbsolutePath())));
+
+			cache.invalidateAll();
+			assertEquals(0, watcher.getWatchedDirectoryCount());
+		} finally {
+			watcher.close();
+		}
+	}
+
+	@Test
+	public void testDecompressed () throws IOException {
+		final ResourceContentCache cache = new ResourceContentCache(1024 * 1024);
+		final File file = tempFolder.newFile("fixture.json.gz");
+		final OutputStream gzipStream = new GZIPOutputStream(Files.newOutputStream(file.toPath()));
+		try {
+			gzipStream.write("{\"fixture\": true}".getBytes("UTF-8"));
+		} finally {
+			gzipStream.close();
+		}
+		final long compressedSize = file.length();
+
+		assertEquals("{\"fixture\": true}", toString(cache.getDecompressedByteBuffer(file.getPath())));
+		assertEquals(compressedSize, cache.getByteBuffer(file.getPath()).remaining());
+		assertEquals(17 + compressedSize, cache.getCachedBytes());
+		assertEquals("{\"fixture\": true}", toString(cache.getDecompressedByteBuffer(file.getPath())));
+		assertEquals(17 + compressedSize, cache.getCachedBytes());
+	}
+
+	@Test
+	public void testSizeBound () throws IOException {
+		final ResourceContentCache cache = new ResourceContentCache(10);
+		final File file1 = createFile("123456");
+		final File file2 = createFile("abcdef");
+		final File tooLarge = createFile("0123456789A");
+
+		cache.getBytes(file1.getAbsolutePath(), null);
+		assertEquals(6, cache.getCachedBytes());
+		cache.getBytes(file2.getAbsolutePath(), null);
+		assertEquals(6, cache.getCachedBytes());
+		assertArrayEquals("0123456789A".getBytes("UTF-8"), cache.getBytes(tooLarge.getAbsolutePath(), null));
+		assertEquals(6, cache.getCachedBytes());
+
+		cache.invalidateAll();
+		assertEquals(0, cache.getCachedBytes());
+	}
+
+	@Test(expected = ReadOnlyBufferException.class)
+	public void testBufferIsReadOnly () throws IOException {
+		final ResourceContentCache cache = new ResourceContentCache(1024);
+		cache.getByteBuffer(CLASSPATH_RESOURCE).put((byte) 0);
+	}
+
+	@Test(expected = FileNotFoundException.class)
+	public void testMissingClasspathResource () throws IOException {
+		new ResourceContentCache(1024).getBytes("classpath:/some/missing/resource/file", getClass().getClassLoader());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidSize () {
+		new ResourceContentCache(0);
+	}
+
+	private File createFile (final String content) throws IOException {
+		final File file = tempFolder.newFile();
+		Files.write(file.toPath(), content.getBytes("UTF-8"));
+		return file;
+	}
+
+	private String toString (final ByteBuffer content) throws IOException {
+		final byte[] bytes = new byte[content.remaining()];
+		content.get(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	private byte[] readUrl (final URL url) throws IOException {
+		final InputStream inputStream = url.openStream();
+		try {
+			return IOUtils.toByteArray(inputStream);
+		} finally {
+			inputStream.close();
+		}
+	}
+
+	/**
+	 * Counts the resource lookups.
+	 */
+	private static final class CountingClassLoader extends ClassLoader {
+		private int lookups;
+
+		private CountingClassLoader () {
+			super(ResourceContentCacheTest.class.getClassLoader());
+		}
+
+		@Override
+		public URL getResource (final String name) {
+			lookups++;
+			return super.getResource(name);
+		}
+	}
+}
@@ -0,0 +1,96 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.shared.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+
+/**
+ * Compares the cost of resolving resource locations: creating a URL and falling back to a file on the
+ * <code>MalformedURLException</code> (how {@link UrlResourceUtil#getUrl(String, ClassLoader)} used to resolve paths),
+ * parsing a {@link ResourceLocator} for every resolution, and resolving a locator parsed once.
+ * 
+ * <p>Not a unit test (and not run by the build); run the <code>main</code> method with the test classpath.
+ * 
+ * @author Bindul Bhowmik
+ */
+public final class ResourceLocatorBenchmark {
+
+	private static final int WARMUP_ITERATIONS = 200000;
+	private static final int MEASURED_ITERATIONS = 1000000;
+	private static final String[] LOCATIONS = {"/etc/app/config/application.properties",
+		"relative/dir/messages.properties", "file:/etc/app/config/application.properties",
+		"https://example.com/schemas/config.xsd"};
+
+	private ResourceLocatorBenchmark () {
+		// Run from main
+	}
+
+	/**
+	 * @param args Not used.
+	 * @throws IOException Error resolving a location.
+	 */
+	public static void main (final String[] args) throws IOException {
+		for (String location : LOCATIONS) {
+			System.out.println(location);
+			run("URL, exception fallback", location, new Resolver() {
+				@Override
+				public URL resolve (final String resource) throws IOException {
+					try {
+						return new URL(resource);
+					} catch (MalformedURLException e) {
+						return new File(resource).toURI().toURL();
+					}
+				}
+			});
+			run("Parsed every time", location, new Resolver() {
+				@Override
+				public URL resolve (final String resource) throws IOException {
+					return ResourceLocator.parse(resource).resolve(null);
+				}
+			});
+			final ResourceLocator locator = ResourceLocator.parse(location);
+			run("Parsed once", location, new Resolver() {
+				@Override
+				public URL resolve (final String resource) throws IOException {
+					return locator.resolve(null);
+				}
+			});
+		}
+	}
+
+	private static void run (final String name, final String location, final Resolver resolver) throws IOException {
+		int hash = 0;
+		for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+			hash += resolver.resolve(location).getPath().length();
+		}
+		final long start = System.nanoTime();
+		for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+			hash += resolver.resolve(location).getPath().length();
+		}
+		final double nanosPerResolution = (System.nanoTime() - start) / (double) MEASURED_ITERATIONS;
+		System.out.println(String.format("  %-25s %,10.1f ns/resolution (%d)", name, nanosPerResolution, hash));
+	}
+
+	/**
+	 * A way of resolving a location.
+	 */
+	private interface Resolver {
+		URL resolve (String resource) throws IOException;
+	}
+}
@@ -0,0 +1,112 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.shared.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URL;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Bindul Bhowmik
+ * 
+ */
+public class ResourceLocatorTest {
+
+	private static final String CLASSPATH_RESOURCE = "classpath:/org/deventropy/shared/utils/classpath-url-test.file";
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	@Test
+	public void testClasspathLocation () throws IOException {
+		final ResourceLocator locator = ResourceLocator.parse(CLASSPATH_RESOURCE);
+		assertEquals(ResourceLocator.Kind.CLASSPATH, locator.getKind());
+		assertEquals("/org/deventropy/shared/utils/classpath-url-test.file", locator.getPath());
+		assertFalse(locator.isFile());
+		assertNull(locator.getFile());
+		final ClassLoader cl = getClass().getClassLoader();
+		assertEquals(UrlResourceUtil.getUrl(CLASSPATH_RESOURCE, cl), locator.resolve(cl));
+		assertEquals(locator.resolve(cl), locator.resolve());
+		assertEquals(locator.resolve(cl), ResourceLocator.parse("classpath:org/deventropy/shared/utils/"
+				+ "classpath-url-test.file").find(cl));
+
+		final ResourceLocator missing = ResourceLocator.parse("classpath:/some/missing/resource/file");
+		assertNull(missing.find(cl));
+		try {
+			missing.resolve(cl);
+			fail("The resource does not exist");
+		} catch (FileNotFoundException e) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void testFileLocations () throws IOException {
+		final File file = tempFolder.newFile();
+		final String fileUrl = file.toURI().toURL().toExternalForm();
+
+		final ResourceLocator pathLocator = ResourceLocator.parse(file.getAbsolutePath());
+		assertEquals(ResourceLocator.Kind.FILE, pathLocator.getKind());
+		assertTrue(pathLocator.isFile());
+		assertEquals(file.getAbsolutePath(), pathLocator.getPath());
+		assertEquals(file.toURI().toURL(), pathLocator.resolve(null));
+		assertEquals(UrlResourceUtil.getFileForWrite(file.getAbsolutePath()), pathLocator.getFile());
+
+		final ResourceLocator urlLocator = ResourceLocator.parse(fileUrl);
+		assertEquals(ResourceLocator.Kind.FILE, urlLocator.getKind());
+		assertEquals(new URL(fileUrl), urlLocator.resolve(null));
+		assertEquals(UrlResourceUtil.getFileForWrite(fileUrl), urlLocator.getFile());
+
+		// Drive letters, relative paths with colons and unknown protocols are paths
+		for (String path : new String[] {"C:\\data\\file.txt", "c:/data/file.txt", "dir/name:with:colons",
+			"unknownprotocol://host/file.txt", "1abc:def"}) {
+			final ResourceLocator locator = ResourceLocator.parse(path);
+			assertEquals(path, ResourceLocator.Kind.FILE, locator.getKind());
+			assertEquals(path, new File(path).toURI().toURL(), locator.resolve(null));
+		}
+	}
+
+	@Test
+	public void testUrlLocation () throws IOException {
+		final ResourceLocator locator = ResourceLocator.parse("https://example.com/path/file.ext?query");
+		assertEquals(ResourceLocator.Kind.URL, locator.getKind());
+		assertEquals("/path/file.ext", locator.getPath());
+		assertFalse(locator.isFile());
+		assertEquals(new URL("https://example.com/path/file.ext?query"), locator.resolve(null));
+		assertEquals(UrlResourceUtil.getUrl("https://example.com/path/file.ext?query"), locator.resolve());
+	}
+
+	@Test
+	public void testEquality () throws IOException {
+		assertEquals(ResourceLocator.parse(CLASSPATH_RESOURCE), ResourceLocator.parse(CLASSPATH_RESOURCE));
+		assertEquals(ResourceLocator.parse(CLASSPATH_RESOURCE).hashCode(),
+				ResourceLocator.parse(CLASSPATH_RESOURCE).hashCode());
+		assertFalse(ResourceLocator.parse(CLASSPATH_RESOURCE).equals(ResourceLocator.parse("/some/file")));
+		assertEquals(CLASSPATH_RESOURCE, ResourceLocator.parse(CLASSPATH_RESOURCE).toString());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNullLocation () throws IOException {
+		ResourceLocator.parse(null);
+	}
+}
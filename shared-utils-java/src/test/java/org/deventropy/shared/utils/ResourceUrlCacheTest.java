@@ -0,0 +1,215 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.shared.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URL;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Bindul Bhowmik
+ * 
+ */
+public class ResourceUrlCacheTest {
+
+	private static final String EXISTING_RESOURCE = "classpath:/org/deventropy/shared/utils/classpath-url-test.file";
+	private static final String MISSING_RESOURCE = "classpath:/some/missing/resource/file";
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	@Test
+	public void testCachesFoundResources () throws IOException {
+		final CountingClassLoader cl = new CountingClassLoader();
+		final ResourceUrlCache cache = new ResourceUrlCache(10, 0, TimeUnit.SECONDS);
+
+		final URL url = cache.getUrl(EXISTING_RESOURCE, cl);
+		assertEquals(UrlResourceUtil.getUrl(EXISTING_RESOURCE, getClass().getClassLoader()), url);
+		final int lookups = cl.lookups;
+		assertEquals(url, cache.getUrl(EXISTING_RESOURCE, cl));
+		assertEquals(lookups, cl.lookups);
+
+		// Another class loader has its own results
+		final CountingClassLoader otherCl = new CountingClassLoader();
+		assertEquals(url, cache.getUrl(EXISTING_RESOURCE, otherCl));
+		assertTrue(otherCl.lookups > 0);
+	}
+
+	@Test
+	public void testCachesMissingResources () throws IOException {
+		final CountingClassLoader cl = new CountingClassLoader();
+		final ResourceUrlCache cache = new ResourceUrlCache(10, 0, TimeUnit.SECONDS);
+
+		assertNull(cache.findUrl(MISSING_RESOURCE, cl));
+		final int lookups = cl.lookups;
+		assertNull(cache.findUrl(MISSING_RESOURCE, cl));
+		try {
+			cache.getUrl(MISSING_RESOURCE, cl);
+			fail("The resource does not exist");
+		} catch (FileNotFoundException e) {
+			// Expected
+		}
+		assertEquals(lookups, cl.lookups);
+	}
+
+	@Test
+	public void testExpiry () throws Exception {
+		final CountingClassLoader cl = new CountingClassLoader();
+		final ResourceUrlCache cache = new ResourceUrlCache(10, 20, TimeUnit.MILLISECONDS);
+
+		cache.getUrl(EXISTING_RESOURCE, cl);
+		final int lookups = cl.lookups;
+		Thread.sleep(50);
+		cache.getUrl(EXISTING_RESOURCE, cl);
+		assertTrue(cl.lookups > lookups);
+	}
+
+	@Test
+	public void testEviction () throws IOException {
+		final CountingClassLoader cl = new CountingClassLoader();
+		final ResourceUrlCache cache = new ResourceUrlCache(1, 0, TimeUnit.SECONDS);
+
+		cache.getUrl(EXISTING_RESOURCE, cl);
+		cache.findUrl(MISSING_RESOURCE, cl);
+		final int lookups = cl.lookups;
+		cache.getUrl(EXISTING_RESOURCE, cl);
+		assertTrue(cl.lookups > lookups);
+	}
+
+	@Test
+	public void testInvalidate () throws IOException {
+		final CountingClassLoader cl = new CountingClassLoader();
+		final ResourceUrlCache cache = new ResourceUrlCache(10, 0, TimeUnit.SECONDS);
+
+		cache.getUrl(EXISTING_RESOURCE, cl);
+		int lookups = cl.lookups;
+		cache.invalidate(EXISTING_RESOURCE);
+		cache.getUrl(EXISTING_RESOURCE, cl);
+		assertTrue(cl.lookups > lookups);
+
+		lookups = cl.lookups;
+		cache.invalidateAll();
+		cache.getUrl(EXISTING_RESOURCE, cl);
+		assertTrue(cl.lookups > lookups);
+	}
+
+	@Test
+	public void testInvalidateWhileResolving () throws Exception {
+		final BlockingClassLoader cl = new BlockingClassLoader();
+		final ResourceUrlCache cache = new ResourceUrlCache(10, 0, TimeUnit.SECONDS);
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			final Future<URL> url = executor.submit(new Callable<URL>() {
+				@Override
+				public URL call () throws IOException {
+					return cache.findUrl(MISSING_RESOURCE, cl);
+				}
+			});
+			// The lookup has found nothing, and the resource is invalidated before the result is cached
+			assertTrue(cl.resolving.await(10, TimeUnit.SECONDS));
+			cache.invalidate(MISSING_RESOURCE);
+			cl.proceed.countDown();
+			assertNull(url.get(10, TimeUnit.SECONDS));
+		} finally {
+			executor.shutdown();
+		}
+
+		final int lookups = cl.lookups;
+		assertNull(cache.findUrl(MISSING_RESOURCE, cl));
+		assertTrue("The stale miss must not be cached", cl.lookups > lookups);
+		final int cachedLookups = cl.lookups;
+		assertNull(cache.findUrl(MISSING_RESOURCE, cl));
+		assertEquals(cachedLookups, cl.lookups);
+	}
+
+	@Test
+	public void testClassLoaderCollected () throws Exception {
+		final ResourceUrlCache cache = new ResourceUrlCache(10, 0, TimeUnit.SECONDS);
+		cache.findUrl(MISSING_RESOURCE, new CountingClassLoader());
+		assertEquals(1, cache.getCachedClassLoaderCount());
+
+		for (int i = 0; i < 50 && cache.getCachedClassLoaderCount() > 0; i++) {
+			System.gc();
+			Thread.sleep(20);
+		}
+		assertEquals("The cache must not keep the class loader", 0, cache.getCachedClassLoaderCount());
+	}
+
+	@Test
+	public void testFileResourcesNotCached () throws IOException {
+		final File file = tempFolder.newFile();
+		final ResourceUrlCache cache = new ResourceUrlCache(10, 0, TimeUnit.SECONDS);
+		assertEquals(file.toURI().toURL(), cache.getUrl(file.toURI().toURL().toExternalForm()));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidMaxEntries () {
+		new ResourceUrlCache(0, 0, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Counts the resource lookups.
+	 */
+	private static class CountingClassLoader extends ClassLoader {
+		// Read after the looking up thread is joined
+		protected volatile int lookups;
+
+		private CountingClassLoader () {
+			super(ResourceUrlCacheTest.class.getClassLoader());
+		}
+
+		@Override
+		public URL getResource (final String name) {
+			lookups++;
+			return super.getResource(name);
+		}
+	}
+
+	/**
+	 * Blocks the first resource lookup after it is resolved, until allowed to proceed.
+	 */
+	private static final class BlockingClassLoader extends CountingClassLoader {
+		private final CountDownLatch resolving = new CountDownLatch(1);
+		private final CountDownLatch proceed = new CountDownLatch(1);
+
+		@Override
+		public URL getResource (final String name) {
+			final URL url = super.getResource(name);
+			if (resolving.getCount() > 0) {
+				resolving.countDown();
+				try {
+					proceed.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			return url;
+		}
+	}
+}
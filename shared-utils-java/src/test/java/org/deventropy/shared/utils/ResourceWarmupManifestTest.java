@@ -0,0 +1,183 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.shared.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Bindul Bhowmik
+ * 
+ */
+public class ResourceWarmupManifestTest {
+
+	private static final String CLASSPATH_RESOURCE = "classpath:/org/deventropy/shared/utils/classpath-url-test.file";
+	private static final String MISSING_RESOURCE = "classpath:/some/missing/resource/file";
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	@Test
+	public void testRecording () throws IOException {
+		// The recording is global, and other tests may be resolving resources at the same time: check only for the
+		// resources of this test
+		final ClassLoader cl = getClass().getClassLoader();
+		final File file = tempFolder.newFile();
+		final String missingResource = MISSING_RESOURCE + "-" + file.getName();
+		final File notRecordedFile = tempFolder.newFile();
+		final ResourceWarmupManifest manifest = ResourceWarmupManifest.startRecording();
+		try {
+			UrlResourceUtil.getUrl(CLASSPATH_RESOURCE, cl);
+			UrlResourceUtil.getUrl(file.getPath(), cl);
+			ResourceLocator.parse(CLASSPATH_RESOURCE).resolve(cl);
+			try {
+				UrlResourceUtil.getUrl(missingResource, cl);
+				fail("The resource does not exist");
+			} catch (IOException e) {
+				// Expected, and not recorded
+			}
+		} finally {
+			manifest.stopRecording();
+		}
+		UrlResourceUtil.getUrl(notRecordedFile.getPath(), cl);
+
+		final List<String> resources = manifest.getResources();
+		assertTrue(resources.contains(CLASSPATH_RESOURCE));
+		assertTrue(resources.contains(file.getPath()));
+		assertEquals(resources.size(), new HashSet<>(resources).size());
+		assertFalse(resources.contains(missingResource));
+		assertFalse(resources.contains(notRecordedFile.getPath()));
+	}
+
+	@Test
+	public void testRecordingCachedAndIndexed () throws IOException {
+		final File classpathFolder = tempFolder.newFolder();
+		final String cachedName = "cached-" + classpathFolder.getName() + ".txt";
+		final String indexedName = "indexed-" + classpathFolder.getName() + ".txt";
+		Files.write(new File(classpathFolder, cachedName).toPath(), new byte[] {1});
+		Files.write(new File(classpathFolder, indexedName).toPath(), new byte[] {1});
+		final String cachedResource = UrlResourceUtil.URL_PROTOCOL_CLASSPATH + "/" + cachedName;
+		final String missingResource = MISSING_RESOURCE + "-" + classpathFolder.getName();
+
+		try (final URLClassLoader cl = new URLClassLoader(new URL[] {classpathFolder.toURI().toURL()},
+				getClass().getClassLoader())) {
+			final ResourceUrlCache urlCache = new ResourceUrlCache(10, 0, TimeUnit.SECONDS);
+			final ClasspathResourceIndex index = ClasspathResourceIndex.build(cl, 1);
+			// Resolved before the recording starts, served from the cache while it records
+			assertNotNull(urlCache.findUrl(cachedResource, cl));
+
+			final ResourceWarmupManifest manifest = ResourceWarmupManifest.startRecording();
+			try {
+				assertNotNull(urlCache.getUrl(cachedResource, cl));
+				assertNull(urlCache.findUrl(missingResource, cl));
+				assertNotNull(index.findResource(indexedName));
+			} finally {
+				manifest.stopRecording();
+			}
+
+			final List<String> resources = manifest.getResources();
+			assertTrue(resources.contains(cachedResource));
+			assertTrue("Recorded as a classpath location",
+					resources.contains(UrlResourceUtil.URL_PROTOCOL_CLASSPATH + indexedName));
+			assertFalse(resources.contains(missingResource));
+
+			// And the recorded locations resolve
+			assertNotNull(UrlResourceUtil.getUrl(cachedResource, cl));
+			assertNotNull(UrlResourceUtil.getUrl(UrlResourceUtil.URL_PROTOCOL_CLASSPATH + indexedName, cl));
+		}
+	}
+
+	@Test
+	public void testWarmUpNotRecorded () throws IOException, InterruptedException, ExecutionException,
+			TimeoutException {
+		final File warmedFile = tempFolder.newFile();
+		final File usedFile = tempFolder.newFile();
+		final ResourceWarmupManifest previous = new ResourceWarmupManifest(Arrays.asList(warmedFile.getPath()));
+		final ResourceContentCache cache = new ResourceContentCache(1024 * 1024);
+
+		final ResourceWarmupManifest manifest = ResourceWarmupManifest.startRecording();
+		try {
+			assertEquals(Integer.valueOf(1), previous.warmUp(getClass().getClassLoader(), cache, 1).get(30,
+					TimeUnit.SECONDS));
+			assertEquals(Integer.valueOf(1), previous.warmUp(getClass().getClassLoader(), null, 1).get(30,
+					TimeUnit.SECONDS));
+			UrlResourceUtil.getUrl(usedFile.getPath());
+		} finally {
+			manifest.stopRecording();
+		}
+		assertFalse(manifest.getResources().contains(warmedFile.getPath()));
+		assertTrue(manifest.getResources().contains(usedFile.getPath()));
+	}
+
+	@Test
+	public void testRecordingBound () throws IOException {
+		final ResourceWarmupManifest manifest = ResourceWarmupManifest.startRecording(1);
+		try {
+			UrlResourceUtil.getUrl(tempFolder.newFile().getPath());
+			UrlResourceUtil.getUrl(tempFolder.newFile().getPath());
+		} finally {
+			manifest.stopRecording();
+		}
+		assertEquals(1, manifest.getResources().size());
+	}
+
+	@Test
+	public void testSaveAndLoad () throws IOException {
+		final Path manifestFile = tempFolder.getRoot().toPath().resolve("warmup/resources.manifest");
+		assertTrue(ResourceWarmupManifest.load(manifestFile).getResources().isEmpty());
+
+		new ResourceWarmupManifest(Arrays.asList(CLASSPATH_RESOURCE, MISSING_RESOURCE)).save(manifestFile);
+		assertTrue(Files.readAllLines(manifestFile, StandardCharsets.UTF_8).get(0).startsWith("#"));
+		assertEquals(Arrays.asList(CLASSPATH_RESOURCE, MISSING_RESOURCE),
+				ResourceWarmupManifest.load(manifestFile).getResources());
+	}
+
+	@Test
+	public void testWarmUp () throws IOException, InterruptedException, ExecutionException, TimeoutException {
+		final File file = tempFolder.newFile();
+		Files.write(file.toPath(), "warm".getBytes("UTF-8"));
+		final ResourceWarmupManifest manifest = new ResourceWarmupManifest(Arrays.asList(CLASSPATH_RESOURCE,
+				file.getPath(), MISSING_RESOURCE));
+
+		final ResourceContentCache cache = new ResourceContentCache(1024 * 1024);
+		assertEquals(Integer.valueOf(2), manifest.warmUp(getClass().getClassLoader(), cache, 2).get(30,
+				TimeUnit.SECONDS));
+		final long warmedBytes = cache.getCachedBytes();
+		assertTrue(warmedBytes > 4);
+		cache.getByteBuffer(CLASSPATH_RESOURCE, getClass().getClassLoader());
+		assertEquals(warmedBytes, cache.getCachedBytes());
+
+		assertEquals(Integer.valueOf(2), manifest.warmUp(getClass().getClassLoader(), null, 1).get(30,
+				TimeUnit.SECONDS));
+	}
+}
@@ -17,11 +17,29 @@ package org.deventropy.shared.utils;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
 
 import org.junit.Rule;
 import org.junit.Test;
@@ -115,6 +133,13 @@ public class UrlResourceUtilTest {
 
 		assertTrue(UrlResourceUtil.isFile(urlStr));
 		assertFalse(UrlResourceUtil.isFile("http://google.com/"));
+
+		// Paths are files only if they exist, file: URLs need not exist
+		assertTrue(UrlResourceUtil.isFile(tempFile.getPath()));
+		final File missingFile = new File(tempFolder.getRoot(), "missing.txt");
+		assertFalse(UrlResourceUtil.isFile(missingFile.getPath()));
+		assertTrue(UrlResourceUtil.isFile(missingFile.toURI().toURL().toExternalForm()));
+		assertFalse(UrlResourceUtil.isFile("classpath:/org/deventropy/shared/utils/classpath-url-test.file"));
 	}
 	
 	@Test
@@ -135,6 +160,234 @@ public class UrlResourceUtilTest {
 		assertEquals(tempFile.getPath(), tempFileResolved.getPath());
 	}
 	
+	@Test
+	public void testMapResourceFile () throws IOException {
+		final File tempFile = tempFolder.newFile();
+		Files.write(tempFile.toPath(), "mapped content".getBytes("UTF-8"));
+
+		final ByteBuffer mapped = UrlResourceUtil.mapResource(tempFile.getPath());
+		assertTrue(mapped instanceof MappedByteBuffer);
+		assertTrue(mapped.isReadOnly());
+		assertEquals("mapped content", toString(mapped));
+	}
+
+	@Test
+	public void testMapResourceInJar () throws IOException {
+		final byte[] content = "content of a jar entry, content of a jar entry".getBytes("UTF-8");
+		final File jarFile = tempFolder.newFile("resources.jar");
+		final ZipArchiveOutputStream zipArchiveOutputStream = new ZipArchiveOutputStream(jarFile);
+		try {
+			final ZipArchiveEntry storedEntry = new ZipArchiveEntry("org/example/stored.txt");
+			storedEntry.setMethod(ZipEntry.STORED);
+			zipArchiveOutputStream.putArchiveEntry(storedEntry);
+			zipArchiveOutputStream.write(content);
+			zipArchiveOutputStream.closeArchiveEntry();
+			zipArchiveOutputStream.putArchiveEntry(new ZipArchiveEntry("org/example/deflated.txt"));
+			zipArchiveOutputStream.write(content);
+			zipArchiveOutputStream.closeArchiveEntry();
+		} finally {
+			zipArchiveOutputStream.close();
+		}
+
+		final URLClassLoader cl = new URLClassLoader(new URL[] {jarFile.toURI().toURL()}, null);
+		try {
+			final ByteBuffer stored = UrlResourceUtil.mapResource("classpath:/org/example/stored.txt", cl);
+			assertTrue(stored instanceof MappedByteBuffer);
+			assertTrue(stored.isReadOnly());
+			assertEquals(new String(content, "UTF-8"), toString(stored));
+
+			final ByteBuffer deflated = UrlResourceUtil.mapResource("classpath:/org/example/deflated.txt", cl);
+			assertTrue(deflated.isReadOnly());
+			assertEquals(new String(content, "UTF-8"), toString(deflated));
+		} finally {
+			cl.close();
+		}
+	}
+
+	@Test
+	public void testExists () throws IOException {
+		final ClassLoader cl = getClass().getClassLoader();
+		assertTrue(UrlResourceUtil.exists("classpath:/org/deventropy/shared/utils/classpath-url-test.file", cl));
+		assertFalse(UrlResourceUtil.exists("classpath:/some/missing/resource/file", cl));
+
+		final File tempFile = tempFolder.newFile();
+		assertTrue(UrlResourceUtil.exists(tempFile.getPath(), cl));
+		assertTrue(UrlResourceUtil.exists(tempFile.toURI().toURL().toExternalForm(), cl));
+		assertTrue(tempFile.delete());
+		assertFalse(UrlResourceUtil.exists(tempFile.getPath()));
+
+		MemoryResourceHandler.putResource("mem:/exists/test.txt", new byte[] {1});
+		try {
+			assertTrue(UrlResourceUtil.exists("mem:/exists/test.txt"));
+		} finally {
+			MemoryResourceHandler.removeResource("mem:/exists/test.txt");
+		}
+		assertFalse(UrlResourceUtil.exists("mem:/exists/test.txt"));
+	}
+
+	@Test
+	public void testOpenChannel () throws IOException {
+		final File tempFile = tempFolder.newFile();
+		Files.write(tempFile.toPath(), "channel content".getBytes("UTF-8"));
+		final ReadableByteChannel channel = UrlResourceUtil.openChannel(tempFile.getPath());
+		try {
+			final ByteBuffer buffer = ByteBuffer.allocate(64);
+			while (channel.read(buffer) != -1) {
+				// Read to the end
+			}
+			buffer.flip();
+			assertEquals("channel content", toString(buffer));
+		} finally {
+			channel.close();
+		}
+	}
+
+	@Test(expected = FileNotFoundException.class)
+	public void testOpenChannelMissingResource () throws IOException {
+		UrlResourceUtil.openChannel("classpath:/some/missing/resource/file");
+	}
+
+	@Test
+	public void testTransferToFile () throws IOException {
+		final byte[] content = new byte[200 * 1024];
+		for (int i = 0; i < content.length; i++) {
+			content[i] = (byte) i;
+		}
+		final File source = tempFolder.newFile();
+		Files.write(source.toPath(), content);
+		final File target = tempFolder.newFile();
+
+		final ReadableByteChannel sourceChannel = UrlResourceUtil.openChannel(source.getPath());
+		try {
+			assertTrue(sourceChannel instanceof FileChannel);
+		} finally {
+			sourceChannel.close();
+		}
+		final FileChannel targetChannel = FileChannel.open(target.toPath(), StandardOpenOption.WRITE);
+		try {
+			assertEquals(content.length, UrlResourceUtil.transferTo(source.toURI().toURL().toExternalForm(),
+					targetChannel));
+		} finally {
+			targetChannel.close();
+		}
+		assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+	}
+
+	@Test
+	public void testTransferToAndSeekableChannelInJar () throws IOException {
+		final byte[] content = new byte[150 * 1024];
+		for (int i = 0; i < content.length; i++) {
+			content[i] = (byte) (i % 31);
+		}
+		final File jarFile = tempFolder.newFile("transfer.jar");
+		final ZipArchiveOutputStream zipArchiveOutputStream = new ZipArchiveOutputStream(jarFile);
+		try {
+			zipArchiveOutputStream.putArchiveEntry(new ZipArchiveEntry("org/example/deflated.bin"));
+			zipArchiveOutputStream.write(content);
+			zipArchiveOutputStream.closeArchiveEntry();
+		} finally {
+			zipArchiveOutputStream.close();
+		}
+
+		final URLClassLoader cl = new URLClassLoader(new URL[] {jarFile.toURI().toURL()}, null);
+		try {
+			final ByteArrayOutputStream target = new ByteArrayOutputStream();
+			assertEquals(content.length, UrlResourceUtil.transferTo("classpath:/org/example/deflated.bin", cl,
+					Channels.newChannel(target)));
+			assertArrayEquals(content, target.toByteArray());
+
+			final SeekableByteChannel channel = UrlResourceUtil.openSeekableChannel(
+					"classpath:/org/example/deflated.bin", cl);
+			try {
+				assertEquals(content.length, channel.size());
+				channel.position(100 * 1024 + 1);
+				final ByteBuffer buffer = ByteBuffer.allocate(4);
+				assertEquals(4, channel.read(buffer));
+				assertEquals(content[100 * 1024 + 1], buffer.get(0));
+				assertEquals(content[100 * 1024 + 4], buffer.get(3));
+				assertEquals(100 * 1024 + 5, channel.position());
+				channel.position(content.length + 10);
+				assertEquals(-1, channel.read(buffer));
+			} finally {
+				channel.close();
+			}
+			assertFalse(channel.isOpen());
+		} finally {
+			cl.close();
+		}
+	}
+
+	@Test
+	public void testOpenSeekableChannelFile () throws IOException {
+		final File tempFile = tempFolder.newFile();
+		Files.write(tempFile.toPath(), "seekable content".getBytes("UTF-8"));
+		final SeekableByteChannel channel = UrlResourceUtil.openSeekableChannel(tempFile.getPath());
+		try {
+			assertTrue(channel instanceof FileChannel);
+			channel.position(9);
+			final ByteBuffer buffer = ByteBuffer.allocate(16);
+			channel.read(buffer);
+			buffer.flip();
+			assertEquals("content", toString(buffer));
+		} finally {
+			channel.close();
+		}
+	}
+
+	@Test
+	public void testOpenDecompressedStream () throws IOException {
+		final byte[] content = "a lookup table, a lookup table, a lookup table".getBytes("UTF-8");
+		final File gzipFile = tempFolder.newFile("table.txt.gz");
+		final OutputStream gzipStream = new GZIPOutputStream(Files.newOutputStream(gzipFile.toPath()));
+		try {
+			gzipStream.write(content);
+		} finally {
+			gzipStream.close();
+		}
+		final File bzip2File = tempFolder.newFile("table.txt.bz2");
+		final OutputStream bzip2Stream = new BZip2CompressorOutputStream(Files.newOutputStream(bzip2File.toPath()));
+		try {
+			bzip2Stream.write(content);
+		} finally {
+			bzip2Stream.close();
+		}
+		final File gzipNoExtension = tempFolder.newFile("table.bin");
+		Files.copy(gzipFile.toPath(), gzipNoExtension.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		final File plainFile = tempFolder.newFile("table.txt");
+		Files.write(plainFile.toPath(), content);
+
+		for (File file : new File[] {gzipFile, bzip2File, gzipNoExtension, plainFile}) {
+			assertArrayEquals(file.getName(), content,
+					UrlResourceUtil.readFully(UrlResourceUtil.openDecompressedStream(file.getPath())));
+		}
+
+		final ReadableByteChannel channel = UrlResourceUtil.openDecompressedChannel(gzipFile.toURI().toURL()
+				.toExternalForm());
+		try {
+			final ByteBuffer buffer = ByteBuffer.allocate(content.length + 1);
+			while (channel.read(buffer) != -1) {
+				// Read to the end
+			}
+			buffer.flip();
+			assertEquals(new String(content, "UTF-8"), toString(buffer));
+		} finally {
+			channel.close();
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testOpenDecompressedStreamUnsupported () throws IOException {
+		final File zstdFile = tempFolder.newFile("table.txt.zst");
+		Files.write(zstdFile.toPath(), new byte[] {(byte) 0x28, (byte) 0xb5, (byte) 0x2f, (byte) 0xfd, 0, 0});
+		UrlResourceUtil.openDecompressedStream(zstdFile.getPath()).close();
+	}
+
+	private String toString (final ByteBuffer content) throws IOException {
+		final byte[] bytes = new byte[content.remaining()];
+		content.get(bytes);
+		return new String(bytes, "UTF-8");
+	}
+	
 	@Test(expected = IOException.class)
 	public void testGetFileForWriteNonExistantFile () throws IOException {
 		UrlResourceUtil.getFileForWrite("/file/does/not/exist");
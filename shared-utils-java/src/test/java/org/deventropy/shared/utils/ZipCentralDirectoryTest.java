@@ -0,0 +1,255 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.shared.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.compress.archivers.zip.Zip64Mode;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Bindul Bhowmik
+ * 
+ */
+public class ZipCentralDirectoryTest {
+
+	private static final int LOCAL_FILE_HEADER_SIGNATURE = 0x04034b50;
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	private final Random random = new Random();
+
+	@Test
+	public void testListEntries () throws IOException {
+		final File rootFolder = tempFolder.newFolder();
+		Files.createDirectories(rootFolder.toPath().resolve("dir/sub"));
+		writeRandomFile(rootFolder.toPath().resolve("dir/file.bin"), 10000);
+		Files.write(rootFolder.toPath().resolve("dir/sub/text.txt"), "text text text text".getBytes("UTF-8"));
+		final File zipFile = tempFolder.newFile("archive.zip");
+		DirectoryArchiverUtil.createZipArchiveOfDirectory(zipFile.getAbsolutePath(), rootFolder, "prefix");
+
+		final ZipFile expected = new ZipFile(zipFile);
+		final ZipCentralDirectory centralDirectory = ZipCentralDirectory.open(zipFile.toPath());
+		try {
+			assertEquals(expected.size(), centralDirectory.getEntryCount());
+			final ZipCentralDirectory.Cursor cursor = centralDirectory.newCursor();
+			final Enumeration<? extends ZipEntry> expectedEntries = expected.entries();
+			while (expectedEntries.hasMoreElements()) {
+				final ZipEntry expectedEntry = expectedEntries.nextElement();
+				assertTrue(cursor.next());
+				assertEquals(expectedEntry.getName(), cursor.getName());
+				assertEquals(expectedEntry.isDirectory(), cursor.isDirectory());
+				assertEquals(expectedEntry.getSize(), cursor.getSize());
+				assertEquals(expectedEntry.getCompressedSize(), cursor.getCompressedSize());
+				assertEquals(expectedEntry.getCrc(), cursor.getCrc());
+				assertEquals(expectedEntry.getMethod(), cursor.getMethod());
+				assertEquals(LOCAL_FILE_HEADER_SIGNATURE, readLocalHeaderSignature(zipFile, cursor));
+			}
+			assertFalse(cursor.next());
+			assertFalse(cursor.next());
+
+			final ZipCentralDirectory.Cursor found = centralDirectory.findEntry("prefix/dir/sub/text.txt");
+			assertNotNull(found);
+			assertEquals(19, found.getSize());
+			final byte[] name = new byte[found.getNameLength()];
+			assertEquals(name.length, found.copyName(name));
+			assertEquals("prefix/dir/sub/text.txt", new String(name, "UTF-8"));
+			assertNull(centralDirectory.findEntry("prefix/dir/missing.txt"));
+		} finally {
+			centralDirectory.close();
+			expected.close();
+		}
+	}
+
+	@Test
+	public void testZip64Entries () throws IOException {
+		final File zipFile = tempFolder.newFile("archive64.zip");
+		final ZipArchiveOutputStream zipArchiveOutputStream = new ZipArchiveOutputStream(zipFile);
+		try {
+			zipArchiveOutputStream.setUseZip64(Zip64Mode.Always);
+			for (int i = 0; i < 3; i++) {
+				zipArchiveOutputStream.putArchiveEntry(new ZipArchiveEntry("entry" + i + ".bin"));
+				final byte[] data = new byte[1000 * (i + 1)];
+				random.nextBytes(data);
+				zipArchiveOutputStream.write(data);
+				zipArchiveOutputStream.closeArchiveEntry();
+			}
+		} finally {
+			zipArchiveOutputStream.close();
+		}
+
+		final ZipCentralDirectory centralDirectory = ZipCentralDirectory.open(zipFile.toPath());
+		try {
+			assertEquals(3, centralDirectory.getEntryCount());
+			final ZipCentralDirectory.Cursor cursor = centralDirectory.newCursor();
+			for (int i = 0; i < 3; i++) {
+				assertTrue(cursor.next());
+				assertEquals("entry" + i + ".bin", cursor.getName());
+				assertEquals(1000 * (i + 1), cursor.getSize());
+				assertTrue(cursor.getCompressedSize() > 0);
+				assertEquals(LOCAL_FILE_HEADER_SIGNATURE, readLocalHeaderSignature(zipFile, cursor));
+			}
+			assertFalse(cursor.next());
+		} finally {
+			centralDirectory.close();
+		}
+	}
+
+	@Test
+	public void testManyEntries () throws IOException {
+		// More entries than fit the count in the end of central directory record
+		final int entryCount = 70000;
+		final File zipFile = tempFolder.newFile("many.zip");
+		final ZipArchiveOutputStream zipArchiveOutputStream = new ZipArchiveOutputStream(zipFile);
+		try {
+			for (int i = 0; i < entryCount; i++) {
+				zipArchiveOutputStream.putArchiveEntry(new ZipArchiveEntry("d/" + i + "/"));
+				zipArchiveOutputStream.closeArchiveEntry();
+			}
+		} finally {
+			zipArchiveOutputStream.close();
+		}
+
+		final ZipCentralDirectory centralDirectory = ZipCentralDirectory.open(zipFile.toPath());
+		try {
+			assertEquals(entryCount, centralDirectory.getEntryCount());
+			final ZipCentralDirectory.Cursor cursor = centralDirectory.newCursor();
+			int count = 0;
+			while (cursor.next()) {
+				assertTrue(cursor.isDirectory());
+				count++;
+			}
+			assertEquals(entryCount, count);
+		} finally {
+			centralDirectory.close();
+		}
+	}
+
+	@Test
+	public void testArchiveComment () throws IOException {
+		final File zipFile = tempFolder.newFile("comment.zip");
+		final ZipArchiveOutputStream zipArchiveOutputStream = new ZipArchiveOutputStream(zipFile);
+		try {
+			zipArchiveOutputStream.setComment("A comment, with a fake record PK\u0005\u0006 in it");
+			zipArchiveOutputStream.putArchiveEntry(new ZipArchiveEntry("file.txt"));
+			zipArchiveOutputStream.write(new byte[] {1, 2, 3});
+			zipArchiveOutputStream.closeArchiveEntry();
+		} finally {
+			zipArchiveOutputStream.close();
+		}
+
+		final ZipCentralDirectory centralDirectory = ZipCentralDirectory.open(zipFile.toPath());
+		try {
+			assertEquals(1, centralDirectory.getEntryCount());
+			assertEquals(3, centralDirectory.findEntry("file.txt").getSize());
+		} finally {
+			centralDirectory.close();
+		}
+	}
+
+	@Test
+	public void testMapStoredEntry () throws IOException {
+		final byte[] stored = new byte[5000];
+		random.nextBytes(stored);
+		final File zipFile = tempFolder.newFile("stored.zip");
+		final ZipArchiveOutputStream zipArchiveOutputStream = new ZipArchiveOutputStream(zipFile);
+		try {
+			final ZipArchiveEntry storedEntry = new ZipArchiveEntry("stored.bin");
+			storedEntry.setMethod(ZipEntry.STORED);
+			zipArchiveOutputStream.putArchiveEntry(storedEntry);
+			zipArchiveOutputStream.write(stored);
+			zipArchiveOutputStream.closeArchiveEntry();
+			zipArchiveOutputStream.putArchiveEntry(new ZipArchiveEntry("deflated.bin"));
+			zipArchiveOutputStream.write(stored);
+			zipArchiveOutputStream.closeArchiveEntry();
+		} finally {
+			zipArchiveOutputStream.close();
+		}
+
+		final ZipCentralDirectory centralDirectory = ZipCentralDirectory.open(zipFile.toPath());
+		try {
+			final ByteBuffer mapped = centralDirectory.mapStoredEntry(centralDirectory.findEntry("stored.bin"));
+			assertTrue(mapped.isReadOnly());
+			final byte[] content = new byte[mapped.remaining()];
+			mapped.get(content);
+			assertArrayEquals(stored, content);
+			try {
+				centralDirectory.mapStoredEntry(centralDirectory.findEntry("deflated.bin"));
+				fail("The entry is compressed");
+			} catch (ZipException e) {
+				// Expected
+			}
+		} finally {
+			centralDirectory.close();
+		}
+	}
+
+	@Test(expected = ZipException.class)
+	public void testNotAZipFile () throws IOException {
+		final Path file = tempFolder.newFile().toPath();
+		writeRandomFile(file, 1000);
+		ZipCentralDirectory.open(file);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testCursorBeforeFirstEntry () throws IOException {
+		final File rootFolder = tempFolder.newFolder();
+		writeRandomFile(rootFolder.toPath().resolve("file.bin"), 10);
+		final File zipFile = tempFolder.newFile("archive.zip");
+		DirectoryArchiverUtil.createZipArchiveOfDirectory(zipFile.getAbsolutePath(), rootFolder, null);
+
+		final ZipCentralDirectory centralDirectory = ZipCentralDirectory.open(zipFile.toPath());
+		try {
+			centralDirectory.newCursor().getSize();
+		} finally {
+			centralDirectory.close();
+		}
+	}
+
+	private void writeRandomFile (final Path file, final int size) throws IOException {
+		final byte[] data = new byte[size];
+		random.nextBytes(data);
+		Files.write(file, data);
+	}
+
+	private int readLocalHeaderSignature (final File zipFile, final ZipCentralDirectory.Cursor cursor)
+			throws IOException {
+		final RandomAccessFile randomAccessFile = new RandomAccessFile(zipFile, "r");
+		try {
+			randomAccessFile.seek(cursor.getLocalHeaderOffset());
+			return Integer.reverseBytes(randomAccessFile.readInt());
+		} finally {
+			randomAccessFile.close();
+		}
+	}
+}